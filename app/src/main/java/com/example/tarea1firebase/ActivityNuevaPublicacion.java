@@ -1,10 +1,8 @@
 package com.example.tarea1firebase;
 
-import android.content.ContentResolver;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.webkit.MimeTypeMap;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
@@ -13,19 +11,17 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.tarea1firebase.entidades.ConversorFechas;
 import com.example.tarea1firebase.entidades.Publicacion;
 import com.example.tarea1firebase.fragments.MuroFragment;
 import com.example.tarea1firebase.gestor.GestorFirestore;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
+import com.example.tarea1firebase.gestor.GestorSubidas;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 import java.text.SimpleDateFormat;
 import java.time.Instant;
-import java.util.Calendar;
 import java.util.Date;
 
 /**
@@ -40,6 +36,7 @@ public class ActivityNuevaPublicacion extends AppCompatActivity {
     private FirebaseAuth mAuth;
     private StorageReference mStorageRef;
     private String usuarioActualUid;
+    private String idSubida;
 
     /**
      * Método que se ejecuta al crear la actividad.
@@ -88,64 +85,50 @@ public class ActivityNuevaPublicacion extends AppCompatActivity {
             /*
              * Obtiene la fecha y hora actual en el formato especificado
              * */
-            String fechaYHora = new SimpleDateFormat("MM/dd/HH:mm").format(Calendar.getInstance().getTime());
+            long marcaTiempo = System.currentTimeMillis();
+            String fechaYHora = new SimpleDateFormat(ConversorFechas.FORMATO_PUBLICACION).format(new Date(marcaTiempo));
 
             //Si la publicación es con imagen
             if (imageUri != null) {
+                Publicacion publicacion = new Publicacion(usuarioActualUid, etTexto.getText().toString(), fechaYHora, "");
+                publicacion.setMarcaTiempo(marcaTiempo);
                 /*
-                 * Crea una referencia al archivo en Firebase Storage con un nombre único
+                 * Añade la imagen a la cola de subidas con un nombre único. La cola genera sus variantes reducidas,
+                 * las sube aunque se cierre la actividad y, al terminar, guarda la publicación en la colección
+                 * de publicaciones y en los muros de sus seguidores
                  * */
-                StorageReference fileReference = mStorageRef.child(System.currentTimeMillis()
-                        + "." + getFileExtension(imageUri));
-                fileReference.putFile(imageUri)
-                        .addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
+                btnSubir.setEnabled(false);
+                idSubida = GestorSubidas.getInstance(this).encolarPublicacion(publicacion, imageUri,
+                        "uploads/" + System.currentTimeMillis(), new GestorSubidas.Oyente() {
+                            @Override
+                            public void onProgreso(String id, int porcentaje) {
+                                btnSubir.setText(porcentaje + "%");
+                            }
+
                             /**
-                             * Método que se ejecuta cuando la tarea de carga de la imagen es exitosa.
+                             * Método que se ejecuta cuando la imagen se ha subido y la publicación se ha guardado.
                              *
-                             * @param taskSnapshot El resultado de la tarea de carga de la imagen.
+                             * @param id  El id de la subida.
+                             * @param url La URL de descarga de la imagen subida.
                              */
                             @Override
-                            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
+                            public void onTerminada(String id, String url) {
                                 /*
-                                 * Obtiene la URL de descarga de la imagen subida
+                                 * Muestra un mensaje de "Publicado"
                                  * */
-                                Task<Uri> uriImagenPerfil = taskSnapshot.getStorage().getDownloadUrl();
-                                uriImagenPerfil.addOnSuccessListener(new OnSuccessListener<Uri>() {
-                                    /**
-                                     * Método que se ejecuta cuando se obtiene exitosamente la URL de descarga de la imagen.
-                                     *
-                                     * @param uri La URL de descarga de la imagen subida.
-                                     */
-                                    @Override
-                                    public void onSuccess(Uri uri) {
-                                        /*
-                                         * Crea una nueva instancia de Publicacion con los datos proporcionados
-                                         * */
-                                        Publicacion publicacion = new Publicacion(usuarioActualUid, etTexto.getText().toString(), fechaYHora, uri.toString());
-                                        /*
-                                         * Agrega la publicación al array "listaPublicaciones" del usuario en Firestore
-                                         * */
-                                        gestorFirestore.anadirValorArray(usuarioActualUid, "listaPublicaciones", publicacion, new GestorFirestore.Callback<String>() {
-                                            /**
-                                             * Método de callback invocado cuando se completa con éxito la operación.
-                                             *
-                                             * @param result El resultado de la operación.
-                                             */
-                                            @Override
-                                            public void onSuccess(String result) {
-                                                /*
-                                                 * Muestra un mensaje de "Publicado"
-                                                 * */
-                                                Toast.makeText(ActivityNuevaPublicacion.this, "Publicado", Toast.LENGTH_SHORT).show();
-                                                setResult(1);
-                                                /*
-                                                 * Finaliza la actividad
-                                                 * */
-                                                finish();
-                                            }
-                                        });
-                                    }
-                                });
+                                Toast.makeText(ActivityNuevaPublicacion.this, "Publicado", Toast.LENGTH_SHORT).show();
+                                setResult(1);
+                                /*
+                                 * Finaliza la actividad
+                                 * */
+                                finish();
+                            }
+
+                            @Override
+                            public void onError(String id, String mensaje) {
+                                Toast.makeText(ActivityNuevaPublicacion.this, "No se ha podido publicar: " + mensaje, Toast.LENGTH_SHORT).show();
+                                btnSubir.setEnabled(true);
+                                btnSubir.setText("Publicar");
                             }
                         });
             }
@@ -157,13 +140,14 @@ public class ActivityNuevaPublicacion extends AppCompatActivity {
                  */
                 Publicacion publicacion = null;
                 publicacion = new Publicacion(usuarioActualUid, etTexto.getText().toString(), fechaYHora, "");
+                publicacion.setMarcaTiempo(marcaTiempo);
                 /*
-                 * Agrega la publicación al array "listaPublicaciones" del usuario en Firestore
-                 * utilizando el método anadirValorArray() del gestorFirestore.
+                 * Guarda la publicación en la colección de publicaciones de Firestore y la reparte en los
+                 * muros de sus seguidores utilizando el método guardarPublicacion() del gestorFirestore.
                  * Se proporciona un nuevo objeto de tipo GestorFirestore.Callback<String>() como argumento,
                  * que implementa el método onSuccess() del callback.
                  * */
-                gestorFirestore.anadirValorArray(usuarioActualUid, "listaPublicaciones", publicacion, new GestorFirestore.Callback<String>() {
+                gestorFirestore.guardarPublicacion(usuarioActualUid, publicacion, new GestorFirestore.Callback<String>() {
                     /**
                      * Método de callback que se ejecuta cuando se completa exitosamente la operación en Firestore.
                      * Muestra un mensaje de "Publicado" utilizando un Toast y finaliza la actividad actual.
@@ -224,14 +208,14 @@ public class ActivityNuevaPublicacion extends AppCompatActivity {
     }
 
     /**
-     * Obtiene la extensión del archivo a partir de su URI.
-     *
-     * @param uri La URI del archivo.
-     * @return La extensión del archivo.
+     * Método que se ejecuta al destruir la actividad. Si hay una imagen subiéndose, la subida sigue en la cola pero
+     * deja de avisar a esta actividad.
      */
-    private String getFileExtension(Uri uri) {
-        ContentResolver cR = getContentResolver();
-        MimeTypeMap mime = MimeTypeMap.getSingleton();
-        return mime.getExtensionFromMimeType(cR.getType(uri));
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (idSubida != null) {
+            GestorSubidas.getInstance(this).quitarOyente(idSubida);
+        }
     }
 }
\ No newline at end of file
@@ -17,25 +17,26 @@ import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
 import com.example.tarea1firebase.adaptadores.AdaptadorMensajesChat;
-import com.example.tarea1firebase.entidades.Chat;
+import com.example.tarea1firebase.entidades.ConversorFechas;
 import com.example.tarea1firebase.entidades.Mensaje;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
+import com.example.tarea1firebase.gestor.AlmacenMensajesLocal;
+import com.example.tarea1firebase.gestor.GestorBandejaEntrada;
 import com.example.tarea1firebase.gestor.GestorFirestore;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
+import com.example.tarea1firebase.gestor.RegistroSuscripciones;
+import com.example.tarea1firebase.gestor.SincronizadorMensajes;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
 
-import java.text.SimpleDateFormat;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.TimeZone;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ChatVentana extends AppCompatActivity {
+    private static final int MARGEN_CARGA_PAGINA = 5;
     private Button btnEnviarMensaje;
     private EditText etMensaje;
     FirebaseDatabase database = FirebaseDatabase.getInstance();
@@ -45,13 +46,13 @@ public class ChatVentana extends AppCompatActivity {
     private String idChat;
     private ArrayList<Mensaje> listaMensajes;
     private String usuarioActualUid, usuario2Uid;
-    private Usuario otroUsuarioReceptor;
+    private UsuarioResumen otroUsuarioReceptor;
     private TextView lblNombreContacto;
     private ImageView fotoPerfil;
     private ImageButton btnVolverAtras;
-    private Chat chat;
     private GestorFirestore gestorFirebase;
     private RelativeLayout layoutFotoYNombre;
+    private SincronizadorMensajes sincronizadorMensajes;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -99,9 +100,9 @@ public class ChatVentana extends AppCompatActivity {
         recyclerMensajes.setHasFixedSize(true);
 
         recyclerMensajes.setLayoutManager(new LinearLayoutManager(this));
-        ArrayList<Mensaje> arrayPrueba = new ArrayList<>();
+        listaMensajes = new ArrayList<>();
 
-        adaptadorCanciones = new AdaptadorMensajesChat(arrayPrueba);
+        adaptadorCanciones = new AdaptadorMensajesChat(listaMensajes);
         recyclerMensajes.setAdapter(adaptadorCanciones);
 
         btnEnviarMensaje = findViewById(R.id.btnEnviarMensaje);
@@ -155,9 +156,9 @@ public class ChatVentana extends AppCompatActivity {
             }
         });
 
-        gestorFirebase.obtenerUsuarioPorId(usuario2Uid, new GestorFirestore.Callback<Usuario>() {
+        gestorFirebase.obtenerResumenUsuario(usuario2Uid, new GestorFirestore.Callback<UsuarioResumen>() {
             @Override
-            public void onSuccess(Usuario result) {
+            public void onSuccess(UsuarioResumen result) {
                 otroUsuarioReceptor = result;
                 /**Establece la foto de perfil y el nombre del otro usuario*/
                 lblNombreContacto.setText(otroUsuarioReceptor.getNombre());
@@ -167,123 +168,122 @@ public class ChatVentana extends AppCompatActivity {
                 }
 
             }
-        }, Usuario.class);
+        });
     }
 
 
     /**
-     * Crea el chat si no ha encontrado uno existente con la clave compuesta de id de usuarios.
+     * Envía el mensaje escrito y, si el chat puede ser nuevo, lo crea en la misma actualización. El ID del chat se
+     * calcula a partir de los dos usuarios, así que no hace falta consultar si ya existe (lo que sin conexión no
+     * terminaría nunca): si todavía no hay mensajes en pantalla se escriben también los datos del chat, que son
+     * siempre los mismos, y se añade a los chats recientes de los dos usuarios (arrayUnion no lo repite).
      *
      * @param usuario1Uid id de usuario1
      * @param usuario2Uid id de usuario 2
      */
     private void crearChat(String usuario1Uid, String usuario2Uid) {
-        // Verifica si el chat ya existe antes de crear uno nuevo
-        chatsRef.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                if (snapshot.exists()) {
-                    //Existe
-                    chat = snapshot.getValue(Chat.class);
-                } else {
-                    //No existe
-                    chat = new Chat(new ArrayList<>(), usuario1Uid, usuario2Uid, "", idChat);
-                    chatsRef.setValue(chat);
-
-                    /**
-                     * Añade el nuevo chat al array de chats recientes de ambos usuarios
-                     */
-                    gestorFirebase.anadirValorArray(usuario1Uid, "chatsRecientes", idChat, new GestorFirestore.Callback<String>() {
-                        @Override
-                        public void onSuccess(String result) {
-
-                        }
-                    });
-                    gestorFirebase.anadirValorArray(usuario2Uid, "chatsRecientes", idChat, new GestorFirestore.Callback<String>() {
-                        @Override
-                        public void onSuccess(String result) {
-
-                        }
-                    });
+        String texto = etMensaje.getText().toString();
+        etMensaje.setText("");
+        boolean puedeSerNuevo = listaMensajes.isEmpty();
+        if (puedeSerNuevo) {
+            /**
+             * Añade el chat al array de chats recientes de ambos usuarios
+             */
+            gestorFirebase.anadirValorArray(usuario1Uid, "chatsRecientes", idChat, new GestorFirestore.Callback<String>() {
+                @Override
+                public void onSuccess(String result) {
+
                 }
-                enviarMensaje(chatsRef.getKey(), usuario1Uid, etMensaje.getText().toString());
-                etMensaje.setText("");
-            }
+            });
+            gestorFirebase.anadirValorArray(usuario2Uid, "chatsRecientes", idChat, new GestorFirestore.Callback<String>() {
+                @Override
+                public void onSuccess(String result) {
 
-            @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                // Maneja el error
-            }
-        });
+                }
+            });
+        }
+        enviarMensaje(chatsRef.getKey(), usuario1Uid, usuario2Uid, texto, puedeSerNuevo);
     }
 
     /**
      * Envía un mensaje al otro usuario, y lo sube a la base de datos de tiempo real.
+     * Solo se sube el mensaje nuevo bajo una clave generada con push, junto con la fecha del último mensaje,
+     * en una única actualización atómica. Así el tamaño de la subida no depende de la longitud del chat y dos
+     * mensajes enviados a la vez desde distintos dispositivos no se pisan. El mensaje se guarda en local hasta que
+     * el servidor lo confirma.
      *
      * @param chatId    clave compuesta del chat
      * @param remitente usuario que envía el mensaje
+     * @param receptor  usuario que recibe el mensaje
      * @param texto     cuerpo del mensaje
+     * @param chatNuevo true si el chat puede no existir y hay que escribir también sus datos
      */
-    private void enviarMensaje(String chatId, String remitente, String texto) {
-        //Obtenemos la fecha y hora del mensaje
-        Date date = null;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-            date = Date.from(Instant.now());
-        }
-        SimpleDateFormat formatter = new SimpleDateFormat("dd/MM HH:mm");
-        formatter.setTimeZone(TimeZone.getTimeZone("Europe/Madrid"));
-        String strDate = formatter.format(date);
+    private void enviarMensaje(String chatId, String remitente, String receptor, String texto, boolean chatNuevo) {
+        //Obtenemos la fecha y hora del mensaje. El texto se mantiene para mostrarlo y la marca de tiempo sirve para ordenar
+        long marcaTiempo = System.currentTimeMillis();
+        String strDate = ConversorFechas.formatear(marcaTiempo, ConversorFechas.FORMATO_MENSAJE, ConversorFechas.ZONA_MENSAJES);
 
         //Creamos el objeto Mensaje
         Mensaje msj = new Mensaje(remitente, texto, strDate);
+        msj.setMarcaTiempo(marcaTiempo);
+
+        //Datos del chat que se escriben junto con el mensaje si el chat puede ser nuevo. Los usuarios van en el mismo
+        //orden que en el ID, así que volver a escribirlos en un chat que ya existe no cambia nada
+        Map<String, Object> datosChat = null;
+        if (chatNuevo) {
+            datosChat = new HashMap<>();
+            datosChat.put("chatId", chatId);
+            datosChat.put("usuario1", remitente.compareTo(receptor) < 0 ? remitente : receptor);
+            datosChat.put("usuario2", remitente.compareTo(receptor) < 0 ? receptor : remitente);
+        }
 
-
-        //Añadimos el mensaje al objeto de chat que lo contiene
-        chat.anadirMensaje(msj);
-        //Seteamos la fecha del último mensaje enviado en el chat, con la fecha del mensaje recién enviado
-        chat.setFechaUltimoMsj(msj.getFechaYHora());
-
-        //Hacemos el push a la base de datos
-        chatsRef.setValue(chat);
+        //Hacemos la actualización multi-ruta en la base de datos. Si no hay conexión queda pendiente y se reintenta al reconectar
+        sincronizadorMensajes.enviarMensaje(msj, datosChat);
     }
 
     /**
-     * Obtiene todos los mensajes existentes del chat y los añade al recyclerview
+     * Empieza a sincronizar los mensajes del chat con el recyclerview. Primero se pinta la última página de mensajes
+     * guardada en el móvil, aunque no haya conexión, y las anteriores se cargan al hacer scroll hacia arriba.
+     * Solo se descargan y pintan los mensajes nuevos, modificados o eliminados, sin volver a crear el adaptador.
      */
     private void obtenerMensajes() {
-        FirebaseDatabase.getInstance().getReference("chats").child(idChat).addValueEventListener(new ValueEventListener() {
+        sincronizadorMensajes = new SincronizadorMensajes(idChat, usuario2Uid, FirebaseDatabase.getInstance().getReference("chats").child(idChat).child("listaMensajes"), AlmacenMensajesLocal.getInstance(this), RegistroSuscripciones.crear(this), listaMensajes, adaptadorCanciones, new GestorFirestore.Callback<Integer>() {
             @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                if (snapshot.exists()) {
-                    //Ya existe el chat, por lo que lo obtiene
-                    chat = snapshot.getValue(Chat.class);
-                } else {
-                    //No existe el chat, por lo que lo crea
-                    chat = new Chat(new ArrayList<>(), usuarioActualUid, usuario2Uid, "", idChat);
-                }
-                listaMensajes = new ArrayList<>();
-
-                // Iterar a través de la lista de mensajes en el chat
-                for (DataSnapshot mensajeSnapshot : snapshot.child("listaMensajes").getChildren()) {
-                    // Obtener los datos del mensaje
-                    Mensaje mensaje = mensajeSnapshot.getValue(Mensaje.class);
-                    // Agregar el mensaje al ArrayList para luego pasárselo al adaptador
-                    listaMensajes.add(mensaje);
-                }
-                adaptadorCanciones = new AdaptadorMensajesChat(listaMensajes);
-                recyclerMensajes.setAdapter(adaptadorCanciones);
-                if (recyclerMensajes.getAdapter().getItemCount() > 0) {
-                    recyclerMensajes.smoothScrollToPosition(recyclerMensajes.getAdapter().getItemCount() - 1);
+            public void onSuccess(Integer result) {
+                //Hace scroll hasta el último mensaje cuando llegan mensajes nuevos
+                if (adaptadorCanciones.getItemCount() > 0) {
+                    recyclerMensajes.smoothScrollToPosition(adaptadorCanciones.getItemCount() - 1);
                 }
             }
+        });
+        sincronizadorMensajes.iniciar();
+        //Al abrir el chat se dan por leídos sus mensajes
+        new GestorBandejaEntrada().marcarComoLeido(usuarioActualUid, idChat);
 
+        //Pide las páginas anteriores o posteriores cuando el usuario se acerca a uno de los extremos de la lista
+        recyclerMensajes.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                // Maneja el error
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= MARGEN_CARGA_PAGINA) {
+                    sincronizadorMensajes.cargarMensajesAnteriores();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= adaptadorCanciones.getItemCount() - 1 - MARGEN_CARGA_PAGINA) {
+                    sincronizadorMensajes.cargarMensajesPosteriores();
+                }
             }
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        if (sincronizadorMensajes != null) {
+            sincronizadorMensajes.detener();
+            //Los mensajes recibidos mientras el chat estaba abierto también se dan por leídos
+            new GestorBandejaEntrada().marcarComoLeido(usuarioActualUid, idChat);
+        }
+        super.onDestroy();
+    }
+
     /**
      * Obtiene los datos de ambos usuarios e inicializa los objetos
      */
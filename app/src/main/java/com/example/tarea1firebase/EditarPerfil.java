@@ -3,14 +3,13 @@ package com.example.tarea1firebase;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
 import android.view.View;
-import android.webkit.MimeTypeMap;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
@@ -27,12 +26,11 @@ import com.example.tarea1firebase.SpinnerMultiGeneros.ControladorSpinnerMultiGen
 import com.example.tarea1firebase.adaptadores.CustomSpinnerAdapter;
 import com.example.tarea1firebase.entidades.Usuario;
 import com.example.tarea1firebase.gestor.GestorFirestore;
+import com.example.tarea1firebase.gestor.GestorSubidas;
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInClient;
 import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.CollectionReference;
@@ -40,7 +38,6 @@ import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -175,32 +172,18 @@ public class EditarPerfil extends AppCompatActivity {
              * */
 
             /*
-             * Obtener una referencia a la colección "usuarios" en Firestore
-             * */
-            CollectionReference refUsuarios = FirebaseFirestore.getInstance().
-
-                    collection(COLECCION);
-            /*
-             * Guardar los cambios en Firestore
+             * Guardar los cambios en Firestore (el perfil y su resumen para las listas)
              * */
+            GestorFirestore gestorFirestore = new GestorFirestore();
 
             /**
              * Revisa si hemos modificado la imagen
              */
             if (mImageUri != null) {
-                cargarArchivo(mImageUri, result -> {
-                    refUsuarios.document(uid).set(usuarioEditando)
-                            .addOnSuccessListener(new OnSuccessListener<Void>() {
-                                @Override
-                                public void onSuccess(Void aVoid) {
-                                    cerrar();
-                                }
-                            });
-                });
-            } else {
-                refUsuarios.document(uid).set(usuarioEditando);
-                cerrar();
+                cargarArchivo(mImageUri);
             }
+            gestorFirestore.actualizarPerfil(usuarioEditando);
+            cerrar();
         });
         btnCambiarFotoPerfil = findViewById(R.id.btnCambiarFotoPerfil);
         Glide.with(this).load(usuarioEditando.getFotoPerfil()).into(btnCambiarFotoPerfil);
@@ -427,61 +410,31 @@ public class EditarPerfil extends AppCompatActivity {
     }
 
     /**
-     * Carga el archivo seleccionado en el almacenamiento y obtiene la URL de descarga de la imagen.
-     * Si no se ha seleccionado ninguna imagen, se muestra un mensaje de error.
+     * Añade la imagen seleccionada a la cola de subidas. La cola genera sus variantes reducidas, las sube aunque se
+     * cierre esta pantalla y, al terminar, cambia la foto del perfil y de su resumen. Como la pantalla se cierra
+     * enseguida, el oyente solo usa el contexto de la aplicación para avisar si la subida falla.
      *
-     * @param uri      uri de archivo a subir a storage
-     * @param callback callback que avisa cuando se ha subido la imagen correctamente
+     * @param uri uri de archivo a subir a storage
      */
-    private void cargarArchivo(Uri uri, GestorFirestore.Callback callback) {
-        StorageReference fileReference = mStorageRef.child(System.currentTimeMillis()
-                + "." + getFileExtension(uri));
-
-        fileReference.putFile(uri)
-                .addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                    /**
-                     * Método de devolución de llamada invocado cuando la carga de la imagen es exitosa.
-                     *
-                     * @param taskSnapshot El objeto TaskSnapshot que contiene información sobre la imagen cargada.
-                     */
-                    @Override
-                    public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                        fileReference.getDownloadUrl().addOnSuccessListener(new OnSuccessListener<Uri>() {
-                            @Override
-                            public void onSuccess(Uri uri) {
-                                usuarioEditando.setFotoPerfil(uri.toString());
-                                urlImagenPerfil = uri.toString();
-                                callback.onSuccess("");
-                            }
-                        });
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    /**
-                     * Metodo Callback que se invoca cuando la carga de la imagen falla
-                     *
-                     * @param e The exception indicating the reason for the failure.
-                     */
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Toast.makeText(EditarPerfil.this, e.getMessage(), Toast.LENGTH_SHORT).show();
-                    }
-                });
-    }
+    private void cargarArchivo(Uri uri) {
+        Context contextoAplicacion = getApplicationContext();
+        GestorSubidas.getInstance(this).encolarFotoPerfil(uid, uri, "uploads/" + System.currentTimeMillis(), new GestorSubidas.Oyente() {
+            @Override
+            public void onProgreso(String id, int porcentaje) {
+            }
 
+            @Override
+            public void onTerminada(String id, String url) {
+            }
 
-    /**
-     * Obtiene la extensión del archivo a partir de la URI especificada.
-     *
-     * @param uri la URI del archivo del que se desea obtener la extensión.
-     * @return la extensión del archivo correspondiente a la URI especificada.
-     */
-    private String getFileExtension(Uri uri) {
-        ContentResolver cR = getContentResolver();
-        MimeTypeMap mime = MimeTypeMap.getSingleton();
-        return mime.getExtensionFromMimeType(cR.getType(uri));
+            @Override
+            public void onError(String id, String mensaje) {
+                Toast.makeText(contextoAplicacion, "No se ha podido cambiar la foto de perfil: " + mensaje, Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
+
     @Override
     public void onBackPressed() {
         Intent intent = new Intent(EditarPerfil.this, MarcoMenu.class);
@@ -13,6 +13,8 @@ import com.example.tarea1firebase.fragments.MuroFragment;
 import com.example.tarea1firebase.fragments.FavoritosFragment;
 import com.example.tarea1firebase.fragments.PerfilFragment;
 import com.example.tarea1firebase.databinding.ActivityMarcoMenuBinding;
+import com.example.tarea1firebase.gestor.GestorFirestore;
+import com.example.tarea1firebase.gestor.GestorSubidas;
 
 
 public class MarcoMenu extends AppCompatActivity {
@@ -29,6 +31,10 @@ public class MarcoMenu extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         binding = ActivityMarcoMenuBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
+        // Reanudar las subidas que quedaron a medias la última vez que se usó la aplicación
+        GestorSubidas.getInstance(this);
+        // Crear los resúmenes de los usuarios antiguos si todavía no se ha hecho la migración
+        new GestorFirestore().migrarResumenes();
         // Verificar si se debe abrir el fragmento de perfil
         boolean abrirPerfil = getIntent().getBooleanExtra("abrir_perfil", false);
         if (abrirPerfil) {
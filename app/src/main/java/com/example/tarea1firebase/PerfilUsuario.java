@@ -15,6 +15,7 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.RatingBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.DefaultItemAnimator;
@@ -25,17 +26,23 @@ import com.bumptech.glide.Glide;
 import com.example.tarea1firebase.adaptadores.AdaptadorCancionesRecycler;
 import com.example.tarea1firebase.adaptadores.AdaptadorGenerosRecycler;
 import com.example.tarea1firebase.adaptadores.AdaptadorResenas;
+import com.example.tarea1firebase.entidades.ConversorFechas;
+import com.example.tarea1firebase.entidades.MetadatosCancion;
 import com.example.tarea1firebase.entidades.Resena;
 import com.example.tarea1firebase.entidades.Usuario;
 import com.example.tarea1firebase.gestor.GestorFirestore;
+import com.example.tarea1firebase.gestor.GestorVisitas;
+import com.example.tarea1firebase.gestor.ReproductorAudio;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
 import com.google.firebase.auth.FirebaseAuth;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 
 public class PerfilUsuario extends AppCompatActivity {
@@ -50,12 +57,13 @@ public class PerfilUsuario extends AppCompatActivity {
     private TextView lblUsername, lblDescripcion, lblCiudad, lblRecyclerVacio, lblMediaEstrellas, lblNVisitas, lblRecyclerRese, lblGenero;
     private Usuario usuario;
     private ImageButton btnInstagram, btnTiktok, btnYoutube, btnSpotify, btnSoundCloud, btnAnadirCancion;
-    private Button tvEditar;
+    private Button tvEditar, btnMasResenas;
     private ImageButton btnChat;
     private String uidUsuarioMostrandose;
     private FirebaseAuth mAuth;
     private ImageView imgFotoPerfil, imgRecyclerVacio, imgResenasVacias, imgGenero;
     private GestorFirestore gestorFirebase;
+    private GestorVisitas gestorVisitas;
     private AlertDialog dialog;
     private String uidUsuarioActual;
 
@@ -66,6 +74,7 @@ public class PerfilUsuario extends AppCompatActivity {
 
         /** Inicializar el gestor de Firebase y obtener la instancia de FirebaseAuth.*/
         gestorFirebase = new GestorFirestore();
+        gestorVisitas = new GestorVisitas();
         mAuth = FirebaseAuth.getInstance();
 
         /**Obtenemos el uid del usuario al que estamos visitando*/
@@ -90,20 +99,11 @@ public class PerfilUsuario extends AppCompatActivity {
     }
 
     /**
-     * Método que verifica si ya hemos visitado este perfil anteriormente, y de no ser así,
-     * añade nuestro uid a la lista de visitantes de ese usuario
+     * Método que registra nuestra visita a este perfil. Las visitas repetidas suman al total pero no a los
+     * visitantes únicos, así que no hace falta leer antes el perfil para comprobar si ya lo habíamos visitado.
      */
     private void anadirVisitaAlPerfil() {
-        gestorFirebase.obtenerUsuarioPorId(uidUsuarioMostrandose, new GestorFirestore.Callback<Usuario>() {
-            @Override
-            public void onSuccess(Usuario usuarioDevuelto) {
-                List<String> listaVisitas = usuarioDevuelto.getVisitasAlPerfil();
-                if (!listaVisitas.contains(uidUsuarioActual)) {
-                    gestorFirebase.anadirVisitaAlPerfil(uidUsuarioMostrandose, uidUsuarioActual);
-                    listaVisitas.add(uidUsuarioActual);
-                }
-            }
-        }, Usuario.class);
+        gestorVisitas.registrarVisita(uidUsuarioMostrandose, uidUsuarioActual);
     }
 
 
@@ -143,45 +143,27 @@ public class PerfilUsuario extends AppCompatActivity {
                  */
                 String textoResena = etTextoResena.getText().toString();
                 int rating = (int) ratingBar.getRating();
-                String fechaActual = new SimpleDateFormat("dd/MM/yyyy").format(new Date());
+                long marcaTiempo = System.currentTimeMillis();
+                String fechaActual = new SimpleDateFormat(ConversorFechas.FORMATO_RESENA).format(new Date(marcaTiempo));
 
                 Resena resena = new Resena(textoResena, mAuth.getCurrentUser().getUid(), rating, fechaActual);
-
-                List<Resena> listaResenas = usuario.getListaResenas();
-                List<String> listaAutores = new ArrayList<>();
-                Resena miResenaExistente = null;
+                resena.setMarcaTiempo(marcaTiempo);
 
                 /**
-                 * Obtenemos el uid de todas las personas que le han hecho una reseña a este usuario
+                 * Si ya hemos hecho una reseña, no se añade una nueva, sino que se sustituye. La media y el histograma
+                 * de valoraciones se actualizan en la misma transacción.
                  */
-                for (int x = 0; x < listaResenas.size(); x++) {
-                    listaAutores.add(listaResenas.get(x).getUidAutor());
-                    /**
-                     * Si nuestro uid se encuentra en esa lista, es porque ya hemos hecho una reseña
-                     */
-                    if (listaResenas.get(x).getUidAutor().equals(uidUsuarioActual)) {
-                        miResenaExistente = listaResenas.get(x);
+                gestorFirebase.guardarResena(usuario.getId(), resena, new GestorFirestore.Callback<String>() {
+                    @Override
+                    public void onSuccess(String result) {
+                        obtenerDatosUsuario();
                     }
-                }
 
-                /**
-                 * Si ya hemos hecho una reseña, no añadimos una nueva, sino que la actualizamos
-                 */
-                if (miResenaExistente == null) {
-                    gestorFirebase.anadirValorArray(usuario.getId(), "listaResenas", resena, new GestorFirestore.Callback<String>() {
-                        @Override
-                        public void onSuccess(String result) {
-                            obtenerDatosUsuario();
-                        }
-                    });
-                } else {
-                    gestorFirebase.actualizarValorArray(usuario.getId(), "listaResenas", miResenaExistente, resena, new GestorFirestore.Callback<String>() {
-                        @Override
-                        public void onSuccess(String result) {
-                            obtenerDatosUsuario();
-                        }
-                    });
-                }
+                    @Override
+                    public void onFailure(Exception e) {
+                        Toast.makeText(PerfilUsuario.this, "No se ha podido guardar la reseña", Toast.LENGTH_SHORT).show();
+                    }
+                });
 
                 dialogInterface.dismiss(); // Cierra el diálogo
 
@@ -274,6 +256,8 @@ public class PerfilUsuario extends AppCompatActivity {
         imgResenasVacias = findViewById(R.id.imagenRecyclerVacioRese);
         lblRecyclerVacio = findViewById(R.id.lblRecyclerVacioFavsVacio);
         lblRecyclerRese = findViewById(R.id.lblRecyclerVacioRese);
+        btnMasResenas = findViewById(R.id.btnMasResenas);
+        btnMasResenas.setOnClickListener(v -> cargarMasResenas());
 
         btnAnadirCancion = findViewById(R.id.btnSubirAudio);
         lblMediaEstrellas = findViewById(R.id.lblMediaEstrellas);
@@ -336,15 +320,19 @@ public class PerfilUsuario extends AppCompatActivity {
             @Override
             public void onSuccess(Usuario usuarioDevuelto) {
                 usuario = usuarioDevuelto;
+                /**
+                 * La media se calcula con los totales de valoraciones guardados en el usuario, sin recorrer las reseñas.
+                 */
+                lblMediaEstrellas.setText(String.valueOf(usuario.calcularMediaValoraciones()));
+                /**
+                 * Las visitas se muestran con el contador de visitantes únicos del usuario, sin descargar quién ha visitado el perfil.
+                 */
+                lblNVisitas.setText(String.valueOf(usuario.calcularVisitantesUnicos()));
 
                 /**Obtenemos de la base de datos todas las canciones del usuario.*/
                 List<String> canciones;
                 canciones = usuario.getArrayCanciones();
 
-                /**Obtenemos de la base de datos todas las reseñas del usuario.*/
-                List<Resena> resenas;
-                resenas = usuario.getListaResenas();
-
                 /**
                  * Mostramos el nombre, la descripción y la ciudad del usuario
                  */
@@ -354,10 +342,53 @@ public class PerfilUsuario extends AppCompatActivity {
 
                 adaptadorCanciones = new AdaptadorCancionesRecycler(canciones, false, progressBar);
                 recyclerCanciones.setAdapter(adaptadorCanciones);
+                /**Duración y forma de onda de las canciones, calculadas al subirlas, con una sola consulta.*/
+                AdaptadorCancionesRecycler adaptadorCargado = adaptadorCanciones;
+                gestorFirebase.obtenerMetadatosCanciones(uidUsuarioMostrandose, new GestorFirestore.Callback<Map<String, MetadatosCancion>>() {
+                    @Override
+                    public void onSuccess(Map<String, MetadatosCancion> metadatos) {
+                        adaptadorCargado.setMetadatos(metadatos);
+                    }
 
-                adaptadorResenas = new AdaptadorResenas(resenas);
-                recyclerResenas.setAdapter(adaptadorResenas);
+                    @Override
+                    public void onFailure(Exception e) {
+                        // Sin metadatos, cada fila lee la duración del propio audio
+                        adaptadorCargado.setMetadatos(new HashMap<>());
+                    }
+                });
 
+                /**
+                 * Las publicaciones que el usuario todavía tenga en el array de versiones anteriores se pasan a la
+                 * colección de publicaciones.
+                 */
+                if (usuario.getListaPublicaciones() != null && !usuario.getListaPublicaciones().isEmpty()) {
+                    gestorFirebase.migrarPublicaciones(usuario.getId(), new GestorFirestore.Callback<Boolean>() {
+                        @Override
+                        public void onSuccess(Boolean migrado) {
+                        }
+                    });
+                }
+
+                /**
+                 * Las reseñas se cargan por páginas de la subcolección del usuario. Si todavía las tiene en el
+                 * array de versiones anteriores, primero se migran.
+                 */
+                if (usuario.getListaResenas() != null && !usuario.getListaResenas().isEmpty()) {
+                    gestorFirebase.migrarResenas(usuario.getId(), new GestorFirestore.Callback<String>() {
+                        @Override
+                        public void onSuccess(String resultado) {
+                            cargarResenas();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            // Las reseñas que ya estén en la subcolección se pueden mostrar igualmente
+                            cargarResenas();
+                        }
+                    });
+                } else {
+                    cargarResenas();
+                }
 
                 /**Obtenemos de la base de datos todos los géneros del usuario.*/
                 List<String> generos = usuario.getListaGeneros();
@@ -382,6 +413,28 @@ public class PerfilUsuario extends AppCompatActivity {
                     imgRecyclerVacio.setVisibility(View.VISIBLE);
                     lblRecyclerVacio.setVisibility(View.VISIBLE);
                 }
+                progressBar.setVisibility(View.GONE);
+            }
+        }, Usuario.class);
+
+    }
+
+    /**
+     * Crea el adaptador de reseñas del usuario y carga la primera página.
+     */
+    private void cargarResenas() {
+        adaptadorResenas = new AdaptadorResenas(uidUsuarioMostrandose);
+        recyclerResenas.setAdapter(adaptadorResenas);
+        cargarMasResenas();
+    }
+
+    /**
+     * Carga la siguiente página de reseñas. El botón "Ver más reseñas" solo se muestra si quedan reseñas por cargar.
+     */
+    private void cargarMasResenas() {
+        adaptadorResenas.cargarSiguientePagina(new GestorFirestore.Callback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean hayMas) {
                 if (adaptadorResenas.getItemCount() > 0) {
                     imgResenasVacias.setVisibility(View.GONE);
                     lblRecyclerRese.setVisibility(View.GONE);
@@ -389,20 +442,9 @@ public class PerfilUsuario extends AppCompatActivity {
                     imgResenasVacias.setVisibility(View.VISIBLE);
                     lblRecyclerRese.setVisibility(View.VISIBLE);
                 }
-                progressBar.setVisibility(View.GONE);
-            }
-        }, Usuario.class);
-
-        gestorFirebase.obtenerMediaResenas(uidUsuarioMostrandose, new GestorFirestore.Callback() {
-            @Override
-            public void onSuccess(Object mediaEstrellas) {
-                lblMediaEstrellas.setText(mediaEstrellas.toString());
+                btnMasResenas.setVisibility(hayMas ? View.VISIBLE : View.GONE);
             }
         });
-
-        int nVisitas = usuario.getVisitasAlPerfil().size();
-        lblNVisitas.setText(String.valueOf(nVisitas));
-
     }
 
     private void inicializarProgressBar() {
@@ -538,4 +580,13 @@ public class PerfilUsuario extends AppCompatActivity {
         startActivity(intent);
     }
 
+    /**
+     * Al cerrar el perfil se para la canción que estuviera sonando y se liberan los recursos del reproductor.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        ReproductorAudio.getInstance().liberar();
+    }
+
 }
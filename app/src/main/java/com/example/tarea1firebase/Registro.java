@@ -21,6 +21,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.example.tarea1firebase.SpinnerMultiGeneros.AdapatadorSpinnerMultiGeneros;
 import com.example.tarea1firebase.SpinnerMultiGeneros.ControladorSpinnerMultiGeneros;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.gestor.GestorFirestore;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
 import com.google.android.gms.tasks.OnCompleteListener;
@@ -45,6 +46,7 @@ import pl.droidsonroids.gif.GifDrawable;
 
 public class Registro extends AppCompatActivity {
     private FirebaseFirestore db;
+    private GestorFirestore gestorFirebase;
     //Este será el nombre de la colección que daremos en la BBDD de Firebase
     public final static String COLECCION = "Usuarios";
     private StorageReference storageRef;
@@ -71,6 +73,7 @@ public class Registro extends AppCompatActivity {
         setContentView(R.layout.registro);
 
         db = FirebaseFirestore.getInstance();
+        gestorFirebase = new GestorFirestore();
         storage = FirebaseStorage.getInstance();
         storageRef = storage.getReference();
         storageRef = FirebaseStorage.getInstance().getReference();
@@ -337,7 +340,7 @@ public class Registro extends AppCompatActivity {
                             // Creación del usuario en Firebase Authentication y Firestore
                             String idUsuario = task.getResult().getUser().getUid();
                             user = new Usuario(idUsuario, emailUsuario, nombreUsuario, null, ciudad, Arrays.asList(), "", "", "", "", "", Arrays.asList(), "", Arrays.asList(), Arrays.asList(), Arrays.asList(), selectedGeneros, Arrays.asList());
-                            db.collection(COLECCION).document(idUsuario).set(user).addOnSuccessListener(new OnSuccessListener<Void>() {
+                            gestorFirebase.guardarUsuario(user).addOnSuccessListener(new OnSuccessListener<Void>() {
                                 @Override
                                 public void onSuccess(Void aVoid) {
                                     Intent intent = new Intent(Registro.this, MarcoMenu.class);
@@ -377,7 +380,7 @@ public class Registro extends AppCompatActivity {
         user = new Usuario(idUsuario, emailUsuario, nombreUsuario, null, ciudad, Arrays.asList(), "", "", "", "", "", Arrays.asList(), "", Arrays.asList(), Arrays.asList(), Arrays.asList(), selectedGeneros, Arrays.asList());
 
         /** Creación del usuario en Firestore*/
-        db.collection(COLECCION).document(idUsuario).set(user).addOnSuccessListener(new OnSuccessListener<Void>() {
+        gestorFirebase.guardarUsuario(user).addOnSuccessListener(new OnSuccessListener<Void>() {
             @Override
             public void onSuccess(Void aVoid) {
                 Toast.makeText(Registro.this, "User creado", Toast.LENGTH_LONG).show();
@@ -1,7 +1,7 @@
 /**
  * Esta clase es un adaptador para un RecyclerView que se utiliza para mostrar una lista de canciones.
- * El adaptador tiene una lista de URL de las canciones, y se encarga de reproducirlas y controlar su reproducción.
- * La clase tiene un ViewHolder que contiene un botón de reproducción, un reproductor de medios y un SeekBar que muestra el progreso de la canción.
+ * El adaptador tiene una lista de URL de las canciones, y controla su reproducción con el ReproductorAudio compartido.
+ * La clase tiene un ViewHolder que contiene un botón de reproducción, un SeekBar que muestra el progreso de la canción y su duración.
  * El adaptador tiene tres métodos: onCreateViewHolder, onBindViewHolder y getItemCount, que son necesarios para implementar un RecyclerView.Adapter.
  * Además, tiene un constructor que toma una lista de URLs de las canciones.
  *
@@ -11,24 +11,25 @@ package com.example.tarea1firebase.adaptadores;
 
 import static com.example.tarea1firebase.Registro.COLECCION;
 
-import android.app.Activity;
 import android.content.DialogInterface;
 import android.graphics.drawable.Drawable;
-import android.media.MediaPlayer;
-import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
 import android.widget.ProgressBar;
 import android.widget.SeekBar;
+import android.widget.TextView;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.tarea1firebase.R;
+import com.example.tarea1firebase.entidades.MetadatosCancion;
 import com.example.tarea1firebase.gestor.GestorFirestore;
+import com.example.tarea1firebase.gestor.ReproductorAudio;
+import com.example.tarea1firebase.vistas.VistaOndaAudio;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
 import com.google.android.gms.tasks.OnSuccessListener;
@@ -37,8 +38,9 @@ import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 
-import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCancionesRecycler.ViewHolder> {
     private List<String> listaUrls;
@@ -47,6 +49,11 @@ public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCa
     private FirebaseAuth mAuth;
     private boolean soyAutor;
     private ProgressBar progressBar;
+    private ReproductorAudio reproductor;
+    /**
+     * Los metadatos de las canciones por URL, o null mientras no ha terminado la consulta.
+     */
+    private Map<String, MetadatosCancion> metadatos;
 
     /**
      * Constructor para el adaptador. Recibe una lista de URLs de las canciones.
@@ -60,17 +67,33 @@ public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCa
         this.mAuth = FirebaseAuth.getInstance();
         this.soyAutor = soyAutor;
         this.progressBar = progressBar;
+        this.reproductor = ReproductorAudio.getInstance();
+    }
+
+    /**
+     * Establece los metadatos (duración y forma de onda) de las canciones, calculados al subirlas, y vuelve a pintar
+     * las filas. Hasta que se llama, las filas no muestran la duración; después, solo las canciones sin metadatos
+     * leen la duración del propio audio.
+     *
+     * @param metadatos Un mapa de URL de la canción a sus metadatos (vacío si la consulta ha fallado).
+     */
+    public void setMetadatos(Map<String, MetadatosCancion> metadatos) {
+        this.metadatos = metadatos;
+        notifyDataSetChanged();
     }
 
     /**
-     * ViewHolder para cada elemento del RecyclerView. Contiene un botón de reproducción,
-     * un reproductor de medios y un SeekBar que muestra el progreso de la canción.
+     * ViewHolder para cada elemento del RecyclerView. Contiene un botón de reproducción, un SeekBar que muestra el
+     * progreso de la canción y su duración. No tiene reproductor propio: escucha al ReproductorAudio compartido
+     * mientras la fila está en pantalla y pinta el estado de su canción.
      */
-    public static class ViewHolder extends RecyclerView.ViewHolder {
+    public static class ViewHolder extends RecyclerView.ViewHolder implements ReproductorAudio.Oyente {
         private ImageButton btnPlay, btnBorrarCancion;
-        private MediaPlayer mediaPlayer;
         private SeekBar seekBar;
+        private VistaOndaAudio ondaAudio;
+        private TextView txtDuracion;
         private ProgressBar progressBar;
+        private String url;
 
         /**
          * Constructor del ViewHolder. Toma una vista y busca los elementos necesarios para reproducir la canción.
@@ -81,13 +104,61 @@ public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCa
             super(v);
             btnPlay = v.findViewById(R.id.btnPlay);
             seekBar = v.findViewById(R.id.seekBar);
-            mediaPlayer = new MediaPlayer();
+            ondaAudio = v.findViewById(R.id.ondaAudio);
+            txtDuracion = v.findViewById(R.id.txtDuracion);
             btnBorrarCancion = v.findViewById(R.id.btnBorrarCancion);
             progressBar = v.findViewById(R.id.spin_kit); // Cambio realizado aquí
             Sprite doubleBounce = new FadingCircle();
             progressBar.setIndeterminateDrawable(doubleBounce);
             progressBar.setVisibility(View.GONE);
         }
+
+        /**
+         * Pinta el botón, la barra de progreso y el indicador de carga según el estado de la canción de la fila.
+         *
+         * @param estado El estado de la canción en el reproductor.
+         */
+        private void mostrarEstado(ReproductorAudio.Estado estado) {
+            btnPlay.setImageResource(estado == ReproductorAudio.Estado.REPRODUCIENDO ? R.drawable.iconopausa : R.drawable.play);
+            progressBar.setVisibility(estado == ReproductorAudio.Estado.PREPARANDO ? View.VISIBLE : View.GONE);
+            /*
+             * La barra usa el drawable de reproducción mientras la canción es la actual, y el normal cuando está parada.
+             */
+            int drawableProgreso = estado == ReproductorAudio.Estado.PARADO ? R.drawable.custom_seekbar_progress : R.drawable.custom_seekbar_progress_2;
+            seekBar.setProgressDrawable(ContextCompat.getDrawable(seekBar.getContext(), drawableProgreso));
+            seekBar.setThumb(ContextCompat.getDrawable(seekBar.getContext(), R.drawable.custom_thumb));
+            if (estado == ReproductorAudio.Estado.PARADO) {
+                seekBar.setProgress(0);
+                ondaAudio.setProgreso(0);
+            }
+        }
+
+        /**
+         * Muestra la duración de la canción en la etiqueta (m:ss) y la usa como máximo de la barra de progreso.
+         *
+         * @param duracion La duración en milisegundos.
+         */
+        private void mostrarDuracion(int duracion) {
+            seekBar.setMax(duracion);
+            int segundos = duracion / 1000;
+            txtDuracion.setText(String.format(Locale.getDefault(), "%d:%02d", segundos / 60, segundos % 60));
+        }
+
+        @Override
+        public void onCambioEstado(String url, ReproductorAudio.Estado estado) {
+            if (url != null && url.equals(this.url)) {
+                mostrarEstado(estado);
+            }
+        }
+
+        @Override
+        public void onProgreso(String url, int posicion, int duracion) {
+            if (url != null && url.equals(this.url)) {
+                seekBar.setMax(duracion);
+                seekBar.setProgress(posicion);
+                ondaAudio.setProgreso(duracion > 0 ? (float) posicion / duracion : 0);
+            }
+        }
     }
 
     /**
@@ -105,169 +176,101 @@ public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCa
     }
 
     /**
-     * Establece los objetos en el ViewHolder. Se encarga de reproducir la canción, establecer el progreso en el SeekBar y controlar la pausa y reproducción.
+     * Establece los objetos en el ViewHolder: pinta el estado de la canción en el reproductor compartido, pide su
+     * duración y configura el botón de play/pausa y el SeekBar. Aquí no se prepara ningún audio: la canción solo se
+     * prepara (de forma asíncrona) cuando el usuario pulsa play.
      *
      * @param holder   ViewHolder que se está estableciendo.
      * @param position Posición del elemento en el RecyclerView.
      */
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        /**
-         * Establece un listener de clics para el botón, que alterna entre reproducir y pausar el audio.
-         * Si el audio no está reproduciéndose, el botón cambia su icono a un icono de pausa, y la reproducción de audio comienza.
-         * Si el audio ya está reproduciéndose, el botón cambia su icono a un icono de reproducción, y la reproducción de audio se pausa.
-         * La barra de progreso se actualiza para mostrar el progreso de la reproducción de audio.
-         *
-         * @param listener El listener de clics que se invocará cuando se haga clic en el botón.
-         *                 Debe contener la lógica para alternar entre la reproducción y la pausa del audio.
-         */
-        holder.btnPlay.setOnClickListener(view -> {
-            /*
-             * Verifica si el reproductor de medios no está reproduciendo actualmente.
-             */
-            if (!holder.mediaPlayer.isPlaying()) {
-                /*
-                 * Cambia la imagen del botón a "iconopausa".
-                 */
-                holder.btnPlay.setImageResource(R.drawable.iconopausa);
-                /*
-                 * Inicia la reproducción del reproductor de medios.
-                 */
-                holder.mediaPlayer.start();
-            } else {
-                /*
-                 * Cambia la imagen del botón a play.
-                 */
-                holder.btnPlay.setImageResource(R.drawable.play);
-                /*
-                 * Pausa la reproducción del reproductor de medios.
-                 */
-                holder.mediaPlayer.pause();
-            }
-            /*
-             *Configura el drawable y el thumb de la barra de progreso cuando se empieza a mover manualmente.
-             */
-            Drawable playingDrawable = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_seekbar_progress_2);
-            Drawable thumb = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_thumb);
-            holder.seekBar.setProgressDrawable(playingDrawable);
-            holder.seekBar.setThumb(thumb);
+        String url = listaUrls.get(position);
+        holder.url = url;
+        holder.txtDuracion.setText("");
+        holder.mostrarEstado(reproductor.getEstado(url));
 
-            /*
-             * Ejecuta el código de forma asíncrona en el hilo principal de la actividad.
-             * Actualiza el progreso de la canción en el SeekBar de forma continua.
-             */
-            Handler mHandler = new Handler();
-            ((Activity) holder.itemView.getContext()).runOnUiThread(new Runnable() {
-                /**
-                 Implementación del método run de la interfaz Runnable, que se ejecuta periódicamente para actualizar la posición actual
-                 de reproducción del audio en el SeekBar.
-                 Si el objeto MediaPlayer no es nulo, actualiza el valor máximo del SeekBar con la duración total del audio y establece
-                 el progreso del SeekBar en la posición actual de reproducción. Después de la actualización, se llama a la función
-                 refreshDrawableState() para actualizar la vista del SeekBar.
-                 El método utiliza un objeto Handler para programar la actualización del progreso cada 100 milisegundos, llamando a
-                 postDelayed() para agregar un objeto Runnable a la cola de mensajes de la interfaz de usuario.
-                 */
-                @Override
-                public void run() {
-                    if (holder.mediaPlayer != null) {
-                        holder.seekBar.setMax(holder.mediaPlayer.getDuration());
-                        int mCurrentPosition = holder.mediaPlayer.getCurrentPosition();
-                        holder.seekBar.setProgress(mCurrentPosition);
-                        holder.seekBar.refreshDrawableState();
-                    }
-                    mHandler.postDelayed(this, 100);
-                }
-            });
-        });
-        try {
-            /*
-             * Restablece el reproductor de medios a su estado inicial.
-             */
-            holder.mediaPlayer.reset();
-            /*
-             * Establece la fuente de datos para el reproductor de medios.
-             */
-            holder.mediaPlayer.setDataSource(listaUrls.get(position));
-            /*
-             * Prepara el reproductor de medios para la reproducción.
-             */
-            holder.mediaPlayer.prepare();
-            /*
-             *Listener para manejar los cambios en una barra de progreso.
-             */
-            holder.seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-                /**
-                 * Método que se llama cuando el usuario cambia manualmente el progreso de la barra de progreso.
-                 * Actualiza la posición actual del MediaPlayer y la barra de progreso para reflejar el cambio hecho por el usuario.
-                 *
-                 * @param seekBar la barra de progreso que se está moviendo
-                 * @param progress el nuevo progreso de la barra de progreso
-                 * @param fromUser si el cambio de progreso fue hecho por el usuario
-                 */
+        /*
+         * La duración y la forma de onda salen de los metadatos calculados al subir la canción. Las canciones
+         * subidas antes no tienen metadatos, así que la duración se lee del propio audio.
+         */
+        MetadatosCancion metadatosCancion = metadatos != null ? metadatos.get(url) : null;
+        if (metadatos == null) {
+            // Todavía no han llegado los metadatos: no se lee el audio de cada fila mientras tanto
+            holder.ondaAudio.setPicos(null);
+        } else if (metadatosCancion != null && metadatosCancion.getDuracion() > 0) {
+            holder.mostrarDuracion((int) metadatosCancion.getDuracion());
+            holder.ondaAudio.setPicos(metadatosCancion.decodificarPicos());
+        } else {
+            holder.ondaAudio.setPicos(null);
+            reproductor.obtenerDuracion(url, new GestorFirestore.Callback<Integer>() {
                 @Override
-                public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                    if (fromUser) {
-                        holder.mediaPlayer.seekTo(progress);
-                        holder.seekBar.setProgress(progress);
-                        holder.seekBar.refreshDrawableState();
+                public void onSuccess(Integer duracion) {
+                    // La fila puede haberse reciclado para otra canción mientras se leía la duración
+                    if (url.equals(holder.url)) {
+                        holder.mostrarDuracion(duracion);
                     }
                 }
-
-                /**
-                 * Método que se llama cuando el usuario comienza a mover manualmente la barra de progreso.
-                 * Establece el drawable y el thumb de la barra de progreso para dar retroalimentación visual al usuario de que se está moviendo manualmente.
-                 *
-                 * @param seekBar la barra de progreso que se está moviendo
-                 */
-                @Override
-                public void onStartTrackingTouch(SeekBar seekBar) {
-                    Drawable playingDrawable = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_seekbar_progress_2);
-                    Drawable thumb = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_thumb);
-                    holder.seekBar.setProgressDrawable(playingDrawable);
-                    holder.seekBar.setThumb(thumb);
-                }
-
-                /**
-                 Método que se ejecuta cuando se detiene el movimiento manual del seekBar.
-                 No se requiere ninguna acción en este caso, por lo que el método está vacío.
-                 @param seekBar el objeto SeekBar que se está manipulando
-                 */
-                @Override
-                public void onStopTrackingTouch(SeekBar seekBar) {
-
-                }
             });
-            /*
-             * si hay algún problema al configurar el MediaPlayer o el SeekBar.
-             * */
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        int posicion = reproductor.getPosicion(url);
+        holder.seekBar.setProgress(posicion);
+        holder.ondaAudio.setProgreso(holder.seekBar.getMax() > 0 ? (float) posicion / holder.seekBar.getMax() : 0);
+
+        /**
+         * Establece un listener de clics para el botón, que alterna entre reproducir y pausar el audio. Si es otra
+         * canción distinta de la que suena, el reproductor para la anterior y prepara esta.
+         */
+        holder.btnPlay.setOnClickListener(view -> reproductor.alternar(url));
 
         /*
-         * Listener que detecta cuando se ha completado la reproducción del audio.
+         *Listener para manejar los cambios en una barra de progreso.
          */
-        holder.mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+        holder.seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             /**
-             * Método que se llama cuando la canción ha terminado de reproducirse.
-             * <p>
-             * Restablece el botón de reproducción a su estado inicial y la barra de progreso a 0.
-             * Establece el drawable y el thumb de la barra de progreso para reflejar el estado de reproducción pausado.
+             * Método que se llama cuando el usuario cambia manualmente el progreso de la barra de progreso.
+             * Actualiza la posición de la canción si es la que está en el reproductor.
              *
-             * @param mp el MediaPlayer que ha completado la reproducción de la canción
+             * @param seekBar la barra de progreso que se está moviendo
+             * @param progress el nuevo progreso de la barra de progreso
+             * @param fromUser si el cambio de progreso fue hecho por el usuario
              */
             @Override
-            public void onCompletion(MediaPlayer mp) {
-                holder.btnPlay.setImageResource(R.drawable.play);
-                mp.seekTo(0);
-                holder.seekBar.setProgress(0);
-                Drawable playingDrawable = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_seekbar_progress);
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    reproductor.buscar(url, progress);
+                    holder.ondaAudio.setProgreso(seekBar.getMax() > 0 ? (float) progress / seekBar.getMax() : 0);
+                }
+            }
+
+            /**
+             * Método que se llama cuando el usuario comienza a mover manualmente la barra de progreso.
+             * Establece el drawable y el thumb de la barra de progreso para dar retroalimentación visual al usuario de que se está moviendo manualmente.
+             *
+             * @param seekBar la barra de progreso que se está moviendo
+             */
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                Drawable playingDrawable = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_seekbar_progress_2);
                 Drawable thumb = ContextCompat.getDrawable(holder.seekBar.getContext(), R.drawable.custom_thumb);
                 holder.seekBar.setProgressDrawable(playingDrawable);
                 holder.seekBar.setThumb(thumb);
             }
 
+            /**
+             * Método que se ejecuta cuando se detiene el movimiento manual del seekBar. Si la canción no está en el
+             * reproductor, la barra vuelve al principio.
+             *
+             * @param seekBar el objeto SeekBar que se está manipulando
+             */
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                if (reproductor.getEstado(url) == ReproductorAudio.Estado.PARADO) {
+                    holder.mostrarEstado(ReproductorAudio.Estado.PARADO);
+                }
+            }
         });
+
         if (soyAutor) {
             holder.btnBorrarCancion.setVisibility(View.VISIBLE);
         } else {
@@ -277,11 +280,35 @@ public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCa
         Click listener del botón de borrar canciones que elimina la canción de la lista de canciones del usuario y del bucket de storage
          */
         holder.btnBorrarCancion.setOnClickListener(v -> {
-            String url = listaUrls.get(position);
             crearDialogoConfirmacion(holder, url);
         });
     }
 
+    /**
+     * Mientras la fila está en pantalla escucha al reproductor para pintar el estado y el progreso de su canción.
+     *
+     * @param holder El ViewHolder que se muestra.
+     */
+    @Override
+    public void onViewAttachedToWindow(ViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        reproductor.anadirOyente(holder);
+        if (holder.url != null) {
+            holder.mostrarEstado(reproductor.getEstado(holder.url));
+        }
+    }
+
+    /**
+     * Cuando la fila sale de la pantalla deja de escuchar al reproductor. La canción sigue sonando.
+     *
+     * @param holder El ViewHolder que se deja de mostrar.
+     */
+    @Override
+    public void onViewDetachedFromWindow(ViewHolder holder) {
+        super.onViewDetachedFromWindow(holder);
+        reproductor.quitarOyente(holder);
+    }
+
     /**
      * Método que abre un diálogo para solicitar comprobación antes de eliminar la cacnión.
      * <p>
@@ -321,6 +348,10 @@ public class AdaptadorCancionesRecycler extends RecyclerView.Adapter<AdaptadorCa
                             @Override
                             public void onSuccess(String result) {
                                 progressBar.setVisibility(View.GONE);
+                                if (reproductor.getEstado(url) != ReproductorAudio.Estado.PARADO) {
+                                    reproductor.detener();
+                                }
+                                gestorFirebase.borrarMetadatosCancion(mAuth.getCurrentUser().getUid(), url);
                                 listaUrls.remove(url);
                                 notifyDataSetChanged();
                             }
@@ -11,6 +11,9 @@ import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
@@ -18,7 +21,8 @@ import com.example.tarea1firebase.PerfilUsuario;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.entidades.Chat;
 import com.example.tarea1firebase.entidades.Publicacion;
-import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
+import com.example.tarea1firebase.gestor.CargadorImagenes;
 import com.example.tarea1firebase.gestor.GestorFirestore;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FieldValue;
@@ -26,23 +30,47 @@ import com.google.firebase.firestore.FirebaseFirestore;
 
 import org.json.JSONStringer;
 
-import java.util.List;
+import java.util.Objects;
 
 /**
  * El adaptador utilizado para mostrar una lista de publicaciones en un RecyclerView.
  */
-public class AdaptadorPublicaciones extends RecyclerView.Adapter<AdaptadorPublicaciones.ViewHolder> {
-    private List<Publicacion> listaPublicaciones;
+public class AdaptadorPublicaciones extends ListAdapter<Publicacion, AdaptadorPublicaciones.ViewHolder> {
+    /**
+     * Compara dos listas de publicaciones para que al cambiar la lista (llega otra página o las publicaciones de otro
+     * favorito) solo se vuelvan a pintar las filas que cambian.
+     */
+    private static final DiffUtil.ItemCallback<Publicacion> COMPARADOR = new DiffUtil.ItemCallback<Publicacion>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Publicacion antigua, @NonNull Publicacion nueva) {
+            // Una publicación se identifica por su ID, que también es el de su entrada en el muro. La fecha no sirve:
+            // las publicaciones antiguas solo la tienen con precisión de minutos
+            if (antigua.getId() == null || nueva.getId() == null) {
+                return antigua == nueva;
+            }
+            return antigua.getId().equals(nueva.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Publicacion antigua, @NonNull Publicacion nueva) {
+            return Objects.equals(antigua.getAutorUid(), nueva.getAutorUid())
+                    && antigua.getMarcaTiempo() == nueva.getMarcaTiempo()
+                    && Objects.equals(antigua.getTexto(), nueva.getTexto())
+                    && Objects.equals(antigua.getFecha(), nueva.getFecha())
+                    && Objects.equals(antigua.getUrlImagenPublicacion(), nueva.getUrlImagenPublicacion())
+                    && Objects.equals(antigua.getUrlImagenFeed(), nueva.getUrlImagenFeed())
+                    && Objects.equals(antigua.getUrlImagenMiniatura(), nueva.getUrlImagenMiniatura());
+        }
+    };
+
     private GestorFirestore gestorFirestore;
     private FirebaseAuth mAuth;
 
     /**
-     * Constructor de la clase AdaptadorPublicaciones.
-     *
-     * @param listaPublicaciones La lista de publicaciones a mostrar.
+     * Constructor de la clase AdaptadorPublicaciones. Las publicaciones se indican después con submitList.
      */
-    public AdaptadorPublicaciones(List<Publicacion> listaPublicaciones) {
-        this.listaPublicaciones = listaPublicaciones;
+    public AdaptadorPublicaciones() {
+        super(COMPARADOR);
         this.gestorFirestore = new GestorFirestore();
         this.mAuth = FirebaseAuth.getInstance();
     }
@@ -95,47 +123,48 @@ public class AdaptadorPublicaciones extends RecyclerView.Adapter<AdaptadorPublic
     @Override
     public void onBindViewHolder(ViewHolder holder, @SuppressLint("RecyclerView") int position) {
         /*
-         * Invoca el método obtenerUsuarioPorId del objeto gestorFirestore para obtener información
+         * Invoca el método obtenerResumenUsuario del objeto gestorFirestore para obtener información
          * del usuario correspondiente a la publicación en la posición dada.
          * */
-        gestorFirestore.obtenerUsuarioPorId(listaPublicaciones.get(position).getAutorUid(), new GestorFirestore.Callback<Usuario>() {
+        gestorFirestore.obtenerResumenUsuario(getItem(position).getAutorUid(), new GestorFirestore.Callback<UsuarioResumen>() {
             /**
              * Método invocado cuando se obtiene exitosamente la información de un usuario.
              * Actualiza el TextView autor del ViewHolder con el nombre del usuario obtenido
              * y carga la foto de perfil del usuario en el ImageView imgPerfil utilizando la biblioteca Glide.
              *
-             * @param result El objeto Usuario que contiene la información del usuario obtenido.
+             * @param result El resumen del usuario obtenido.
              */
             @Override
-            public void onSuccess(Usuario result) {
+            public void onSuccess(UsuarioResumen result) {
                 holder.autor.setText(result.getNombre());
-                if (!result.getFotoPerfil().equals("")) {
-                    Glide.with(holder.itemView.getContext()).load(result.getFotoPerfil()).fitCenter().into(holder.imgPerfil);
+                if (result.getFotoPerfil() != null && !result.getFotoPerfil().equals("")) {
+                    CargadorImagenes.cargarAvatar(holder.imgPerfil, result.obtenerFotoPerfilMiniatura());
                 } else {
-                    Glide.with(holder.itemView.getContext()).load(holder.itemView.getContext().getString(R.string.urlImagenPerfilPorDefecto)).override(100, 100).into(holder.imgPerfil);
+                    CargadorImagenes.cargarAvatar(holder.imgPerfil, holder.itemView.getContext().getString(R.string.urlImagenPerfilPorDefecto));
                 }
             }
-        }, Usuario.class);
+        });
         /*
          * Establece el texto de la publicación en el TextView texto del ViewHolder utilizando el
          * método getTexto() de la publicación en la posición dada.
          * */
-        holder.texto.setText(listaPublicaciones.get(position).getTexto());
+        holder.texto.setText(getItem(position).getTexto());
         /*
          * Establece la fecha de la publicación en el TextView fecha del ViewHolder utilizando el
          * método getFecha() de la publicación en la posición dada.
          * */
-        holder.fecha.setText(listaPublicaciones.get(position).getFecha());
+        holder.fecha.setText(getItem(position).getFecha());
         /*
          * Verifica si la publicación en la posición dada tiene una URL de imagen de publicación no
          * vacía.
          */
-        if (listaPublicaciones.get(position).getUrlImagenPublicacion() != "") {
+        if (getItem(position).getUrlImagenPublicacion() != "") {
             /*
              * Utiliza la biblioteca Glide para cargar y mostrar la imagen de la publicación en el
-             * ImageView imgPublicacion del ViewHolder.
+             * ImageView imgPublicacion del ViewHolder. Se carga la variante reducida para el muro y,
+             * mientras llega, su miniatura.
              */
-            Glide.with(holder.itemView.getContext()).load(listaPublicaciones.get(position).getUrlImagenPublicacion()).fitCenter().into(holder.imgPublicacion);
+            CargadorImagenes.imagenPublicacion(Glide.with(holder.imgPublicacion), getItem(position)).into(holder.imgPublicacion);
         } else {
             /*
              * Si la publicación no tiene una URL de imagen de publicación, establece la visibilidad
@@ -145,7 +174,7 @@ public class AdaptadorPublicaciones extends RecyclerView.Adapter<AdaptadorPublic
             holder.imgPublicacion.setVisibility(View.GONE);
         }
 
-        if (listaPublicaciones.get(position).getTexto().equals("")) {
+        if (getItem(position).getTexto().equals("")) {
             holder.texto.setVisibility(View.GONE);
             holder.divider.setVisibility(View.GONE);
         }
@@ -158,18 +187,18 @@ public class AdaptadorPublicaciones extends RecyclerView.Adapter<AdaptadorPublic
          */
         holder.imgPerfil.setOnClickListener(v -> {
             Intent intent = new Intent(v.getContext(), PerfilUsuario.class);
-            intent.putExtra("UidUsuario", listaPublicaciones.get(position).getAutorUid());
+            intent.putExtra("UidUsuario", getItem(holder.getAdapterPosition()).getAutorUid());
             v.getContext().startActivity(intent);
         });
     }
 
     /**
-     * Devuelve el número total de elementos en el conjunto de datos.
+     * Obtiene la publicación de una posición de la lista.
      *
-     * @return El número total de elementos en el conjunto de datos.
+     * @param position La posición de la publicación.
+     * @return La publicación.
      */
-    @Override
-    public int getItemCount() {
-        return listaPublicaciones.size();
+    public Publicacion getPublicacion(int position) {
+        return getItem(position);
     }
 }
@@ -14,17 +14,31 @@ import android.widget.TextView;
 
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.entidades.Resena;
-import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
+import com.example.tarea1firebase.gestor.CargadorImagenes;
 import com.example.tarea1firebase.gestor.GestorFirestore;
+import com.google.firebase.firestore.DocumentSnapshot;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class AdaptadorResenas extends RecyclerView.Adapter<AdaptadorResenas.ViewHolder> {
 
+    private static final int TAMANO_PAGINA = 10;
+
     private List<Resena> listaResenas;
+    private Map<String, UsuarioResumen> autores = new HashMap<>();
+    private String uidUsuario;
+    private GestorFirestore gestorFirestore;
+    private DocumentSnapshot ultimoDocumento;
+    private boolean hayMas;
+    private boolean cargando;
 
     /**
      * Constructor de la clase AdaptadorResenas.
@@ -33,13 +47,80 @@ public class AdaptadorResenas extends RecyclerView.Adapter<AdaptadorResenas.View
      */
     public AdaptadorResenas(List<Resena> listaResenas) {
         this.listaResenas = listaResenas;
+        this.gestorFirestore = new GestorFirestore();
+        resolverAutores(0, listaResenas.size());
+    }
+
+    /**
+     * Constructor de la clase AdaptadorResenas que carga por páginas las reseñas de un usuario de su subcolección
+     * de reseñas. Empieza vacío: las páginas se piden con cargarSiguientePagina.
+     *
+     * @param uidUsuario El ID del usuario cuyas reseñas se mostrarán.
+     */
+    public AdaptadorResenas(String uidUsuario) {
+        this.listaResenas = new ArrayList<>();
+        this.uidUsuario = uidUsuario;
+        this.gestorFirestore = new GestorFirestore();
+        this.hayMas = true;
+    }
+
+    /**
+     * Carga la siguiente página de reseñas y la añade al final de la lista. Si ya se está cargando una página o no
+     * quedan más, no hace nada.
+     *
+     * @param callback Un objeto Callback que recibe si quedan más reseñas por cargar.
+     */
+    public void cargarSiguientePagina(GestorFirestore.Callback<Boolean> callback) {
+        if (uidUsuario == null || cargando || !hayMas) {
+            return;
+        }
+        cargando = true;
+        gestorFirestore.obtenerPaginaResenas(uidUsuario, ultimoDocumento, TAMANO_PAGINA, new GestorFirestore.Callback<GestorFirestore.Pagina<Resena>>() {
+            @Override
+            public void onSuccess(GestorFirestore.Pagina<Resena> pagina) {
+                int posicionInicial = listaResenas.size();
+                listaResenas.addAll(pagina.elementos);
+                notifyItemRangeInserted(posicionInicial, pagina.elementos.size());
+                resolverAutores(posicionInicial, pagina.elementos.size());
+                ultimoDocumento = pagina.ultimoDocumento;
+                hayMas = pagina.hayMas;
+                cargando = false;
+                callback.onSuccess(hayMas);
+            }
+        });
+    }
+
+    /**
+     * Pide de una vez los resúmenes de los autores de un rango de reseñas que todavía no se conocen y, cuando llegan,
+     * vuelve a pintar esas filas. El contenido de las reseñas se muestra sin esperar a los autores.
+     *
+     * @param posicionInicial La posición de la primera reseña del rango.
+     * @param cantidad        La cantidad de reseñas del rango.
+     */
+    private void resolverAutores(int posicionInicial, int cantidad) {
+        Set<String> idsAutores = new HashSet<>();
+        for (int i = posicionInicial; i < posicionInicial + cantidad; i++) {
+            String uidAutor = listaResenas.get(i).getUidAutor();
+            if (!autores.containsKey(uidAutor)) {
+                idsAutores.add(uidAutor);
+            }
+        }
+        if (idsAutores.isEmpty()) {
+            return;
+        }
+        gestorFirestore.obtenerResumenesUsuarios(idsAutores, new GestorFirestore.Callback<Map<String, UsuarioResumen>>() {
+            @Override
+            public void onSuccess(Map<String, UsuarioResumen> resumenes) {
+                autores.putAll(resumenes);
+                notifyItemRangeChanged(posicionInicial, cantidad);
+            }
+        });
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         private TextView nombreUsu, fecha, texto;
         private ImageView imgUsu;
         private TextView estrellas;
-        private GestorFirestore gestorFirestore;
 
         /**
          * Constructor de la clase ViewHolder.
@@ -53,7 +134,6 @@ public class AdaptadorResenas extends RecyclerView.Adapter<AdaptadorResenas.View
             imgUsu = v.findViewById(R.id.imgUsuResena);
             estrellas = v.findViewById(R.id.txtValoracionResena);
             fecha = v.findViewById(R.id.txtFechaResena);
-            gestorFirestore = new GestorFirestore();
         }
     }
 
@@ -79,28 +159,26 @@ public class AdaptadorResenas extends RecyclerView.Adapter<AdaptadorResenas.View
      */
     @Override
     public void onBindViewHolder(ViewHolder holder, @SuppressLint("RecyclerView") int position) {
-        holder.gestorFirestore.obtenerUsuarioPorId(listaResenas.get(position).getUidAutor(), new GestorFirestore.Callback<Usuario>() {
-            /**
-             * Este método se llama cuando se obtiene el autor de la reseña de Firestore.
-             * Actualiza la vista del autor de la reseña con la información del autor.
-             *
-             * @param autor El autor de la reseña.
-             */
-            @Override
-            public void onSuccess(Usuario autor) {
-                holder.nombreUsu.setText(autor.getNombre());
-                holder.texto.setText(listaResenas.get(position).getTexto());
-                holder.estrellas.setText(String.valueOf(listaResenas.get(position).getValoracion()));
-                holder.fecha.setText(listaResenas.get(position).getFecha());
-                if (!autor.getFotoPerfil().equals("")) {
-                    Glide.with(holder.itemView.getContext()).load(autor.getFotoPerfil()).override(100, 100).into(holder.imgUsu);
-                } else {
-                    Glide.with(holder.itemView.getContext()).load(holder.itemView.getContext().getString(R.string.urlImagenPerfilPorDefecto)).override(100, 100).into(holder.imgUsu);
-                }
+        Resena resena = listaResenas.get(position);
+        holder.texto.setText(resena.getTexto());
+        holder.estrellas.setText(String.valueOf(resena.getValoracion()));
+        holder.fecha.setText(resena.getFecha());
 
+        /**
+         * El autor se toma de los resúmenes ya resueltos. Si todavía no ha llegado, la fila se vuelve a pintar
+         * cuando termine resolverAutores.
+         */
+        UsuarioResumen autor = autores.get(resena.getUidAutor());
+        String fotoPerfil = holder.itemView.getContext().getString(R.string.urlImagenPerfilPorDefecto);
+        if (autor != null) {
+            holder.nombreUsu.setText(autor.getNombre());
+            if (autor.getFotoPerfil() != null && !autor.getFotoPerfil().equals("")) {
+                fotoPerfil = autor.obtenerFotoPerfilMiniatura();
             }
-        }, Usuario.class);
-
+        } else {
+            holder.nombreUsu.setText("");
+        }
+        CargadorImagenes.cargarAvatar(holder.imgUsu, fotoPerfil);
     }
 
 
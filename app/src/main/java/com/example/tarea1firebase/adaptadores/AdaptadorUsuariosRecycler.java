@@ -26,44 +26,67 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.util.ViewPreloadSizeProvider;
 import com.example.tarea1firebase.PerfilUsuario;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
+import com.example.tarea1firebase.gestor.CargadorImagenes;
 import com.example.tarea1firebase.gestor.GestorFirestore;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
-public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsuariosRecycler.ViewHolder> {
-    private List<Usuario> listaUsuarios;
-    private List<Usuario> listaUsuariosFiltrados;
+public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsuariosRecycler.ViewHolder> implements ListPreloader.PreloadModelProvider<UsuarioResumen> {
+    private List<UsuarioResumen> listaUsuarios;
+    private List<UsuarioResumen> listaUsuariosFiltrados;
     private FirebaseAuth mAuth;
     private String usuarioActualUid;
     private FirebaseFirestore db;
     private List<String> favoritos;
     private GestorFirestore gestorFirebase;
+    private String consultaActual = "";
+    private final ViewPreloadSizeProvider<UsuarioResumen> tamanosAvatar = new ViewPreloadSizeProvider<>();
+    private RequestManager glide;
 
     /**
      * Constructor para el adaptador de usuarios.
      *
      * @param listaUsuarios la lista de usuarios que se mostrarán en el RecyclerView
      */
-    public AdaptadorUsuariosRecycler(ArrayList<Usuario> listaUsuarios) {
+    public AdaptadorUsuariosRecycler(ArrayList<UsuarioResumen> listaUsuarios) {
         this.listaUsuarios = listaUsuarios;
         this.listaUsuariosFiltrados = new ArrayList<>();
         listaUsuariosFiltrados.addAll(listaUsuarios);
         gestorFirebase = new GestorFirestore();
+        cargarFavoritos();
+    }
+
+    /**
+     * Obtiene una sola vez la lista de favoritos del usuario actual, en lugar de leer su documento en cada fila,
+     * y vuelve a pintar la lista cuando la tiene.
+     */
+    private void cargarFavoritos() {
+        gestorFirebase.obtenerUsuarioPorId(FirebaseAuth.getInstance().getCurrentUser().getUid(), new GestorFirestore.Callback<Usuario>() {
+            @Override
+            public void onSuccess(Usuario usuario) {
+                favoritos = usuario.getListaFavoritos() != null ? new ArrayList<>(usuario.getListaFavoritos()) : new ArrayList<>();
+                notifyDataSetChanged();
+            }
+        }, Usuario.class);
     }
 
     /**
@@ -105,6 +128,10 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.card_view_usuarios_explora_2, parent, false);
         ViewHolder viewHolder = new ViewHolder(v);
+        /*
+         * La precarga decodifica los avatares al tamaño de la vista de la fila.
+         */
+        tamanosAvatar.setView(viewHolder.fotoPerfil);
         return viewHolder;
     }
 
@@ -133,85 +160,42 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
          */
         holder.isFavorite = false;
         /*
-         * Obtiene el documento correspondiente al usuario actual de la colección especificada en COLECCION.
-         * Agrega un listener para ser notificado cuando se complete la operación.
+         * Si ya se ha cargado la lista de favoritos del usuario actual, actualiza el estado y la apariencia del botón de favoritos.
          */
-        db.collection(COLECCION).document(usuarioActualUid).get().addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
-            /**
-             * Método que se llama cuando se completa una tarea para obtener un DocumentSnapshot en Firebase Firestore.
-             * Se encarga de procesar el DocumentSnapshot y actualizar el estado y la apariencia del botón de favoritos en el ViewHolder.
-             *
-             * @param task La tarea completada que contiene el DocumentSnapshot.
+        if (favoritos != null) {
+            /*
+             * Verifica si el usuario actual se encuentra en la lista de favoritos.
              */
-            @Override
-            public void onComplete(@NonNull Task<DocumentSnapshot> task) {
+            if (favoritos.contains(listaUsuariosFiltrados.get(position).getId())) {
                 /*
-                 * Obtiene el DocumentSnapshot de la tarea completada.
+                 * El usuario actual es un favorito.
+                 * Establece la bandera isFavorite en verdadero.
                  */
-                DocumentSnapshot document = task.getResult();
+                holder.isFavorite = true;
                 /*
-                 * Convierte el DocumentSnapshot en un objeto de la clase Usuario.
+                 * Actualiza la apariencia del botón de favoritos con el drawable de corazón relleno.
                  */
-                Usuario usuario = document.toObject(Usuario.class);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    holder.btnFav.setForeground(ContextCompat.getDrawable(holder.itemView.getContext(), R.drawable.corazon_favoritos_relleno));
+                }
+            } else {
                 /*
-                 * Obtiene la lista de favoritos del usuario.
+                 * El usuario actual no es un favorito.
+                 * Establece la bandera isFavorite en falso.
                  */
-                favoritos = usuario.getListaFavoritos();
+                holder.isFavorite = false;
                 /*
-                 * Verifica si la posición actual es válida en la lista de usuarios filtrados.
+                 * Actualiza la apariencia del botón de favoritos con el drawable de corazón vacío.
                  */
-                if (listaUsuariosFiltrados.size() > position) {
-                    /*
-                     * Verifica si el usuario actual se encuentra en la lista de favoritos.
-                     */
-                    if (favoritos.contains(listaUsuariosFiltrados.get(position).getId())) {
-                        /*
-                         * El usuario actual es un favorito.
-                         * Establece la bandera isFavorite en verdadero.
-                         */
-                        holder.isFavorite = true;
-                        /*
-                         * Actualiza la apariencia del botón de favoritos con el drawable de corazón relleno.
-                         */
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                            holder.btnFav.setForeground(ContextCompat.getDrawable(holder.itemView.getContext(), R.drawable.corazon_favoritos_relleno));
-                        }
-                    } else {
-                        /*
-                         * El usuario actual no es un favorito.
-                         * Establece la bandera isFavorite en falso.
-                         */
-                        holder.isFavorite = false;
-                        /*
-                         * Actualiza la apariencia del botón de favoritos con el drawable de corazón vacío.
-                         */
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                            holder.btnFav.setForeground(ContextCompat.getDrawable(holder.itemView.getContext(), R.drawable.corazon_favoritos_vacio));
-                        }
-                    }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    holder.btnFav.setForeground(ContextCompat.getDrawable(holder.itemView.getContext(), R.drawable.corazon_favoritos_vacio));
                 }
-
             }
-        });
+        }
         /*
-         * Llamada al método obtenerMediaResenas() del objeto gestorFirebase.
-         * Se pasa como argumento el ID del usuario en la posición actual de la
-         * listaUsuariosFiltrados.
-         * Se crea una nueva instancia de la interfaz GestorFirestore.Callback y se
-         * proporciona una implementación anónima.
+         * La media de las reseñas viene ya calculada en el resumen del usuario.
          */
-        gestorFirebase.obtenerMediaResenas(listaUsuariosFiltrados.get(position).getId(), new GestorFirestore.Callback() {
-            /**
-             * Se llama cuando se recibe un resultado exitoso en la obtención de la media de estrellas.
-             * Actualiza el texto del lblMediaEstrellas con el valor de mediaEstrellas convertido a una cadena.
-             *
-             * @param mediaEstrellas El valor de la media de estrellas obtenido.
-             */
-            @Override
-            public void onSuccess(Object mediaEstrellas) {
-                holder.lblMediaEstrellas.setText(mediaEstrellas.toString());
-            }
-        });
+        holder.lblMediaEstrellas.setText(String.valueOf(listaUsuariosFiltrados.get(position).getMediaResenas()));
         /* Establece el texto del lblNombreUsuario con el nombre del usuario en la posición
          * actual de listaUsuariosFiltrados
          * Convierte el nombre a mayúsculas utilizando el Locale.ROOT para la configuración
@@ -241,7 +225,7 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
                 /*
                  *Carga la imagen de perfil utilizando Glide y la muestra en el ImageView holder.fotoPerfil.
                  */
-                Glide.with(holder.itemView.getContext()).load(listaUsuariosFiltrados.get(position).getFotoPerfil()).into(holder.fotoPerfil);
+                CargadorImagenes.cargarAvatar(holder.fotoPerfil, listaUsuariosFiltrados.get(position).getFotoPerfil());
             } catch (Exception e) {
                 /*
                  * Manejo de excepciones en caso de error al cargar la imagen.
@@ -260,7 +244,7 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
                  * Carga la imagen de perfil utilizando Glide y la ajusta al centro dentro del
                  * ImageView holder.fotoPerfil.
                  */
-                Glide.with(holder.itemView.getContext()).load(listaUsuariosFiltrados.get(position).getFotoPerfil()).fitCenter().into(holder.fotoPerfil);
+                CargadorImagenes.cargarAvatar(holder.fotoPerfil, listaUsuariosFiltrados.get(position).obtenerFotoPerfilMiniatura());
             } catch (Exception e) {
                 /*
                  * Manejo de excepciones en caso de error al cargar la imagen.
@@ -329,6 +313,10 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
                     @Override
                     public void onSuccess(String result) {
                         holder.isFavorite = false;
+                        if (favoritos != null) {
+                            favoritos.remove(listaUsuariosFiltrados.get(position).getId());
+                        }
+                        gestorFirebase.quitarAutorDelMuro(usuarioActualUid, listaUsuariosFiltrados.get(position).getId());
                     }
                 });
 
@@ -352,6 +340,10 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
                      * Establece la bandera isFavorite en verdadero para indicar que el usuario es un favorito.
                      */
                     holder.isFavorite = true;
+                    if (favoritos != null) {
+                        favoritos.add(listaUsuariosFiltrados.get(position).getId());
+                    }
+                    gestorFirebase.anadirAutorAlMuro(usuarioActualUid, listaUsuariosFiltrados.get(position).getId());
                 });
             }
 
@@ -370,6 +362,22 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
         return listaUsuariosFiltrados.size();
     }
 
+    /**
+     * Añade una página de usuarios al final de la lista. Si hay un filtro activo, solo se muestran los que lo cumplen.
+     *
+     * @param usuarios los resúmenes de los usuarios a añadir
+     */
+    public void anadirUsuarios(List<UsuarioResumen> usuarios) {
+        int posicionInicial = listaUsuariosFiltrados.size();
+        for (UsuarioResumen user : usuarios) {
+            listaUsuarios.add(user);
+            if (cumpleFiltro(user, consultaActual)) {
+                listaUsuariosFiltrados.add(user);
+            }
+        }
+        notifyItemRangeInserted(posicionInicial, listaUsuariosFiltrados.size() - posicionInicial);
+    }
+
     /**
      * Método que filtra la lista de usuarios
      *
@@ -377,24 +385,61 @@ public class AdaptadorUsuariosRecycler extends RecyclerView.Adapter<AdaptadorUsu
      * @param progressBar barra de progreso que se mostrará durante el filtrado
      */
     public void filter(String query, ProgressBar progressBar) {
+        consultaActual = query;
         listaUsuariosFiltrados.clear();
         progressBar.setVisibility(View.VISIBLE);
-        if (query.isEmpty()) {
-            listaUsuariosFiltrados.addAll(listaUsuarios);
-        } else {
-            String lowercaseQuery = query.toLowerCase();
-            for (Usuario user : listaUsuarios) {
-                if (user.getNombre().toLowerCase().contains(lowercaseQuery)
-                        || (user.getCiudad() != null && user.getCiudad().toLowerCase().contains(lowercaseQuery))
-                        || (user.getListaGeneros() != null && user.getListaGeneros().toString().toLowerCase().contains(lowercaseQuery))) {
-                    listaUsuariosFiltrados.add(user);
-                }
+        for (UsuarioResumen user : listaUsuarios) {
+            if (cumpleFiltro(user, query)) {
+                listaUsuariosFiltrados.add(user);
             }
         }
         notifyDataSetChanged();
         new Handler().postDelayed(() -> progressBar.setVisibility(View.GONE), 900);
     }
 
+    /**
+     * Comprueba si un usuario coincide con el texto de búsqueda por nombre, ciudad o géneros.
+     *
+     * @param user  el usuario
+     * @param query cadena de texto de la búsqueda
+     * @return true si coincide o si la búsqueda está vacía
+     */
+    private boolean cumpleFiltro(UsuarioResumen user, String query) {
+        if (query.isEmpty()) {
+            return true;
+        }
+        String lowercaseQuery = query.toLowerCase();
+        return user.getNombre().toLowerCase().contains(lowercaseQuery)
+                || (user.getCiudad() != null && user.getCiudad().toLowerCase().contains(lowercaseQuery))
+                || (user.getListaGeneros() != null && user.getListaGeneros().toString().toLowerCase().contains(lowercaseQuery));
+    }
+
+    /**
+     * Empieza a precargar los avatares de las filas siguientes a medida que se desplaza la lista.
+     *
+     * @param recycler la lista que muestra este adaptador
+     */
+    public void precargarEn(RecyclerView recycler) {
+        glide = Glide.with(recycler);
+        CargadorImagenes.precargar(recycler, this, tamanosAvatar);
+    }
+
+    @NonNull
+    @Override
+    public List<UsuarioResumen> getPreloadItems(int position) {
+        if (position >= listaUsuariosFiltrados.size() || listaUsuariosFiltrados.get(position).getFotoPerfil() == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(listaUsuariosFiltrados.get(position));
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull UsuarioResumen usuario) {
+        // Misma petición que en onBindViewHolder, para que la fila la encuentre ya en la caché
+        return CargadorImagenes.avatar(glide, usuario.obtenerFotoPerfilMiniatura());
+    }
+
 
 }
 
@@ -0,0 +1,166 @@
+package com.example.tarea1firebase.adaptadores;
+
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.target.Target;
+import com.example.tarea1firebase.R;
+import com.example.tarea1firebase.entidades.Publicacion;
+import com.example.tarea1firebase.gestor.CargadorImagenes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precarga en la caché de Glide las imágenes de las publicaciones que van a aparecer en el muro, para que al
+ * desplazarlo rápido las tarjetas no salgan vacías. Se precargan las siguientes publicaciones en el sentido en el que
+ * se está desplazando la lista, con prioridad baja, y se cancelan las que se quedan fuera de ese margen.
+ * Como mucho se precargan tantas como quepan en el presupuesto de bytes, calculado con el tamaño de la imagen de
+ * una fila ya decodificada.
+ * Trabaja con el adaptador que tenga la lista en cada momento, así que sigue funcionando aunque se sustituya.
+ */
+public class PrecargadorPublicaciones extends RecyclerView.OnScrollListener {
+    /**
+     * Publicaciones por delante de la última visible que se precargan si no se indica otra cantidad.
+     */
+    public static final int PUBLICACIONES_POR_DEFECTO = 6;
+    /**
+     * Memoria máxima que pueden ocupar las imágenes precargadas si no se indica otro presupuesto.
+     */
+    public static final long PRESUPUESTO_POR_DEFECTO_BYTES = 12L * 1024 * 1024;
+    /**
+     * Bytes por píxel de un bitmap ARGB_8888, el formato con el que se decodifican las imágenes del muro.
+     */
+    private static final int BYTES_POR_PIXEL = 4;
+
+    private final RequestManager glide;
+    private final int publicaciones;
+    private final long presupuestoBytes;
+    /**
+     * Precargas lanzadas, por URL de la imagen. Se indexan por URL y no por posición para que sigan valiendo
+     * cuando el muro se reordena o cambia de adaptador.
+     */
+    private final Map<String, Target<?>> precargas = new HashMap<>();
+    private int direccion = 1;
+
+    /**
+     * Crea un precargador con la cantidad y el presupuesto por defecto.
+     *
+     * @param glide El RequestManager de la pantalla, para que las precargas se cancelen al cerrarla.
+     */
+    public PrecargadorPublicaciones(RequestManager glide) {
+        this(glide, PUBLICACIONES_POR_DEFECTO, PRESUPUESTO_POR_DEFECTO_BYTES);
+    }
+
+    /**
+     * Crea un precargador.
+     *
+     * @param glide            El RequestManager de la pantalla, para que las precargas se cancelen al cerrarla.
+     * @param publicaciones    Cuántas publicaciones por delante de las visibles se precargan.
+     * @param presupuestoBytes Memoria máxima que pueden ocupar las imágenes precargadas.
+     */
+    public PrecargadorPublicaciones(RequestManager glide, int publicaciones, long presupuestoBytes) {
+        this.glide = glide;
+        this.publicaciones = publicaciones;
+        this.presupuestoBytes = presupuestoBytes;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        // La lista también avisa con dy = 0 después de cada layout, por ejemplo al cambiar de adaptador
+        if (dy > 0) {
+            direccion = 1;
+        } else if (dy < 0) {
+            direccion = -1;
+        }
+        actualizar(recyclerView);
+    }
+
+    /**
+     * Calcula qué publicaciones hay que tener precargadas según lo que se ve ahora, lanza las que faltan y cancela
+     * las que ya no hacen falta.
+     *
+     * @param recycler La lista del muro.
+     */
+    private void actualizar(RecyclerView recycler) {
+        if (!(recycler.getAdapter() instanceof AdaptadorPublicaciones) || !(recycler.getLayoutManager() instanceof LinearLayoutManager)) {
+            cancelarTodas();
+            return;
+        }
+        AdaptadorPublicaciones adaptador = (AdaptadorPublicaciones) recycler.getAdapter();
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recycler.getLayoutManager();
+        int primera = layoutManager.findFirstVisibleItemPosition();
+        int ultima = layoutManager.findLastVisibleItemPosition();
+        if (primera == RecyclerView.NO_POSITION) {
+            return;
+        }
+        View imagen = buscarImagenVisible(recycler);
+        if (imagen == null) {
+            // Todavía no hay ninguna imagen con tamaño para saber a cuánto decodificar
+            return;
+        }
+        int ancho = imagen.getWidth() - imagen.getPaddingLeft() - imagen.getPaddingRight();
+        int alto = imagen.getHeight() - imagen.getPaddingTop() - imagen.getPaddingBottom();
+        long bytesPorImagen = (long) ancho * alto * BYTES_POR_PIXEL;
+        int cantidad = (int) Math.min(publicaciones, presupuestoBytes / bytesPorImagen);
+
+        // Las siguientes publicaciones con imagen en el sentido del desplazamiento
+        Map<String, Publicacion> ventana = new LinkedHashMap<>();
+        for (int posicion = direccion > 0 ? ultima + 1 : primera - 1;
+             ventana.size() < cantidad && posicion >= 0 && posicion < adaptador.getItemCount();
+             posicion += direccion) {
+            Publicacion publicacion = adaptador.getPublicacion(posicion);
+            String url = publicacion.getUrlImagenPublicacion();
+            if (url != null && !url.isEmpty()) {
+                ventana.put(publicacion.obtenerUrlImagenFeed(), publicacion);
+            }
+        }
+
+        Iterator<Map.Entry<String, Target<?>>> iterador = precargas.entrySet().iterator();
+        while (iterador.hasNext()) {
+            Map.Entry<String, Target<?>> precarga = iterador.next();
+            if (!ventana.containsKey(precarga.getKey())) {
+                glide.clear(precarga.getValue());
+                iterador.remove();
+            }
+        }
+        for (Map.Entry<String, Publicacion> entrada : ventana.entrySet()) {
+            if (!precargas.containsKey(entrada.getKey())) {
+                // Misma petición y mismo tamaño que la fila, para que al llegar a ella la encuentre en la caché
+                precargas.put(entrada.getKey(), CargadorImagenes.imagenPublicacion(glide, entrada.getValue())
+                        .priority(Priority.LOW)
+                        .preload(ancho, alto));
+            }
+        }
+    }
+
+    /**
+     * Busca entre las filas visibles una imagen de publicación que ya tenga tamaño.
+     */
+    private View buscarImagenVisible(RecyclerView recycler) {
+        for (int i = 0; i < recycler.getChildCount(); i++) {
+            View imagen = recycler.getChildAt(i).findViewById(R.id.img_publicacion);
+            if (imagen != null && imagen.getVisibility() == View.VISIBLE && imagen.getWidth() > 0 && imagen.getHeight() > 0) {
+                return imagen;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cancela todas las precargas pendientes.
+     */
+    public void cancelarTodas() {
+        for (Target<?> precarga : precargas.values()) {
+            glide.clear(precarga);
+        }
+        precargas.clear();
+    }
+}
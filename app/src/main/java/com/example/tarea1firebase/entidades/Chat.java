@@ -1,5 +1,7 @@
 package com.example.tarea1firebase.entidades;
 
+import com.google.firebase.database.Exclude;
+
 import java.util.ArrayList;
 
 /**
@@ -9,6 +11,7 @@ public class Chat {
     private ArrayList<Mensaje> listaMensajes;
     private String usuario1, usuario2;
     private String fechaUltimoMsj;
+    private long marcaTiempoUltimoMsj;
     private String chatId;
 
     /**
@@ -54,10 +57,13 @@ public class Chat {
     }
 
     /**
-     * Obtiene el identificador del chat.
+     * Obtiene la lista de mensajes en el chat.
+     * Los mensajes se guardan en la base de datos bajo claves generadas con push, por lo que no se serializan junto
+     * con el chat; se leen y escriben directamente en el nodo "listaMensajes".
      *
-     * @return El identificador del chat.
+     * @return La lista de mensajes en el chat.
      */
+    @Exclude
     public ArrayList<Mensaje> getListaMensajes() {
         return listaMensajes;
     }
@@ -67,6 +73,7 @@ public class Chat {
      *
      * @param listaMensajes La lista de mensajes a establecer en el chat.
      */
+    @Exclude
     public void setListaMensajes(ArrayList<Mensaje> listaMensajes) {
         this.listaMensajes = listaMensajes;
     }
@@ -133,4 +140,31 @@ public class Chat {
     public void anadirMensaje(Mensaje msj) {
         this.listaMensajes.add(msj);
     }
+
+    /**
+     * Obtiene la fecha del último mensaje en el chat en milisegundos desde 1970.
+     *
+     * @return La fecha del último mensaje en el chat en milisegundos, o 0 si se guardó con una versión anterior.
+     */
+    public long getMarcaTiempoUltimoMsj() {
+        return marcaTiempoUltimoMsj;
+    }
+
+    /**
+     * Establece la fecha del último mensaje en el chat en milisegundos desde 1970.
+     *
+     * @param marcaTiempoUltimoMsj La fecha del último mensaje en el chat en milisegundos.
+     */
+    public void setMarcaTiempoUltimoMsj(long marcaTiempoUltimoMsj) {
+        this.marcaTiempoUltimoMsj = marcaTiempoUltimoMsj;
+    }
+
+    /**
+     * Calcula la fecha del último mensaje en el chat en milisegundos para ordenar. Si solo existe la fecha en texto de versiones anteriores, la convierte.
+     *
+     * @return La fecha del último mensaje en el chat en milisegundos, o 0 si no se conoce.
+     */
+    public long calcularMarcaTiempoUltimoMsj() {
+        return marcaTiempoUltimoMsj > 0 ? marcaTiempoUltimoMsj : ConversorFechas.aMilisegundos(fechaUltimoMsj, ConversorFechas.FORMATO_MENSAJE, ConversorFechas.ZONA_MENSAJES);
+    }
 }
@@ -0,0 +1,94 @@
+package com.example.tarea1firebase.entidades;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Utilidades para convertir las fechas guardadas como texto en versiones anteriores de la aplicación a milisegundos.
+ * Las fechas en milisegundos se ordenan con una comparación de números y permiten ordenar las consultas en el servidor.
+ */
+public final class ConversorFechas {
+    /**
+     * Formato de la fecha de los mensajes y del último mensaje de un chat.
+     */
+    public static final String FORMATO_MENSAJE = "dd/MM HH:mm";
+    /**
+     * Formato de la fecha de las publicaciones.
+     */
+    public static final String FORMATO_PUBLICACION = "MM/dd/HH:mm";
+    /**
+     * Formato de la fecha de las reseñas.
+     */
+    public static final String FORMATO_RESENA = "dd/MM/yyyy";
+    /**
+     * Zona horaria con la que se guardan las fechas de los mensajes.
+     */
+    public static final TimeZone ZONA_MENSAJES = TimeZone.getTimeZone("Europe/Madrid");
+
+    private ConversorFechas() {
+    }
+
+    /**
+     * Convierte una fecha en texto a milisegundos. Si el formato no incluye el año, se supone que la fecha es del último
+     * año (la más reciente que no esté en el futuro).
+     *
+     * @param fecha   La fecha en texto.
+     * @param formato El formato de la fecha.
+     * @param zona    La zona horaria con la que se escribió la fecha.
+     * @return La fecha en milisegundos, o 0 si no se puede leer.
+     */
+    public static long aMilisegundos(String fecha, String formato, TimeZone zona) {
+        return aMilisegundos(fecha, formato, zona, System.currentTimeMillis());
+    }
+
+    /**
+     * Convierte una fecha en texto a milisegundos tomando como momento actual el indicado.
+     *
+     * @param fecha   La fecha en texto.
+     * @param formato El formato de la fecha.
+     * @param zona    La zona horaria con la que se escribió la fecha.
+     * @param ahora   El momento actual en milisegundos, para deducir el año si el formato no lo incluye.
+     * @return La fecha en milisegundos, o 0 si no se puede leer.
+     */
+    static long aMilisegundos(String fecha, String formato, TimeZone zona, long ahora) {
+        if (fecha == null || fecha.isEmpty()) {
+            return 0;
+        }
+        SimpleDateFormat formatter = new SimpleDateFormat(formato);
+        formatter.setTimeZone(zona);
+        try {
+            Date date = formatter.parse(fecha);
+            if (formato.contains("y")) {
+                return date.getTime();
+            }
+            Calendar calendario = Calendar.getInstance(zona);
+            calendario.setTimeInMillis(ahora);
+            int anoActual = calendario.get(Calendar.YEAR);
+            calendario.setTime(date);
+            calendario.set(Calendar.YEAR, anoActual);
+            if (calendario.getTimeInMillis() > ahora) {
+                calendario.set(Calendar.YEAR, anoActual - 1);
+            }
+            return calendario.getTimeInMillis();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Convierte una fecha en milisegundos a texto.
+     *
+     * @param milisegundos La fecha en milisegundos.
+     * @param formato      El formato de la fecha.
+     * @param zona         La zona horaria.
+     * @return La fecha en texto.
+     */
+    public static String formatear(long milisegundos, String formato, TimeZone zona) {
+        SimpleDateFormat formatter = new SimpleDateFormat(formato);
+        formatter.setTimeZone(zona);
+        return formatter.format(new Date(milisegundos));
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.tarea1firebase.entidades;
+
+/**
+ * La clase EntradaBandeja representa un chat dentro de la bandeja de entrada de un usuario.
+ * Es un resumen pequeño del chat que se mantiene al enviar cada mensaje, para pintar la lista de chats recientes
+ * sin tener que descargar los mensajes de cada chat.
+ */
+public class EntradaBandeja {
+    private String chatId;
+    private String otroUsuarioUid;
+    private String vistaPreviaUltimoMsj;
+    private long marcaTiempoUltimoMsj;
+    private long mensajesSinLeer;
+
+    /**
+     * Constructor sin argumentos para la clase EntradaBandeja.
+     */
+    public EntradaBandeja() {
+
+    }
+
+    /**
+     * Constructor con argumentos para la clase EntradaBandeja.
+     *
+     * @param chatId               El identificador del chat.
+     * @param otroUsuarioUid       El identificador del otro usuario del chat.
+     * @param vistaPreviaUltimoMsj El texto (recortado) del último mensaje.
+     * @param marcaTiempoUltimoMsj La fecha del último mensaje en milisegundos.
+     * @param mensajesSinLeer      La cantidad de mensajes que el usuario todavía no ha leído.
+     */
+    public EntradaBandeja(String chatId, String otroUsuarioUid, String vistaPreviaUltimoMsj, long marcaTiempoUltimoMsj, long mensajesSinLeer) {
+        this.chatId = chatId;
+        this.otroUsuarioUid = otroUsuarioUid;
+        this.vistaPreviaUltimoMsj = vistaPreviaUltimoMsj;
+        this.marcaTiempoUltimoMsj = marcaTiempoUltimoMsj;
+        this.mensajesSinLeer = mensajesSinLeer;
+    }
+
+    /**
+     * Obtiene el identificador del chat.
+     *
+     * @return El identificador del chat.
+     */
+    public String getChatId() {
+        return chatId;
+    }
+
+    /**
+     * Establece el identificador del chat.
+     *
+     * @param chatId El identificador del chat a establecer.
+     */
+    public void setChatId(String chatId) {
+        this.chatId = chatId;
+    }
+
+    /**
+     * Obtiene el identificador del otro usuario del chat.
+     *
+     * @return El identificador del otro usuario.
+     */
+    public String getOtroUsuarioUid() {
+        return otroUsuarioUid;
+    }
+
+    /**
+     * Establece el identificador del otro usuario del chat.
+     *
+     * @param otroUsuarioUid El identificador del otro usuario a establecer.
+     */
+    public void setOtroUsuarioUid(String otroUsuarioUid) {
+        this.otroUsuarioUid = otroUsuarioUid;
+    }
+
+    /**
+     * Obtiene el texto del último mensaje del chat.
+     *
+     * @return El texto del último mensaje.
+     */
+    public String getVistaPreviaUltimoMsj() {
+        return vistaPreviaUltimoMsj;
+    }
+
+    /**
+     * Establece el texto del último mensaje del chat.
+     *
+     * @param vistaPreviaUltimoMsj El texto del último mensaje a establecer.
+     */
+    public void setVistaPreviaUltimoMsj(String vistaPreviaUltimoMsj) {
+        this.vistaPreviaUltimoMsj = vistaPreviaUltimoMsj;
+    }
+
+    /**
+     * Obtiene la fecha del último mensaje en milisegundos.
+     *
+     * @return La fecha del último mensaje.
+     */
+    public long getMarcaTiempoUltimoMsj() {
+        return marcaTiempoUltimoMsj;
+    }
+
+    /**
+     * Establece la fecha del último mensaje en milisegundos.
+     *
+     * @param marcaTiempoUltimoMsj La fecha del último mensaje a establecer.
+     */
+    public void setMarcaTiempoUltimoMsj(long marcaTiempoUltimoMsj) {
+        this.marcaTiempoUltimoMsj = marcaTiempoUltimoMsj;
+    }
+
+    /**
+     * Obtiene la cantidad de mensajes sin leer del chat.
+     *
+     * @return La cantidad de mensajes sin leer.
+     */
+    public long getMensajesSinLeer() {
+        return mensajesSinLeer;
+    }
+
+    /**
+     * Establece la cantidad de mensajes sin leer del chat.
+     *
+     * @param mensajesSinLeer La cantidad de mensajes sin leer a establecer.
+     */
+    public void setMensajesSinLeer(long mensajesSinLeer) {
+        this.mensajesSinLeer = mensajesSinLeer;
+    }
+}
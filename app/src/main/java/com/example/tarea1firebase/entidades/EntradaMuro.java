@@ -0,0 +1,88 @@
+package com.example.tarea1firebase.entidades;
+
+/**
+ * La clase EntradaMuro representa una publicación dentro del muro de un usuario.
+ * Solo guarda la referencia a la publicación (su ID en la colección de publicaciones), su autor y su fecha, para
+ * ordenar y paginar el muro; el texto y las imágenes se leen de la publicación. Así, repartir una publicación a los
+ * muros de los seguidores no copia su contenido y los cambios en la publicación se ven en todos los muros.
+ */
+public class EntradaMuro {
+    private String id;
+    private String autorUid;
+    private long marcaTiempo;
+
+    /**
+     * Constructor sin argumentos para la clase EntradaMuro.
+     */
+    public EntradaMuro() {
+
+    }
+
+    /**
+     * Crea la entrada del muro de una publicación.
+     *
+     * @param publicacion La publicación, ya con su ID y su marca de tiempo.
+     * @return La entrada del muro.
+     */
+    public static EntradaMuro desdePublicacion(Publicacion publicacion) {
+        EntradaMuro entrada = new EntradaMuro();
+        entrada.id = publicacion.getId();
+        entrada.autorUid = publicacion.getAutorUid();
+        entrada.marcaTiempo = publicacion.getMarcaTiempo();
+        return entrada;
+    }
+
+    /**
+     * Obtiene el ID de la publicación, que es también el ID de la entrada en el muro.
+     *
+     * @return El ID de la publicación.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Establece el ID de la publicación.
+     *
+     * @param id El ID de la publicación a establecer.
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Obtiene el UID del autor de la publicación.
+     *
+     * @return El UID del autor.
+     */
+    public String getAutorUid() {
+        return autorUid;
+    }
+
+    /**
+     * Establece el UID del autor de la publicación.
+     *
+     * @param autorUid El UID del autor a establecer.
+     */
+    public void setAutorUid(String autorUid) {
+        this.autorUid = autorUid;
+    }
+
+    /**
+     * Obtiene la fecha de la publicación en milisegundos, por la que se ordena el muro.
+     *
+     * @return La fecha de la publicación en milisegundos.
+     */
+    public long getMarcaTiempo() {
+        return marcaTiempo;
+    }
+
+    /**
+     * Establece la fecha de la publicación en milisegundos.
+     *
+     * @param marcaTiempo La fecha de la publicación a establecer.
+     */
+    public void setMarcaTiempo(long marcaTiempo) {
+        this.marcaTiempo = marcaTiempo;
+    }
+}
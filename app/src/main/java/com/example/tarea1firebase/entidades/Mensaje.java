@@ -5,6 +5,7 @@ package com.example.tarea1firebase.entidades;
  */
 public class Mensaje {
     private String remitente, texto, fechaYHora;
+    private long marcaTiempo;
 
     /**
      * Constructor sin argumentos para la clase Mensaje.
@@ -78,4 +79,31 @@ public class Mensaje {
     public void setFechaYHora(String fechaYHora) {
         this.fechaYHora = fechaYHora;
     }
+
+    /**
+     * Obtiene la fecha y hora en que se envió el mensaje en milisegundos desde 1970.
+     *
+     * @return La fecha y hora en que se envió el mensaje en milisegundos, o 0 si se guardó con una versión anterior.
+     */
+    public long getMarcaTiempo() {
+        return marcaTiempo;
+    }
+
+    /**
+     * Establece la fecha y hora en que se envió el mensaje en milisegundos desde 1970.
+     *
+     * @param marcaTiempo La fecha y hora en que se envió el mensaje en milisegundos.
+     */
+    public void setMarcaTiempo(long marcaTiempo) {
+        this.marcaTiempo = marcaTiempo;
+    }
+
+    /**
+     * Calcula la fecha y hora en que se envió el mensaje en milisegundos para ordenar. Si solo existe la fecha en texto de versiones anteriores, la convierte.
+     *
+     * @return La fecha y hora en que se envió el mensaje en milisegundos, o 0 si no se conoce.
+     */
+    public long calcularMarcaTiempo() {
+        return marcaTiempo > 0 ? marcaTiempo : ConversorFechas.aMilisegundos(fechaYHora, ConversorFechas.FORMATO_MENSAJE, ConversorFechas.ZONA_MENSAJES);
+    }
 }
@@ -0,0 +1,135 @@
+package com.example.tarea1firebase.entidades;
+
+import android.util.Base64;
+
+import java.io.Serializable;
+
+/**
+ * La clase MetadatosCancion representa los datos de una canción que se calculan al subirla: duración, frecuencia de
+ * muestreo, canales y la forma de onda resumida en unos cientos de picos. Se guarda en la subcolección
+ * "metadatosCanciones" del usuario, para que las filas de canciones puedan mostrar la duración y la forma de onda
+ * sin descargar ni preparar el audio.
+ * Implementa la interfaz Serializable para permitir la serialización de objetos.
+ */
+public class MetadatosCancion implements Serializable {
+    private String url;
+    private long duracion;
+    private int frecuenciaMuestreo;
+    private int canales;
+    private String picos;
+
+    /**
+     * Constructor sin argumentos para la clase MetadatosCancion.
+     */
+    public MetadatosCancion() {
+
+    }
+
+    /**
+     * Obtiene la URL de descarga de la canción.
+     *
+     * @return La URL de la canción.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Establece la URL de descarga de la canción.
+     *
+     * @param url La URL de la canción.
+     */
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Obtiene la duración de la canción.
+     *
+     * @return La duración en milisegundos.
+     */
+    public long getDuracion() {
+        return duracion;
+    }
+
+    /**
+     * Establece la duración de la canción.
+     *
+     * @param duracion La duración en milisegundos.
+     */
+    public void setDuracion(long duracion) {
+        this.duracion = duracion;
+    }
+
+    /**
+     * Obtiene la frecuencia de muestreo del audio.
+     *
+     * @return La frecuencia de muestreo en hercios.
+     */
+    public int getFrecuenciaMuestreo() {
+        return frecuenciaMuestreo;
+    }
+
+    /**
+     * Establece la frecuencia de muestreo del audio.
+     *
+     * @param frecuenciaMuestreo La frecuencia de muestreo en hercios.
+     */
+    public void setFrecuenciaMuestreo(int frecuenciaMuestreo) {
+        this.frecuenciaMuestreo = frecuenciaMuestreo;
+    }
+
+    /**
+     * Obtiene la cantidad de canales del audio.
+     *
+     * @return La cantidad de canales.
+     */
+    public int getCanales() {
+        return canales;
+    }
+
+    /**
+     * Establece la cantidad de canales del audio.
+     *
+     * @param canales La cantidad de canales.
+     */
+    public void setCanales(int canales) {
+        this.canales = canales;
+    }
+
+    /**
+     * Obtiene los picos de la forma de onda codificados en Base64 (un byte de 0 a 255 por pico).
+     *
+     * @return Los picos codificados, o null si no se pudieron calcular.
+     */
+    public String getPicos() {
+        return picos;
+    }
+
+    /**
+     * Establece los picos de la forma de onda codificados en Base64.
+     *
+     * @param picos Los picos codificados.
+     */
+    public void setPicos(String picos) {
+        this.picos = picos;
+    }
+
+    /**
+     * Decodifica los picos de la forma de onda.
+     *
+     * @return Los picos, de 0 a 255 (leídos como byte sin signo), o null si no hay.
+     */
+    public byte[] decodificarPicos() {
+        return picos != null ? Base64.decode(picos, Base64.NO_WRAP) : null;
+    }
+
+    /**
+     * Codifica y guarda los picos de la forma de onda.
+     *
+     * @param picos Los picos, de 0 a 255 (guardados como byte sin signo).
+     */
+    public void codificarPicos(byte[] picos) {
+        this.picos = picos != null ? Base64.encodeToString(picos, Base64.NO_WRAP) : null;
+    }
+}
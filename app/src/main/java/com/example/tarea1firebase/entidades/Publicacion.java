@@ -5,11 +5,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.TimeZone;
 /**
  * Clase que representa una publicación.
  */
 public class Publicacion implements Serializable {
-    private String autorUid, texto, fecha, urlImagenPublicacion;
+    private String id, autorUid, texto, fecha, urlImagenPublicacion, urlImagenFeed, urlImagenMiniatura;
+    private long marcaTiempo;
     /**
      * Constructor vacío de la clase Publicacion.
      */
@@ -29,6 +31,22 @@ public class Publicacion implements Serializable {
         this.fecha = fecha;
         this.urlImagenPublicacion = urlImagenPublicacion;
     }
+    /**
+     * Obtiene el ID de la publicación, que es también el ID de su documento en la colección de publicaciones.
+     *
+     * @return El ID de la publicación, o null si todavía no se ha guardado.
+     */
+    public String getId() {
+        return id;
+    }
+    /**
+     * Establece el ID de la publicación.
+     *
+     * @param id El ID de la publicación.
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
     /**
      * Obtiene el UID del autor de la publicación.
      *
@@ -93,5 +111,69 @@ public class Publicacion implements Serializable {
     public void setUrlImagenPublicacion(String urlImagenPublicacion) {
         this.urlImagenPublicacion = urlImagenPublicacion;
     }
-
+    /**
+     * Obtiene la URL de la imagen de la publicación reducida para el muro.
+     *
+     * @return La URL de la variante para el muro, o null si la publicación es anterior a las variantes.
+     */
+    public String getUrlImagenFeed() {
+        return urlImagenFeed;
+    }
+    /**
+     * Establece la URL de la imagen de la publicación reducida para el muro.
+     *
+     * @param urlImagenFeed La URL de la variante para el muro.
+     */
+    public void setUrlImagenFeed(String urlImagenFeed) {
+        this.urlImagenFeed = urlImagenFeed;
+    }
+    /**
+     * Obtiene la URL de la miniatura de la imagen de la publicación.
+     *
+     * @return La URL de la miniatura, o null si la publicación es anterior a las variantes.
+     */
+    public String getUrlImagenMiniatura() {
+        return urlImagenMiniatura;
+    }
+    /**
+     * Establece la URL de la miniatura de la imagen de la publicación.
+     *
+     * @param urlImagenMiniatura La URL de la miniatura.
+     */
+    public void setUrlImagenMiniatura(String urlImagenMiniatura) {
+        this.urlImagenMiniatura = urlImagenMiniatura;
+    }
+    /**
+     * Obtiene la URL de la imagen que se debe mostrar en el muro: la variante reducida si existe o, en las
+     * publicaciones anteriores a las variantes, la imagen original.
+     *
+     * @return La URL de la imagen para el muro.
+     */
+    public String obtenerUrlImagenFeed() {
+        return urlImagenFeed != null && !urlImagenFeed.isEmpty() ? urlImagenFeed : urlImagenPublicacion;
+    }
+    /**
+     * Obtiene la fecha de la publicación en milisegundos desde 1970.
+     *
+     * @return La fecha de la publicación en milisegundos, o 0 si se guardó con una versión anterior.
+     */
+    public long getMarcaTiempo() {
+        return marcaTiempo;
+    }
+    /**
+     * Establece la fecha de la publicación en milisegundos desde 1970.
+     *
+     * @param marcaTiempo La fecha de la publicación en milisegundos.
+     */
+    public void setMarcaTiempo(long marcaTiempo) {
+        this.marcaTiempo = marcaTiempo;
+    }
+    /**
+     * Calcula la fecha de la publicación en milisegundos para ordenar. Si solo existe la fecha en texto de versiones anteriores, la convierte.
+     *
+     * @return La fecha de la publicación en milisegundos, o 0 si no se conoce.
+     */
+    public long calcularMarcaTiempo() {
+        return marcaTiempo > 0 ? marcaTiempo : ConversorFechas.aMilisegundos(fecha, ConversorFechas.FORMATO_PUBLICACION, TimeZone.getDefault());
+    }
 }
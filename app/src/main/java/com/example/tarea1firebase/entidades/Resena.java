@@ -1,6 +1,7 @@
 package com.example.tarea1firebase.entidades;
 
 import java.io.Serializable;
+import java.util.TimeZone;
 
 /**
  * La clase Resena representa una reseña o comentario sobre algo.
@@ -12,6 +13,7 @@ public class Resena implements Serializable {
     private String fecha;
     private String uidAutor;
     private int valoracion;
+    private long marcaTiempo;
 
     /**
      * Obtiene la fecha de la reseña.
@@ -106,4 +108,31 @@ public class Resena implements Serializable {
     public void setValoracion(int valoracion) {
         this.valoracion = valoracion;
     }
+
+    /**
+     * Obtiene la fecha de la reseña en milisegundos desde 1970.
+     *
+     * @return La fecha de la reseña en milisegundos, o 0 si se guardó con una versión anterior.
+     */
+    public long getMarcaTiempo() {
+        return marcaTiempo;
+    }
+
+    /**
+     * Establece la fecha de la reseña en milisegundos desde 1970.
+     *
+     * @param marcaTiempo La fecha de la reseña en milisegundos.
+     */
+    public void setMarcaTiempo(long marcaTiempo) {
+        this.marcaTiempo = marcaTiempo;
+    }
+
+    /**
+     * Calcula la fecha de la reseña en milisegundos para ordenar. Si solo existe la fecha en texto de versiones anteriores, la convierte.
+     *
+     * @return La fecha de la reseña en milisegundos, o 0 si no se conoce.
+     */
+    public long calcularMarcaTiempo() {
+        return marcaTiempo > 0 ? marcaTiempo : ConversorFechas.aMilisegundos(fecha, ConversorFechas.FORMATO_RESENA, TimeZone.getDefault());
+    }
 }
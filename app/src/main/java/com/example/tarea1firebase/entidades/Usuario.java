@@ -19,6 +19,7 @@ public class Usuario implements Serializable {
     private String spotify;
     private String soundCloud;
     private String fotoPerfil;
+    private String fotoPerfilMiniatura;
     private List<String> chatsRecientes;
     private List<String> arrayCanciones;
     private List<String> listaFavoritos;
@@ -26,6 +27,11 @@ public class Usuario implements Serializable {
     private List<String> visitasAlPerfil;
     private List<String> listaGeneros;
     private List<Publicacion> listaPublicaciones;
+    private long sumaValoraciones;
+    private long cantidadValoraciones;
+    private List<Long> histogramaValoraciones;
+    private long visitasTotales;
+    private long visitantesUnicos;
 
     /**
      * Constructor sin argumentos para la clase Usuario.
@@ -356,6 +362,34 @@ public class Usuario implements Serializable {
         this.fotoPerfil = fotoPerfil;
     }
 
+    /**
+     * Obtiene la URL de la miniatura de la foto de perfil del usuario.
+     *
+     * @return La URL de la miniatura, o null si la foto es anterior a las variantes.
+     */
+    public String getFotoPerfilMiniatura() {
+        return fotoPerfilMiniatura;
+    }
+
+    /**
+     * Establece la URL de la miniatura de la foto de perfil del usuario.
+     *
+     * @param fotoPerfilMiniatura La URL de la miniatura de la foto de perfil del usuario.
+     */
+    public void setFotoPerfilMiniatura(String fotoPerfilMiniatura) {
+        this.fotoPerfilMiniatura = fotoPerfilMiniatura;
+    }
+
+    /**
+     * Obtiene la URL de la foto de perfil que se debe mostrar en las listas: la miniatura si existe o, si no, la
+     * foto completa.
+     *
+     * @return La URL de la foto para las listas.
+     */
+    public String obtenerFotoPerfilMiniatura() {
+        return fotoPerfilMiniatura != null && !fotoPerfilMiniatura.isEmpty() ? fotoPerfilMiniatura : fotoPerfil;
+    }
+
     /**
      * Obtiene la lista de reseñas del usuario.
      *
@@ -388,17 +422,146 @@ public class Usuario implements Serializable {
         this.listaGeneros = listaGeneros;
     }
 
+    /**
+     * Obtiene las publicaciones guardadas en el documento del usuario por versiones anteriores de la aplicación. Las
+     * publicaciones nuevas van a su propia colección, y estas se pasan allí con GestorFirestore.migrarPublicaciones.
+     *
+     * @return Las publicaciones que quedan sin migrar, o null si no hay.
+     */
     public List<Publicacion> getListaPublicaciones() {
         return listaPublicaciones;
     }
 
     /**
-     * Establece la lista de publicaciones del usuario.
+     * Establece la lista de publicaciones del usuario de versiones anteriores de la aplicación.
      *
-     * @param listaPublicaciones La URL de la foto de perfil del usuario.
+     * @param listaPublicaciones Las publicaciones sin migrar.
      */
     public void setListaPublicaciones(List<Publicacion> listaPublicaciones) {
         this.listaPublicaciones = listaPublicaciones;
     }
 
+    /**
+     * Obtiene la suma de las valoraciones de todas las reseñas del usuario.
+     *
+     * @return La suma de las valoraciones.
+     */
+    public long getSumaValoraciones() {
+        return sumaValoraciones;
+    }
+
+    /**
+     * Establece la suma de las valoraciones de todas las reseñas del usuario.
+     *
+     * @param sumaValoraciones La suma de las valoraciones.
+     */
+    public void setSumaValoraciones(long sumaValoraciones) {
+        this.sumaValoraciones = sumaValoraciones;
+    }
+
+    /**
+     * Obtiene la cantidad de reseñas del usuario.
+     *
+     * @return La cantidad de reseñas.
+     */
+    public long getCantidadValoraciones() {
+        return cantidadValoraciones;
+    }
+
+    /**
+     * Establece la cantidad de reseñas del usuario.
+     *
+     * @param cantidadValoraciones La cantidad de reseñas.
+     */
+    public void setCantidadValoraciones(long cantidadValoraciones) {
+        this.cantidadValoraciones = cantidadValoraciones;
+    }
+
+    /**
+     * Obtiene cuántas reseñas hay de cada número de estrellas: la posición 0 son las de 1 estrella y la 4 las de 5.
+     *
+     * @return El histograma de valoraciones, o null si el usuario todavía no tiene valoraciones calculadas.
+     */
+    public List<Long> getHistogramaValoraciones() {
+        return histogramaValoraciones;
+    }
+
+    /**
+     * Establece cuántas reseñas hay de cada número de estrellas.
+     *
+     * @param histogramaValoraciones El histograma de valoraciones.
+     */
+    public void setHistogramaValoraciones(List<Long> histogramaValoraciones) {
+        this.histogramaValoraciones = histogramaValoraciones;
+    }
+
+    /**
+     * Obtiene la cantidad total de visitas al perfil del usuario, contando las repetidas.
+     *
+     * @return La cantidad total de visitas.
+     */
+    public long getVisitasTotales() {
+        return visitasTotales;
+    }
+
+    /**
+     * Establece la cantidad total de visitas al perfil del usuario.
+     *
+     * @param visitasTotales La cantidad total de visitas.
+     */
+    public void setVisitasTotales(long visitasTotales) {
+        this.visitasTotales = visitasTotales;
+    }
+
+    /**
+     * Obtiene la estimación de usuarios distintos que han visitado el perfil, calculada con el sketch de visitantes.
+     *
+     * @return La estimación de visitantes únicos.
+     */
+    public long getVisitantesUnicos() {
+        return visitantesUnicos;
+    }
+
+    /**
+     * Establece la estimación de usuarios distintos que han visitado el perfil.
+     *
+     * @param visitantesUnicos La estimación de visitantes únicos.
+     */
+    public void setVisitantesUnicos(long visitantesUnicos) {
+        this.visitantesUnicos = visitantesUnicos;
+    }
+
+    /**
+     * Calcula cuántos usuarios distintos han visitado el perfil. Si el usuario todavía tiene la lista de visitas de
+     * versiones anteriores (aún no se ha migrado al sketch), se usa su tamaño.
+     *
+     * @return La cantidad de visitantes únicos.
+     */
+    public long calcularVisitantesUnicos() {
+        if (visitasAlPerfil != null && visitasAlPerfil.size() > visitantesUnicos) {
+            return visitasAlPerfil.size();
+        }
+        return visitantesUnicos;
+    }
+
+    /**
+     * Calcula la valoración media del usuario con la suma y la cantidad de valoraciones guardadas. Si el usuario tiene
+     * reseñas de antes de que se guardaran estos totales, la media se calcula recorriendo la lista de reseñas.
+     *
+     * @return La valoración media, o 0 si no tiene reseñas.
+     */
+    public double calcularMediaValoraciones() {
+        if (cantidadValoraciones > 0) {
+            return (double) sumaValoraciones / cantidadValoraciones;
+        }
+        if (listaResenas == null || listaResenas.isEmpty()) {
+            return 0.0;
+        }
+        double suma = 0;
+        for (Resena resena : listaResenas) {
+            suma += resena.getValoracion();
+        }
+        return suma / listaResenas.size();
+    }
+
 }
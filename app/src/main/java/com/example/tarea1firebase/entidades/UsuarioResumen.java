@@ -0,0 +1,207 @@
+package com.example.tarea1firebase.entidades;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * La clase UsuarioResumen representa los datos de un usuario que se muestran en las listas (nombre, foto, ciudad,
+ * géneros y valoración media). Se guarda en una colección aparte que se mantiene al escribir el perfil, para que las
+ * filas de las listas no tengan que descargar el documento completo del usuario con sus reseñas, publicaciones y visitas.
+ * Implementa la interfaz Serializable para permitir la serialización de objetos.
+ */
+public class UsuarioResumen implements Serializable {
+    private String id;
+    private String nombre;
+    private String fotoPerfil;
+    private String fotoPerfilMiniatura;
+    private String ciudad;
+    private List<String> listaGeneros;
+    private double mediaResenas;
+    private long cantidadResenas;
+
+    /**
+     * Constructor sin argumentos para la clase UsuarioResumen.
+     */
+    public UsuarioResumen() {
+
+    }
+
+    /**
+     * Crea el resumen de un usuario a partir de su documento completo.
+     *
+     * @param usuario El usuario.
+     * @return El resumen del usuario.
+     */
+    public static UsuarioResumen desdeUsuario(Usuario usuario) {
+        UsuarioResumen resumen = new UsuarioResumen();
+        resumen.id = usuario.getId();
+        resumen.nombre = usuario.getNombre();
+        resumen.fotoPerfil = usuario.getFotoPerfil();
+        resumen.fotoPerfilMiniatura = usuario.getFotoPerfilMiniatura();
+        resumen.ciudad = usuario.getCiudad();
+        resumen.listaGeneros = usuario.getListaGeneros() != null ? new ArrayList<>(usuario.getListaGeneros()) : new ArrayList<>();
+
+        resumen.mediaResenas = usuario.calcularMediaValoraciones();
+        if (usuario.getCantidadValoraciones() > 0) {
+            resumen.cantidadResenas = usuario.getCantidadValoraciones();
+        } else if (usuario.getListaResenas() != null) {
+            resumen.cantidadResenas = usuario.getListaResenas().size();
+        }
+        return resumen;
+    }
+
+    /**
+     * Obtiene el identificador del usuario.
+     *
+     * @return El identificador del usuario.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Establece el identificador del usuario.
+     *
+     * @param id El identificador del usuario a establecer.
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Obtiene el nombre del usuario.
+     *
+     * @return El nombre del usuario.
+     */
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Establece el nombre del usuario.
+     *
+     * @param nombre El nombre del usuario a establecer.
+     */
+    public void setNombre(String nombre) {
+        this.nombre = nombre;
+    }
+
+    /**
+     * Obtiene el enlace a la foto de perfil del usuario.
+     *
+     * @return El enlace a la foto de perfil.
+     */
+    public String getFotoPerfil() {
+        return fotoPerfil;
+    }
+
+    /**
+     * Establece el enlace a la foto de perfil del usuario.
+     *
+     * @param fotoPerfil El enlace a la foto de perfil a establecer.
+     */
+    public void setFotoPerfil(String fotoPerfil) {
+        this.fotoPerfil = fotoPerfil;
+    }
+
+    /**
+     * Obtiene el enlace a la miniatura de la foto de perfil del usuario.
+     *
+     * @return El enlace a la miniatura, o null si la foto es anterior a las variantes.
+     */
+    public String getFotoPerfilMiniatura() {
+        return fotoPerfilMiniatura;
+    }
+
+    /**
+     * Establece el enlace a la miniatura de la foto de perfil del usuario.
+     *
+     * @param fotoPerfilMiniatura El enlace a la miniatura a establecer.
+     */
+    public void setFotoPerfilMiniatura(String fotoPerfilMiniatura) {
+        this.fotoPerfilMiniatura = fotoPerfilMiniatura;
+    }
+
+    /**
+     * Obtiene el enlace a la foto de perfil que se debe mostrar en las listas: la miniatura si existe o, si no, la
+     * foto completa.
+     *
+     * @return El enlace a la foto para las listas.
+     */
+    public String obtenerFotoPerfilMiniatura() {
+        return fotoPerfilMiniatura != null && !fotoPerfilMiniatura.isEmpty() ? fotoPerfilMiniatura : fotoPerfil;
+    }
+
+    /**
+     * Obtiene la ciudad del usuario.
+     *
+     * @return La ciudad del usuario.
+     */
+    public String getCiudad() {
+        return ciudad;
+    }
+
+    /**
+     * Establece la ciudad del usuario.
+     *
+     * @param ciudad La ciudad a establecer.
+     */
+    public void setCiudad(String ciudad) {
+        this.ciudad = ciudad;
+    }
+
+    /**
+     * Obtiene la lista de géneros musicales del usuario.
+     *
+     * @return La lista de géneros.
+     */
+    public List<String> getListaGeneros() {
+        return listaGeneros;
+    }
+
+    /**
+     * Establece la lista de géneros musicales del usuario.
+     *
+     * @param listaGeneros La lista de géneros a establecer.
+     */
+    public void setListaGeneros(List<String> listaGeneros) {
+        this.listaGeneros = listaGeneros;
+    }
+
+    /**
+     * Obtiene la valoración media de las reseñas del usuario.
+     *
+     * @return La valoración media, o 0 si no tiene reseñas.
+     */
+    public double getMediaResenas() {
+        return mediaResenas;
+    }
+
+    /**
+     * Establece la valoración media de las reseñas del usuario.
+     *
+     * @param mediaResenas La valoración media a establecer.
+     */
+    public void setMediaResenas(double mediaResenas) {
+        this.mediaResenas = mediaResenas;
+    }
+
+    /**
+     * Obtiene la cantidad de reseñas del usuario.
+     *
+     * @return La cantidad de reseñas.
+     */
+    public long getCantidadResenas() {
+        return cantidadResenas;
+    }
+
+    /**
+     * Establece la cantidad de reseñas del usuario.
+     *
+     * @param cantidadResenas La cantidad de reseñas a establecer.
+     */
+    public void setCantidadResenas(long cantidadResenas) {
+        this.cantidadResenas = cantidadResenas;
+    }
+}
@@ -7,7 +7,6 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,20 +15,17 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.example.tarea1firebase.adaptadores.AdaptadorChatsRecientes;
-import com.example.tarea1firebase.entidades.Chat;
+import com.example.tarea1firebase.entidades.EntradaBandeja;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.gestor.GestorBandejaEntrada;
+import com.example.tarea1firebase.gestor.RegistroSuscripciones;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
-import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.ArrayList;
@@ -43,11 +39,14 @@ public class ChatsRecientesFragment extends Fragment {
     private FirebaseAuth mAuth = FirebaseAuth.getInstance();
     private FirebaseFirestore db;
     public final static String COLECCION = "Usuarios";
-    private ArrayList<Chat> listaChatsRecientes;
-    private String chatKey;
-    private Chat chat;
+    /**
+     * Cantidad máxima de chats que se muestran en la bandeja de entrada.
+     */
+    private static final int LIMITE_CHATS = 50;
+    private ArrayList<EntradaBandeja> listaChatsRecientes;
     private String userId;
-    private List<String> chats;
+    private GestorBandejaEntrada gestorBandejaEntrada;
+    private RegistroSuscripciones registroSuscripciones;
     private ImageView imgMsgVacios;
     private TextView lblMsgVacios;
 
@@ -84,7 +83,7 @@ public class ChatsRecientesFragment extends Fragment {
         recyclerMensajes.setHasFixedSize(true);
 
         recyclerMensajes.setLayoutManager(new LinearLayoutManager(getContext()));
-        ArrayList<Chat> arrayPrueba = new ArrayList<>();
+        ArrayList<EntradaBandeja> arrayPrueba = new ArrayList<>();
 
         adaptadorMensajes = new AdaptadorChatsRecientes(arrayPrueba);
         recyclerMensajes.setAdapter(adaptadorMensajes);
@@ -92,129 +91,87 @@ public class ChatsRecientesFragment extends Fragment {
         imgMsgVacios = view.findViewById(R.id.imagenRecyclerMsgVacio);
         lblMsgVacios = view.findViewById(R.id.lblRecyclerVacio2);
 
-        // Obtiene la referencia de la base de datos
-        DatabaseReference ref = FirebaseDatabase.getInstance().getReference();
-
-        // Define la referencia a la lista de chats
-        DatabaseReference chatsRef = ref.child("chats");
+        gestorBandejaEntrada = new GestorBandejaEntrada();
+        //El registro quita los listeners en onDestroyView, al cambiar de pestaña en el menú
+        registroSuscripciones = RegistroSuscripciones.crear(getViewLifecycleOwner());
 
         // Define el ID del usuario para el que quieres obtener los chats
         userId = mAuth.getCurrentUser().getUid();
         obtenerChats();
-
+        reconstruirBandeja();
 
     }
 
 
-    // Ordenar la lista por fecha de último mensaje
-
-
     /**
-     * Método que itera sobre todos los chats recientes del usuario actual para pintarlos en el recycler
+     * Método que escucha la bandeja de entrada del usuario actual para pintar sus chats recientes en el recycler.
+     * Se hace una única consulta ordenada por la fecha del último mensaje y limitada, que solo descarga un resumen pequeño de cada chat.
      */
     public void obtenerChats() {
         progressBar.setVisibility(View.VISIBLE);
 
-        //Limpia la lista de chats
-        listaChatsRecientes = new ArrayList<>();
-        listaChatsRecientes.clear();
-
-        //Obtiene
-        db.collection(COLECCION).document(mAuth.getCurrentUser().getUid()).get().addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
+        registroSuscripciones.escuchar("bandeja/" + userId, gestorBandejaEntrada.consultarBandeja(userId, LIMITE_CHATS), new ValueEventListener() {
+            //Listener que escucha cualquier cambio en la bandeja de entrada del usuario
             @Override
-            public void onComplete(@NonNull Task<DocumentSnapshot> task) {
-                DocumentSnapshot document = task.getResult();
-                //Obtiene los datos del usuario
-                Usuario usuarioActual = document.toObject(Usuario.class);
-
-                //Obtiene la lista de chats
-                chats = usuarioActual.getChatsRecientes();
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                progressBar.setVisibility(View.GONE);
                 listaChatsRecientes.clear();
+                for (DataSnapshot entradaSnapshot : snapshot.getChildren()) {
+                    EntradaBandeja entrada = entradaSnapshot.getValue(EntradaBandeja.class);
+                    if (entrada != null && entrada.getOtroUsuarioUid() != null) {
+                        listaChatsRecientes.add(entrada);
+                    }
+                }
+
+                ordenarChats();
 
-                if (chats.isEmpty()) {
-                    // No hay chats, ocultar progressBar y mostrar mensaje de "sin chats"
-                    progressBar.setVisibility(View.GONE);
+                //Comprobamos si existen chats recientes
+                if (adaptadorMensajes.getItemCount() > 0) {
+                    imgMsgVacios.setVisibility(View.GONE);
+                    lblMsgVacios.setVisibility(View.GONE);
+                } else {
                     imgMsgVacios.setVisibility(View.VISIBLE);
                     lblMsgVacios.setVisibility(View.VISIBLE);
-                } else {
-                    //Itera sobre todos los chats para pintar cada uno en el recycler view
-                    for (int i = 0; i < chats.size(); i++) {
-                        chatKey = chats.get(i);
-                        //Obtiene la referencia a cada chat
-                        DatabaseReference chatRef = FirebaseDatabase.getInstance().getReference("chats").child(chatKey);
-
-                        chatRef.addValueEventListener(new ValueEventListener() {
-                            //Listener que escucha cualquier cambio en la base de datos dentro del chat que hemos especificado
-                            @Override
-                            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                                Chat chat = snapshot.getValue(Chat.class);
-
-                                // Buscamos si ya existe el chat en la lista
-                                boolean existeChat = false;
-                                for (Chat c : listaChatsRecientes) {
-                                    if (c.getChatId().equals(chat.getChatId())) {
-                                        existeChat = true;
-                                        break;
-                                    }
-                                }
-
-                                if (existeChat) {
-                                    // Si el chat ya existe en la lista, lo reemplazamos
-                                    for (int i = 0; i < listaChatsRecientes.size(); i++) {
-                                        if (listaChatsRecientes.get(i).getChatId().equals(chat.getChatId())) {
-                                            listaChatsRecientes.set(i, chat);
-                                            break;
-                                        }
-                                    }
-                                } else {
-                                    // Si el chat no existe en la lista, lo añadimos
-                                    listaChatsRecientes.add(chat);
-                                }
-
-                                ordenarChats();
-
-                                //Comprobamos si existen chats recientes
-                                if (adaptadorMensajes.getItemCount() > 0) {
-                                    imgMsgVacios.setVisibility(View.GONE);
-                                    lblMsgVacios.setVisibility(View.GONE);
-                                } else {
-                                    imgMsgVacios.setVisibility(View.VISIBLE);
-                                    lblMsgVacios.setVisibility(View.VISIBLE);
-                                }
-                            }
-
-                            @Override
-                            public void onCancelled(@NonNull DatabaseError error) {
-                                // Manejar errores
-                            }
-                        });
-                    }
-
-                    // Agregar retardo de 1 segundo antes de ocultar el progressBar
-                    new Handler().postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            progressBar.setVisibility(View.GONE);
-                        }
-                    }, 90000);
                 }
             }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                progressBar.setVisibility(View.GONE);
+            }
+        });
+    }
+
+    /**
+     * Pasa a la bandeja de entrada los chats de la lista de chats recientes del documento del usuario en Firestore,
+     * creados antes de que existiera la bandeja. Se hace una sola vez por usuario, aunque la bandeja ya tenga chats
+     * nuevos. Los cambios llegan al listener de la bandeja.
+     */
+    private void reconstruirBandeja() {
+        gestorBandejaEntrada.comprobarBandejaMigrada(userId, migrada -> {
+            if (migrada) {
+                return;
+            }
+            db.collection(COLECCION).document(userId).get().addOnSuccessListener(document -> {
+                Usuario usuarioActual = document.toObject(Usuario.class);
+                List<String> chatsRecientes = usuarioActual != null && usuarioActual.getChatsRecientes() != null
+                        ? usuarioActual.getChatsRecientes() : Collections.emptyList();
+                gestorBandejaEntrada.reconstruirBandeja(userId, chatsRecientes);
+            });
         });
     }
 
 
     /**
-     * Método que ordena los chats recientes según la fecha del último mensaje
+     * Método que ordena los chats recientes según la fecha del último mensaje, del más reciente al más antiguo
      */
     public void ordenarChats() {
-        Collections.sort(listaChatsRecientes, new Comparator<Chat>() {
+        Collections.sort(listaChatsRecientes, new Comparator<EntradaBandeja>() {
             @Override
-            public int compare(Chat chat1, Chat chat2) {
-                return chat1.getFechaUltimoMsj().compareTo(chat2.getFechaUltimoMsj());
+            public int compare(EntradaBandeja chat1, EntradaBandeja chat2) {
+                return Long.compare(chat2.getMarcaTiempoUltimoMsj(), chat1.getMarcaTiempoUltimoMsj());
             }
         });
-        Collections.reverse(listaChatsRecientes);
         adaptadorMensajes.setData(listaChatsRecientes);
-        adaptadorMensajes.notifyDataSetChanged();
     }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import android.widget.ProgressBar;
 import android.widget.SearchView;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -16,10 +17,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.adaptadores.AdaptadorUsuariosRecycler;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
 import com.example.tarea1firebase.gestor.GestorFirestore;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
 
 import java.util.ArrayList;
 /**
@@ -27,17 +30,21 @@ import java.util.ArrayList;
  * utilizado para mostrar la funcionalidad de exploración de una aplicación.
  */
 public class ExploraFragment extends Fragment {
+    private static final int TAMANO_PAGINA = 20;
+    private static final int MARGEN_PRECARGA = 5;
 
     private RecyclerView recyclerViewUsu;
     private AdaptadorUsuariosRecycler adaptadorUsuariosRecycler;
     private Usuario user;
-    private ArrayList<Usuario> listaUsuarios;
     private SearchView barraBusqueda;
     private ProgressBar progressBar;
     private GestorFirestore gestorFirebase;
     private FirebaseAuth mAuth;
     private ImageView imgFavsVacios;
     private TextView lblFavsVacios;
+    private DocumentSnapshot ultimoDocumento;
+    private boolean hayMasPaginas = true;
+    private boolean cargandoPagina = false;
     /**
      * Constructor público sin argumentos requerido por la documentación de Fragment.
      */
@@ -84,53 +91,91 @@ public class ExploraFragment extends Fragment {
         lblFavsVacios.setText("No hay usuarios disponibles");
         setListenerBarraBusqueda();
         /*
-        * Llamada al método "obtenerTodosLosUsuarios" del objeto "gestorFirebase" para obtener todos los usuarios.
-        */
-        gestorFirebase.obtenerTodosLosUsuarios(new GestorFirestore.Callback<ArrayList<Usuario>>() {
+         * El adaptador empieza vacío y se va llenando por páginas: la primera se pide ahora y las siguientes al
+         * acercarse al final de la lista.
+         */
+        ultimoDocumento = null;
+        hayMasPaginas = true;
+        cargandoPagina = false;
+        adaptadorUsuariosRecycler = new AdaptadorUsuariosRecycler(new ArrayList<>());
+        recyclerViewUsu.setAdapter(adaptadorUsuariosRecycler);
+        adaptadorUsuariosRecycler.precargarEn(recyclerViewUsu);
+        recyclerViewUsu.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                comprobarPrecarga();
+            }
+        });
+        cargarSiguientePagina();
+    }
+
+    /**
+     * Pide la siguiente página de usuarios si no hay otra petición en curso y quedan páginas por cargar.
+     */
+    private void cargarSiguientePagina() {
+        if (cargandoPagina || !hayMasPaginas) {
+            return;
+        }
+        cargandoPagina = true;
+        /*
+         * Llamada al método "obtenerPaginaResumenes" del objeto "gestorFirebase" para obtener la siguiente página de usuarios.
+         */
+        gestorFirebase.obtenerPaginaResumenes(ultimoDocumento, TAMANO_PAGINA, new GestorFirestore.Callback<GestorFirestore.Pagina<UsuarioResumen>>() {
             /**
-             * Método que se ejecuta cuando se obtiene un resultado exitoso en la operación.
+             * Método que se ejecuta cuando se obtiene la página.
              *
-             * @param result El ArrayList de objetos Usuario que representa el resultado exitoso.
+             * @param pagina Los resúmenes de la página y el cursor para pedir la siguiente.
              */
             @Override
-            public void onSuccess(ArrayList<Usuario> result) {
+            public void onSuccess(GestorFirestore.Pagina<UsuarioResumen> pagina) {
+                cargandoPagina = false;
+                if (getView() == null) {
+                    return;
+                }
+                boolean paginaNueva = pagina.ultimoDocumento != ultimoDocumento;
+                ultimoDocumento = pagina.ultimoDocumento;
+                hayMasPaginas = pagina.hayMas;
                 /*
-                 * Eliminar el usuario actual de la lista de resultados, si coincide con el usuario autenticado.
+                 * Eliminar el usuario actual de la página, si coincide con el usuario autenticado.
                  */
-                for (int i = 0; i < result.size(); i++) {
-                    if (result.get(i).getId().equals(mAuth.getCurrentUser().getUid())) {
-                        result.remove(result.get(i));
+                ArrayList<UsuarioResumen> usuarios = new ArrayList<>();
+                for (UsuarioResumen usuario : pagina.elementos) {
+                    if (!usuario.getId().equals(mAuth.getCurrentUser().getUid())) {
+                        usuarios.add(usuario);
                     }
                 }
+                adaptadorUsuariosRecycler.anadirUsuarios(usuarios);
                 /*
-                 * Crear un nuevo adaptador de usuarios utilizando la lista actualizada.
-                 */
-                adaptadorUsuariosRecycler = new AdaptadorUsuariosRecycler(result);
-                /*
-                 * Establecer el adaptador en el RecyclerView correspondiente.
+                 * Mostrar la imagen y el texto de lista vacía solo cuando ya no quedan páginas y no hay ningún usuario.
                  */
-                recyclerViewUsu.setAdapter(adaptadorUsuariosRecycler);
-                /*
-                 * Verificar si el adaptador contiene elementos.
-                 */
-                if (adaptadorUsuariosRecycler.getItemCount() > 0) {
-                    /*
-                     * Ocultar la imagen y el texto que indican que no hay usuarios favoritos vacíos.
-                     */
+                if (adaptadorUsuariosRecycler.getItemCount() > 0 || hayMasPaginas) {
                     imgFavsVacios.setVisibility(View.GONE);
                     lblFavsVacios.setVisibility(View.GONE);
                 } else {
-                    /*
-                     * Mostrar la imagen y el texto que indican que no hay usuarios favoritos vacíos.
-                     */
                     imgFavsVacios.setVisibility(View.VISIBLE);
                     lblFavsVacios.setVisibility(View.VISIBLE);
                 }
+                /*
+                 * Si la página no llena la pantalla (o el filtro de búsqueda deja pocos usuarios), se pide la siguiente.
+                 * Si la petición ha fallado no se repite hasta que el usuario vuelva a desplazar la lista.
+                 */
+                if (paginaNueva) {
+                    comprobarPrecarga();
+                }
             }
         });
+    }
 
-
+    /**
+     * Pide la siguiente página cuando el último usuario visible está a menos de MARGEN_PRECARGA posiciones del final.
+     */
+    private void comprobarPrecarga() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerViewUsu.getLayoutManager();
+        if (layoutManager.findLastVisibleItemPosition() >= adaptadorUsuariosRecycler.getItemCount() - MARGEN_PRECARGA) {
+            cargarSiguientePagina();
+        }
     }
+
     /**
      * Inicializa las vistas del fragmento.
      * @param view La vista raíz del fragmento.
@@ -174,6 +219,10 @@ public class ExploraFragment extends Fragment {
             @Override
             public boolean onQueryTextChange(String newText) {
                 adaptadorUsuariosRecycler.filter(newText, progressBar);
+                /*
+                 * Si el filtro deja pocos usuarios, se siguen cargando páginas para buscar entre el resto.
+                 */
+                comprobarPrecarga();
                 return false;
             }
         });
@@ -17,6 +17,7 @@ import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.adaptadores.AdaptadorUsuariosFavoritos;
 import com.example.tarea1firebase.adaptadores.AdaptadorUsuariosRecycler;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
 import com.example.tarea1firebase.gestor.GestorFirestore;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
@@ -85,16 +86,16 @@ public class ExploraFragmentFavoritos extends Fragment {
         lblFavsVacios.setText("No hay usuarios disponibles");
         setListenerBarraBusqueda();
         /*
-         * Llamada al método "obtenerTodosLosUsuarios" del objeto "gestorFirebase" para obtener todos los usuarios.
+         * Llamada al método "obtenerTodosLosResumenes" del objeto "gestorFirebase" para obtener el resumen de todos los usuarios.
          */
-        gestorFirebase.obtenerTodosLosUsuarios(new GestorFirestore.Callback<ArrayList<Usuario>>() {
+        gestorFirebase.obtenerTodosLosResumenes(new GestorFirestore.Callback<ArrayList<UsuarioResumen>>() {
             /**
              * Método que se ejecuta cuando se obtiene un resultado exitoso en la operación.
              *
-             * @param result El ArrayList de objetos Usuario que representa el resultado exitoso.
+             * @param result El ArrayList de objetos UsuarioResumen que representa el resultado exitoso.
              */
             @Override
-            public void onSuccess(ArrayList<Usuario> result) {
+            public void onSuccess(ArrayList<UsuarioResumen> result) {
                 /*
                  * Eliminar el usuario actual de la lista de resultados, si coincide con el usuario autenticado.
                  */
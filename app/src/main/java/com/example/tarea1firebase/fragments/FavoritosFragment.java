@@ -18,6 +18,7 @@ import com.example.tarea1firebase.adaptadores.AdaptadorUsuariosRecycler;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.adaptadores.AdaptadorUsuariosFavoritos;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
 import com.example.tarea1firebase.gestor.GestorFirestore;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
@@ -36,7 +37,7 @@ public class FavoritosFragment extends Fragment {
     private AdaptadorUsuariosFavoritos adaptadorUsuariosFavoritos;
     private FirebaseFirestore db;
     private Usuario user;
-    private ArrayList<Usuario> listaUsuarios;
+    private ArrayList<UsuarioResumen> listaUsuarios;
     private SearchView barraBusqueda;
     private ProgressBar progressBar;
     private FirebaseAuth mAuth;
@@ -100,18 +101,18 @@ public class FavoritosFragment extends Fragment {
                 user = result;
                 List<String> favoritos;
                 favoritos = user.getListaFavoritos();
-                listaUsuarios = new ArrayList<>();
                 for (int i = 0; i < favoritos.size(); i++) {
-                    gestorFirebase.obtenerUsuarioPorId(favoritos.get(i), new GestorFirestore.Callback<Usuario>() {
+                    /*
+                     * De cada favorito solo se necesita el resumen, que además se comparte con el resto de listas a través de la caché.
+                     */
+                    gestorFirebase.obtenerResumenUsuario(favoritos.get(i), new GestorFirestore.Callback<UsuarioResumen>() {
                         @Override
-                        public void onSuccess(Usuario result) {
-                            Usuario usuario = result;
+                        public void onSuccess(UsuarioResumen result) {
+                            UsuarioResumen usuario = result;
                             if (favoritos != null) {
                                 if (favoritos.contains(usuario.getId())) {
-                                    listaUsuarios.add(usuario);
+                                    adaptadorUsuariosFavoritos.anadirUsuario(usuario);
                                 }
-                                adaptadorUsuariosFavoritos = new AdaptadorUsuariosFavoritos((ArrayList<Usuario>) listaUsuarios);
-                                recyclerViewUsu.setAdapter(adaptadorUsuariosFavoritos);
 
                                 if (adaptadorUsuariosFavoritos.getItemCount() > 0) {
                                     imgFavsVacios.setVisibility(View.GONE);
@@ -122,7 +123,7 @@ public class FavoritosFragment extends Fragment {
                                 }
                             }
                         }
-                    }, Usuario.class);
+                    });
                 }
             }
         }, Usuario.class);
@@ -144,7 +145,7 @@ public class FavoritosFragment extends Fragment {
         progressBar.setVisibility(View.GONE);
 
         listaUsuarios = new ArrayList<>();
-        adaptadorUsuariosFavoritos = new AdaptadorUsuariosFavoritos((ArrayList<Usuario>) listaUsuarios);
+        adaptadorUsuariosFavoritos = new AdaptadorUsuariosFavoritos(listaUsuarios);
         recyclerViewUsu.setAdapter(adaptadorUsuariosFavoritos);
 
         barraBusqueda = view.findViewById(R.id.barraBusqueda);
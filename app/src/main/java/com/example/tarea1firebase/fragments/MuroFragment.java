@@ -1,14 +1,13 @@
 package com.example.tarea1firebase.fragments;
 
-import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 
-import androidx.activity.result.ActivityResult;
-import androidx.activity.result.ActivityResultCallback;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -18,32 +17,52 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
 
+import com.bumptech.glide.Glide;
 import com.example.tarea1firebase.ActivityNuevaPublicacion;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.adaptadores.AdaptadorPublicaciones;
-import com.example.tarea1firebase.entidades.Chat;
+import com.example.tarea1firebase.adaptadores.PrecargadorPublicaciones;
 import com.example.tarea1firebase.entidades.Publicacion;
-import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.gestor.EnsambladorMuro;
 import com.example.tarea1firebase.gestor.GestorFirestore;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentSnapshot;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
  * Fragmento para mostrar el muro de publicaciones.
+ * Las publicaciones del usuario y de sus favoritos se reparten al publicarlas en la subcolección "muro" de cada
+ * usuario (solo su ID, su autor y su fecha), así que el muro se lee por páginas con una sola consulta ordenada por
+ * fecha y el gestor completa cada página con las publicaciones a las que apunta. Hasta que el muro del usuario
+ * está relleno, las publicaciones se juntan en el cliente con EnsambladorMuro a medida que llega cada favorito.
+ * Siempre se usa el mismo adaptador y se le pasa la lista entera; DiffUtil calcula qué filas cambian.
  */
 public class MuroFragment extends Fragment {
+    private static final int TAMANO_PAGINA = 15;
+    private static final int MARGEN_PRECARGA = 5;
+    /**
+     * Preferencias donde se apunta para qué usuarios se ha rellenado ya el muro con las publicaciones anteriores al
+     * reparto.
+     */
+    private static final String PREFERENCIAS_MURO = "muro";
+    private static final String CLAVE_MURO_RELLENO = "relleno_";
+
     private RecyclerView recyclerPublicaciones;
     private AdaptadorPublicaciones adaptadorPublicaciones;
-    private ArrayList<Publicacion> listaPublicaciones;
+    private PrecargadorPublicaciones precargadorPublicaciones;
     private ImageButton btnNuevaPublicacion;
     private GestorFirestore gestorFirestore;
     private FirebaseAuth mAuth;
-    private Usuario usuarioActual;
-    private List<Usuario> listaUsuariosFavoritos;
+    private List<Publicacion> publicacionesMuro = new ArrayList<>();
+    private DocumentSnapshot ultimoDocumento;
+    private boolean hayMasPaginas = true;
+    private boolean cargandoPagina = false;
+    /**
+     * Se incrementa al volver a la primera página, para descartar las páginas que se pidieron antes.
+     */
+    private int generacion = 0;
 
     public MuroFragment() {
         // Constructor público requerido
@@ -71,6 +90,12 @@ public class MuroFragment extends Fragment {
         return inflater.inflate(R.layout.fragment_muro, container, false);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        precargadorPublicaciones.cancelarTodas();
+    }
+
     /**
      * Inicializa las vistas y componentes del fragmento.
      *
@@ -85,51 +110,120 @@ public class MuroFragment extends Fragment {
 
         recyclerPublicaciones.setHasFixedSize(true);
         recyclerPublicaciones.setLayoutManager(new LinearLayoutManager(getActivity()));
+        precargadorPublicaciones = new PrecargadorPublicaciones(Glide.with(this));
+        recyclerPublicaciones.addOnScrollListener(precargadorPublicaciones);
 
-        listaPublicaciones = new ArrayList<>();
-
-        obtenerPublicacionesDeFavoritos();
-
-        adaptadorPublicaciones = new AdaptadorPublicaciones(listaPublicaciones);
+        adaptadorPublicaciones = new AdaptadorPublicaciones();
         recyclerPublicaciones.setAdapter(adaptadorPublicaciones);
+        recyclerPublicaciones.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                comprobarPrecarga();
+            }
+        });
+
+        cargarMuro();
     }
 
     /**
-     * Obtiene las publicaciones de los usuarios favoritos del usuario actual.
+     * Carga el muro desde la primera página. La primera vez que un usuario abre el muro en este dispositivo, antes se
+     * copian a su muro las publicaciones que ya existían de él y de sus favoritos; mientras, se muestran juntando en
+     * el cliente las de cada autor según se leen.
      */
-    private void obtenerPublicacionesDeFavoritos() {
-        listaPublicaciones = new ArrayList<>();
-        listaUsuariosFavoritos = new ArrayList<>();
-
-        gestorFirestore.obtenerUsuarioPorId(mAuth.getCurrentUser().getUid(), new GestorFirestore.Callback<Usuario>() {
+    private void cargarMuro() {
+        String uid = mAuth.getCurrentUser().getUid();
+        SharedPreferences preferencias = requireContext().getSharedPreferences(PREFERENCIAS_MURO, Context.MODE_PRIVATE);
+        if (preferencias.getBoolean(CLAVE_MURO_RELLENO + uid, false)) {
+            reiniciarPaginas();
+            return;
+        }
+        generacion++;
+        int generacionPedida = generacion;
+        // Sin páginas en Firestore hasta que el muro esté relleno
+        hayMasPaginas = false;
+        cargandoPagina = false;
+        EnsambladorMuro ensamblador = new EnsambladorMuro(TAMANO_PAGINA * 2);
+        gestorFirestore.rellenarMuro(uid, new GestorFirestore.Callback<List<Publicacion>>() {
             @Override
-            public void onSuccess(Usuario result) {
-                listaPublicaciones.addAll(result.getListaPublicaciones());
-                ordenarPublicaciones();
+            public void onSuccess(List<Publicacion> publicacionesAutor) {
+                if (generacionPedida != generacion || getView() == null) {
+                    return;
+                }
+                ensamblador.anadirAutor(publicacionesAutor);
+                adaptadorPublicaciones.submitList(ensamblador.obtenerMuro());
             }
-        }, Usuario.class);
+        }, new GestorFirestore.Callback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean relleno) {
+                if (!relleno) {
+                    // Se vuelve a intentar la próxima vez; mientras, se queda el muro juntado en el cliente
+                    return;
+                }
+                preferencias.edit().putBoolean(CLAVE_MURO_RELLENO + uid, true).apply();
+                if (generacionPedida == generacion && getView() != null) {
+                    reiniciarPaginas();
+                }
+            }
+        });
+    }
+
+    /**
+     * Vuelve a pedir la primera página. La lista que se ve no se vacía: se sustituye cuando llega la página.
+     */
+    private void reiniciarPaginas() {
+        generacion++;
+        publicacionesMuro = new ArrayList<>();
+        ultimoDocumento = null;
+        hayMasPaginas = true;
+        cargandoPagina = false;
+        cargarSiguientePagina();
+    }
 
-        gestorFirestore.obtenerUsuarioPorId(mAuth.getCurrentUser().getUid(), new GestorFirestore.Callback<Usuario>() {
+    /**
+     * Pide la siguiente página del muro si no hay otra petición en curso y quedan páginas por cargar.
+     */
+    private void cargarSiguientePagina() {
+        if (cargandoPagina || !hayMasPaginas) {
+            return;
+        }
+        cargandoPagina = true;
+        int generacionPedida = generacion;
+        gestorFirestore.obtenerPaginaMuro(mAuth.getCurrentUser().getUid(), ultimoDocumento, TAMANO_PAGINA, new GestorFirestore.Callback<GestorFirestore.Pagina<Publicacion>>() {
             @Override
-            public void onSuccess(Usuario result) {
-                usuarioActual = result;
-
-                List<String> favoritos;
-                favoritos = usuarioActual.getListaFavoritos();
-                for (int i = 0; i < favoritos.size(); i++) {
-                    gestorFirestore.obtenerUsuarioPorId(favoritos.get(i), new GestorFirestore.Callback<Usuario>() {
-                        @Override
-                        public void onSuccess(Usuario usuarioFavorito) {
-                            listaUsuariosFavoritos.add(usuarioFavorito);
-                            listaPublicaciones.addAll(usuarioFavorito.getListaPublicaciones());
-                            adaptadorPublicaciones = new AdaptadorPublicaciones(listaPublicaciones);
-                            recyclerPublicaciones.setAdapter(adaptadorPublicaciones);
-                            ordenarPublicaciones();
-                        }
-                    }, Usuario.class);
+            public void onSuccess(GestorFirestore.Pagina<Publicacion> pagina) {
+                if (generacionPedida != generacion) {
+                    return;
+                }
+                cargandoPagina = false;
+                if (getView() == null) {
+                    return;
                 }
+                boolean paginaNueva = pagina.ultimoDocumento != ultimoDocumento;
+                ultimoDocumento = pagina.ultimoDocumento;
+                hayMasPaginas = pagina.hayMas;
+                publicacionesMuro.addAll(pagina.elementos);
+                /*
+                 * Se pasa una copia, porque ListAdapter compara la lista nueva con la que ya tiene. Cuando la ha
+                 * aplicado, si la página no llena la pantalla se pide la siguiente. Si la petición ha fallado no se
+                 * repite hasta que el usuario vuelva a desplazar la lista.
+                 */
+                adaptadorPublicaciones.submitList(new ArrayList<>(publicacionesMuro), () -> {
+                    if (paginaNueva && getView() != null) {
+                        comprobarPrecarga();
+                    }
+                });
             }
-        }, Usuario.class);
+        });
+    }
+
+    /**
+     * Pide la siguiente página cuando la última publicación visible está a menos de MARGEN_PRECARGA posiciones del final.
+     */
+    private void comprobarPrecarga() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerPublicaciones.getLayoutManager();
+        if (layoutManager.findLastVisibleItemPosition() >= adaptadorPublicaciones.getItemCount() - MARGEN_PRECARGA) {
+            cargarSiguientePagina();
+        }
     }
 
     ActivityResultLauncher<Intent> activityResultNuevaPublicacion = registerForActivityResult(
@@ -139,19 +233,7 @@ public class MuroFragment extends Fragment {
                  * Se ha publicado algo nuevo
                  */
                 if (result.getResultCode() == 1) {
-                    obtenerPublicacionesDeFavoritos();
+                    cargarMuro();
                 }
             });
-
-    /**
-     * Método que ordena los chats recientes según la fecha del último mensaje
-     */
-    public void ordenarPublicaciones() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            Collections.sort(listaPublicaciones, Comparator.comparing(Publicacion::getFecha));
-        }
-        Collections.reverse(listaPublicaciones);
-        adaptadorPublicaciones = new AdaptadorPublicaciones(listaPublicaciones);
-        recyclerPublicaciones.setAdapter(adaptadorPublicaciones);
-    }
 }
@@ -29,9 +29,11 @@ import com.example.tarea1firebase.EditarPerfil;
 import com.example.tarea1firebase.R;
 import com.example.tarea1firebase.adaptadores.AdaptadorGenerosRecycler;
 import com.example.tarea1firebase.adaptadores.AdaptadorResenas;
+import com.example.tarea1firebase.entidades.MetadatosCancion;
 import com.example.tarea1firebase.entidades.Resena;
 import com.example.tarea1firebase.entidades.Usuario;
 import com.example.tarea1firebase.gestor.GestorFirestore;
+import com.example.tarea1firebase.gestor.ReproductorAudio;
 import com.github.ybq.android.spinkit.sprite.Sprite;
 import com.github.ybq.android.spinkit.style.FadingCircle;
 import com.google.firebase.auth.FirebaseAuth;
@@ -39,10 +41,10 @@ import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class PerfilFragment extends Fragment {
     private int PICK_AUDIO_REQUEST = 123120;
@@ -53,10 +55,10 @@ public class PerfilFragment extends Fragment {
     private RecyclerView recyclerCanciones, recyclerResenas, recyclerGeneros;
     private AdaptadorCancionesRecycler adaptadorCanciones;
     private AdaptadorGenerosRecycler adaptadorGeneros;
-    private TextView lblUsername, lblDescripcion, lblCiudad, lblRecyclerVacio, lblMediaEstrellas, lblNVisitas, lblSinRese, lblGenero;
+    private TextView lblUsername, lblDescripcion, lblCiudad, lblRecyclerVacio, lblMediaEstrellas, lblNVisitas, lblSinRese, lblGenero, lblProgresoSubida;
     private Usuario usuario;
     private ImageButton btnInstagram, btnTiktok, btnYoutube, btnSpotify, btnSoundCloud, btnAnadirCancion;
-    private Button btnEditar;
+    private Button btnEditar, btnMasResenas;
     private ImageButton btnChat;
 
     private String uidUsuarioActual;
@@ -225,6 +227,9 @@ public class PerfilFragment extends Fragment {
 
         imgRecyclerRese = getView().findViewById(R.id.imagenRecyclerVacioRese);
         lblSinRese = getView().findViewById(R.id.lblRecyclerVacioRese);
+        btnMasResenas = getView().findViewById(R.id.btnMasResenas);
+        lblProgresoSubida = getView().findViewById(R.id.lblProgresoSubida);
+        btnMasResenas.setOnClickListener(v -> cargarMasResenas());
 
         ArrayList<String> arrayPrueba = new ArrayList<>();
 
@@ -280,23 +285,72 @@ public class PerfilFragment extends Fragment {
             @Override
             public void onSuccess(Usuario usuarioDevuelto) {
                 usuario = usuarioDevuelto;
+                /**
+                 * La media se calcula con los totales de valoraciones guardados en el usuario, sin recorrer las reseñas.
+                 */
+                lblMediaEstrellas.setText(String.valueOf(usuario.calcularMediaValoraciones()));
+                /**
+                 * Las visitas se muestran con el contador de visitantes únicos del usuario, sin descargar quién ha visitado el perfil.
+                 */
+                lblNVisitas.setText(String.valueOf(usuario.calcularVisitantesUnicos()));
 
 
                 List<String> canciones;
                 canciones = usuario.getArrayCanciones();
 
-                List<Resena> resenas;
-                resenas = usuario.getListaResenas();
-
                 lblUsername.setText(usuario.getNombre());
                 lblDescripcion.setText(usuario.getDescripcion());
                 lblCiudad.setText(usuario.getCiudad());
 
                 adaptadorCanciones = new AdaptadorCancionesRecycler(canciones, true, progressBar);
                 recyclerCanciones.setAdapter(adaptadorCanciones);
+                /**Duración y forma de onda de las canciones, calculadas al subirlas, con una sola consulta.*/
+                AdaptadorCancionesRecycler adaptadorCargado = adaptadorCanciones;
+                gestorFirebase.obtenerMetadatosCanciones(uidUsuarioActual, new GestorFirestore.Callback<Map<String, MetadatosCancion>>() {
+                    @Override
+                    public void onSuccess(Map<String, MetadatosCancion> metadatos) {
+                        adaptadorCargado.setMetadatos(metadatos);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        // Sin metadatos, cada fila lee la duración del propio audio
+                        adaptadorCargado.setMetadatos(new HashMap<>());
+                    }
+                });
 
-                adaptadorResenas = new AdaptadorResenas(resenas);
-                recyclerResenas.setAdapter(adaptadorResenas);
+                /**
+                 * Las publicaciones que el usuario todavía tenga en el array de versiones anteriores se pasan a la
+                 * colección de publicaciones.
+                 */
+                if (usuario.getListaPublicaciones() != null && !usuario.getListaPublicaciones().isEmpty()) {
+                    gestorFirebase.migrarPublicaciones(usuario.getId(), new GestorFirestore.Callback<Boolean>() {
+                        @Override
+                        public void onSuccess(Boolean migrado) {
+                        }
+                    });
+                }
+
+                /**
+                 * Las reseñas se cargan por páginas de la subcolección del usuario. Si todavía las tiene en el
+                 * array de versiones anteriores, primero se migran.
+                 */
+                if (usuario.getListaResenas() != null && !usuario.getListaResenas().isEmpty()) {
+                    gestorFirebase.migrarResenas(usuario.getId(), new GestorFirestore.Callback<String>() {
+                        @Override
+                        public void onSuccess(String resultado) {
+                            cargarResenas();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            // Las reseñas que ya estén en la subcolección se pueden mostrar igualmente
+                            cargarResenas();
+                        }
+                    });
+                } else {
+                    cargarResenas();
+                }
 
                 List<String> generos;
                 generos = usuario.getListaGeneros();
@@ -315,6 +369,27 @@ public class PerfilFragment extends Fragment {
                     imgRecyclerVacio.setVisibility(View.VISIBLE);
                     lblRecyclerVacio.setVisibility(View.VISIBLE);
                 }
+                progressBar.setVisibility(View.GONE);
+            }
+        }, Usuario.class);
+    }
+
+    /**
+     * Crea el adaptador de reseñas del usuario y carga la primera página.
+     */
+    private void cargarResenas() {
+        adaptadorResenas = new AdaptadorResenas(uidUsuarioActual);
+        recyclerResenas.setAdapter(adaptadorResenas);
+        cargarMasResenas();
+    }
+
+    /**
+     * Carga la siguiente página de reseñas. El botón "Ver más reseñas" solo se muestra si quedan reseñas por cargar.
+     */
+    private void cargarMasResenas() {
+        adaptadorResenas.cargarSiguientePagina(new GestorFirestore.Callback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean hayMas) {
                 if (adaptadorResenas.getItemCount() > 0) {
                     imgRecyclerRese.setVisibility(View.GONE);
                     lblSinRese.setVisibility(View.GONE);
@@ -322,19 +397,9 @@ public class PerfilFragment extends Fragment {
                     imgRecyclerRese.setVisibility(View.VISIBLE);
                     lblSinRese.setVisibility(View.VISIBLE);
                 }
-                progressBar.setVisibility(View.GONE);
-            }
-        }, Usuario.class);
-        gestorFirebase.obtenerMediaResenas(uidUsuarioActual, new GestorFirestore.Callback() {
-            @Override
-            public void onSuccess(Object mediaEstrellas) {
-                lblMediaEstrellas.setText(mediaEstrellas.toString());
+                btnMasResenas.setVisibility(hayMas ? View.VISIBLE : View.GONE);
             }
         });
-
-        int nVisitas = usuario.getVisitasAlPerfil().size();
-        lblNVisitas.setText(String.valueOf(nVisitas));
-
     }
 
     /**
@@ -462,6 +527,15 @@ public class PerfilFragment extends Fragment {
         startActivity(intent);
     }
 
+    /**
+     * Al salir del perfil se para la canción que estuviera sonando y se liberan los recursos del reproductor.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        ReproductorAudio.getInstance().liberar();
+    }
+
     /**
      * Método que se llama cuando se recibe un resultado de una actividad lanzada para seleccionar un archivo de audio.
      * Se utiliza para procesar el archivo seleccionado y subirlo a Firebase Storage.
@@ -478,33 +552,38 @@ public class PerfilFragment extends Fragment {
             if (requestCode == PICK_AUDIO_REQUEST && resultCode == RESULT_OK) {
                 progressBar.setVisibility(View.VISIBLE);
                 Uri uri = data.getData();
-                try {
-                    String[] pathSegments = uri.getPath().split("/");
-                    if (pathSegments.length > 1) {
-                        String fileName = pathSegments[pathSegments.length - 1];
-                        File cacheDir = requireActivity().getCacheDir();
-                        File file = new File(cacheDir, fileName);
-                        InputStream inputStream = requireContext().getContentResolver().openInputStream(uri);
-                        FileOutputStream outputStream = new FileOutputStream(file);
-                        byte[] buffer = new byte[4096];
-                        int len;
-                        while ((len = inputStream.read(buffer)) > 0) {
-                            outputStream.write(buffer, 0, len);
-                        }
-                        inputStream.close();
-                        outputStream.close();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    progressBar.setVisibility(View.GONE);
-                }
+                lblProgresoSubida.setVisibility(View.VISIBLE);
+                lblProgresoSubida.setText("");
 
                 gestorFirebase.subirAudio(uri, mAuth.getCurrentUser().getUid(), new GestorFirestore.Callback<String>() {
                     @Override
                     public void onSuccess(String url) {
+                        // La subida sigue aunque se salga del perfil: solo se actualiza la pantalla si sigue abierta
+                        if (getView() == null) {
+                            return;
+                        }
                         Toast.makeText(getContext(), "Subido correctamente", Toast.LENGTH_SHORT).show();
                         obtenerDatosUsuario();
                         progressBar.setVisibility(View.GONE);
+                        lblProgresoSubida.setVisibility(View.GONE);
+                    }
+                }, new GestorFirestore.OyenteSubida() {
+                    @Override
+                    public void onProgreso(String fase, int porcentaje) {
+                        if (getView() == null) {
+                            return;
+                        }
+                        lblProgresoSubida.setText(fase + " " + porcentaje + "%");
+                    }
+
+                    @Override
+                    public void onError(String mensaje) {
+                        if (getView() == null) {
+                            return;
+                        }
+                        Toast.makeText(getContext(), "No se ha podido subir la canción: " + mensaje, Toast.LENGTH_LONG).show();
+                        progressBar.setVisibility(View.GONE);
+                        lblProgresoSubida.setVisibility(View.GONE);
                     }
                 });
             }
@@ -0,0 +1,280 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.tarea1firebase.entidades.Mensaje;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Almacén local en SQLite de los mensajes de los chats, indexado por id de chat y clave del mensaje.
+ * Permite pintar un chat nada más abrirlo aunque la red sea lenta o no haya conexión, y guarda los mensajes enviados
+ * que todavía no ha confirmado el servidor para poder reintentarlos.
+ * Todas las operaciones se ejecutan en un único hilo en segundo plano y los resultados se devuelven en el hilo principal.
+ */
+public class AlmacenMensajesLocal extends SQLiteOpenHelper {
+    private static final String NOMBRE_BD = "mensajes.db";
+    private static final int VERSION_BD = 2;
+    private static final String TABLA = "mensajes";
+    /**
+     * Cantidad máxima de mensajes que se guardan en disco por chat. Los más antiguos se vuelven a pedir al servidor.
+     */
+    private static final int MAXIMO_MENSAJES_POR_CHAT = 1000;
+
+    private static AlmacenMensajesLocal instancia;
+    private final ExecutorService executor;
+    private final Handler handler;
+
+    /**
+     * Obtiene la instancia compartida del almacén.
+     *
+     * @param context Contexto de la aplicación.
+     * @return La instancia del almacén.
+     */
+    public static synchronized AlmacenMensajesLocal getInstance(Context context) {
+        if (instancia == null) {
+            instancia = new AlmacenMensajesLocal(context.getApplicationContext());
+        }
+        return instancia;
+    }
+
+    private AlmacenMensajesLocal(Context context) {
+        super(context, NOMBRE_BD, null, VERSION_BD);
+        executor = Executors.newSingleThreadExecutor();
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLA + " (" +
+                "idChat TEXT NOT NULL, " +
+                "clave TEXT NOT NULL, " +
+                "orden TEXT NOT NULL, " +
+                "remitente TEXT, " +
+                "texto TEXT, " +
+                "fechaYHora TEXT, " +
+                "marcaTiempo INTEGER NOT NULL DEFAULT 0, " +
+                "pendiente INTEGER NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (idChat, clave))");
+        db.execSQL("CREATE INDEX idx_mensajes_orden ON " + TABLA + " (idChat, orden)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Es una caché: si cambia el esquema se vuelve a descargar todo
+        db.execSQL("DROP TABLE IF EXISTS " + TABLA);
+        onCreate(db);
+    }
+
+    /**
+     * Obtiene los últimos mensajes guardados de un chat.
+     *
+     * @param idChat   Id del chat.
+     * @param limite   Cantidad máxima de mensajes.
+     * @param callback Callback que recibe la página en orden cronológico.
+     */
+    public void obtenerUltimaPagina(String idChat, int limite, GestorFirestore.Callback<Pagina> callback) {
+        consultar("idChat = ?", new String[]{idChat}, "orden DESC", limite, true, callback);
+    }
+
+    /**
+     * Obtiene los mensajes guardados de un chat anteriores a una clave.
+     *
+     * @param idChat   Id del chat.
+     * @param clave    Clave del primer mensaje en memoria.
+     * @param limite   Cantidad máxima de mensajes.
+     * @param callback Callback que recibe la página en orden cronológico.
+     */
+    public void obtenerPaginaAnterior(String idChat, String clave, int limite, GestorFirestore.Callback<Pagina> callback) {
+        consultar("idChat = ? AND orden < ?", new String[]{idChat, calcularOrden(clave)}, "orden DESC", limite, true, callback);
+    }
+
+    /**
+     * Obtiene los mensajes guardados de un chat posteriores a una clave.
+     *
+     * @param idChat   Id del chat.
+     * @param clave    Clave del último mensaje en memoria.
+     * @param limite   Cantidad máxima de mensajes.
+     * @param callback Callback que recibe la página en orden cronológico.
+     */
+    public void obtenerPaginaPosterior(String idChat, String clave, int limite, GestorFirestore.Callback<Pagina> callback) {
+        consultar("idChat = ? AND orden > ?", new String[]{idChat, calcularOrden(clave)}, "orden ASC", limite, false, callback);
+    }
+
+    /**
+     * Obtiene la clave del último mensaje guardado de un chat que viene del servidor o que el servidor ya ha
+     * confirmado. Los mensajes pendientes pueden tener claves posteriores a mensajes del servidor que todavía no se han
+     * recibido, así que no sirven para saber desde dónde pedir los mensajes nuevos.
+     *
+     * @param idChat   Id del chat.
+     * @param callback Callback que recibe la clave, o null si no hay ningún mensaje confirmado.
+     */
+    public void obtenerUltimaClaveConfirmada(String idChat, GestorFirestore.Callback<String> callback) {
+        consultar("idChat = ? AND pendiente = 0", new String[]{idChat}, "orden DESC", 1, false,
+                pagina -> callback.onSuccess(pagina.claves.isEmpty() ? null : pagina.claves.get(0)));
+    }
+
+    /**
+     * Obtiene los mensajes de un chat que se enviaron pero que el servidor todavía no ha confirmado.
+     *
+     * @param idChat   Id del chat.
+     * @param callback Callback que recibe los mensajes pendientes en orden cronológico.
+     */
+    public void obtenerPendientes(String idChat, GestorFirestore.Callback<Pagina> callback) {
+        consultar("idChat = ? AND pendiente = 1", new String[]{idChat}, "orden ASC", -1, false, callback);
+    }
+
+    /**
+     * Guarda los mensajes recibidos del servidor. Si un mensaje ya existía se actualiza su contenido sin tocar su estado de envío.
+     *
+     * @param idChat   Id del chat.
+     * @param claves   Claves de los mensajes.
+     * @param mensajes Mensajes en el mismo orden que las claves.
+     */
+    public void guardarMensajes(String idChat, List<String> claves, List<Mensaje> mensajes) {
+        executor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < claves.size(); i++) {
+                    ContentValues valores = crearValores(idChat, claves.get(i), mensajes.get(i));
+                    if (db.insertWithOnConflict(TABLA, null, valores, SQLiteDatabase.CONFLICT_IGNORE) == -1) {
+                        db.update(TABLA, valores, "idChat = ? AND clave = ?", new String[]{idChat, claves.get(i)});
+                    }
+                }
+                recortarChat(db, idChat);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Guarda un mensaje recibido del servidor.
+     *
+     * @param idChat  Id del chat.
+     * @param clave   Clave del mensaje.
+     * @param mensaje El mensaje.
+     */
+    public void guardarMensaje(String idChat, String clave, Mensaje mensaje) {
+        guardarMensajes(idChat, Collections.singletonList(clave), Collections.singletonList(mensaje));
+    }
+
+    /**
+     * Guarda un mensaje enviado por el usuario actual como pendiente de confirmar por el servidor.
+     *
+     * @param idChat  Id del chat.
+     * @param clave   Clave generada para el mensaje.
+     * @param mensaje El mensaje.
+     */
+    public void guardarMensajePendiente(String idChat, String clave, Mensaje mensaje) {
+        executor.execute(() -> {
+            ContentValues valores = crearValores(idChat, clave, mensaje);
+            valores.put("pendiente", 1);
+            getWritableDatabase().insertWithOnConflict(TABLA, null, valores, SQLiteDatabase.CONFLICT_REPLACE);
+        });
+    }
+
+    /**
+     * Marca un mensaje como confirmado por el servidor.
+     *
+     * @param idChat Id del chat.
+     * @param clave  Clave del mensaje.
+     */
+    public void marcarEnviado(String idChat, String clave) {
+        executor.execute(() -> {
+            ContentValues valores = new ContentValues();
+            valores.put("pendiente", 0);
+            getWritableDatabase().update(TABLA, valores, "idChat = ? AND clave = ?", new String[]{idChat, clave});
+        });
+    }
+
+    /**
+     * Borra un mensaje que se ha eliminado en el servidor.
+     *
+     * @param idChat Id del chat.
+     * @param clave  Clave del mensaje.
+     */
+    public void borrarMensaje(String idChat, String clave) {
+        executor.execute(() -> getWritableDatabase().delete(TABLA, "idChat = ? AND clave = ?", new String[]{idChat, clave}));
+    }
+
+    /**
+     * Ejecuta una consulta de mensajes en segundo plano y devuelve el resultado en el hilo principal.
+     */
+    private void consultar(String where, String[] args, String orderBy, int limite, boolean invertir, GestorFirestore.Callback<Pagina> callback) {
+        executor.execute(() -> {
+            Pagina pagina = new Pagina();
+            try (Cursor cursor = getReadableDatabase().query(TABLA, new String[]{"clave", "remitente", "texto", "fechaYHora", "marcaTiempo"},
+                    where, args, null, null, orderBy, limite > 0 ? String.valueOf(limite) : null)) {
+                while (cursor.moveToNext()) {
+                    pagina.claves.add(cursor.getString(0));
+                    Mensaje mensaje = new Mensaje(cursor.getString(1), cursor.getString(2), cursor.getString(3));
+                    mensaje.setMarcaTiempo(cursor.getLong(4));
+                    pagina.mensajes.add(mensaje);
+                }
+            }
+            if (invertir) {
+                Collections.reverse(pagina.claves);
+                Collections.reverse(pagina.mensajes);
+            }
+            handler.post(() -> callback.onSuccess(pagina));
+        });
+    }
+
+    /**
+     * Borra los mensajes más antiguos de un chat que superan el máximo guardado en disco, sin borrar los pendientes.
+     */
+    private void recortarChat(SQLiteDatabase db, String idChat) {
+        db.execSQL("DELETE FROM " + TABLA + " WHERE idChat = ? AND pendiente = 0 AND orden < (" +
+                        "SELECT orden FROM " + TABLA + " WHERE idChat = ? ORDER BY orden DESC LIMIT 1 OFFSET " + (MAXIMO_MENSAJES_POR_CHAT - 1) + ")",
+                new Object[]{idChat, idChat});
+    }
+
+    private ContentValues crearValores(String idChat, String clave, Mensaje mensaje) {
+        ContentValues valores = new ContentValues();
+        valores.put("idChat", idChat);
+        valores.put("clave", clave);
+        valores.put("orden", calcularOrden(clave));
+        valores.put("remitente", mensaje.getRemitente());
+        valores.put("texto", mensaje.getTexto());
+        valores.put("fechaYHora", mensaje.getFechaYHora());
+        valores.put("marcaTiempo", mensaje.getMarcaTiempo());
+        return valores;
+    }
+
+    /**
+     * Calcula un valor que ordena las claves igual que Realtime Database: primero las claves numéricas (los índices de los
+     * chats antiguos guardados como lista) por su valor, y después el resto de claves (las generadas con push) alfabéticamente.
+     *
+     * @param clave Clave del mensaje.
+     * @return Valor ordenable como texto.
+     */
+    static String calcularOrden(String clave) {
+        try {
+            return "0" + String.format(Locale.ROOT, "%011d", Integer.parseInt(clave) + (long) Integer.MAX_VALUE + 1);
+        } catch (NumberFormatException e) {
+            return "1" + clave;
+        }
+    }
+
+    /**
+     * Página de mensajes leída del almacén, con las claves y los mensajes en el mismo orden.
+     */
+    public static class Pagina {
+        public final List<String> claves = new ArrayList<>();
+        public final List<Mensaje> mensajes = new ArrayList<>();
+    }
+}
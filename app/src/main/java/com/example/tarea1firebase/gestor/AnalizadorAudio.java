@@ -0,0 +1,164 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+
+import com.example.tarea1firebase.entidades.MetadatosCancion;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Calcula los metadatos de una canción local antes de subirla: duración, frecuencia de muestreo, canales y la forma
+ * de onda resumida en {@value #NUMERO_PICOS} picos. Para los picos se decodifica el audio a PCM con MediaCodec y se
+ * guarda la amplitud máxima de cada tramo, así que se debe llamar fuera del hilo principal.
+ */
+public class AnalizadorAudio {
+    public static final int NUMERO_PICOS = 200;
+    private static final long ESPERA_CODEC_US = 10000;
+
+    private AnalizadorAudio() {
+    }
+
+    /**
+     * Calcula los metadatos de una canción. Si no se puede decodificar, se devuelven al menos la duración y el
+     * formato sin picos.
+     *
+     * @param context El contexto para abrir la URI.
+     * @param uri     La URI local de la canción.
+     * @return Los metadatos (sin URL), o null si el fichero no tiene audio.
+     */
+    public static MetadatosCancion analizar(Context context, Uri uri) {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat formato = null;
+            for (int pista = 0; pista < extractor.getTrackCount(); pista++) {
+                MediaFormat formatoPista = extractor.getTrackFormat(pista);
+                String tipo = formatoPista.getString(MediaFormat.KEY_MIME);
+                if (tipo != null && tipo.startsWith("audio/")) {
+                    extractor.selectTrack(pista);
+                    formato = formatoPista;
+                    break;
+                }
+            }
+            if (formato == null) {
+                return null;
+            }
+
+            MetadatosCancion metadatos = new MetadatosCancion();
+            metadatos.setFrecuenciaMuestreo(formato.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+            metadatos.setCanales(formato.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            long duracionUs = formato.containsKey(MediaFormat.KEY_DURATION) ? formato.getLong(MediaFormat.KEY_DURATION) : 0;
+            if (duracionUs <= 0) {
+                duracionUs = leerDuracionUs(context, uri);
+            }
+            metadatos.setDuracion(duracionUs / 1000);
+            if (duracionUs <= 0) {
+                return metadatos;
+            }
+
+            try {
+                codec = MediaCodec.createDecoderByType(formato.getString(MediaFormat.KEY_MIME));
+                codec.configure(formato, null, null, 0);
+                codec.start();
+                metadatos.codificarPicos(calcularPicos(extractor, codec, duracionUs));
+            } catch (Exception e) {
+                // Sin decodificador para este formato: la fila mostrará la duración sin forma de onda
+            }
+            return metadatos;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (Exception e) {
+                    // El codec no llegó a arrancar
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Decodifica todo el audio y guarda, para cada uno de los tramos, la mayor amplitud de sus muestras.
+     */
+    private static byte[] calcularPicos(MediaExtractor extractor, MediaCodec codec, long duracionUs) {
+        int[] maximos = new int[NUMERO_PICOS];
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean finEntrada = false;
+        boolean finSalida = false;
+        while (!finSalida) {
+            if (!finEntrada) {
+                int indiceEntrada = codec.dequeueInputBuffer(ESPERA_CODEC_US);
+                if (indiceEntrada >= 0) {
+                    ByteBuffer entrada = codec.getInputBuffer(indiceEntrada);
+                    int tamano = extractor.readSampleData(entrada, 0);
+                    if (tamano < 0) {
+                        codec.queueInputBuffer(indiceEntrada, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        finEntrada = true;
+                    } else {
+                        codec.queueInputBuffer(indiceEntrada, 0, tamano, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int indiceSalida = codec.dequeueOutputBuffer(info, ESPERA_CODEC_US);
+            if (indiceSalida >= 0) {
+                if (info.size > 0) {
+                    ByteBuffer salida = codec.getOutputBuffer(indiceSalida);
+                    salida.position(info.offset);
+                    salida.limit(info.offset + info.size);
+                    // La salida de los decodificadores de audio es PCM de 16 bits en el orden nativo
+                    ShortBuffer muestras = salida.order(ByteOrder.nativeOrder()).asShortBuffer();
+                    int tramo = (int) Math.min(NUMERO_PICOS - 1, Math.max(0, info.presentationTimeUs * NUMERO_PICOS / duracionUs));
+                    while (muestras.hasRemaining()) {
+                        int amplitud = Math.abs((int) muestras.get());
+                        if (amplitud > maximos[tramo]) {
+                            maximos[tramo] = amplitud;
+                        }
+                    }
+                }
+                codec.releaseOutputBuffer(indiceSalida, false);
+                finSalida = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            }
+        }
+
+        // Se normaliza al pico más alto para que las canciones con poco volumen también se vean
+        int maximoGlobal = 1;
+        for (int maximo : maximos) {
+            maximoGlobal = Math.max(maximoGlobal, maximo);
+        }
+        byte[] picos = new byte[NUMERO_PICOS];
+        for (int i = 0; i < NUMERO_PICOS; i++) {
+            picos[i] = (byte) (maximos[i] * 255 / maximoGlobal);
+        }
+        return picos;
+    }
+
+    private static long leerDuracionUs(Context context, Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            String duracion = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duracion != null ? Long.parseLong(duracion) * 1000 : 0;
+        } catch (Exception e) {
+            return 0;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                // No se puede hacer nada más
+            }
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.Context;
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.google.firebase.FirebaseApp;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché en disco de los audios de las canciones, con la URL de descarga de Storage como clave. Cada canción se guarda
+ * en un fichero de la carpeta de caché de la aplicación; cuando los ficheros ocupan más de
+ * {@value #MAXIMO_BYTES} bytes se borran los que hace más tiempo que no se usan (LRU por fecha de último uso).
+ * Mientras una canción se descarga, el reproductor la lee del fichero parcial (MediaDataSource, Android 6 o superior),
+ * así que empieza a sonar antes de que termine la descarga. Si una descarga se corta, la siguiente continúa donde se
+ * quedó pidiendo solo el rango que falta (cabecera Range). Si el reproductor salta muy por delante de lo descargado
+ * (por ejemplo, al buscar el índice "moov" al final de un MP4), ese trozo se pide aparte con otro rango en lugar de
+ * esperar a que la descarga llegue hasta él. Las conexiones tienen tiempo máximo de conexión y de lectura, y los
+ * lectores no esperan más de {@value #ESPERA_MAXIMA_MS} ms sin que la descarga avance, así que una conexión colgada
+ * hace fallar la lectura en lugar de bloquear el reproductor.
+ */
+public class CacheAudio {
+    private static final long MAXIMO_BYTES = 150L * 1024 * 1024;
+    private static final String CARPETA_DISCO = "audios";
+    private static final String SUFIJO_PARCIAL = ".parcial";
+    private static final int TAMANO_BUFFER = 64 * 1024;
+    private static final long DISTANCIA_SALTO = 512 * 1024;
+    private static final int TAMANO_BLOQUE_REMOTO = 256 * 1024;
+    private static final int TIEMPO_CONEXION_MS = 15000;
+    private static final int TIEMPO_LECTURA_MS = 20000;
+    /**
+     * Tiempo máximo que un lector espera sin que la descarga avance antes de darla por fallida.
+     */
+    private static final long ESPERA_MAXIMA_MS = 30000;
+
+    private static CacheAudio instancia;
+
+    private final File carpetaDisco;
+    private final Map<String, Descarga> descargasEnCurso = new HashMap<>();
+    private final ExecutorService executorDescargas = Executors.newFixedThreadPool(2);
+
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong bytesServidos = new AtomicLong();
+    private final AtomicLong bytesDescargados = new AtomicLong();
+
+    private CacheAudio(Context context) {
+        carpetaDisco = new File(context.getCacheDir(), CARPETA_DISCO);
+    }
+
+    /**
+     * Devuelve la instancia única de la caché.
+     *
+     * @return La caché de audios.
+     */
+    public static synchronized CacheAudio getInstance() {
+        if (instancia == null) {
+            instancia = new CacheAudio(FirebaseApp.getInstance().getApplicationContext());
+        }
+        return instancia;
+    }
+
+    /**
+     * Devuelve el fichero de una canción si ya está descargada entera, y la marca como usada para el LRU.
+     * Cuenta como acierto.
+     *
+     * @param url La URL de la canción.
+     * @return El fichero completo, o null si no está en caché.
+     */
+    public File obtenerFichero(String url) {
+        File fichero = buscarFichero(url);
+        if (fichero == null) {
+            return null;
+        }
+        fichero.setLastModified(System.currentTimeMillis());
+        aciertos.incrementAndGet();
+        bytesServidos.addAndGet(fichero.length());
+        return fichero;
+    }
+
+    /**
+     * Devuelve el fichero de una canción si ya está descargada entera, sin contarlo en las estadísticas ni marcarlo
+     * como usado. Sirve para leer metadatos.
+     *
+     * @param url La URL de la canción.
+     * @return El fichero completo, o null si no está en caché.
+     */
+    public File buscarFichero(String url) {
+        File fichero = new File(carpetaDisco, clave(url));
+        return fichero.exists() ? fichero : null;
+    }
+
+    /**
+     * Devuelve una fuente de datos para el reproductor que lee la canción del fichero de la caché mientras se
+     * descarga. Si la canción ya se estaba descargando, se comparte la descarga. Cuenta como fallo.
+     *
+     * @param url La URL de la canción.
+     * @return La fuente de datos.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public MediaDataSource abrirEnStreaming(String url) {
+        fallos.incrementAndGet();
+        return new FuenteEnDescarga(descargar(url));
+    }
+
+    /**
+     * Empieza a descargar una canción a la caché (o devuelve la descarga en curso), sin reproducirla. En las versiones
+     * de Android sin MediaDataSource el reproductor usa la URL directamente y la canción queda en caché para la próxima vez.
+     *
+     * @param url La URL de la canción.
+     * @return La descarga.
+     */
+    public synchronized Descarga descargar(String url) {
+        Descarga descarga = descargasEnCurso.get(url);
+        if (descarga == null) {
+            descarga = new Descarga(url);
+            // Si la canción se terminó de descargar justo antes, la descarga nace terminada
+            if (!descarga.terminada) {
+                descargasEnCurso.put(url, descarga);
+                executorDescargas.execute(descarga::ejecutar);
+            }
+        }
+        return descarga;
+    }
+
+    /**
+     * Obtiene la cantidad de reproducciones servidas con la canción entera en caché.
+     *
+     * @return La cantidad de aciertos.
+     */
+    public long getAciertos() {
+        return aciertos.get();
+    }
+
+    /**
+     * Obtiene la cantidad de reproducciones que han tenido que descargar la canción (entera o lo que faltaba).
+     *
+     * @return La cantidad de fallos.
+     */
+    public long getFallos() {
+        return fallos.get();
+    }
+
+    /**
+     * Obtiene los bytes entregados al reproductor desde los ficheros de la caché.
+     *
+     * @return Los bytes servidos.
+     */
+    public long getBytesServidos() {
+        return bytesServidos.get();
+    }
+
+    /**
+     * Obtiene los bytes descargados de Storage.
+     *
+     * @return Los bytes descargados.
+     */
+    public long getBytesDescargados() {
+        return bytesDescargados.get();
+    }
+
+    private synchronized void terminarDescarga(Descarga descarga) {
+        descargasEnCurso.remove(descarga.url);
+        recortarDisco();
+    }
+
+    /**
+     * Borra las canciones usadas hace más tiempo hasta que la caché ocupa menos del máximo. Los ficheros de las
+     * descargas en curso no se borran.
+     */
+    private void recortarDisco() {
+        File[] ficheros = carpetaDisco.listFiles();
+        if (ficheros == null) {
+            return;
+        }
+        long total = 0;
+        for (File fichero : ficheros) {
+            total += fichero.length();
+        }
+        Arrays.sort(ficheros, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File fichero : ficheros) {
+            if (total <= MAXIMO_BYTES) {
+                break;
+            }
+            boolean enUso = false;
+            for (Descarga descarga : descargasEnCurso.values()) {
+                enUso |= descarga.parcial.equals(fichero);
+            }
+            if (!enUso) {
+                long tamano = fichero.length();
+                if (fichero.delete()) {
+                    total -= tamano;
+                }
+            }
+        }
+    }
+
+    /**
+     * Descarga un rango de una canción a memoria, sin pasar por la caché.
+     *
+     * @param url      La URL de la canción.
+     * @param inicio   La posición del primer byte.
+     * @param longitud La cantidad máxima de bytes.
+     * @return Los bytes descargados, que pueden ser menos si el fichero termina antes.
+     * @throws IOException Si el servidor no admite rangos o la descarga falla.
+     */
+    private byte[] descargarRango(String url, long inicio, int longitud) throws IOException {
+        HttpURLConnection conexion = abrirConexion(url);
+        try {
+            conexion.setRequestProperty("Range", "bytes=" + inicio + "-" + (inicio + longitud - 1));
+            int codigo = conexion.getResponseCode();
+            if (codigo != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Respuesta " + codigo);
+            }
+            byte[] bloque = new byte[longitud];
+            int total = 0;
+            try (InputStream entrada = conexion.getInputStream()) {
+                int leidos;
+                while (total < longitud && (leidos = entrada.read(bloque, total, longitud - total)) != -1) {
+                    total += leidos;
+                }
+            }
+            if (total == 0) {
+                throw new IOException("Rango vacío");
+            }
+            bytesDescargados.addAndGet(total);
+            return total == longitud ? bloque : Arrays.copyOf(bloque, total);
+        } finally {
+            conexion.disconnect();
+        }
+    }
+
+    private static HttpURLConnection abrirConexion(String url) throws IOException {
+        HttpURLConnection conexion = (HttpURLConnection) new URL(url).openConnection();
+        conexion.setConnectTimeout(TIEMPO_CONEXION_MS);
+        conexion.setReadTimeout(TIEMPO_LECTURA_MS);
+        return conexion;
+    }
+
+    static String clave(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder clave = new StringBuilder();
+            for (byte b : digest.digest(url.getBytes("UTF-8"))) {
+                clave.append(String.format("%02x", b));
+            }
+            return clave.toString();
+        } catch (Exception e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    /**
+     * Descarga de una canción al fichero parcial de la caché. Los lectores esperan a que haya bytes suficientes.
+     */
+    public class Descarga {
+        private final String url;
+        private final File parcial;
+        private final File completo;
+        private final Object cerrojo = new Object();
+        private long descargados;
+        private long tamanoTotal = -1;
+        private volatile boolean terminada;
+        private volatile boolean fallida;
+        private volatile HttpURLConnection conexionActual;
+
+        Descarga(String url) {
+            this.url = url;
+            String nombre = clave(url);
+            this.completo = new File(carpetaDisco, nombre);
+            this.parcial = new File(carpetaDisco, nombre + SUFIJO_PARCIAL);
+            if (completo.exists()) {
+                descargados = completo.length();
+                tamanoTotal = descargados;
+                terminada = true;
+            }
+        }
+
+        private void ejecutar() {
+            HttpURLConnection conexion = null;
+            try {
+                if (!carpetaDisco.exists() && !carpetaDisco.mkdirs()) {
+                    throw new IOException("No se puede crear la carpeta de caché");
+                }
+                long yaDescargados = parcial.exists() ? parcial.length() : 0;
+                conexion = abrirConexion(url);
+                conexionActual = conexion;
+                if (yaDescargados > 0) {
+                    conexion.setRequestProperty("Range", "bytes=" + yaDescargados + "-");
+                }
+                int codigo = conexion.getResponseCode();
+                if (codigo == 416) {
+                    // El rango pedido no existe: el fichero parcial no corresponde a esta canción
+                    parcial.delete();
+                }
+                boolean continuar = codigo == HttpURLConnection.HTTP_PARTIAL;
+                if (!continuar && codigo != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Respuesta " + codigo);
+                }
+                if (!continuar) {
+                    // El servidor manda el fichero entero: se empieza de cero
+                    yaDescargados = 0;
+                }
+                long longitud = conexion.getContentLength();
+                synchronized (cerrojo) {
+                    descargados = yaDescargados;
+                    tamanoTotal = longitud >= 0 ? yaDescargados + longitud : -1;
+                    cerrojo.notifyAll();
+                }
+
+                try (InputStream entrada = conexion.getInputStream();
+                     FileOutputStream salida = new FileOutputStream(parcial, continuar)) {
+                    byte[] buffer = new byte[TAMANO_BUFFER];
+                    int leidos;
+                    while ((leidos = entrada.read(buffer)) != -1) {
+                        salida.write(buffer, 0, leidos);
+                        bytesDescargados.addAndGet(leidos);
+                        synchronized (cerrojo) {
+                            descargados += leidos;
+                            cerrojo.notifyAll();
+                        }
+                    }
+                }
+                if (!parcial.renameTo(completo)) {
+                    throw new IOException("No se puede completar el fichero");
+                }
+                synchronized (cerrojo) {
+                    tamanoTotal = descargados;
+                    terminada = true;
+                    cerrojo.notifyAll();
+                }
+            } catch (IOException e) {
+                // El fichero parcial se queda para continuar la descarga la próxima vez
+                synchronized (cerrojo) {
+                    fallida = true;
+                    cerrojo.notifyAll();
+                }
+            } finally {
+                conexionActual = null;
+                if (conexion != null) {
+                    conexion.disconnect();
+                }
+                terminarDescarga(this);
+            }
+        }
+
+        /**
+         * Espera a que se haya descargado la posición indicada. Si la descarga pasa {@value #ESPERA_MAXIMA_MS} ms sin
+         * avanzar, se da por fallida.
+         *
+         * @return La cantidad de bytes descargados, que puede ser menor que la posición si la descarga ha terminado o fallado.
+         */
+        private long esperarHasta(long posicion) throws InterruptedException {
+            synchronized (cerrojo) {
+                long limite = System.currentTimeMillis() + ESPERA_MAXIMA_MS;
+                long descargadosAntes = descargados;
+                while (descargados <= posicion && !terminada && !fallida) {
+                    long restante = limite - System.currentTimeMillis();
+                    if (restante <= 0) {
+                        abortar();
+                        break;
+                    }
+                    cerrojo.wait(restante);
+                    if (descargados != descargadosAntes) {
+                        descargadosAntes = descargados;
+                        limite = System.currentTimeMillis() + ESPERA_MAXIMA_MS;
+                    }
+                }
+                return descargados;
+            }
+        }
+
+        /**
+         * Da la descarga por fallida y corta su conexión, para que el hilo de la descarga no se quede colgado. Se llama
+         * con el cerrojo cogido.
+         */
+        private void abortar() {
+            fallida = true;
+            cerrojo.notifyAll();
+            HttpURLConnection conexion = conexionActual;
+            if (conexion != null) {
+                // disconnect no espera a la red: cierra el socket y la lectura en curso falla
+                conexion.disconnect();
+            }
+        }
+
+        /**
+         * Indica si una posición está tan por delante de lo descargado que conviene pedirla aparte.
+         */
+        private boolean estaLejos(long posicion) {
+            synchronized (cerrojo) {
+                return !terminada && !fallida && posicion >= descargados + DISTANCIA_SALTO
+                        && (tamanoTotal < 0 || posicion < tamanoTotal);
+            }
+        }
+
+        private long esperarTamano() throws InterruptedException {
+            synchronized (cerrojo) {
+                long limite = System.currentTimeMillis() + ESPERA_MAXIMA_MS;
+                while (tamanoTotal < 0 && descargados == 0 && !terminada && !fallida) {
+                    long restante = limite - System.currentTimeMillis();
+                    if (restante <= 0) {
+                        abortar();
+                        break;
+                    }
+                    cerrojo.wait(restante);
+                }
+                return tamanoTotal;
+            }
+        }
+    }
+
+    /**
+     * Fuente de datos del reproductor que lee del fichero de una descarga en curso (o terminada). Si el reproductor
+     * pide una posición que aún no se ha descargado, espera a que llegue; si está a más de {@value #DISTANCIA_SALTO}
+     * bytes, la pide con un rango de {@value #TAMANO_BLOQUE_REMOTO} bytes que guarda en memoria para las lecturas
+     * siguientes. Si el servidor no admite rangos, vuelve a esperar a la descarga.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private class FuenteEnDescarga extends MediaDataSource {
+        private final Descarga descarga;
+        private RandomAccessFile fichero;
+        private byte[] bloqueRemoto;
+        private long inicioBloqueRemoto;
+        private boolean sinRangos;
+
+        FuenteEnDescarga(Descarga descarga) {
+            this.descarga = descarga;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (!sinRangos && descarga.estaLejos(position)) {
+                try {
+                    return leerDeBloqueRemoto(position, buffer, offset, size);
+                } catch (IOException e) {
+                    sinRangos = true;
+                }
+            }
+            long disponibles;
+            try {
+                disponibles = descarga.esperarHasta(position);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            if (position >= disponibles) {
+                if (descarga.fallida) {
+                    throw new IOException("La descarga ha fallado");
+                }
+                return -1;
+            }
+            if (fichero == null) {
+                try {
+                    fichero = new RandomAccessFile(descarga.parcial, "r");
+                } catch (FileNotFoundException e) {
+                    // La descarga ya ha terminado y el fichero se ha renombrado a completo
+                    fichero = new RandomAccessFile(descarga.completo, "r");
+                }
+            }
+            fichero.seek(position);
+            int leidos = fichero.read(buffer, offset, (int) Math.min(size, disponibles - position));
+            if (leidos > 0) {
+                bytesServidos.addAndGet(leidos);
+            }
+            return leidos;
+        }
+
+        private int leerDeBloqueRemoto(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (bloqueRemoto == null || position < inicioBloqueRemoto || position >= inicioBloqueRemoto + bloqueRemoto.length) {
+                bloqueRemoto = descargarRango(descarga.url, position, TAMANO_BLOQUE_REMOTO);
+                inicioBloqueRemoto = position;
+            }
+            int desde = (int) (position - inicioBloqueRemoto);
+            int leidos = Math.min(size, bloqueRemoto.length - desde);
+            System.arraycopy(bloqueRemoto, desde, buffer, offset, leidos);
+            return leidos;
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            try {
+                return descarga.esperarTamano();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fichero != null) {
+                fichero.close();
+                fichero = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.example.tarea1firebase.gestor;
+
+import static com.example.tarea1firebase.fragments.PerfilFragment.COLECCION;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché de los resúmenes de usuario (UsuarioResumen) que se pone delante de las lecturas de Firestore de los adaptadores.
+ * Tiene dos niveles: una caché en memoria (LRU limitada por número de usuarios y con caducidad corta) y una copia en
+ * disco, en la carpeta de caché de la aplicación, que sirve para arrancar en caliente. La copia en disco guarda cuándo
+ * se leyó de Firestore y solo se da por buena mientras no haya pasado la caducidad de la memoria; si es más antigua, se
+ * vuelve a leer de Firestore y la copia solo se usa si esa lectura falla (sin conexión). Si se piden varias veces el mismo
+ * usuario mientras su lectura está en curso, todas las peticiones comparten la misma Task y solo se hace una lectura.
+ * Todos los métodos públicos se deben llamar desde el hilo principal.
+ */
+public class CacheUsuarios {
+    private static final int MAXIMO_USUARIOS_EN_MEMORIA = 200;
+    private static final int MAXIMO_USUARIOS_EN_DISCO = 500;
+    private static final long CADUCIDAD_MEMORIA_MS = 5 * 60 * 1000L;
+    private static final long CADUCIDAD_DISCO_MS = 24 * 60 * 60 * 1000L;
+    private static final String CARPETA_DISCO = "resumenesUsuario";
+    /**
+     * Máximo de valores de una consulta whereIn en las versiones de Firestore que usa la aplicación.
+     */
+    private static final int MAXIMO_IDS_POR_CONSULTA = 10;
+
+    private static CacheUsuarios instancia;
+
+    private final LruCache<String, Entrada> memoria = new LruCache<>(MAXIMO_USUARIOS_EN_MEMORIA);
+    private final Map<String, Task<UsuarioResumen>> lecturasEnCurso = new HashMap<>();
+    private final ExecutorService executorDisco = Executors.newSingleThreadExecutor();
+    private final FirebaseFirestore db;
+    private final File carpetaDisco;
+
+    private final AtomicLong aciertosMemoria = new AtomicLong();
+    private final AtomicLong aciertosDisco = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+
+    private CacheUsuarios(Context context) {
+        db = FirebaseFirestore.getInstance();
+        carpetaDisco = new File(context.getCacheDir(), CARPETA_DISCO);
+    }
+
+    /**
+     * Devuelve la instancia única de la caché.
+     *
+     * @return La caché de usuarios.
+     */
+    public static synchronized CacheUsuarios getInstance() {
+        if (instancia == null) {
+            instancia = new CacheUsuarios(FirebaseApp.getInstance().getApplicationContext());
+        }
+        return instancia;
+    }
+
+    /**
+     * Obtiene el resumen de un usuario de la memoria, del disco o de Firestore, en ese orden. Si el usuario todavía no
+     * tiene resumen (se registró antes de que existiera la colección), se crea a partir de su documento completo.
+     * Si la lectura de Firestore falla y hay una copia en disco caducada, se devuelve esa copia.
+     *
+     * @param id El ID del usuario.
+     * @return Una Task con el resumen, o con null si el usuario no existe.
+     */
+    public Task<UsuarioResumen> obtener(String id) {
+        Entrada entrada = memoria.get(id);
+        if (entrada != null && !entrada.caducada()) {
+            aciertosMemoria.incrementAndGet();
+            return Tasks.forResult(entrada.resumen);
+        }
+
+        Task<UsuarioResumen> enCurso = lecturasEnCurso.get(id);
+        if (enCurso != null) {
+            aciertosMemoria.incrementAndGet();
+            return enCurso;
+        }
+
+        Task<UsuarioResumen> lectura = Tasks.call(executorDisco, () -> leerDeDisco(id)).continueWithTask(tareaDisco -> {
+            Entrada entradaDisco = tareaDisco.isSuccessful() ? tareaDisco.getResult() : null;
+            if (entradaDisco != null && !entradaDisco.caducada()) {
+                aciertosDisco.incrementAndGet();
+                memoria.put(id, entradaDisco);
+                return Tasks.forResult(entradaDisco.resumen);
+            }
+            fallos.incrementAndGet();
+            Task<UsuarioResumen> lecturaFirestore = leerDeFirestore(id);
+            if (entradaDisco == null) {
+                return lecturaFirestore;
+            }
+            // Sin conexión, mejor la copia caducada que nada; no se pasa a memoria para volver a intentarlo
+            return lecturaFirestore.continueWith(tareaFirestore ->
+                    tareaFirestore.isSuccessful() ? tareaFirestore.getResult() : entradaDisco.resumen);
+        });
+        lecturasEnCurso.put(id, lectura);
+        lectura.addOnCompleteListener(tarea -> lecturasEnCurso.remove(id));
+        return lectura;
+    }
+
+    /**
+     * Lee el resumen de un usuario de Firestore y lo guarda en la caché. Si el usuario todavía no tiene resumen, se
+     * crea a partir de su documento completo.
+     */
+    private Task<UsuarioResumen> leerDeFirestore(String id) {
+        return db.collection(GestorFirestore.COLECCION_RESUMENES).document(id).get().continueWithTask(tareaResumen -> {
+            DocumentSnapshot documentResumen = tareaResumen.getResult();
+            if (documentResumen.exists()) {
+                UsuarioResumen resumen = documentResumen.toObject(UsuarioResumen.class);
+                guardar(id, resumen);
+                return Tasks.forResult(resumen);
+            }
+            return db.collection(COLECCION).document(id).get().continueWith(tareaUsuario -> {
+                DocumentSnapshot documentUsuario = tareaUsuario.getResult();
+                if (!documentUsuario.exists()) {
+                    return null;
+                }
+                UsuarioResumen resumen = UsuarioResumen.desdeUsuario(documentUsuario.toObject(Usuario.class));
+                db.collection(GestorFirestore.COLECCION_RESUMENES).document(id).set(resumen);
+                guardar(id, resumen);
+                return resumen;
+            });
+        });
+    }
+
+    /**
+     * Obtiene los resúmenes de varios usuarios a la vez. Los que no están en memoria se buscan en disco y el resto se
+     * piden a Firestore con consultas whereIn de como mucho {@value #MAXIMO_IDS_POR_CONSULTA} IDs, en lugar de una
+     * lectura por usuario. Los usuarios que todavía no tienen resumen se leen uno a uno con {@link #obtener(String)}.
+     *
+     * @param ids Los IDs de los usuarios (puede haber repetidos).
+     * @return Una Task con un mapa de ID a resumen. Los usuarios que no existen no aparecen en el mapa.
+     */
+    public Task<Map<String, UsuarioResumen>> obtenerVarios(Collection<String> ids) {
+        Map<String, UsuarioResumen> resultado = new HashMap<>();
+        List<Task<Void>> tareas = new ArrayList<>();
+        List<String> pendientes = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            Entrada entrada = memoria.get(id);
+            if (entrada != null && !entrada.caducada()) {
+                aciertosMemoria.incrementAndGet();
+                resultado.put(id, entrada.resumen);
+            } else if (lecturasEnCurso.containsKey(id)) {
+                aciertosMemoria.incrementAndGet();
+                tareas.add(anadirAlResultado(lecturasEnCurso.get(id), id, resultado));
+            } else {
+                pendientes.add(id);
+            }
+        }
+        if (pendientes.isEmpty()) {
+            return Tasks.whenAllComplete(tareas).continueWith(tarea -> resultado);
+        }
+
+        Task<Void> lectura = Tasks.call(executorDisco, () -> {
+            Map<String, Entrada> enDisco = new HashMap<>();
+            for (String id : pendientes) {
+                Entrada entrada = leerDeDisco(id);
+                if (entrada != null && !entrada.caducada()) {
+                    enDisco.put(id, entrada);
+                }
+            }
+            return enDisco;
+        }).<Void>continueWithTask(tareaDisco -> {
+            // Las copias caducadas se vuelven a leer; si la consulta falla, obtener() recurre a ellas
+            List<String> paraFirestore = new ArrayList<>();
+            for (String id : pendientes) {
+                Entrada entrada = tareaDisco.isSuccessful() ? tareaDisco.getResult().get(id) : null;
+                if (entrada != null) {
+                    aciertosDisco.incrementAndGet();
+                    memoria.put(id, entrada);
+                    resultado.put(id, entrada.resumen);
+                } else {
+                    paraFirestore.add(id);
+                }
+            }
+            List<Task<Void>> consultas = new ArrayList<>();
+            for (int inicio = 0; inicio < paraFirestore.size(); inicio += MAXIMO_IDS_POR_CONSULTA) {
+                List<String> bloque = new ArrayList<>(paraFirestore.subList(inicio, Math.min(inicio + MAXIMO_IDS_POR_CONSULTA, paraFirestore.size())));
+                fallos.addAndGet(bloque.size());
+                consultas.add(db.collection(GestorFirestore.COLECCION_RESUMENES).whereIn(FieldPath.documentId(), bloque).get().<Void>continueWithTask(tareaConsulta -> {
+                    Set<String> sinResumen = new HashSet<>(bloque);
+                    if (tareaConsulta.isSuccessful()) {
+                        for (DocumentSnapshot documentResumen : tareaConsulta.getResult().getDocuments()) {
+                            UsuarioResumen resumen = documentResumen.toObject(UsuarioResumen.class);
+                            guardar(documentResumen.getId(), resumen);
+                            resultado.put(documentResumen.getId(), resumen);
+                            sinResumen.remove(documentResumen.getId());
+                        }
+                    }
+                    // Usuarios registrados antes de que existieran los resúmenes (o consulta fallida): lectura individual
+                    List<Task<Void>> individuales = new ArrayList<>();
+                    for (String id : sinResumen) {
+                        individuales.add(anadirAlResultado(obtener(id), id, resultado));
+                    }
+                    return Tasks.whenAllComplete(individuales).<Void>continueWith(tarea -> null);
+                }));
+            }
+            return Tasks.whenAllComplete(consultas).<Void>continueWith(tarea -> null);
+        });
+        tareas.add(lectura);
+        return Tasks.whenAllComplete(tareas).continueWith(tarea -> resultado);
+    }
+
+    private Task<Void> anadirAlResultado(Task<UsuarioResumen> lectura, String id, Map<String, UsuarioResumen> resultado) {
+        return lectura.continueWith(tarea -> {
+            if (tarea.isSuccessful() && tarea.getResult() != null) {
+                resultado.put(id, tarea.getResult());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Guarda en la caché el resumen de un usuario recién leído o escrito.
+     *
+     * @param id      El ID del usuario.
+     * @param resumen El resumen del usuario.
+     */
+    public void guardar(String id, UsuarioResumen resumen) {
+        Entrada entrada = new Entrada(resumen, System.currentTimeMillis());
+        memoria.put(id, entrada);
+        executorDisco.execute(() -> escribirEnDisco(id, entrada));
+    }
+
+    /**
+     * Quita un usuario de la caché, para que la próxima lectura vaya a Firestore. Se llama después de modificar su documento.
+     *
+     * @param id El ID del usuario.
+     */
+    public void invalidar(String id) {
+        memoria.remove(id);
+        executorDisco.execute(() -> new File(carpetaDisco, id).delete());
+    }
+
+    /**
+     * Obtiene la cantidad de lecturas servidas desde memoria (incluidas las que se unen a una lectura en curso).
+     *
+     * @return La cantidad de aciertos en memoria.
+     */
+    public long getAciertosMemoria() {
+        return aciertosMemoria.get();
+    }
+
+    /**
+     * Obtiene la cantidad de lecturas servidas desde disco.
+     *
+     * @return La cantidad de aciertos en disco.
+     */
+    public long getAciertosDisco() {
+        return aciertosDisco.get();
+    }
+
+    /**
+     * Obtiene la cantidad de lecturas que han tenido que ir a Firestore.
+     *
+     * @return La cantidad de fallos.
+     */
+    public long getFallos() {
+        return fallos.get();
+    }
+
+    /**
+     * Lee la copia en disco de un usuario con el momento en que se leyó de Firestore. Las copias de más de
+     * {@value #CADUCIDAD_DISCO_MS} ms se borran; las que han pasado la caducidad de la memoria se devuelven igualmente
+     * para poder usarlas sin conexión.
+     */
+    private Entrada leerDeDisco(String id) {
+        File fichero = new File(carpetaDisco, id);
+        if (!fichero.exists()) {
+            return null;
+        }
+        try (ObjectInputStream entrada = new ObjectInputStream(new FileInputStream(fichero))) {
+            long leidoEn = entrada.readLong();
+            UsuarioResumen resumen = (UsuarioResumen) entrada.readObject();
+            long edad = System.currentTimeMillis() - leidoEn;
+            if (edad < 0 || edad > CADUCIDAD_DISCO_MS) {
+                fichero.delete();
+                return null;
+            }
+            return new Entrada(resumen, leidoEn);
+        } catch (Exception e) {
+            //Copia de una versión anterior de la clase UsuarioResumen, del formato sin fecha o fichero incompleto
+            fichero.delete();
+            return null;
+        }
+    }
+
+    private void escribirEnDisco(String id, Entrada entrada) {
+        if (!carpetaDisco.exists() && !carpetaDisco.mkdirs()) {
+            return;
+        }
+        File fichero = new File(carpetaDisco, id);
+        try (ObjectOutputStream salida = new ObjectOutputStream(new FileOutputStream(fichero))) {
+            salida.writeLong(entrada.leidoEn);
+            salida.writeObject(entrada.resumen);
+        } catch (Exception e) {
+            fichero.delete();
+            return;
+        }
+        recortarDisco();
+    }
+
+    /**
+     * Borra las copias más antiguas si hay más usuarios en disco de los permitidos.
+     */
+    private void recortarDisco() {
+        File[] ficheros = carpetaDisco.listFiles();
+        if (ficheros == null || ficheros.length <= MAXIMO_USUARIOS_EN_DISCO) {
+            return;
+        }
+        Arrays.sort(ficheros, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (int i = 0; i < ficheros.length - MAXIMO_USUARIOS_EN_DISCO; i++) {
+            ficheros[i].delete();
+        }
+    }
+
+    /**
+     * Un resumen con el momento (hora del sistema) en que se leyó de Firestore. Es la misma hora en memoria y en disco,
+     * así que una copia que vuelve del disco no se rejuvenece.
+     */
+    private static class Entrada {
+        private final UsuarioResumen resumen;
+        private final long leidoEn;
+
+        Entrada(UsuarioResumen resumen, long leidoEn) {
+            this.resumen = resumen;
+            this.leidoEn = leidoEn;
+        }
+
+        boolean caducada() {
+            long edad = System.currentTimeMillis() - leidoEn;
+            // Si la hora del sistema ha retrocedido no se puede saber la edad: se da por caducada
+            return edad < 0 || edad > CADUCIDAD_MEMORIA_MS;
+        }
+    }
+}
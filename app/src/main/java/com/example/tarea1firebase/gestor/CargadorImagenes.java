@@ -0,0 +1,82 @@
+package com.example.tarea1firebase.gestor;
+
+import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.util.ViewPreloadSizeProvider;
+import com.example.tarea1firebase.entidades.Publicacion;
+
+/**
+ * Construye las peticiones de Glide de las imágenes de las listas, para que la carga de una fila y la precarga de
+ * las filas siguientes pidan exactamente lo mismo y la precarga acierte en la caché.
+ * Las imágenes se decodifican al tamaño de la vista de destino (no al de la imagen), y los avatares en RGB_565, que
+ * ocupa la mitad de memoria y no necesitan transparencia porque el recorte redondo lo pinta la propia vista.
+ */
+public class CargadorImagenes {
+    /**
+     * Cantidad de filas por delante de la última visible cuyas imágenes se precargan.
+     */
+    public static final int FILAS_PRECARGADAS = 4;
+
+    private CargadorImagenes() {
+    }
+
+    /**
+     * Construye la petición del avatar de un usuario en una fila.
+     *
+     * @param glide El RequestManager de la pantalla.
+     * @param url   La URL de la foto (normalmente la miniatura).
+     * @return La petición, a falta del destino.
+     */
+    public static RequestBuilder<Drawable> avatar(RequestManager glide, String url) {
+        return glide.load(url).format(DecodeFormat.PREFER_RGB_565).fitCenter();
+    }
+
+    /**
+     * Construye la petición de la imagen de una publicación en el muro: la variante reducida y, mientras llega, su
+     * miniatura.
+     *
+     * @param glide       El RequestManager de la pantalla.
+     * @param publicacion La publicación.
+     * @return La petición, a falta del destino.
+     */
+    public static RequestBuilder<Drawable> imagenPublicacion(RequestManager glide, Publicacion publicacion) {
+        RequestBuilder<Drawable> peticion = glide.load(publicacion.obtenerUrlImagenFeed()).fitCenter();
+        if (publicacion.getUrlImagenMiniatura() != null) {
+            peticion = peticion.thumbnail(glide.load(publicacion.getUrlImagenMiniatura()).fitCenter());
+        }
+        return peticion;
+    }
+
+    /**
+     * Carga el avatar de un usuario en una vista.
+     *
+     * @param vista La vista de destino.
+     * @param url   La URL de la foto (normalmente la miniatura).
+     */
+    public static void cargarAvatar(ImageView vista, String url) {
+        avatar(Glide.with(vista), url).into(vista);
+    }
+
+    /**
+     * Empieza a precargar las imágenes de las filas siguientes a medida que se desplaza una lista. El tamaño al que
+     * se precargan se toma de la primera vista registrada en el ViewPreloadSizeProvider, que debe ser la misma vista
+     * de la fila en la que después se cargan.
+     *
+     * @param recycler   La lista.
+     * @param proveedor  El adaptador que dice qué imágenes tiene cada fila y cómo se piden.
+     * @param tamanos    El proveedor de tamaños con la vista de una fila.
+     * @param <T>        El tipo del modelo de cada imagen.
+     */
+    public static <T> void precargar(RecyclerView recycler, ListPreloader.PreloadModelProvider<T> proveedor, ViewPreloadSizeProvider<T> tamanos) {
+        recycler.addOnScrollListener(new RecyclerViewPreloader<>(Glide.with(recycler), proveedor, tamanos, FILAS_PRECARGADAS));
+    }
+}
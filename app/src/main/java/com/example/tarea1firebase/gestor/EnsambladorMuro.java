@@ -0,0 +1,127 @@
+package com.example.tarea1firebase.gestor;
+
+import com.example.tarea1firebase.entidades.Publicacion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Junta en el cliente las publicaciones de varios autores en un solo muro, de la más reciente a la más antigua, y se
+ * queda solo con las primeras. Se usa mientras el muro del usuario todavía no está relleno en Firestore y las
+ * publicaciones llegan autor a autor.
+ * Cada autor es una lista ya ordenada; al llegar, su cursor entra en una cola de prioridad (log k) y el muro se
+ * recalcula mezclando los cursores pendientes con el muro anterior, sin volver a ordenar todo.
+ */
+public class EnsambladorMuro {
+    /**
+     * De la más reciente a la más antigua.
+     */
+    private static final Comparator<Publicacion> MAS_RECIENTE_PRIMERO =
+            (publicacion1, publicacion2) -> Long.compare(publicacion2.calcularMarcaTiempo(), publicacion1.calcularMarcaTiempo());
+
+    private final int maximo;
+    private final PriorityQueue<Cursor> pendientes = new PriorityQueue<>();
+    private List<Publicacion> muro = new ArrayList<>();
+
+    /**
+     * Crea un ensamblador vacío.
+     *
+     * @param maximo La cantidad máxima de publicaciones del muro.
+     */
+    public EnsambladorMuro(int maximo) {
+        this.maximo = maximo;
+    }
+
+    /**
+     * Añade las publicaciones de un autor. No cambia el muro hasta la siguiente llamada a obtenerMuro, así que se
+     * pueden añadir varios autores seguidos y mezclarlos de una vez.
+     *
+     * @param publicaciones Las publicaciones del autor, en cualquier orden.
+     */
+    public void anadirAutor(List<Publicacion> publicaciones) {
+        if (publicaciones == null || publicaciones.isEmpty()) {
+            return;
+        }
+        List<Publicacion> ordenadas = new ArrayList<>(publicaciones);
+        for (Publicacion publicacion : ordenadas) {
+            // Para no convertir la fecha en texto de las publicaciones antiguas en cada comparación
+            publicacion.setMarcaTiempo(publicacion.calcularMarcaTiempo());
+        }
+        // El array de cada usuario se va llenando en orden de publicación: casi siempre basta con darle la vuelta
+        Collections.reverse(ordenadas);
+        if (!estaOrdenada(ordenadas)) {
+            Collections.sort(ordenadas, MAS_RECIENTE_PRIMERO);
+        }
+        // Solo las primeras de cada autor pueden llegar a entrar en el muro
+        pendientes.add(new Cursor(ordenadas.subList(0, Math.min(maximo, ordenadas.size()))));
+    }
+
+    /**
+     * Obtiene el muro con las publicaciones de todos los autores añadidos hasta ahora.
+     *
+     * @return Las primeras publicaciones, de la más reciente a la más antigua.
+     */
+    public List<Publicacion> obtenerMuro() {
+        if (!pendientes.isEmpty()) {
+            // Lo que quedó fuera del muro anterior ya no puede volver a entrar, porque los autores nuevos solo añaden
+            // publicaciones: basta con mezclar el muro anterior con los autores pendientes
+            if (!muro.isEmpty()) {
+                pendientes.add(new Cursor(muro));
+            }
+            List<Publicacion> nuevo = new ArrayList<>(maximo);
+            while (nuevo.size() < maximo && !pendientes.isEmpty()) {
+                Cursor cursor = pendientes.poll();
+                nuevo.add(cursor.actual());
+                if (cursor.avanzar()) {
+                    pendientes.add(cursor);
+                }
+            }
+            pendientes.clear();
+            muro = nuevo;
+        }
+        return Collections.unmodifiableList(muro);
+    }
+
+    private static boolean estaOrdenada(List<Publicacion> publicaciones) {
+        for (int i = 1; i < publicaciones.size(); i++) {
+            if (MAS_RECIENTE_PRIMERO.compare(publicaciones.get(i - 1), publicaciones.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * La posición de lectura en la lista ordenada de un autor. En la cola va primero el cursor cuya publicación
+     * actual es la más reciente.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        private final List<Publicacion> publicaciones;
+        private int indice;
+
+        Cursor(List<Publicacion> publicaciones) {
+            this.publicaciones = publicaciones;
+        }
+
+        Publicacion actual() {
+            return publicaciones.get(indice);
+        }
+
+        /**
+         * Pasa a la siguiente publicación.
+         *
+         * @return false si ya no quedan publicaciones.
+         */
+        boolean avanzar() {
+            return ++indice < publicaciones.size();
+        }
+
+        @Override
+        public int compareTo(Cursor otro) {
+            return MAS_RECIENTE_PRIMERO.compare(actual(), otro.actual());
+        }
+    }
+}
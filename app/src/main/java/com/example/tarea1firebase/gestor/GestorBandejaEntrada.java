@@ -0,0 +1,178 @@
+package com.example.tarea1firebase.gestor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.tarea1firebase.entidades.ConversorFechas;
+import com.example.tarea1firebase.entidades.Mensaje;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gestiona la bandeja de entrada de cada usuario en Realtime Database: un nodo "bandejaEntrada/{uid}/{chatId}" con un
+ * resumen pequeño de cada chat (otro usuario, vista previa y fecha del último mensaje y mensajes sin leer).
+ * El resumen se actualiza en la misma escritura que el mensaje, y la lista de chats recientes se obtiene con una
+ * única consulta ordenada por fecha, sin descargar los mensajes de ningún chat.
+ */
+public class GestorBandejaEntrada {
+    public static final String NODO_BANDEJA = "bandejaEntrada";
+    /**
+     * Nodo con una marca por usuario cuyos chats anteriores a la bandeja ya se han pasado a ella.
+     */
+    public static final String NODO_BANDEJAS_MIGRADAS = "bandejasMigradas";
+    private static final int LONGITUD_VISTA_PREVIA = 80;
+
+    private final DatabaseReference raizRef;
+
+    public GestorBandejaEntrada() {
+        raizRef = FirebaseDatabase.getInstance().getReference();
+    }
+
+    /**
+     * Devuelve la consulta de la bandeja de entrada de un usuario, con los chats más recientes al final.
+     *
+     * @param uid    El ID del usuario.
+     * @param limite La cantidad máxima de chats.
+     * @return La consulta ordenada por la fecha del último mensaje.
+     */
+    public Query consultarBandeja(String uid, int limite) {
+        return raizRef.child(NODO_BANDEJA).child(uid).orderByChild("marcaTiempoUltimoMsj").limitToLast(limite);
+    }
+
+    /**
+     * Añade a una actualización multi-ruta (relativa a la raíz) los cambios en la bandeja de entrada de los dos usuarios
+     * del chat al enviar un mensaje. Al receptor se le suma un mensaje sin leer, así que cada mensaje se debe subir una
+     * sola vez: SincronizadorMensajes no reenvía los que todavía están en la cola del SDK ni los que ya están en el
+     * servidor.
+     *
+     * @param actualizaciones La actualización multi-ruta a completar.
+     * @param idChat          El ID del chat.
+     * @param remitente       El ID del usuario que envía el mensaje.
+     * @param receptor        El ID del usuario que recibe el mensaje.
+     * @param texto           El texto del mensaje.
+     */
+    public static void anadirActualizacionesEnvio(Map<String, Object> actualizaciones, String idChat, String remitente, String receptor, String texto) {
+        String vistaPrevia = texto.length() > LONGITUD_VISTA_PREVIA ? texto.substring(0, LONGITUD_VISTA_PREVIA) : texto;
+
+        String rutaRemitente = NODO_BANDEJA + "/" + remitente + "/" + idChat + "/";
+        actualizaciones.put(rutaRemitente + "chatId", idChat);
+        actualizaciones.put(rutaRemitente + "otroUsuarioUid", receptor);
+        actualizaciones.put(rutaRemitente + "vistaPreviaUltimoMsj", vistaPrevia);
+        actualizaciones.put(rutaRemitente + "marcaTiempoUltimoMsj", ServerValue.TIMESTAMP);
+
+        String rutaReceptor = NODO_BANDEJA + "/" + receptor + "/" + idChat + "/";
+        actualizaciones.put(rutaReceptor + "chatId", idChat);
+        actualizaciones.put(rutaReceptor + "otroUsuarioUid", remitente);
+        actualizaciones.put(rutaReceptor + "vistaPreviaUltimoMsj", vistaPrevia);
+        actualizaciones.put(rutaReceptor + "marcaTiempoUltimoMsj", ServerValue.TIMESTAMP);
+        actualizaciones.put(rutaReceptor + "mensajesSinLeer", ServerValue.increment(1));
+    }
+
+    /**
+     * Pone a cero los mensajes sin leer de un chat en la bandeja de un usuario. Si el chat aún no está en la bandeja no hace nada.
+     *
+     * @param uid    El ID del usuario que lee el chat.
+     * @param idChat El ID del chat.
+     */
+    public void marcarComoLeido(String uid, String idChat) {
+        raizRef.child(NODO_BANDEJA).child(uid).child(idChat).runTransaction(new Transaction.Handler() {
+            @NonNull
+            @Override
+            public Transaction.Result doTransaction(@NonNull MutableData currentData) {
+                if (currentData.getValue() != null) {
+                    currentData.child("mensajesSinLeer").setValue(0);
+                }
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(@Nullable DatabaseError error, boolean committed, @Nullable DataSnapshot currentData) {
+                // No se hace nada al terminar
+            }
+        });
+    }
+
+    /**
+     * Comprueba si los chats de un usuario anteriores a la bandeja ya se han pasado a ella. Si no se puede leer la
+     * marca (por ejemplo sin conexión) no se llama al callback, y se volverá a comprobar la próxima vez.
+     *
+     * @param uid      El ID del usuario.
+     * @param callback Callback que recibe true si la bandeja ya se ha migrado.
+     */
+    public void comprobarBandejaMigrada(String uid, GestorFirestore.Callback<Boolean> callback) {
+        raizRef.child(NODO_BANDEJAS_MIGRADAS).child(uid).get()
+                .addOnSuccessListener(marca -> callback.onSuccess(Boolean.TRUE.equals(marca.getValue(Boolean.class))));
+    }
+
+    /**
+     * Pasa a la bandeja de entrada de un usuario sus chats recientes guardados en Firestore, para los chats creados
+     * antes de que existiera la bandeja. Los chats que ya están en la bandeja no se tocan, para no perder sus mensajes
+     * sin leer. De cada chat que falta solo se lee quiénes son los usuarios, la fecha y el último mensaje.
+     * Cuando todos los chats se han pasado se guarda la marca del usuario, así que la migración se hace una sola vez
+     * aunque la bandeja ya tenga chats nuevos; si algo falla, se repite la próxima vez.
+     *
+     * @param uid     El ID del usuario.
+     * @param chatIds Los IDs de los chats recientes del usuario.
+     */
+    public void reconstruirBandeja(String uid, List<String> chatIds) {
+        List<Task<Void>> tareas = new ArrayList<>();
+        for (String idChat : chatIds) {
+            DatabaseReference entradaRef = raizRef.child(NODO_BANDEJA).child(uid).child(idChat);
+            tareas.add(entradaRef.get().onSuccessTask(entradaExistente ->
+                    entradaExistente.exists() ? Tasks.<Void>forResult(null) : reconstruirEntrada(uid, idChat)));
+        }
+        Tasks.whenAll(tareas).addOnSuccessListener(aVoid -> raizRef.child(NODO_BANDEJAS_MIGRADAS).child(uid).setValue(true));
+    }
+
+    /**
+     * Crea la entrada de la bandeja de un chat a partir de sus datos en Realtime Database.
+     *
+     * @return La Task que termina cuando se ha escrito la entrada (o enseguida si el chat no tiene usuarios).
+     */
+    private Task<Void> reconstruirEntrada(String uid, String idChat) {
+        DatabaseReference chatRef = raizRef.child("chats").child(idChat);
+        Task<DataSnapshot> usuario1 = chatRef.child("usuario1").get();
+        Task<DataSnapshot> usuario2 = chatRef.child("usuario2").get();
+        Task<DataSnapshot> fecha = chatRef.child("fechaUltimoMsj").get();
+        Task<DataSnapshot> marcaTiempo = chatRef.child("marcaTiempoUltimoMsj").get();
+        Task<DataSnapshot> ultimoMensaje = chatRef.child("listaMensajes").orderByKey().limitToLast(1).get();
+
+        return Tasks.whenAllSuccess(usuario1, usuario2, fecha, marcaTiempo, ultimoMensaje).onSuccessTask(resultados -> {
+            String uid1 = usuario1.getResult().getValue(String.class);
+            String uid2 = usuario2.getResult().getValue(String.class);
+            if (uid1 == null || uid2 == null) {
+                return Tasks.<Void>forResult(null);
+            }
+            String vistaPrevia = "";
+            for (DataSnapshot mensajeSnapshot : ultimoMensaje.getResult().getChildren()) {
+                Mensaje mensaje = mensajeSnapshot.getValue(Mensaje.class);
+                if (mensaje != null && mensaje.getTexto() != null) {
+                    vistaPrevia = mensaje.getTexto().length() > LONGITUD_VISTA_PREVIA ? mensaje.getTexto().substring(0, LONGITUD_VISTA_PREVIA) : mensaje.getTexto();
+                }
+            }
+
+            Map<String, Object> entrada = new HashMap<>();
+            entrada.put("chatId", idChat);
+            entrada.put("otroUsuarioUid", uid.equals(uid1) ? uid2 : uid1);
+            entrada.put("vistaPreviaUltimoMsj", vistaPrevia);
+            Long marcaTiempoUltimoMsj = marcaTiempo.getResult().getValue(Long.class);
+            entrada.put("marcaTiempoUltimoMsj", marcaTiempoUltimoMsj != null ? marcaTiempoUltimoMsj
+                    : ConversorFechas.aMilisegundos(fecha.getResult().getValue(String.class), ConversorFechas.FORMATO_MENSAJE, ConversorFechas.ZONA_MENSAJES));
+            entrada.put("mensajesSinLeer", 0);
+            return raizRef.child(NODO_BANDEJA).child(uid).child(idChat).updateChildren(entrada);
+        });
+    }
+}
@@ -2,33 +2,116 @@ package com.example.tarea1firebase.gestor;
 
 import static com.example.tarea1firebase.fragments.PerfilFragment.COLECCION;
 
+import android.content.Context;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
 import com.example.tarea1firebase.Registro;
+import com.example.tarea1firebase.entidades.EntradaMuro;
+import com.example.tarea1firebase.entidades.MetadatosCancion;
 import com.example.tarea1firebase.entidades.Publicacion;
 import com.example.tarea1firebase.entidades.Resena;
 import com.example.tarea1firebase.entidades.Usuario;
+import com.example.tarea1firebase.entidades.UsuarioResumen;
 import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
 import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GestorFirestore {
+    /**
+     * Colección con el resumen de cada usuario (UsuarioResumen) que leen las listas.
+     */
+    public static final String COLECCION_RESUMENES = "UsuariosResumen";
+    /**
+     * Subcolección de cada usuario con las reseñas que ha recibido, un documento por autor.
+     */
+    public static final String SUBCOLECCION_RESENAS = "resenas";
+    /**
+     * Subcolección de cada usuario con los metadatos (duración y forma de onda) de sus canciones, un documento por canción.
+     */
+    public static final String SUBCOLECCION_METADATOS_CANCIONES = "metadatosCanciones";
+    /**
+     * Colección con todas las publicaciones, un documento por publicación con el ID de su autor y su marca de tiempo.
+     * Las consultas por autor ordenadas por fecha necesitan el índice compuesto (autorUid, marcaTiempo descendente)
+     * de firestore.indexes.json.
+     */
+    public static final String COLECCION_PUBLICACIONES = "Publicaciones";
+    /**
+     * Subcolección de cada usuario con las publicaciones de su muro (las suyas y las de sus favoritos), una EntradaMuro
+     * por publicación con su ID, su autor y su fecha. Se rellena al publicar, para que el muro se lea con una sola
+     * consulta ordenada y paginada; el contenido de cada página se lee después de la colección de publicaciones.
+     */
+    public static final String SUBCOLECCION_MURO = "muro";
+    /**
+     * Subcolección de cada usuario con los usuarios que lo tienen en favoritos, un documento vacío por seguidor con su
+     * ID. Se mantiene junto con los favoritos y sirve para saber a qué muros repartir una publicación sin consultar
+     * los documentos completos de los usuarios.
+     */
+    public static final String SUBCOLECCION_SEGUIDORES = "seguidores";
+    /**
+     * Un batch de Firestore admite como máximo 500 escrituras.
+     */
+    private static final int MAXIMO_ESCRITURAS_BATCH = 500;
+    /**
+     * Máximo de valores de una consulta whereIn en las versiones de Firestore que usa la aplicación.
+     */
+    private static final int MAXIMO_IDS_POR_CONSULTA = 10;
+    /**
+     * Colección con un documento por migración de datos ya terminada, para no repetirlas.
+     */
+    private static final String COLECCION_MIGRACIONES = "Migraciones";
+    /**
+     * Documento de la migración que crea los resúmenes de los usuarios antiguos (migrarResumenes).
+     */
+    private static final String MIGRACION_RESUMENES = "resumenesUsuario";
+    /**
+     * Usuarios completos que se leen en cada página de migrarResumenes. Debe ser como mucho MAXIMO_ESCRITURAS_BATCH,
+     * porque los resúmenes de cada página se crean en un solo batch.
+     */
+    private static final int TAMANO_PAGINA_MIGRACION = 100;
+    /**
+     * Si ya se ha lanzado en este proceso la migración de los resúmenes.
+     */
+    private static final AtomicBoolean MIGRACION_RESUMENES_LANZADA = new AtomicBoolean(false);
+    private static final ExecutorService EXECUTOR_ANALISIS = Executors.newSingleThreadExecutor();
+    private static final ExecutorService EXECUTOR_CONVERSION = Executors.newSingleThreadExecutor();
+
     private StorageReference storageRef;
     private FirebaseStorage storage;
     private FirebaseFirestore db;
@@ -64,6 +147,204 @@ public class GestorFirestore {
     }
 
 
+    /**
+     * Este método obtiene el resumen de todos los usuarios. Para listas que pueden crecer se debe usar obtenerPaginaResumenes.
+     *
+     * @param callback Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerTodosLosResumenes(Callback<ArrayList<UsuarioResumen>> callback) {
+        db.collection(COLECCION_RESUMENES).get().addOnSuccessListener(resumenes -> {
+            ArrayList<UsuarioResumen> listaResumenes = new ArrayList<>();
+            for (DocumentSnapshot documentSnapshot : resumenes.getDocuments()) {
+                listaResumenes.add(documentSnapshot.toObject(UsuarioResumen.class));
+            }
+            callback.onSuccess(listaResumenes);
+        }).addOnFailureListener(callback::onFailure);
+    }
+
+    /**
+     * Este método obtiene una página de resúmenes de usuario, ordenados por ID, a partir del último documento de la página anterior.
+     * Si la consulta falla se devuelve una página vacía con el mismo cursor, para que se pueda volver a pedir.
+     *
+     * @param ultimoDocumento El último documento de la página anterior, o null para la primera página.
+     * @param tamanoPagina    La cantidad máxima de usuarios de la página.
+     * @param callback        Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerPaginaResumenes(DocumentSnapshot ultimoDocumento, int tamanoPagina, Callback<Pagina<UsuarioResumen>> callback) {
+        Query consulta = db.collection(COLECCION_RESUMENES).orderBy(FieldPath.documentId()).limit(tamanoPagina);
+        consultarPagina(consulta, ultimoDocumento, tamanoPagina, UsuarioResumen.class, callback);
+    }
+
+    /**
+     * Lee una página de una consulta a partir del último documento de la página anterior. Si la consulta falla se
+     * devuelve una página vacía con el mismo cursor, para que se pueda volver a pedir.
+     *
+     * @param consulta        La consulta, ya ordenada y limitada al tamaño de página.
+     * @param ultimoDocumento El último documento de la página anterior, o null para la primera página.
+     * @param tamanoPagina    El tamaño de página de la consulta.
+     * @param clase           La clase de los elementos.
+     * @param callback        Un objeto Callback que recibe la página.
+     */
+    private <T> void consultarPagina(Query consulta, DocumentSnapshot ultimoDocumento, int tamanoPagina, Class<T> clase, Callback<Pagina<T>> callback) {
+        if (ultimoDocumento != null) {
+            consulta = consulta.startAfter(ultimoDocumento);
+        }
+        consulta.get().addOnCompleteListener(task -> {
+            Pagina<T> pagina = new Pagina<>();
+            pagina.ultimoDocumento = ultimoDocumento;
+            pagina.hayMas = true;
+            if (task.isSuccessful()) {
+                List<DocumentSnapshot> documentos = task.getResult().getDocuments();
+                for (DocumentSnapshot documentSnapshot : documentos) {
+                    pagina.elementos.add(documentSnapshot.toObject(clase));
+                }
+                if (!documentos.isEmpty()) {
+                    pagina.ultimoDocumento = documentos.get(documentos.size() - 1);
+                }
+                pagina.hayMas = documentos.size() == tamanoPagina;
+            }
+            callback.onSuccess(pagina);
+        });
+    }
+
+    /**
+     * Crea los resúmenes de los usuarios registrados antes de que existiera la colección de resúmenes. Es una migración
+     * que se hace una sola vez: al terminar se guarda la marca MIGRACION_RESUMENES en la colección de migraciones y, a
+     * partir de entonces, solo se lee esa marca. Si las dos colecciones ya tienen los mismos documentos se guarda la
+     * marca sin recorrer los usuarios. Se lanza como mucho una vez por proceso; si falla se vuelve a intentar la
+     * próxima vez que se abra la aplicación, continuando sin repetir los resúmenes que ya se hayan creado.
+     */
+    public void migrarResumenes() {
+        if (!MIGRACION_RESUMENES_LANZADA.compareAndSet(false, true)) {
+            return;
+        }
+        DocumentReference marca = db.collection(COLECCION_MIGRACIONES).document(MIGRACION_RESUMENES);
+        marca.get().addOnSuccessListener(documento -> {
+            if (Boolean.TRUE.equals(documento.getBoolean("completada"))) {
+                return;
+            }
+            Task<AggregateQuerySnapshot> cantidadResumenes = db.collection(COLECCION_RESUMENES).count().get(AggregateSource.SERVER);
+            Task<AggregateQuerySnapshot> cantidadUsuarios = db.collection(COLECCION).count().get(AggregateSource.SERVER);
+            Tasks.whenAllSuccess(cantidadResumenes, cantidadUsuarios).addOnSuccessListener(cantidades -> {
+                if (cantidadResumenes.getResult().getCount() >= cantidadUsuarios.getResult().getCount()) {
+                    marcarMigracionResumenes(marca);
+                } else {
+                    migrarPaginaResumenes(marca, null);
+                }
+            }).addOnFailureListener(e -> MIGRACION_RESUMENES_LANZADA.set(false));
+        }).addOnFailureListener(e -> MIGRACION_RESUMENES_LANZADA.set(false));
+    }
+
+    /**
+     * Crea los resúmenes que faltan de una página de usuarios y sigue con la siguiente. Para cada página solo se leen,
+     * además de los usuarios, los resúmenes que existen en el mismo rango de IDs.
+     *
+     * @param marca           El documento de la marca de la migración, que se guarda al terminar la última página.
+     * @param ultimoDocumento El último usuario de la página anterior, o null para la primera página.
+     */
+    private void migrarPaginaResumenes(DocumentReference marca, DocumentSnapshot ultimoDocumento) {
+        Query consulta = db.collection(COLECCION).orderBy(FieldPath.documentId()).limit(TAMANO_PAGINA_MIGRACION);
+        if (ultimoDocumento != null) {
+            consulta = consulta.startAfter(ultimoDocumento);
+        }
+        consulta.get().addOnSuccessListener(usuarios -> {
+            List<DocumentSnapshot> documentos = usuarios.getDocuments();
+            if (documentos.isEmpty()) {
+                marcarMigracionResumenes(marca);
+                return;
+            }
+            String primerId = documentos.get(0).getId();
+            String ultimoId = documentos.get(documentos.size() - 1).getId();
+            db.collection(COLECCION_RESUMENES).orderBy(FieldPath.documentId()).startAt(primerId).endAt(ultimoId).get()
+                    .onSuccessTask(resumenes -> {
+                        Set<String> idsConResumen = new HashSet<>();
+                        for (DocumentSnapshot resumen : resumenes.getDocuments()) {
+                            idsConResumen.add(resumen.getId());
+                        }
+                        WriteBatch batch = db.batch();
+                        for (DocumentSnapshot documento : documentos) {
+                            Usuario usuario = documento.toObject(Usuario.class);
+                            if (usuario != null && !idsConResumen.contains(documento.getId())) {
+                                batch.set(db.collection(COLECCION_RESUMENES).document(documento.getId()), UsuarioResumen.desdeUsuario(usuario));
+                            }
+                        }
+                        return batch.commit();
+                    })
+                    .addOnSuccessListener(aVoid -> {
+                        if (documentos.size() == TAMANO_PAGINA_MIGRACION) {
+                            migrarPaginaResumenes(marca, documentos.get(documentos.size() - 1));
+                        } else {
+                            marcarMigracionResumenes(marca);
+                        }
+                    })
+                    .addOnFailureListener(e -> MIGRACION_RESUMENES_LANZADA.set(false));
+        }).addOnFailureListener(e -> MIGRACION_RESUMENES_LANZADA.set(false));
+    }
+
+    private void marcarMigracionResumenes(DocumentReference marca) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("completada", true);
+        datos.put("fecha", FieldValue.serverTimestamp());
+        marca.set(datos).addOnFailureListener(e -> MIGRACION_RESUMENES_LANZADA.set(false));
+    }
+
+    /**
+     * Este método guarda el documento completo de un usuario y, en la misma escritura, su resumen para las listas.
+     * Solo se debe usar al registrar un usuario nuevo: sobre un usuario que ya existe borraría las valoraciones, las
+     * visitas y lo que se haya escrito desde que se leyó. Para editar el perfil se usa actualizarPerfil.
+     *
+     * @param usuario El usuario a guardar.
+     * @return La Task de la escritura.
+     */
+    public Task<Void> guardarUsuario(Usuario usuario) {
+        UsuarioResumen resumen = UsuarioResumen.desdeUsuario(usuario);
+        CacheUsuarios.getInstance().guardar(usuario.getId(), resumen);
+
+        WriteBatch batch = db.batch();
+        batch.set(db.collection(COLECCION).document(usuario.getId()), usuario);
+        batch.set(db.collection(COLECCION_RESUMENES).document(usuario.getId()), resumen);
+        return batch.commit();
+    }
+
+    /**
+     * Este método guarda los campos que se editan en la pantalla de perfil, en el documento del usuario y en su
+     * resumen. Solo se escriben esos campos y se mezclan con lo que haya en Firestore, así que no se tocan las
+     * valoraciones, las visitas ni las listas que hayan cambiado desde que se leyó el usuario.
+     * La foto de perfil se guarda aparte al terminar de subirla (completarSubidaFotoPerfil).
+     *
+     * @param usuario El usuario con los campos editados.
+     * @return La Task de la escritura.
+     */
+    public Task<Void> actualizarPerfil(Usuario usuario) {
+        List<String> generos = usuario.getListaGeneros() != null ? new ArrayList<>(usuario.getListaGeneros()) : new ArrayList<>();
+
+        Map<String, Object> perfil = new HashMap<>();
+        perfil.put("nombre", usuario.getNombre());
+        perfil.put("descripcion", usuario.getDescripcion());
+        perfil.put("instagram", usuario.getInstagram());
+        perfil.put("spotify", usuario.getSpotify());
+        perfil.put("youtube", usuario.getYoutube());
+        perfil.put("soundCloud", usuario.getSoundCloud());
+        perfil.put("tiktTok", usuario.getTiktTok());
+        perfil.put("email", usuario.getEmail());
+        perfil.put("ciudad", usuario.getCiudad());
+        perfil.put("listaGeneros", generos);
+
+        // En el resumen solo están el nombre, la ciudad y los géneros; la valoración media la mantienen las reseñas
+        Map<String, Object> resumen = new HashMap<>();
+        resumen.put("id", usuario.getId());
+        resumen.put("nombre", usuario.getNombre());
+        resumen.put("ciudad", usuario.getCiudad());
+        resumen.put("listaGeneros", generos);
+
+        WriteBatch batch = db.batch();
+        batch.set(db.collection(COLECCION).document(usuario.getId()), perfil, SetOptions.merge());
+        batch.set(db.collection(COLECCION_RESUMENES).document(usuario.getId()), resumen, SetOptions.merge());
+        // El resumen en caché se vuelve a leer entero la próxima vez
+        CacheUsuarios.getInstance().invalidar(usuario.getId());
+        return batch.commit();
+    }
+
     /**
      * Este método verifica si un usuario ya existe en Firestore.
      *
@@ -108,12 +389,44 @@ public class GestorFirestore {
                  */
                 if (document.exists()) {
                     T result = document.toObject(clase);
+                    if (result instanceof Usuario) {
+                        // La lectura es reciente, así que también sirve para la caché de los adaptadores
+                        CacheUsuarios.getInstance().guardar(id, UsuarioResumen.desdeUsuario((Usuario) result));
+                    }
                     callback.onSuccess(result);
                 }
             }
         });
     }
 
+    /**
+     * Este método recupera el resumen de un usuario pasando por la caché de usuarios (memoria, disco y, si no está, Firestore).
+     * Está pensado para los adaptadores, que solo necesitan el nombre y la foto y piden el mismo usuario en muchas filas.
+     * Para pantallas que necesitan el perfil completo se debe seguir usando obtenerUsuarioPorId.
+     *
+     * @param id       El ID del usuario que se quiere recuperar.
+     * @param callback Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerResumenUsuario(String id, Callback<UsuarioResumen> callback) {
+        CacheUsuarios.getInstance().obtener(id).addOnSuccessListener(resumen -> {
+            if (resumen != null) {
+                callback.onSuccess(resumen);
+            }
+        });
+    }
+
+
+    /**
+     * Este método recupera los resúmenes de varios usuarios a la vez, pasando por la caché de usuarios. Los que no están
+     * en caché se piden a Firestore en bloques con whereIn, así que una lista con N autores distintos cuesta unas
+     * N/10 consultas en lugar de N lecturas.
+     *
+     * @param ids      Los IDs de los usuarios (puede haber repetidos).
+     * @param callback Un objeto Callback que recibe un mapa de ID a resumen; los usuarios que no existen no aparecen.
+     */
+    public void obtenerResumenesUsuarios(Collection<String> ids, Callback<Map<String, UsuarioResumen>> callback) {
+        CacheUsuarios.getInstance().obtenerVarios(ids).addOnSuccessListener(callback::onSuccess);
+    }
 
     /**
      * Este método sube un archivo de audio a la base de datos y actualiza el documento del usuario con la URL del archivo subido.
@@ -123,35 +436,623 @@ public class GestorFirestore {
      * @param callback  Un objeto Callback que se utilizará para manejar el resultado de la operación.
      */
     public void subirAudio(Uri uri, String idUsuario, Callback<String> callback) {
-        /** Crear una referencia al storage en la base de datos en la ruta "audios" y asignarle el nombre del archivo de audio*/
-        StorageReference storagePath = storageRef.child("audios").child(uri.getLastPathSegment() + Timestamp.now());
+        subirAudio(uri, idUsuario, callback, null);
+    }
 
-        /**Subir el archivo a la base de datos (Storage)*/
-        storagePath.putFile(uri).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-            @Override
-            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                /** Obtener la URL del archivo subido*/
-                Task<Uri> firebaseUri = taskSnapshot.getStorage().getDownloadUrl();
-                firebaseUri.addOnSuccessListener(new OnSuccessListener<Uri>() {
-                    @Override
-                    public void onSuccess(Uri uri) {
-                        String url = uri.toString();
-                        /** Actualizar el documento del usuario con la URL del archivo subido*/
-                        db.collection(COLECCION).document(idUsuario).update("arrayCanciones", FieldValue.arrayUnion(url)).addOnSuccessListener(documentReference -> {
+    /**
+     * Este método sube un archivo de audio a la base de datos y actualiza el documento del usuario con la URL del archivo subido.
+     * Antes de subirlo, si el audio no está comprimido con una tasa de bits razonable se convierte a AAC
+     * (TranscodificadorAudio), y si aun así ocupa demasiado no se sube.
+     *
+     * @param uri       La URI del archivo de audio que se quiere subir.
+     * @param idUsuario El ID del usuario cuyo documento se quiere actualizar.
+     * @param callback  Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     * @param oyente    Un objeto OyenteSubida que recibe el progreso de la conversión y de la subida y los errores, o null.
+     */
+    public void subirAudio(Uri uri, String idUsuario, Callback<String> callback, OyenteSubida oyente) {
+        Context context = FirebaseApp.getInstance().getApplicationContext();
+        Handler hiloPrincipal = new Handler(Looper.getMainLooper());
+
+        /** Mientras se convierte el archivo, se calculan en otro hilo su duración y su forma de onda*/
+        Task<MetadatosCancion> analisis = Tasks.call(EXECUTOR_ANALISIS, () -> AnalizadorAudio.analizar(context, uri));
+
+        /** Convertir el audio en otro hilo, avisando del progreso en el hilo principal*/
+        Task<TranscodificadorAudio.Resultado> conversion = Tasks.call(EXECUTOR_CONVERSION, () -> TranscodificadorAudio.preparar(context, uri, porcentaje -> {
+            if (oyente != null) {
+                hiloPrincipal.post(() -> oyente.onProgreso(OyenteSubida.FASE_CONVIRTIENDO, porcentaje));
+            }
+        }));
+
+        Tasks.whenAllComplete(analisis, conversion).addOnSuccessListener(tareas -> {
+            if (!conversion.isSuccessful()) {
+                if (oyente != null) {
+                    oyente.onError(conversion.getException().getMessage());
+                }
+                return;
+            }
+            TranscodificadorAudio.Resultado resultado = conversion.getResult();
+            MetadatosCancion metadatos = analisis.isSuccessful() ? analisis.getResult() : null;
+
+            /** Añadir el archivo a la cola de subidas en la ruta "audios", con el nombre del archivo de audio*/
+            String nombre = uri.getLastPathSegment() + Timestamp.now() + (resultado.convertido ? ".m4a" : "");
+            GestorSubidas.getInstance(context).encolarCancion(idUsuario, resultado.uri, "audios/" + nombre,
+                    resultado.convertido ? "audio/mp4" : null, metadatos, new GestorSubidas.Oyente() {
+                        @Override
+                        public void onProgreso(String id, int porcentaje) {
+                            if (oyente != null) {
+                                oyente.onProgreso(OyenteSubida.FASE_SUBIENDO, porcentaje);
+                            }
+                        }
+
+                        @Override
+                        public void onTerminada(String id, String url) {
                             // Llamar al método onSuccess del objeto Callback proporcionado y pasarle como parámetro la URL del archivo subido
                             callback.onSuccess(url);
-                        });
+                        }
+
+                        @Override
+                        public void onError(String id, String mensaje) {
+                            if (oyente != null) {
+                                oyente.onError(mensaje);
+                            }
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Añade una canción ya subida al array de canciones del usuario y guarda sus metadatos, en una sola escritura.
+     * Lo usa la cola de subidas cuando termina de subir el archivo. Se puede repetir sin duplicar nada.
+     *
+     * @param idUsuario El ID del usuario.
+     * @param url       La URL de descarga de la canción.
+     * @param metadatos Los metadatos calculados de la canción, o null si no se pudieron calcular (la fila leerá la
+     *                  duración del propio audio).
+     * @return La Task de la escritura.
+     */
+    Task<Void> completarSubidaCancion(String idUsuario, String url, MetadatosCancion metadatos) {
+        WriteBatch batch = db.batch();
+        batch.update(db.collection(COLECCION).document(idUsuario), "arrayCanciones", FieldValue.arrayUnion(url));
+        if (metadatos != null) {
+            metadatos.setUrl(url);
+            batch.set(db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_METADATOS_CANCIONES).document(CacheAudio.clave(url)), metadatos);
+        }
+        return batch.commit().addOnSuccessListener(aVoid -> CacheUsuarios.getInstance().invalidar(idUsuario));
+    }
+
+    /**
+     * Añade una publicación con imagen al usuario cuando la cola de subidas termina de subir la imagen.
+     *
+     * @param idUsuario   El ID del usuario.
+     * @param publicacion La publicación con la URL de la imagen.
+     * @return La Task de la escritura.
+     */
+    Task<Void> completarSubidaPublicacion(String idUsuario, Publicacion publicacion) {
+        return crearPublicacion(idUsuario, publicacion).onSuccessTask(aVoid -> repartirPublicacion(idUsuario, publicacion));
+    }
+
+    /**
+     * Este método guarda una publicación sin imagen en la colección de publicaciones y en el muro de su autor, y
+     * después la reparte en los muros de los seguidores de su autor.
+     *
+     * @param idUsuario   El ID del autor.
+     * @param publicacion La publicación.
+     * @param callback    Un objeto Callback que se llama cuando la publicación está guardada en la colección y en el
+     *                    muro del autor.
+     */
+    public void guardarPublicacion(String idUsuario, Publicacion publicacion, Callback<String> callback) {
+        Task<Void> guardada = crearPublicacion(idUsuario, publicacion);
+        // El reparto a los muros de los seguidores puede tardar más; el autor solo tiene que esperar a verla en el suyo
+        guardada.addOnSuccessListener(aVoid -> callback.onSuccess("Publicado"));
+        guardada.onSuccessTask(aVoid -> repartirPublicacion(idUsuario, publicacion));
+    }
+
+    /**
+     * Guarda una publicación en la colección de publicaciones y, en el mismo batch, su entrada en el muro del autor,
+     * para que al volver al muro ya la vea. Se puede repetir sin duplicarla.
+     *
+     * @param idUsuario   El ID del autor.
+     * @param publicacion La publicación.
+     * @return La Task de la escritura.
+     */
+    private Task<Void> crearPublicacion(String idUsuario, Publicacion publicacion) {
+        String id = asignarId(publicacion);
+        WriteBatch batch = db.batch();
+        batch.set(db.collection(COLECCION_PUBLICACIONES).document(id), publicacion);
+        batch.set(db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_MURO).document(id),
+                EntradaMuro.desdePublicacion(publicacion));
+        return batch.commit();
+    }
+
+    /**
+     * Asigna a una publicación su marca de tiempo numérica, si solo tenía la fecha en texto, y su ID, formado por su
+     * autor y su marca de tiempo en milisegundos. Como el ID no depende de cuándo se guarda, volver a guardar la misma
+     * publicación (un reintento de la cola de subidas) sustituye el documento en lugar de duplicarlo.
+     * Las publicaciones del array de versiones anteriores solo tienen la fecha al minuto y sin año, así que su ID se
+     * asigna antes con asignarIdsLegados.
+     *
+     * @param publicacion La publicación.
+     * @return El ID de la publicación.
+     */
+    private static String asignarId(Publicacion publicacion) {
+        publicacion.setMarcaTiempo(publicacion.calcularMarcaTiempo());
+        if (publicacion.getId() == null) {
+            publicacion.setId(publicacion.getAutorUid() + "_" + publicacion.getMarcaTiempo());
+        }
+        return publicacion.getId();
+    }
+
+    /**
+     * Asigna su ID a las publicaciones del array listaPublicaciones de un usuario. Su fecha no sirve para el ID: solo
+     * llega al minuto, no tiene año y se interpreta con la zona horaria del dispositivo. El ID se calcula con el
+     * contenido completo de la publicación, que no cambia, y si hay varias iguales en el array se les añade su número
+     * de repetición, así que dos publicaciones del array nunca tienen el mismo ID y repetir la migración da los
+     * mismos IDs.
+     *
+     * @param idAutor       El ID del autor.
+     * @param publicaciones Las publicaciones del array, en el orden del array.
+     */
+    private static void asignarIdsLegados(String idAutor, List<Publicacion> publicaciones) {
+        Map<String, Integer> repeticiones = new HashMap<>();
+        for (Publicacion publicacion : publicaciones) {
+            if (publicacion.getId() != null) {
+                continue;
+            }
+            String contenido = idAutor + "\u0000" + publicacion.getFecha() + "\u0000" + publicacion.getTexto() + "\u0000"
+                    + publicacion.getUrlImagenPublicacion() + "\u0000" + publicacion.getUrlImagenFeed() + "\u0000"
+                    + publicacion.getUrlImagenMiniatura();
+            String id = idAutor + "_" + CacheAudio.clave(contenido).substring(0, 20);
+            Integer repeticion = repeticiones.get(id);
+            repeticiones.put(id, repeticion == null ? 1 : repeticion + 1);
+            publicacion.setId(repeticion == null ? id : id + "_" + repeticion);
+        }
+    }
+
+    /**
+     * Este método obtiene una página de las publicaciones de un autor, de la más reciente a la más antigua.
+     *
+     * @param idAutor         El ID del autor.
+     * @param ultimoDocumento El último documento de la página anterior, o null para la primera página.
+     * @param tamanoPagina    La cantidad máxima de publicaciones de la página.
+     * @param callback        Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerPaginaPublicacionesAutor(String idAutor, DocumentSnapshot ultimoDocumento, int tamanoPagina, Callback<Pagina<Publicacion>> callback) {
+        Query consulta = db.collection(COLECCION_PUBLICACIONES).whereEqualTo("autorUid", idAutor)
+                .orderBy("marcaTiempo", Query.Direction.DESCENDING).limit(tamanoPagina);
+        consultarPagina(consulta, ultimoDocumento, tamanoPagina, Publicacion.class, callback);
+    }
+
+    /**
+     * Este método obtiene una página de las publicaciones de todos los usuarios hechas en un intervalo de tiempo, de
+     * la más reciente a la más antigua.
+     *
+     * @param desde           El inicio del intervalo en milisegundos, incluido.
+     * @param hasta           El final del intervalo en milisegundos, sin incluir.
+     * @param ultimoDocumento El último documento de la página anterior, o null para la primera página.
+     * @param tamanoPagina    La cantidad máxima de publicaciones de la página.
+     * @param callback        Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerPaginaPublicacionesEntre(long desde, long hasta, DocumentSnapshot ultimoDocumento, int tamanoPagina, Callback<Pagina<Publicacion>> callback) {
+        Query consulta = db.collection(COLECCION_PUBLICACIONES)
+                .whereGreaterThanOrEqualTo("marcaTiempo", desde).whereLessThan("marcaTiempo", hasta)
+                .orderBy("marcaTiempo", Query.Direction.DESCENDING).limit(tamanoPagina);
+        consultarPagina(consulta, ultimoDocumento, tamanoPagina, Publicacion.class, callback);
+    }
+
+    /**
+     * Este método cuenta las publicaciones de un autor sin descargarlas.
+     *
+     * @param idAutor  El ID del autor.
+     * @param callback Un objeto Callback que recibe la cantidad, o -1 si la consulta falla.
+     */
+    public void contarPublicaciones(String idAutor, Callback<Long> callback) {
+        db.collection(COLECCION_PUBLICACIONES).whereEqualTo("autorUid", idAutor).count().get(AggregateSource.SERVER)
+                .addOnCompleteListener(task -> callback.onSuccess(task.isSuccessful() ? task.getResult().getCount() : -1));
+    }
+
+    /**
+     * Este método pasa las publicaciones del array listaPublicaciones de un usuario (versiones anteriores de la
+     * aplicación) a la colección de publicaciones y luego borra el array. Las publicaciones se escriben en batch de
+     * como mucho {@value #MAXIMO_ESCRITURAS_BATCH} escrituras y el array solo se borra si todas se han guardado, en
+     * una transacción que comprueba que el array no ha cambiado mientras tanto. Si dos publicaciones tuvieran el mismo
+     * ID no se escribe nada, para no perder ninguna. Se puede repetir sin duplicar publicaciones.
+     *
+     * @param idUsuario El ID del usuario.
+     * @param callback  Un objeto Callback que se llama al terminar, con true si el array se ha migrado y borrado.
+     */
+    public void migrarPublicaciones(String idUsuario, Callback<Boolean> callback) {
+        DocumentReference usuarioRef = db.collection(COLECCION).document(idUsuario);
+        usuarioRef.get().onSuccessTask(documento -> {
+            Usuario usuario = documento.toObject(Usuario.class);
+            if (usuario == null || usuario.getListaPublicaciones() == null || usuario.getListaPublicaciones().isEmpty()) {
+                return Tasks.<Void>forResult(null);
+            }
+            Set<String> ids = idsPublicacionesLegadas(idUsuario, usuario.getListaPublicaciones());
+            if (ids == null) {
+                return Tasks.<Void>forException(new FirebaseFirestoreException("Publicaciones con el mismo ID",
+                        FirebaseFirestoreException.Code.ABORTED));
+            }
+            return escribirPublicaciones(usuario.getListaPublicaciones()).onSuccessTask(aVoid -> db.runTransaction(transaction -> {
+                Usuario actual = transaction.get(usuarioRef).toObject(Usuario.class);
+                if (actual == null || actual.getListaPublicaciones() == null) {
+                    return null;
+                }
+                // Si mientras tanto se ha añadido alguna publicación al array, se migrará la próxima vez
+                if (!ids.equals(idsPublicacionesLegadas(idUsuario, actual.getListaPublicaciones()))) {
+                    throw new FirebaseFirestoreException("El array de publicaciones ha cambiado",
+                            FirebaseFirestoreException.Code.ABORTED);
+                }
+                transaction.update(usuarioRef, "listaPublicaciones", FieldValue.delete());
+                return null;
+            }));
+        }).addOnCompleteListener(task -> {
+            CacheUsuarios.getInstance().invalidar(idUsuario);
+            // Si falla, las publicaciones se siguen leyendo también del array
+            callback.onSuccess(task.isSuccessful());
+        });
+    }
+
+    /**
+     * Asigna su ID a las publicaciones del array de un usuario y devuelve los IDs.
+     *
+     * @return Los IDs, o null si alguno está repetido.
+     */
+    private static Set<String> idsPublicacionesLegadas(String idAutor, List<Publicacion> publicaciones) {
+        asignarIdsLegados(idAutor, publicaciones);
+        Set<String> ids = new HashSet<>();
+        for (Publicacion publicacion : publicaciones) {
+            if (!ids.add(asignarId(publicacion))) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Escribe unas publicaciones en la colección de publicaciones, repartiendo las escrituras en los batch que hagan falta.
+     *
+     * @param publicaciones Las publicaciones, ya con su ID.
+     * @return La Task que termina cuando se han confirmado todos los batch.
+     */
+    private Task<Void> escribirPublicaciones(List<Publicacion> publicaciones) {
+        List<Task<Void>> commits = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        int escriturasEnBatch = 0;
+        for (Publicacion publicacion : publicaciones) {
+            batch.set(db.collection(COLECCION_PUBLICACIONES).document(asignarId(publicacion)), publicacion);
+            if (++escriturasEnBatch == MAXIMO_ESCRITURAS_BATCH) {
+                commits.add(batch.commit());
+                batch = db.batch();
+                escriturasEnBatch = 0;
+            }
+        }
+        commits.add(batch.commit());
+        return Tasks.whenAll(commits);
+    }
+
+    /**
+     * Lee todas las publicaciones de un autor: las de la colección de publicaciones y, si todavía no se ha migrado,
+     * las del array de su documento.
+     *
+     * @param idAutor El ID del autor.
+     * @return La Task con las publicaciones, sin repetidas.
+     */
+    private Task<List<Publicacion>> leerPublicacionesDeAutor(String idAutor) {
+        Task<QuerySnapshot> coleccion = db.collection(COLECCION_PUBLICACIONES).whereEqualTo("autorUid", idAutor).get();
+        Task<DocumentSnapshot> documento = db.collection(COLECCION).document(idAutor).get();
+        return Tasks.whenAll(coleccion, documento).onSuccessTask(aVoid -> {
+            Map<String, Publicacion> publicaciones = new LinkedHashMap<>();
+            Usuario autor = documento.getResult().toObject(Usuario.class);
+            if (autor != null && autor.getListaPublicaciones() != null) {
+                asignarIdsLegados(idAutor, autor.getListaPublicaciones());
+                for (Publicacion publicacion : autor.getListaPublicaciones()) {
+                    publicaciones.put(asignarId(publicacion), publicacion);
+                }
+            }
+            for (DocumentSnapshot documentSnapshot : coleccion.getResult().getDocuments()) {
+                Publicacion publicacion = documentSnapshot.toObject(Publicacion.class);
+                publicaciones.put(asignarId(publicacion), publicacion);
+            }
+            List<Publicacion> lista = new ArrayList<>(publicaciones.values());
+            return Tasks.forResult(lista);
+        });
+    }
+
+    /**
+     * Escribe una publicación en el muro de todos los usuarios que tienen a su autor en favoritos, que se leen de la
+     * subcolección de seguidores del autor. Se puede repetir sin duplicar nada.
+     *
+     * @param idUsuario   El ID del autor.
+     * @param publicacion La publicación, ya guardada.
+     * @return La Task que termina cuando la publicación está en todos los muros.
+     */
+    private Task<Void> repartirPublicacion(String idUsuario, Publicacion publicacion) {
+        return db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_SEGUIDORES).get()
+                .onSuccessTask(seguidores -> {
+                    List<String> muros = new ArrayList<>();
+                    for (DocumentSnapshot seguidor : seguidores.getDocuments()) {
+                        muros.add(seguidor.getId());
                     }
+                    return escribirEnMuros(muros, Collections.singletonList(publicacion));
                 });
+    }
+
+    /**
+     * Este método obtiene una página del muro de un usuario, de la publicación más reciente a la más antigua. Primero
+     * se lee la página de entradas del muro y después sus publicaciones, con consultas whereIn de como mucho
+     * {@value #MAXIMO_IDS_POR_CONSULTA} IDs. Las publicaciones que ya no existen no aparecen en la página.
+     * Si alguna lectura falla se devuelve una página vacía con el mismo cursor, para que se pueda volver a pedir.
+     *
+     * @param idUsuario       El ID del usuario.
+     * @param ultimoDocumento El último documento de la página anterior, o null para la primera página.
+     * @param tamanoPagina    La cantidad máxima de publicaciones de la página.
+     * @param callback        Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerPaginaMuro(String idUsuario, DocumentSnapshot ultimoDocumento, int tamanoPagina, Callback<Pagina<Publicacion>> callback) {
+        Query consulta = db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_MURO)
+                .orderBy("marcaTiempo", Query.Direction.DESCENDING).limit(tamanoPagina);
+        consultarPagina(consulta, ultimoDocumento, tamanoPagina, EntradaMuro.class, paginaEntradas ->
+                leerPublicacionesDelMuro(paginaEntradas.elementos).addOnCompleteListener(task -> {
+                    Pagina<Publicacion> pagina = new Pagina<>();
+                    pagina.ultimoDocumento = ultimoDocumento;
+                    pagina.hayMas = true;
+                    if (task.isSuccessful()) {
+                        pagina.elementos.addAll(task.getResult());
+                        pagina.ultimoDocumento = paginaEntradas.ultimoDocumento;
+                        pagina.hayMas = paginaEntradas.hayMas;
+                    }
+                    callback.onSuccess(pagina);
+                }));
+    }
+
+    /**
+     * Lee las publicaciones a las que apuntan unas entradas del muro. Las que no están en la colección de
+     * publicaciones pueden ser del array de un autor que todavía no lo ha migrado, y se buscan en su documento.
+     *
+     * @param entradas Las entradas del muro, en el orden en que se muestran.
+     * @return La Task con las publicaciones que existen, en el mismo orden que las entradas.
+     */
+    private Task<List<Publicacion>> leerPublicacionesDelMuro(List<EntradaMuro> entradas) {
+        List<String> ids = new ArrayList<>();
+        for (EntradaMuro entrada : entradas) {
+            ids.add(entrada.getId());
+        }
+        List<Task<QuerySnapshot>> consultas = new ArrayList<>();
+        for (int inicio = 0; inicio < ids.size(); inicio += MAXIMO_IDS_POR_CONSULTA) {
+            List<String> bloque = new ArrayList<>(ids.subList(inicio, Math.min(inicio + MAXIMO_IDS_POR_CONSULTA, ids.size())));
+            consultas.add(db.collection(COLECCION_PUBLICACIONES).whereIn(FieldPath.documentId(), bloque).get());
+        }
+        return Tasks.whenAll(consultas).onSuccessTask(aVoid -> {
+            Map<String, Publicacion> publicacionesPorId = new HashMap<>();
+            for (Task<QuerySnapshot> consulta : consultas) {
+                for (DocumentSnapshot documentSnapshot : consulta.getResult().getDocuments()) {
+                    publicacionesPorId.put(documentSnapshot.getId(), documentSnapshot.toObject(Publicacion.class));
+                }
             }
-        }).addOnFailureListener(new OnFailureListener() {
-            @Override
-            public void onFailure(@NonNull Exception e) {
-                // Llamar al método onFailure del objeto Callback proporcionado si ocurre algún error durante la operación
+            Set<String> autoresSinMigrar = new LinkedHashSet<>();
+            for (EntradaMuro entrada : entradas) {
+                if (!publicacionesPorId.containsKey(entrada.getId())) {
+                    autoresSinMigrar.add(entrada.getAutorUid());
+                }
             }
+            List<Task<DocumentSnapshot>> lecturasAutores = new ArrayList<>();
+            for (String autor : autoresSinMigrar) {
+                lecturasAutores.add(db.collection(COLECCION).document(autor).get());
+            }
+            return Tasks.whenAll(lecturasAutores).onSuccessTask(autoresLeidos -> {
+                for (Task<DocumentSnapshot> lectura : lecturasAutores) {
+                    Usuario autor = lectura.getResult().toObject(Usuario.class);
+                    if (autor == null || autor.getListaPublicaciones() == null) {
+                        continue;
+                    }
+                    asignarIdsLegados(lectura.getResult().getId(), autor.getListaPublicaciones());
+                    for (Publicacion publicacion : autor.getListaPublicaciones()) {
+                        if (!publicacionesPorId.containsKey(publicacion.getId())) {
+                            publicacionesPorId.put(asignarId(publicacion), publicacion);
+                        }
+                    }
+                }
+                List<Publicacion> publicaciones = new ArrayList<>();
+                for (EntradaMuro entrada : entradas) {
+                    Publicacion publicacion = publicacionesPorId.get(entrada.getId());
+                    if (publicacion != null) {
+                        publicaciones.add(publicacion);
+                    }
+                }
+                return Tasks.forResult(publicaciones);
+            });
         });
     }
 
+    /**
+     * Este método rellena el muro de un usuario con las publicaciones que ya existían de él y de sus favoritos, que
+     * son anteriores al reparto al publicar. Basta con hacerlo una vez por usuario y se puede repetir sin duplicar.
+     * Mientras tanto, las publicaciones de cada autor se pasan a alLeerAutor en cuanto se leen, para poder mostrarlas
+     * sin esperar a las escrituras.
+     *
+     * También apunta al usuario como seguidor de cada favorito, para los favoritos que se añadieron antes de que
+     * existiera la subcolección de seguidores; sin eso no le llegarían sus publicaciones nuevas.
+     *
+     * @param idUsuario  El ID del usuario.
+     * @param alLeerAutor Un objeto Callback que recibe las publicaciones de cada autor (el usuario y cada favorito).
+     * @param callback   Un objeto Callback que se llama al terminar, con false si alguna lectura o escritura ha fallado.
+     */
+    public void rellenarMuro(String idUsuario, Callback<List<Publicacion>> alLeerAutor, Callback<Boolean> callback) {
+        db.collection(COLECCION).document(idUsuario).get().onSuccessTask(documento -> {
+            Usuario usuario = documento.toObject(Usuario.class);
+            if (usuario != null && usuario.getListaPublicaciones() != null && !usuario.getListaPublicaciones().isEmpty()) {
+                // Ya que se ha leído, se aprovecha para migrar las publicaciones del propio usuario
+                migrarPublicaciones(idUsuario, resultado -> {
+                });
+            }
+            List<String> favoritos = new ArrayList<>();
+            if (usuario != null && usuario.getListaFavoritos() != null) {
+                favoritos.addAll(usuario.getListaFavoritos());
+            }
+            Task<Void> seguidores = anadirSeguidor(idUsuario, favoritos);
+            List<String> autores = new ArrayList<>();
+            autores.add(idUsuario);
+            autores.addAll(favoritos);
+            List<Task<List<Publicacion>>> lecturas = new ArrayList<>();
+            for (String autor : autores) {
+                Task<List<Publicacion>> lectura = leerPublicacionesDeAutor(autor);
+                lectura.addOnSuccessListener(alLeerAutor::onSuccess);
+                lecturas.add(lectura);
+            }
+            return Tasks.whenAllComplete(lecturas).onSuccessTask(tareas -> {
+                List<Publicacion> publicaciones = new ArrayList<>();
+                for (Task<List<Publicacion>> lectura : lecturas) {
+                    if (!lectura.isSuccessful()) {
+                        // Sin ese favorito el muro quedaría incompleto: se vuelve a intentar la próxima vez
+                        return Tasks.<Void>forException(lectura.getException());
+                    }
+                    publicaciones.addAll(lectura.getResult());
+                }
+                return Tasks.whenAll(seguidores, escribirEnMuros(Collections.singletonList(idUsuario), publicaciones));
+            });
+        }).addOnCompleteListener(task -> callback.onSuccess(task.isSuccessful()));
+    }
+
+    /**
+     * Este método apunta a un usuario como seguidor de otro que acaba de añadir a favoritos, para que le lleguen sus
+     * publicaciones nuevas, y copia a su muro las que ya tenía.
+     *
+     * @param idUsuario El ID del usuario.
+     * @param idAutor   El ID del usuario añadido a favoritos.
+     */
+    public void anadirAutorAlMuro(String idUsuario, String idAutor) {
+        anadirSeguidor(idUsuario, Collections.singletonList(idAutor));
+        leerPublicacionesDeAutor(idAutor).addOnSuccessListener(publicaciones ->
+                escribirEnMuros(Collections.singletonList(idUsuario), publicaciones));
+    }
+
+    /**
+     * Este método quita a un usuario de los seguidores de otro que acaba de quitar de favoritos y borra de su muro las
+     * publicaciones de ese usuario.
+     *
+     * @param idUsuario El ID del usuario.
+     * @param idAutor   El ID del usuario quitado de favoritos.
+     */
+    public void quitarAutorDelMuro(String idUsuario, String idAutor) {
+        db.collection(COLECCION).document(idAutor).collection(SUBCOLECCION_SEGUIDORES).document(idUsuario).delete();
+        db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_MURO).whereEqualTo("autorUid", idAutor).get()
+                .addOnSuccessListener(entradas -> {
+                    WriteBatch batch = db.batch();
+                    int escriturasEnBatch = 0;
+                    for (DocumentSnapshot entrada : entradas.getDocuments()) {
+                        batch.delete(entrada.getReference());
+                        if (++escriturasEnBatch == MAXIMO_ESCRITURAS_BATCH) {
+                            batch.commit();
+                            batch = db.batch();
+                            escriturasEnBatch = 0;
+                        }
+                    }
+                    batch.commit();
+                });
+    }
+
+    /**
+     * Apunta a un usuario en la subcolección de seguidores de varios autores, repartiendo las escrituras en los batch
+     * que hagan falta. Se puede repetir sin duplicar nada.
+     *
+     * @param idUsuario  El ID del seguidor.
+     * @param idsAutores Los IDs de los autores a los que sigue.
+     * @return La Task que termina cuando se han confirmado todos los batch.
+     */
+    private Task<Void> anadirSeguidor(String idUsuario, Collection<String> idsAutores) {
+        Map<String, Object> seguidor = new HashMap<>();
+        seguidor.put("id", idUsuario);
+        List<Task<Void>> commits = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        int escriturasEnBatch = 0;
+        for (String idAutor : idsAutores) {
+            batch.set(db.collection(COLECCION).document(idAutor).collection(SUBCOLECCION_SEGUIDORES).document(idUsuario), seguidor);
+            if (++escriturasEnBatch == MAXIMO_ESCRITURAS_BATCH) {
+                commits.add(batch.commit());
+                batch = db.batch();
+                escriturasEnBatch = 0;
+            }
+        }
+        commits.add(batch.commit());
+        return Tasks.whenAll(commits);
+    }
+
+    /**
+     * Escribe la entrada de unas publicaciones en el muro de varios usuarios, repartiendo las escrituras en los batch
+     * que hagan falta. Cada entrada se guarda con el mismo ID que la publicación, así que escribirla dos veces en el
+     * mismo muro la sustituye en lugar de duplicarla.
+     *
+     * @param idsUsuarios   Los usuarios en cuyo muro se escribe.
+     * @param publicaciones Las publicaciones.
+     * @return La Task que termina cuando se han confirmado todos los batch.
+     */
+    private Task<Void> escribirEnMuros(Collection<String> idsUsuarios, List<Publicacion> publicaciones) {
+        List<Task<Void>> commits = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        int escriturasEnBatch = 0;
+        for (String idUsuario : idsUsuarios) {
+            CollectionReference muro = db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_MURO);
+            for (Publicacion publicacion : publicaciones) {
+                batch.set(muro.document(asignarId(publicacion)), EntradaMuro.desdePublicacion(publicacion));
+                if (++escriturasEnBatch == MAXIMO_ESCRITURAS_BATCH) {
+                    commits.add(batch.commit());
+                    batch = db.batch();
+                    escriturasEnBatch = 0;
+                }
+            }
+        }
+        commits.add(batch.commit());
+        return Tasks.whenAll(commits);
+    }
+
+    /**
+     * Cambia la foto del usuario y de su resumen cuando la cola de subidas termina de subir la imagen.
+     * El resumen se escribe mezclando, porque los usuarios anteriores a la colección de resúmenes pueden no tenerlo
+     * todavía y un update fallaría (y con él el batch entero).
+     *
+     * @param idUsuario    El ID del usuario.
+     * @param url          La URL de descarga de la foto.
+     * @param urlMiniatura La URL de descarga de la miniatura de la foto, o null si no la hay.
+     * @return La Task de la escritura.
+     */
+    Task<Void> completarSubidaFotoPerfil(String idUsuario, String url, String urlMiniatura) {
+        WriteBatch batch = db.batch();
+        batch.update(db.collection(COLECCION).document(idUsuario), "fotoPerfil", url, "fotoPerfilMiniatura", urlMiniatura);
+        Map<String, Object> resumen = new HashMap<>();
+        resumen.put("id", idUsuario);
+        resumen.put("fotoPerfil", url);
+        resumen.put("fotoPerfilMiniatura", urlMiniatura);
+        batch.set(db.collection(COLECCION_RESUMENES).document(idUsuario), resumen, SetOptions.merge());
+        return batch.commit().addOnSuccessListener(aVoid -> CacheUsuarios.getInstance().invalidar(idUsuario));
+    }
+
+    /**
+     * Este método obtiene con una sola consulta los metadatos de todas las canciones de un usuario.
+     *
+     * @param idUsuario El ID del usuario.
+     * @param callback  Un objeto Callback que recibe un mapa de URL de la canción a sus metadatos, o con onFailure si falla.
+     */
+    public void obtenerMetadatosCanciones(String idUsuario, Callback<Map<String, MetadatosCancion>> callback) {
+        db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_METADATOS_CANCIONES).get().addOnSuccessListener(documentSnapshots -> {
+            Map<String, MetadatosCancion> metadatosPorUrl = new HashMap<>();
+            for (DocumentSnapshot documentSnapshot : documentSnapshots.getDocuments()) {
+                MetadatosCancion metadatos = documentSnapshot.toObject(MetadatosCancion.class);
+                metadatosPorUrl.put(metadatos.getUrl(), metadatos);
+            }
+            callback.onSuccess(metadatosPorUrl);
+        }).addOnFailureListener(callback::onFailure);
+    }
+
+    /**
+     * Este método borra los metadatos de una canción. Se llama al borrar la canción.
+     *
+     * @param idUsuario El ID del usuario dueño de la canción.
+     * @param url       La URL de descarga de la canción.
+     */
+    public void borrarMetadatosCancion(String idUsuario, String url) {
+        db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_METADATOS_CANCIONES).document(CacheAudio.clave(url)).delete();
+    }
+
 
     /**
      * Este método agrega un nuevo valor a un campo de tipo array en el documento de un usuario en la base de datos.
@@ -164,6 +1065,7 @@ public class GestorFirestore {
     public void anadirValorArray(String idUsuario, String campoAActualizar, Object nuevoValor, Callback<String> callback) {
         // Actualizar el documento del usuario en la base de datos
         db.collection(COLECCION).document(idUsuario).update(campoAActualizar, FieldValue.arrayUnion(nuevoValor)).addOnSuccessListener(documentReference -> {
+            CacheUsuarios.getInstance().invalidar(idUsuario);
             // Llamar al método onSuccess del objeto Callback proporcionado y pasarle como parámetro el mensaje "Actualizado"
             callback.onSuccess("Actualizado");
         });
@@ -180,6 +1082,7 @@ public class GestorFirestore {
     public void borrarValorArray(String idUsuario, String campoAActualizar, String valorABorrar, Callback<String> callback) {
         // Actualizar el documento del usuario en la base de datos
         db.collection(COLECCION).document(idUsuario).update(campoAActualizar, FieldValue.arrayRemove(valorABorrar)).addOnSuccessListener(documentReference -> {
+            CacheUsuarios.getInstance().invalidar(idUsuario);
             // Llamar al método onSuccess del objeto Callback proporcionado y pasarle como parámetro el mensaje "Borrado"
             callback.onSuccess("Borrado");
         });
@@ -197,12 +1100,14 @@ public class GestorFirestore {
     public void actualizarValorArray(String idUsuario, String campoAActualizar, Object valorABorrar, Object valorNuevo, Callback<String> callback) {
         // Eliminar el valor especificado del campo en el documento del usuario
         db.collection(COLECCION).document(idUsuario).update(campoAActualizar, FieldValue.arrayRemove(valorABorrar)).addOnSuccessListener(documentReference -> {
+            CacheUsuarios.getInstance().invalidar(idUsuario);
             // Llamar al método onSuccess del objeto Callback proporcionado y pasarle como parámetro el mensaje "Borrado"
             callback.onSuccess("Borrado");
         });
 
         // Agregar el nuevo valor al campo en el documento del usuario
         db.collection(COLECCION).document(idUsuario).update(campoAActualizar, FieldValue.arrayUnion(valorNuevo)).addOnSuccessListener(documentReference -> {
+            CacheUsuarios.getInstance().invalidar(idUsuario);
             // Llamar al método onSuccess del objeto Callback proporcionado y pasarle como parámetro el mensaje "Añadido"
             callback.onSuccess("Añadido");
         });
@@ -210,56 +1115,262 @@ public class GestorFirestore {
 
 
     /**
-     * Este método calcula la media de las valoraciones de un usuario en la base de datos y devuelve el resultado a través de un objeto Callback.
+     * Este método guarda la reseña de un autor en la subcolección de reseñas del usuario reseñado, en un documento por
+     * autor: si el autor ya había hecho una reseña, se sustituye. En la misma transacción se actualizan la suma, la
+     * cantidad y el histograma de valoraciones del usuario y su resumen, para que la media se pueda leer sin recorrer
+     * las reseñas. Si el usuario todavía tiene reseñas en el array listaResenas, después se migran con migrarResenas,
+     * que vuelve a calcular los totales.
      *
-     * @param id       El ID del usuario cuyo documento se quiere consultar.
-     * @param callback Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     * @param idUsuario El ID del usuario que recibe la reseña.
+     * @param resena    La reseña.
+     * @param callback  Un objeto Callback que se utilizará para manejar el resultado de la operación.
      */
-    public void obtenerMediaResenas(String id, Callback<String> callback) {
-        // Crear una referencia al documento del usuario en la base de datos
-        DocumentReference docRef = db.collection(COLECCION).document(id);
-        // Obtener el documento del usuario
-        docRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                DocumentSnapshot document = task.getResult();
-                if (document.exists()) {
-                    // Inicializar la variable media en 0.0
-                    Double media = 0.0;
-
-                    // Convertir el documento en un objeto Usuario
-                    Usuario usuario = document.toObject(Usuario.class);
-                    // Obtener la lista de valoraciones del usuario
-                    List<Resena> listaValoraciones = usuario.getListaResenas();
-
-                    // Si la lista de valoraciones no está vacía
-                    if (listaValoraciones.size() > 0) {
-                        // Recorrer la lista de valoraciones y sumarlas
-                        for (int i = 0; i < listaValoraciones.size(); i++) {
-                            media += listaValoraciones.get(i).getValoracion();
-                        }
-                        // Calcular la media dividiendo la suma entre el número de valoraciones
-                        media = media / listaValoraciones.size();
-                    }
-                    // Llamar al método onSuccess del objeto Callback proporcionado y pasarle como parámetro la media calculada convertida en una cadena
-                    callback.onSuccess(String.valueOf(media));
+    public void guardarResena(String idUsuario, Resena resena, Callback<String> callback) {
+        db.runTransaction(transaction -> escribirResena(transaction, idUsuario, resena)).addOnSuccessListener(usuario -> {
+            CacheUsuarios.getInstance().guardar(idUsuario, UsuarioResumen.desdeUsuario(usuario));
+            if (usuario.getListaResenas() == null || usuario.getListaResenas().isEmpty()) {
+                callback.onSuccess("Actualizado");
+                return;
+            }
+            // La reseña ya está guardada: si la migración falla se repetirá la próxima vez que se abra el perfil
+            migrarResenas(idUsuario, new Callback<String>() {
+                @Override
+                public void onSuccess(String result) {
+                    callback.onSuccess("Actualizado");
+                }
 
+                @Override
+                public void onFailure(Exception e) {
+                    callback.onSuccess("Actualizado");
                 }
+            });
+        }).addOnFailureListener(callback::onFailure);
+    }
+
+    /**
+     * Este método pasa las reseñas del array listaResenas de un usuario (versiones anteriores de la aplicación) a la
+     * subcolección de reseñas, con un documento por autor, calcula los totales de valoraciones y borra el array.
+     * Las reseñas del array se mezclan con las que ya hay en la subcolección, quedándose con la más reciente de cada
+     * autor, y se escriben en batch de como mucho {@value #MAXIMO_ESCRITURAS_BATCH} escrituras. Al final, una
+     * transacción calcula los totales con todas las reseñas y borra el array, solo si ni el array ni los totales han
+     * cambiado mientras tanto (si se ha guardado otra reseña a la vez, se migrará la próxima vez). Se puede repetir
+     * sin duplicar reseñas.
+     *
+     * @param idUsuario El ID del usuario.
+     * @param callback  Un objeto Callback que se llama al terminar la migración, o con onFailure si falla.
+     */
+    public void migrarResenas(String idUsuario, Callback<String> callback) {
+        DocumentReference usuarioRef = db.collection(COLECCION).document(idUsuario);
+        CollectionReference resenasRef = usuarioRef.collection(SUBCOLECCION_RESENAS);
+        Task<DocumentSnapshot> usuarioTask = usuarioRef.get();
+        Task<QuerySnapshot> resenasTask = resenasRef.get();
+        Tasks.whenAll(usuarioTask, resenasTask).onSuccessTask(aVoid -> {
+            Usuario usuario = usuarioTask.getResult().toObject(Usuario.class);
+            if (usuario == null || usuario.getListaResenas() == null || usuario.getListaResenas().isEmpty()) {
+                return Tasks.<UsuarioResumen>forResult(usuario != null ? UsuarioResumen.desdeUsuario(usuario) : null);
             }
-        });
+            List<String> firma = firmaResenas(usuario.getListaResenas());
+            long sumaLeida = usuario.getSumaValoraciones();
+            long cantidadLeida = usuario.getCantidadValoraciones();
+
+            Map<String, Resena> resenasPorAutor = new HashMap<>();
+            for (DocumentSnapshot documento : resenasTask.getResult().getDocuments()) {
+                Resena resena = documento.toObject(Resena.class);
+                if (resena != null) {
+                    resenasPorAutor.put(documento.getId(), resena);
+                }
+            }
+            // Las del array solo se escriben si el autor no tiene reseña en la subcolección o la del array es más nueva
+            Map<String, Resena> aEscribir = new LinkedHashMap<>();
+            for (Resena resenaArray : usuario.getListaResenas()) {
+                resenaArray.setMarcaTiempo(resenaArray.calcularMarcaTiempo());
+                Resena actual = resenasPorAutor.get(resenaArray.getUidAutor());
+                long marcaTiempoActual = actual != null ? actual.calcularMarcaTiempo() : Long.MIN_VALUE;
+                // Con la misma fecha gana la que va después en el array, pero no una que ya está en la subcolección
+                boolean actualDelArray = actual != null && aEscribir.get(resenaArray.getUidAutor()) == actual;
+                if (resenaArray.getMarcaTiempo() > marcaTiempoActual
+                        || actualDelArray && resenaArray.getMarcaTiempo() == marcaTiempoActual) {
+                    resenasPorAutor.put(resenaArray.getUidAutor(), resenaArray);
+                    aEscribir.put(resenaArray.getUidAutor(), resenaArray);
+                }
+            }
+
+            List<Task<Void>> commits = new ArrayList<>();
+            WriteBatch batch = db.batch();
+            int escriturasEnBatch = 0;
+            for (Resena resena : aEscribir.values()) {
+                batch.set(resenasRef.document(resena.getUidAutor()), resena);
+                if (++escriturasEnBatch == MAXIMO_ESCRITURAS_BATCH) {
+                    commits.add(batch.commit());
+                    batch = db.batch();
+                    escriturasEnBatch = 0;
+                }
+            }
+            commits.add(batch.commit());
+
+            return Tasks.whenAll(commits).onSuccessTask(sinResultado -> db.runTransaction(transaction -> {
+                Usuario actual = transaction.get(usuarioRef).toObject(Usuario.class);
+                if (actual == null || actual.getListaResenas() == null || !firma.equals(firmaResenas(actual.getListaResenas()))
+                        || actual.getSumaValoraciones() != sumaLeida || actual.getCantidadValoraciones() != cantidadLeida) {
+                    throw new FirebaseFirestoreException("Las reseñas han cambiado durante la migración",
+                            FirebaseFirestoreException.Code.ABORTED);
+                }
+                long suma = 0;
+                List<Long> histograma = new ArrayList<>();
+                for (int estrellas = 1; estrellas <= 5; estrellas++) {
+                    histograma.add(0L);
+                }
+                for (Resena resena : resenasPorAutor.values()) {
+                    suma += resena.getValoracion();
+                    sumarAlHistograma(histograma, resena.getValoracion(), 1);
+                }
+                actual.setListaResenas(null);
+                actual.setSumaValoraciones(suma);
+                actual.setCantidadValoraciones(resenasPorAutor.size());
+                actual.setHistogramaValoraciones(histograma);
+
+                Map<String, Object> cambios = new HashMap<>();
+                cambios.put("listaResenas", FieldValue.delete());
+                cambios.put("sumaValoraciones", suma);
+                cambios.put("cantidadValoraciones", (long) resenasPorAutor.size());
+                cambios.put("histogramaValoraciones", histograma);
+                transaction.update(usuarioRef, cambios);
+                UsuarioResumen resumen = UsuarioResumen.desdeUsuario(actual);
+                transaction.set(db.collection(COLECCION_RESUMENES).document(idUsuario), resumen);
+                return resumen;
+            }));
+        }).addOnSuccessListener(resumen -> {
+            if (resumen != null) {
+                CacheUsuarios.getInstance().guardar(idUsuario, resumen);
+            }
+            callback.onSuccess("Migrado");
+        }).addOnFailureListener(callback::onFailure);
     }
 
+    /**
+     * Este método obtiene una página de las reseñas de un usuario, de la más reciente a la más antigua.
+     *
+     * @param idUsuario       El ID del usuario reseñado.
+     * @param ultimoDocumento El último documento de la página anterior, o null para la primera página.
+     * @param tamanoPagina    La cantidad máxima de reseñas de la página.
+     * @param callback        Un objeto Callback que se utilizará para manejar el resultado de la operación.
+     */
+    public void obtenerPaginaResenas(String idUsuario, DocumentSnapshot ultimoDocumento, int tamanoPagina, Callback<Pagina<Resena>> callback) {
+        Query consulta = db.collection(COLECCION).document(idUsuario).collection(SUBCOLECCION_RESENAS)
+                .orderBy("marcaTiempo", Query.Direction.DESCENDING).limit(tamanoPagina);
+        consultarPagina(consulta, ultimoDocumento, tamanoPagina, Resena.class, callback);
+    }
 
     /**
-     * Este método agrega el ID de un usuario a la lista de visitas al perfil de otro usuario en la base de datos.
+     * Escribe una reseña dentro de una transacción, manteniendo los totales de valoraciones del usuario y su resumen.
+     * Si el usuario todavía tiene el array listaResenas, los totales solo cuentan la subcolección hasta que se migra.
      *
-     * @param idUsuarioQueEsVisitado El ID del usuario cuyo perfil ha sido visitado.
-     * @param idUsuarioQueVisita     El ID del usuario que ha visitado el perfil.
+     * @param transaction La transacción.
+     * @param idUsuario   El ID del usuario reseñado.
+     * @param resena      La reseña a guardar.
+     * @return El usuario con los totales actualizados.
+     * @throws FirebaseFirestoreException Si falla alguna lectura de la transacción.
      */
-    public void anadirVisitaAlPerfil(String idUsuarioQueEsVisitado, String idUsuarioQueVisita) {
-        // Actualizar el documento del usuario cuyo perfil ha sido visitado en la base de datos
-        db.collection(COLECCION).document(idUsuarioQueEsVisitado).update("visitasAlPerfil", FieldValue.arrayUnion(idUsuarioQueVisita)).addOnSuccessListener(documentReference -> {
-            // No se hace nada si la operación es exitosa
-        });
+    private Usuario escribirResena(Transaction transaction, String idUsuario, Resena resena) throws FirebaseFirestoreException {
+        DocumentReference usuarioRef = db.collection(COLECCION).document(idUsuario);
+        DocumentReference resenaRef = usuarioRef.collection(SUBCOLECCION_RESENAS).document(resena.getUidAutor());
+
+        // En una transacción todas las lecturas van antes de las escrituras
+        Usuario usuario = transaction.get(usuarioRef).toObject(Usuario.class);
+        DocumentSnapshot resenaAnteriorDoc = transaction.get(resenaRef);
+
+        long suma = usuario.getSumaValoraciones();
+        long cantidad = usuario.getCantidadValoraciones();
+        List<Long> histograma = new ArrayList<>();
+        for (int estrellas = 1; estrellas <= 5; estrellas++) {
+            histograma.add(0L);
+        }
+        if (usuario.getHistogramaValoraciones() != null && usuario.getHistogramaValoraciones().size() == 5) {
+            histograma = new ArrayList<>(usuario.getHistogramaValoraciones());
+        }
+
+        Resena anterior = resenaAnteriorDoc.exists() ? resenaAnteriorDoc.toObject(Resena.class) : null;
+        if (anterior != null) {
+            suma -= anterior.getValoracion();
+            cantidad--;
+            sumarAlHistograma(histograma, anterior.getValoracion(), -1);
+        }
+        suma += resena.getValoracion();
+        cantidad++;
+        sumarAlHistograma(histograma, resena.getValoracion(), 1);
+        transaction.set(resenaRef, resena);
+
+        usuario.setSumaValoraciones(suma);
+        usuario.setCantidadValoraciones(cantidad);
+        usuario.setHistogramaValoraciones(histograma);
+        Map<String, Object> cambios = new HashMap<>();
+        cambios.put("sumaValoraciones", suma);
+        cambios.put("cantidadValoraciones", cantidad);
+        cambios.put("histogramaValoraciones", histograma);
+        transaction.update(usuarioRef, cambios);
+        transaction.set(db.collection(COLECCION_RESUMENES).document(idUsuario), UsuarioResumen.desdeUsuario(usuario));
+        return usuario;
+    }
+
+    /**
+     * Resume el array de reseñas de un usuario para comprobar si ha cambiado.
+     */
+    private static List<String> firmaResenas(List<Resena> resenas) {
+        List<String> firma = new ArrayList<>();
+        for (Resena resena : resenas) {
+            firma.add(resena.getUidAutor() + "|" + resena.getValoracion() + "|" + resena.getFecha() + "|" + resena.getTexto());
+        }
+        return firma;
+    }
+
+    /**
+     * Suma (o resta, con una cantidad negativa) reseñas a la posición de un número de estrellas del histograma.
+     * Las valoraciones fuera del rango de 1 a 5 estrellas no se cuentan en el histograma.
+     *
+     * @param histograma El histograma de valoraciones.
+     * @param estrellas  El número de estrellas de la reseña.
+     * @param cantidad   La cantidad a sumar.
+     */
+    private static void sumarAlHistograma(List<Long> histograma, int estrellas, long cantidad) {
+        if (estrellas >= 1 && estrellas <= 5) {
+            histograma.set(estrellas - 1, histograma.get(estrellas - 1) + cantidad);
+        }
+    }
+
+
+    /**
+     * Una página de una consulta paginada y el cursor para pedir la siguiente.
+     *
+     * @param <T> El tipo de los elementos de la página.
+     */
+    public static class Pagina<T> {
+        public final List<T> elementos = new ArrayList<>();
+        public DocumentSnapshot ultimoDocumento;
+        public boolean hayMas;
+    }
+
+
+    /**
+     * Interfaz para seguir la subida de una canción: primero la conversión del audio y después la subida a Storage.
+     */
+    public interface OyenteSubida {
+        String FASE_CONVIRTIENDO = "Convirtiendo";
+        String FASE_SUBIENDO = "Subiendo";
+
+        /**
+         * Se llama en el hilo principal cuando avanza la conversión o la subida.
+         *
+         * @param fase       La fase (FASE_CONVIRTIENDO o FASE_SUBIENDO).
+         * @param porcentaje El porcentaje de la fase, de 0 a 100.
+         */
+        void onProgreso(String fase, int porcentaje);
+
+        /**
+         * Se llama en el hilo principal si no se puede convertir o subir la canción.
+         *
+         * @param mensaje El motivo del error.
+         */
+        void onError(String mensaje);
     }
 
 
@@ -275,6 +1386,14 @@ public class GestorFirestore {
          * @param result El resultado de la operación.
          */
         void onSuccess(T result);
+
+        /**
+         * Este método se llama cuando la operación asíncrona falla. Por defecto no hace nada.
+         *
+         * @param e La excepción que ha causado el fallo.
+         */
+        default void onFailure(Exception e) {
+        }
     }
 
 
@@ -0,0 +1,690 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.tarea1firebase.entidades.MetadatosCancion;
+import com.example.tarea1firebase.entidades.Publicacion;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cola persistente de subidas a Firebase Storage (canciones, imágenes de publicaciones y fotos de perfil).
+ * Cada fichero se guarda en SQLite junto con una copia local, la URI de la sesión de subida reanudable de Storage
+ * y los bytes ya subidos, así que si la red se cae o el sistema mata la aplicación la subida sigue desde el último
+ * byte confirmado en lugar de empezar de cero. Una subida puede tener varios ficheros (las variantes de una imagen):
+ * cuando están todos en Storage, la propia cola hace la escritura en Firestore que corresponde al tipo de subida, de
+ * modo que no depende de que la actividad que la empezó siga abierta.
+ * Se suben como mucho {@value #MAXIMO_SUBIDAS_SIMULTANEAS} ficheros a la vez.
+ * Todos los métodos públicos se deben llamar desde el hilo principal.
+ */
+public class GestorSubidas extends SQLiteOpenHelper {
+    public static final String TIPO_CANCION = "cancion";
+    public static final String TIPO_PUBLICACION = "publicacion";
+    public static final String TIPO_FOTO_PERFIL = "fotoPerfil";
+
+    private static final String NOMBRE_BD = "subidas.db";
+    private static final int VERSION_BD = 2;
+    private static final String TABLA = "subidas";
+    private static final String CARPETA_FICHEROS = "subidas";
+    private static final String VARIANTE_UNICA = "UNICA";
+    private static final int MAXIMO_SUBIDAS_SIMULTANEAS = 2;
+    private static final int MAXIMO_REINTENTOS = 5;
+    private static final long ESPERA_REINTENTO_MS = 5000;
+    /**
+     * Cada cuántos bytes subidos se guarda el progreso en disco. La URI de la sesión se guarda en cuanto se conoce.
+     */
+    private static final long INTERVALO_GUARDADO_BYTES = 512 * 1024;
+
+    private static GestorSubidas instancia;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final File carpetaFicheros;
+    private final Map<String, Subida> pendientes = new LinkedHashMap<>();
+    private final Set<String> activas = new HashSet<>();
+    private final Set<String> gruposCompletando = new HashSet<>();
+    private final Set<String> gruposEsperando = new HashSet<>();
+    private final Map<String, Integer> reintentos = new HashMap<>();
+    private final Map<String, UploadTask> tareas = new HashMap<>();
+    private final Map<String, Oyente> oyentes = new HashMap<>();
+    private boolean pendientesCargadas;
+
+    /**
+     * Interfaz para seguir una subida concreta. Los métodos se llaman en el hilo principal.
+     */
+    public interface Oyente {
+        /**
+         * Se llama cuando avanza la subida.
+         *
+         * @param id         El id de la subida.
+         * @param porcentaje El porcentaje subido, de 0 a 100.
+         */
+        void onProgreso(String id, int porcentaje);
+
+        /**
+         * Se llama cuando el fichero se ha subido y se ha hecho la escritura en Firestore.
+         *
+         * @param id  El id de la subida.
+         * @param url La URL de descarga del fichero subido.
+         */
+        void onTerminada(String id, String url);
+
+        /**
+         * Se llama cuando la subida no se puede completar. Si el error es temporal, la subida sigue en la cola y se
+         * reintentará la próxima vez que se abra la aplicación.
+         *
+         * @param id      El id de la subida.
+         * @param mensaje El motivo del error.
+         */
+        void onError(String id, String mensaje);
+    }
+
+    /**
+     * Obtiene la instancia compartida de la cola. La primera vez se reanudan las subidas que quedaron pendientes.
+     *
+     * @param context Contexto de la aplicación.
+     * @return La instancia de la cola.
+     */
+    public static synchronized GestorSubidas getInstance(Context context) {
+        if (instancia == null) {
+            instancia = new GestorSubidas(context.getApplicationContext());
+            instancia.reanudarPendientes();
+        }
+        return instancia;
+    }
+
+    private GestorSubidas(Context context) {
+        super(context, NOMBRE_BD, null, VERSION_BD);
+        this.context = context;
+        carpetaFicheros = new File(context.getFilesDir(), CARPETA_FICHEROS);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLA + " (" +
+                "id TEXT PRIMARY KEY, " +
+                "grupo TEXT, " +
+                "variante TEXT, " +
+                "tipo TEXT NOT NULL, " +
+                "idUsuario TEXT NOT NULL, " +
+                "rutaLocal TEXT NOT NULL, " +
+                "rutaStorage TEXT NOT NULL, " +
+                "tipoContenido TEXT, " +
+                "datos TEXT, " +
+                "uriSesion TEXT, " +
+                "bytesSubidos INTEGER NOT NULL DEFAULT 0, " +
+                "urlDescarga TEXT, " +
+                "creada INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Las subidas pendientes se conservan: las de la versión 1 son de un solo fichero y forman su propio grupo
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLA + " ADD COLUMN grupo TEXT");
+            db.execSQL("ALTER TABLE " + TABLA + " ADD COLUMN variante TEXT");
+        }
+    }
+
+    /**
+     * Añade una canción a la cola de subidas. Al terminar se añade al array de canciones del usuario junto con sus
+     * metadatos.
+     *
+     * @param idUsuario     El ID del usuario dueño de la canción.
+     * @param origen        La URI local del audio. Si es un fichero de la caché de la aplicación se mueve a la cola.
+     * @param rutaStorage   La ruta del fichero en Storage.
+     * @param tipoContenido El tipo MIME del audio, o null para que lo deduzca Storage.
+     * @param metadatos     Los metadatos calculados de la canción, o null.
+     * @param oyente        Un oyente de la subida, o null.
+     * @return El id de la subida.
+     */
+    public String encolarCancion(String idUsuario, Uri origen, String rutaStorage, String tipoContenido, MetadatosCancion metadatos, Oyente oyente) {
+        JSONObject datos = new JSONObject();
+        if (metadatos != null) {
+            try {
+                datos.put("duracion", metadatos.getDuracion());
+                datos.put("frecuenciaMuestreo", metadatos.getFrecuenciaMuestreo());
+                datos.put("canales", metadatos.getCanales());
+                datos.putOpt("picos", metadatos.getPicos());
+            } catch (JSONException e) {
+                // Los valores son siempre válidos
+            }
+        }
+        Map<String, Uri> origenes = new HashMap<>();
+        Map<String, String> rutasStorage = new HashMap<>();
+        origenes.put(VARIANTE_UNICA, origen);
+        rutasStorage.put(VARIANTE_UNICA, rutaStorage);
+        String grupo = UUID.randomUUID().toString();
+        if (oyente != null) {
+            oyentes.put(grupo, oyente);
+        }
+        encolar(grupo, TIPO_CANCION, idUsuario, origenes, rutasStorage, tipoContenido, datos);
+        return grupo;
+    }
+
+    /**
+     * Añade la imagen de una publicación a la cola de subidas. Antes de subirla se generan sus variantes
+     * (ProcesadorImagenes) y, al terminar, se añade la publicación al usuario con la URL de cada variante.
+     *
+     * @param publicacion La publicación sin URLs de imagen.
+     * @param origen      La URI local de la imagen elegida por el usuario.
+     * @param rutaStorage La ruta base en Storage; cada variante se guarda con su nombre y la extensión detrás.
+     * @param oyente      Un oyente de la subida, o null.
+     * @return El id de la subida.
+     */
+    public String encolarPublicacion(Publicacion publicacion, Uri origen, String rutaStorage, Oyente oyente) {
+        JSONObject datos = new JSONObject();
+        try {
+            datos.putOpt("texto", publicacion.getTexto());
+            datos.putOpt("fecha", publicacion.getFecha());
+            datos.put("marcaTiempo", publicacion.getMarcaTiempo());
+        } catch (JSONException e) {
+            // Los valores son siempre válidos
+        }
+        return encolarImagen(TIPO_PUBLICACION, publicacion.getAutorUid(), origen, rutaStorage, datos, oyente,
+                ProcesadorImagenes.Variante.MINIATURA, ProcesadorImagenes.Variante.FEED, ProcesadorImagenes.Variante.COMPLETA);
+    }
+
+    /**
+     * Añade una foto de perfil a la cola de subidas. Antes de subirla se generan la miniatura para las listas y la
+     * variante para el perfil y, al terminar, se cambia la foto del usuario y de su resumen.
+     *
+     * @param idUsuario   El ID del usuario.
+     * @param origen      La URI local de la imagen elegida por el usuario.
+     * @param rutaStorage La ruta base en Storage; cada variante se guarda con su nombre y la extensión detrás.
+     * @param oyente      Un oyente de la subida, o null.
+     * @return El id de la subida.
+     */
+    public String encolarFotoPerfil(String idUsuario, Uri origen, String rutaStorage, Oyente oyente) {
+        return encolarImagen(TIPO_FOTO_PERFIL, idUsuario, origen, rutaStorage, new JSONObject(), oyente,
+                ProcesadorImagenes.Variante.MINIATURA, ProcesadorImagenes.Variante.FEED);
+    }
+
+    /**
+     * Deja de avisar a un oyente (por ejemplo porque se cierra la pantalla que lo registró). La subida continúa.
+     *
+     * @param id El id de la subida.
+     */
+    public void quitarOyente(String id) {
+        oyentes.remove(id);
+    }
+
+    /**
+     * Carga de la base de datos las subidas que no terminaron y las vuelve a lanzar.
+     */
+    public void reanudarPendientes() {
+        executor.execute(() -> {
+            List<Subida> guardadas = new ArrayList<>();
+            try (Cursor cursor = getReadableDatabase().query(TABLA, null, null, null, null, null, "creada ASC")) {
+                while (cursor.moveToNext()) {
+                    guardadas.add(leerSubida(cursor));
+                }
+            }
+            handler.post(() -> {
+                for (Subida subida : guardadas) {
+                    if (!pendientes.containsKey(subida.id)) {
+                        pendientes.put(subida.id, subida);
+                    }
+                }
+                pendientesCargadas = true;
+                lanzarSiguientes();
+            });
+        });
+    }
+
+    private String encolarImagen(String tipo, String idUsuario, Uri origen, String rutaStorage, JSONObject datos, Oyente oyente, ProcesadorImagenes.Variante... variantes) {
+        String grupo = UUID.randomUUID().toString();
+        if (oyente != null) {
+            oyentes.put(grupo, oyente);
+        }
+        executor.execute(() -> {
+            try {
+                Map<ProcesadorImagenes.Variante, File> ficheros = ProcesadorImagenes.preparar(context, origen, variantes);
+                Map<String, Uri> origenes = new HashMap<>();
+                Map<String, String> rutasStorage = new HashMap<>();
+                for (Map.Entry<ProcesadorImagenes.Variante, File> fichero : ficheros.entrySet()) {
+                    String variante = fichero.getKey().name();
+                    origenes.put(variante, Uri.fromFile(fichero.getValue()));
+                    rutasStorage.put(variante, rutaStorage + "_" + variante.toLowerCase(Locale.ROOT) + ProcesadorImagenes.EXTENSION);
+                }
+                handler.post(() -> encolar(grupo, tipo, idUsuario, origenes, rutasStorage, ProcesadorImagenes.TIPO_CONTENIDO, datos));
+            } catch (Exception e) {
+                handler.post(() -> avisarError(grupo, "No se ha podido procesar la imagen"));
+            }
+        });
+        return grupo;
+    }
+
+    private void encolar(String grupo, String tipo, String idUsuario, Map<String, Uri> origenes, Map<String, String> rutasStorage, String tipoContenido, JSONObject datos) {
+        long creada = System.currentTimeMillis();
+        List<Subida> subidas = new ArrayList<>();
+        for (String variante : origenes.keySet()) {
+            Subida subida = new Subida();
+            subida.id = UUID.randomUUID().toString();
+            subida.grupo = grupo;
+            subida.variante = variante;
+            subida.tipo = tipo;
+            subida.idUsuario = idUsuario;
+            subida.rutaStorage = rutasStorage.get(variante);
+            subida.tipoContenido = tipoContenido;
+            subida.datos = datos.toString();
+            subida.creada = creada;
+            subidas.add(subida);
+        }
+
+        // El permiso sobre la URI elegida por el usuario no sobrevive al proceso: se guarda una copia propia
+        executor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Subida subida : subidas) {
+                    File fichero = new File(carpetaFicheros, subida.id);
+                    copiarFichero(origenes.get(subida.variante), fichero);
+                    subida.rutaLocal = fichero.getPath();
+                    db.insertOrThrow(TABLA, null, crearValores(subida));
+                }
+                db.setTransactionSuccessful();
+                handler.post(() -> {
+                    for (Subida subida : subidas) {
+                        pendientes.put(subida.id, subida);
+                    }
+                    lanzarSiguientes();
+                });
+            } catch (Exception e) {
+                for (Subida subida : subidas) {
+                    if (subida.rutaLocal != null) {
+                        new File(subida.rutaLocal).delete();
+                    }
+                }
+                handler.post(() -> avisarError(grupo, "No se ha podido leer el fichero"));
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Lanza subidas de la cola hasta llegar al máximo de subidas simultáneas, y completa los grupos que ya tienen
+     * todos sus ficheros en Storage.
+     */
+    private void lanzarSiguientes() {
+        if (!pendientesCargadas) {
+            return;
+        }
+        // Se recorre una copia porque una subida puede salir de la cola al lanzarla
+        for (Subida subida : new ArrayList<>(pendientes.values())) {
+            if (!pendientes.containsKey(subida.id) || activas.contains(subida.id) || gruposEsperando.contains(subida.grupo)) {
+                continue;
+            }
+            if (subida.urlDescarga == null) {
+                if (activas.size() < MAXIMO_SUBIDAS_SIMULTANEAS) {
+                    activas.add(subida.id);
+                    subir(subida);
+                }
+            } else if (!gruposCompletando.contains(subida.grupo) && grupoSubido(subida.grupo)) {
+                gruposCompletando.add(subida.grupo);
+                completar(subida.grupo);
+            }
+        }
+    }
+
+    private void subir(Subida subida) {
+        File fichero = new File(subida.rutaLocal);
+        if (!fichero.exists()) {
+            descartarGrupo(subida.grupo);
+            avisarError(subida.grupo, "El fichero de la subida ya no existe");
+            return;
+        }
+
+        StorageReference referencia = FirebaseStorage.getInstance().getReference(subida.rutaStorage);
+        StorageMetadata.Builder metadatos = new StorageMetadata.Builder();
+        if (subida.tipoContenido != null) {
+            metadatos.setContentType(subida.tipoContenido);
+        }
+        UploadTask tarea = subida.uriSesion != null
+                ? referencia.putFile(Uri.fromFile(fichero), metadatos.build(), Uri.parse(subida.uriSesion))
+                : referencia.putFile(Uri.fromFile(fichero), metadatos.build());
+        tareas.put(subida.id, tarea);
+
+        tarea.addOnProgressListener(instantanea -> {
+            Uri sesion = instantanea.getUploadSessionUri();
+            long bytes = instantanea.getBytesTransferred();
+            subida.bytesEnCurso = bytes;
+            boolean sesionNueva = sesion != null && !sesion.toString().equals(subida.uriSesion);
+            if (sesionNueva || bytes - subida.bytesSubidos >= INTERVALO_GUARDADO_BYTES) {
+                if (sesion != null) {
+                    subida.uriSesion = sesion.toString();
+                }
+                subida.bytesSubidos = bytes;
+                guardarProgreso(subida);
+            }
+            avisarProgreso(subida.grupo);
+        }).continueWithTask(task -> {
+            if (!task.isSuccessful()) {
+                throw task.getException();
+            }
+            return referencia.getDownloadUrl();
+        }).addOnCompleteListener(task -> tareas.remove(subida.id)).addOnSuccessListener(url -> {
+            activas.remove(subida.id);
+            if (!pendientes.containsKey(subida.id)) {
+                return;
+            }
+            subida.urlDescarga = url.toString();
+            guardarProgreso(subida);
+            lanzarSiguientes();
+        }).addOnFailureListener(e -> {
+            activas.remove(subida.id);
+            if (!pendientes.containsKey(subida.id)) {
+                // Se ha descartado su grupo mientras se subía
+                return;
+            }
+            if (e instanceof StorageException) {
+                StorageException error = (StorageException) e;
+                if (error.getErrorCode() == StorageException.ERROR_NOT_AUTHORIZED
+                        || error.getErrorCode() == StorageException.ERROR_QUOTA_EXCEEDED) {
+                    descartarGrupo(subida.grupo);
+                    avisarError(subida.grupo, e.getMessage());
+                    return;
+                }
+                // La sesión ha caducado o el servidor no la reconoce: se vuelve a empezar
+                int codigoHttp = error.getHttpResultCode();
+                if (codigoHttp >= 400 && codigoHttp < 500) {
+                    subida.uriSesion = null;
+                    subida.bytesSubidos = 0;
+                    guardarProgreso(subida);
+                }
+            }
+            reintentar(subida.grupo, e);
+        });
+    }
+
+    /**
+     * Hace la escritura en Firestore de una subida cuyos ficheros ya están en Storage. Las escrituras son
+     * idempotentes, así que se pueden repetir si la aplicación se cierra antes de borrar la subida de la cola.
+     */
+    private void completar(String grupo) {
+        List<Subida> miembros = miembros(grupo);
+        Subida primera = miembros.get(0);
+        Map<String, String> urls = new HashMap<>();
+        for (Subida subida : miembros) {
+            urls.put(subida.variante, subida.urlDescarga);
+        }
+        String urlPrincipal = urls.containsKey(ProcesadorImagenes.Variante.FEED.name())
+                ? urls.get(ProcesadorImagenes.Variante.FEED.name()) : primera.urlDescarga;
+
+        GestorFirestore gestorFirestore = new GestorFirestore();
+        Task<Void> escritura;
+        try {
+            JSONObject datos = new JSONObject(primera.datos);
+            switch (primera.tipo) {
+                case TIPO_CANCION:
+                    MetadatosCancion metadatos = null;
+                    if (datos.has("duracion")) {
+                        metadatos = new MetadatosCancion();
+                        metadatos.setDuracion(datos.getLong("duracion"));
+                        metadatos.setFrecuenciaMuestreo(datos.getInt("frecuenciaMuestreo"));
+                        metadatos.setCanales(datos.getInt("canales"));
+                        metadatos.setPicos(datos.optString("picos", null));
+                    }
+                    escritura = gestorFirestore.completarSubidaCancion(primera.idUsuario, primera.urlDescarga, metadatos);
+                    break;
+                case TIPO_PUBLICACION:
+                    // Las subidas de la versión 1 solo tienen el original, que hace de todas las variantes
+                    String completa = urls.containsKey(ProcesadorImagenes.Variante.COMPLETA.name())
+                            ? urls.get(ProcesadorImagenes.Variante.COMPLETA.name()) : primera.urlDescarga;
+                    Publicacion publicacion = new Publicacion(primera.idUsuario, datos.optString("texto"), datos.optString("fecha"), completa);
+                    publicacion.setUrlImagenFeed(urls.get(ProcesadorImagenes.Variante.FEED.name()));
+                    publicacion.setUrlImagenMiniatura(urls.get(ProcesadorImagenes.Variante.MINIATURA.name()));
+                    publicacion.setMarcaTiempo(datos.optLong("marcaTiempo"));
+                    escritura = gestorFirestore.completarSubidaPublicacion(primera.idUsuario, publicacion);
+                    break;
+                default:
+                    escritura = gestorFirestore.completarSubidaFotoPerfil(primera.idUsuario, urlPrincipal,
+                            urls.get(ProcesadorImagenes.Variante.MINIATURA.name()));
+                    break;
+            }
+        } catch (JSONException e) {
+            gruposCompletando.remove(grupo);
+            descartarGrupo(grupo);
+            avisarError(grupo, e.getMessage());
+            return;
+        }
+
+        escritura.addOnSuccessListener(aVoid -> {
+            gruposCompletando.remove(grupo);
+            descartarGrupo(grupo);
+            Oyente oyente = oyentes.remove(grupo);
+            if (oyente != null) {
+                oyente.onTerminada(grupo, urlPrincipal);
+            }
+        }).addOnFailureListener(e -> {
+            gruposCompletando.remove(grupo);
+            reintentar(grupo, e);
+        });
+    }
+
+    /**
+     * Vuelve a intentar un grupo más tarde, esperando cada vez el doble. Si se agotan los intentos, el grupo se
+     * queda en la base de datos para la próxima vez que se abra la aplicación.
+     */
+    private void reintentar(String grupo, Exception e) {
+        int intentos = reintentos.containsKey(grupo) ? reintentos.get(grupo) : 0;
+        if (intentos < MAXIMO_REINTENTOS) {
+            reintentos.put(grupo, intentos + 1);
+            gruposEsperando.add(grupo);
+            handler.postDelayed(() -> {
+                gruposEsperando.remove(grupo);
+                lanzarSiguientes();
+            }, ESPERA_REINTENTO_MS << intentos);
+        } else {
+            reintentos.remove(grupo);
+            for (Subida subida : miembros(grupo)) {
+                pendientes.remove(subida.id);
+                cancelar(subida);
+            }
+            avisarError(grupo, e.getMessage());
+        }
+        lanzarSiguientes();
+    }
+
+    /**
+     * Quita de la cola todos los ficheros de un grupo, cancelando los que se estén subiendo, y borra sus copias.
+     */
+    private void descartarGrupo(String grupo) {
+        List<Subida> miembros = miembros(grupo);
+        reintentos.remove(grupo);
+        for (Subida subida : miembros) {
+            pendientes.remove(subida.id);
+            cancelar(subida);
+        }
+        executor.execute(() -> {
+            for (Subida subida : miembros) {
+                getWritableDatabase().delete(TABLA, "id = ?", new String[]{subida.id});
+                if (subida.rutaLocal != null) {
+                    new File(subida.rutaLocal).delete();
+                }
+            }
+        });
+        lanzarSiguientes();
+    }
+
+    private void cancelar(Subida subida) {
+        activas.remove(subida.id);
+        UploadTask tarea = tareas.remove(subida.id);
+        if (tarea != null) {
+            tarea.cancel();
+        }
+    }
+
+    private List<Subida> miembros(String grupo) {
+        List<Subida> miembros = new ArrayList<>();
+        for (Subida subida : pendientes.values()) {
+            if (subida.grupo.equals(grupo)) {
+                miembros.add(subida);
+            }
+        }
+        return miembros;
+    }
+
+    private boolean grupoSubido(String grupo) {
+        for (Subida subida : miembros(grupo)) {
+            if (subida.urlDescarga == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Avisa al oyente de un grupo del porcentaje subido entre todos sus ficheros.
+     */
+    private void avisarProgreso(String grupo) {
+        Oyente oyente = oyentes.get(grupo);
+        if (oyente == null) {
+            return;
+        }
+        long total = 0;
+        long subido = 0;
+        for (Subida subida : miembros(grupo)) {
+            long tamano = new File(subida.rutaLocal).length();
+            total += tamano;
+            subido += subida.urlDescarga != null ? tamano : Math.min(tamano, subida.bytesEnCurso);
+        }
+        if (total > 0) {
+            oyente.onProgreso(grupo, (int) (subido * 100 / total));
+        }
+    }
+
+    private void guardarProgreso(Subida subida) {
+        ContentValues valores = new ContentValues();
+        valores.put("uriSesion", subida.uriSesion);
+        valores.put("bytesSubidos", subida.bytesSubidos);
+        valores.put("urlDescarga", subida.urlDescarga);
+        executor.execute(() -> getWritableDatabase().update(TABLA, valores, "id = ?", new String[]{subida.id}));
+    }
+
+    private void avisarError(String id, String mensaje) {
+        Oyente oyente = oyentes.remove(id);
+        if (oyente != null) {
+            oyente.onError(id, mensaje);
+        }
+    }
+
+    private void copiarFichero(Uri origen, File destino) throws IOException {
+        if (!carpetaFicheros.exists() && !carpetaFicheros.mkdirs()) {
+            throw new IOException("No se puede crear " + carpetaFicheros);
+        }
+        // Los ficheros temporales de la propia aplicación (por ejemplo, un audio convertido) se mueven sin copiarlos
+        if ("file".equals(origen.getScheme()) && origen.getPath() != null
+                && origen.getPath().startsWith(context.getCacheDir().getPath())
+                && new File(origen.getPath()).renameTo(destino)) {
+            return;
+        }
+        try (InputStream entrada = context.getContentResolver().openInputStream(origen);
+             OutputStream salida = new FileOutputStream(destino)) {
+            if (entrada == null) {
+                throw new IOException("No se puede abrir " + origen);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            int leidos;
+            while ((leidos = entrada.read(buffer)) != -1) {
+                salida.write(buffer, 0, leidos);
+            }
+        } catch (IOException e) {
+            destino.delete();
+            throw e;
+        }
+    }
+
+    private static ContentValues crearValores(Subida subida) {
+        ContentValues valores = new ContentValues();
+        valores.put("id", subida.id);
+        valores.put("grupo", subida.grupo);
+        valores.put("variante", subida.variante);
+        valores.put("tipo", subida.tipo);
+        valores.put("idUsuario", subida.idUsuario);
+        valores.put("rutaLocal", subida.rutaLocal);
+        valores.put("rutaStorage", subida.rutaStorage);
+        valores.put("tipoContenido", subida.tipoContenido);
+        valores.put("datos", subida.datos);
+        valores.put("uriSesion", subida.uriSesion);
+        valores.put("bytesSubidos", subida.bytesSubidos);
+        valores.put("urlDescarga", subida.urlDescarga);
+        valores.put("creada", subida.creada);
+        return valores;
+    }
+
+    private static Subida leerSubida(Cursor cursor) {
+        Subida subida = new Subida();
+        subida.id = cursor.getString(cursor.getColumnIndexOrThrow("id"));
+        subida.grupo = cursor.getString(cursor.getColumnIndexOrThrow("grupo"));
+        subida.variante = cursor.getString(cursor.getColumnIndexOrThrow("variante"));
+        if (subida.grupo == null) {
+            subida.grupo = subida.id;
+            subida.variante = VARIANTE_UNICA;
+        }
+        subida.tipo = cursor.getString(cursor.getColumnIndexOrThrow("tipo"));
+        subida.idUsuario = cursor.getString(cursor.getColumnIndexOrThrow("idUsuario"));
+        subida.rutaLocal = cursor.getString(cursor.getColumnIndexOrThrow("rutaLocal"));
+        subida.rutaStorage = cursor.getString(cursor.getColumnIndexOrThrow("rutaStorage"));
+        subida.tipoContenido = cursor.getString(cursor.getColumnIndexOrThrow("tipoContenido"));
+        subida.datos = cursor.getString(cursor.getColumnIndexOrThrow("datos"));
+        subida.uriSesion = cursor.getString(cursor.getColumnIndexOrThrow("uriSesion"));
+        subida.bytesSubidos = cursor.getLong(cursor.getColumnIndexOrThrow("bytesSubidos"));
+        subida.urlDescarga = cursor.getString(cursor.getColumnIndexOrThrow("urlDescarga"));
+        subida.creada = cursor.getLong(cursor.getColumnIndexOrThrow("creada"));
+        return subida;
+    }
+
+    /**
+     * Una subida de la cola. Los campos solo se modifican en el hilo principal.
+     */
+    private static class Subida {
+        String id;
+        String grupo;
+        String variante;
+        String tipo;
+        String idUsuario;
+        String rutaLocal;
+        String rutaStorage;
+        String tipoContenido;
+        String datos;
+        String uriSesion;
+        long bytesSubidos;
+        String urlDescarga;
+        long creada;
+        long bytesEnCurso;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.tarea1firebase.gestor;
+
+import static com.example.tarea1firebase.fragments.PerfilFragment.COLECCION;
+
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gestiona las visitas a los perfiles. En el documento del usuario solo se guardan dos números: el total de visitas
+ * (visitasTotales) y la estimación de visitantes distintos (visitantesUnicos), así que mostrarlos no cuesta nada
+ * aunque el perfil tenga miles de visitas. Para estimar los visitantes distintos sin guardar sus IDs se usa un
+ * HyperLogLog de {@value #NUMERO_REGISTROS} registros de un byte (error típico de un 3 %), guardado como bytes en
+ * "Usuarios/{uid}/estadisticas/visitas". Con pocos visitantes la estimación es prácticamente exacta.
+ */
+public class GestorVisitas {
+    public static final String SUBCOLECCION_ESTADISTICAS = "estadisticas";
+    public static final String DOCUMENTO_VISITAS = "visitas";
+    private static final int BITS_INDICE = 10;
+    private static final int NUMERO_REGISTROS = 1 << BITS_INDICE;
+
+    private final FirebaseFirestore db;
+
+    public GestorVisitas() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * Registra una visita al perfil de un usuario: suma una al total y añade el visitante al sketch de visitantes
+     * únicos. Si el usuario todavía tiene la lista de visitas de versiones anteriores, sus IDs se pasan al sketch y la
+     * lista se borra; solo se cuenta si el sketch todavía no existe, porque si no la lista ya se había pasado antes.
+     * Todo se hace en una transacción, así que dos visitas a la vez no se pisan.
+     *
+     * @param idUsuarioQueEsVisitado El ID del usuario cuyo perfil ha sido visitado.
+     * @param idUsuarioQueVisita     El ID del usuario que ha visitado el perfil.
+     */
+    public void registrarVisita(String idUsuarioQueEsVisitado, String idUsuarioQueVisita) {
+        DocumentReference usuarioRef = db.collection(COLECCION).document(idUsuarioQueEsVisitado);
+        DocumentReference visitasRef = usuarioRef.collection(SUBCOLECCION_ESTADISTICAS).document(DOCUMENTO_VISITAS);
+
+        db.runTransaction(transaction -> {
+            DocumentSnapshot usuarioDoc = transaction.get(usuarioRef);
+            DocumentSnapshot visitasDoc = transaction.get(visitasRef);
+
+            byte[] registros = new byte[NUMERO_REGISTROS];
+            Blob blob = visitasDoc.exists() ? visitasDoc.getBlob("registros") : null;
+            if (blob != null && blob.toBytes().length == NUMERO_REGISTROS) {
+                registros = blob.toBytes();
+            }
+
+            boolean cambiado = anadir(registros, idUsuarioQueVisita);
+            Map<String, Object> cambios = new HashMap<>();
+            cambios.put("visitasTotales", FieldValue.increment(1));
+
+            Object visitasAntiguas = usuarioDoc.get("visitasAlPerfil");
+            if (visitasAntiguas != null && visitasDoc.exists()) {
+                // La lista ya se pasó al sketch: si vuelve a aparecer es una copia antigua del usuario escrita
+                // entera, y contarla otra vez inflaría las visitas
+                cambios.put("visitasAlPerfil", FieldValue.delete());
+            } else if (visitasAntiguas instanceof List) {
+                for (Object idVisitante : (List<?>) visitasAntiguas) {
+                    if (idVisitante instanceof String) {
+                        cambiado |= anadir(registros, (String) idVisitante);
+                    }
+                }
+                cambios.put("visitasAlPerfil", FieldValue.delete());
+                // Las visitas repetidas no se guardaban, así que el total empieza como mínimo en los visitantes antiguos
+                Long visitasTotales = usuarioDoc.getLong("visitasTotales");
+                if (visitasTotales == null || visitasTotales < ((List<?>) visitasAntiguas).size()) {
+                    cambios.put("visitasTotales", (long) ((List<?>) visitasAntiguas).size() + 1);
+                }
+            }
+
+            if (cambiado) {
+                Map<String, Object> sketch = new HashMap<>();
+                sketch.put("registros", Blob.fromBytes(registros));
+                transaction.set(visitasRef, sketch);
+                cambios.put("visitantesUnicos", estimar(registros));
+            }
+            transaction.update(usuarioRef, cambios);
+            return null;
+        });
+    }
+
+    /**
+     * Añade un visitante a los registros del sketch.
+     *
+     * @param registros Los registros del HyperLogLog.
+     * @param id        El ID del visitante.
+     * @return true si algún registro ha cambiado (y por tanto puede haber cambiado la estimación).
+     */
+    static boolean anadir(byte[] registros, String id) {
+        long hash = hash64(id);
+        int indice = (int) (hash >>> (64 - BITS_INDICE));
+        // Posición del primer 1 en los bits que quedan, con un tope si todos son 0
+        int rango = Math.min(Long.numberOfLeadingZeros(hash << BITS_INDICE), 64 - BITS_INDICE) + 1;
+        if (rango > registros[indice]) {
+            registros[indice] = (byte) rango;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Estima la cantidad de visitantes distintos a partir de los registros. Con pocos visitantes (muchos registros a
+     * cero) se usa el conteo lineal, que es casi exacto.
+     *
+     * @param registros Los registros del HyperLogLog.
+     * @return La estimación de visitantes distintos.
+     */
+    static long estimar(byte[] registros) {
+        double suma = 0;
+        int registrosACero = 0;
+        for (byte registro : registros) {
+            suma += 1.0 / (1L << registro);
+            if (registro == 0) {
+                registrosACero++;
+            }
+        }
+        double alfa = 0.7213 / (1 + 1.079 / NUMERO_REGISTROS);
+        double estimacion = alfa * NUMERO_REGISTROS * NUMERO_REGISTROS / suma;
+        if (estimacion <= 2.5 * NUMERO_REGISTROS && registrosACero > 0) {
+            estimacion = NUMERO_REGISTROS * Math.log((double) NUMERO_REGISTROS / registrosACero);
+        }
+        return Math.round(estimacion);
+    }
+
+    /**
+     * Hash de 64 bits de un texto (FNV-1a seguido de la mezcla final de SplitMix64 para repartir bien los bits altos).
+     */
+    private static long hash64(String texto) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : texto.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.AppGlideModule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configuración de Glide para toda la aplicación. Fija los tamaños de la caché de memoria, del pool de bitmaps y de
+ * la caché de disco en lugar de dejar los valores por defecto, y guarda la caché de memoria y el pool para poder
+ * consultar sus estadísticas.
+ * Las peticiones de las listas se construyen en CargadorImagenes.
+ */
+@GlideModule
+public class ModuloGlide extends AppGlideModule {
+    /**
+     * Máximo de la caché de memoria. Si el dispositivo tiene poca memoria se usa lo que calcule Glide.
+     */
+    private static final long MAXIMO_CACHE_MEMORIA_BYTES = 32L * 1024 * 1024;
+    /**
+     * Máximo del pool de bitmaps reutilizables.
+     */
+    private static final long MAXIMO_POOL_BYTES = 24L * 1024 * 1024;
+    private static final long CACHE_DISCO_BYTES = 200L * 1024 * 1024;
+    private static final String CARPETA_CACHE_DISCO = "imagenes";
+
+    private static volatile CacheMemoriaContada cacheMemoria;
+    private static volatile LruBitmapPool poolBitmaps;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        // Dos pantallas de imágenes en memoria y tres en el pool, sin pasar de los máximos
+        MemorySizeCalculator calculadora = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(2)
+                .setBitmapPoolScreens(3)
+                .build();
+        cacheMemoria = new CacheMemoriaContada(Math.min(calculadora.getMemoryCacheSize(), MAXIMO_CACHE_MEMORIA_BYTES));
+        poolBitmaps = new LruBitmapPool(Math.min(calculadora.getBitmapPoolSize(), MAXIMO_POOL_BYTES));
+        builder.setMemoryCache(cacheMemoria);
+        builder.setBitmapPool(poolBitmaps);
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, CARPETA_CACHE_DISCO, CACHE_DISCO_BYTES));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+
+    /**
+     * Obtiene lo que ocupan ahora los bitmaps de la caché de memoria.
+     *
+     * @return El tamaño en bytes, o 0 si Glide no se ha inicializado.
+     */
+    public static long getTamanoCacheMemoria() {
+        return cacheMemoria != null ? cacheMemoria.getCurrentSize() : 0;
+    }
+
+    /**
+     * Obtiene el tamaño máximo de la caché de memoria.
+     *
+     * @return El tamaño en bytes, o 0 si Glide no se ha inicializado.
+     */
+    public static long getMaximoCacheMemoria() {
+        return cacheMemoria != null ? cacheMemoria.getMaxSize() : 0;
+    }
+
+    /**
+     * Obtiene cuántas imágenes se han servido desde la caché de memoria.
+     *
+     * @return La cantidad de aciertos de la caché de memoria.
+     */
+    public static long getAciertosCacheMemoria() {
+        return cacheMemoria != null ? cacheMemoria.aciertos.get() : 0;
+    }
+
+    /**
+     * Obtiene cuántas imágenes no estaban en la caché de memoria (se han cogido de las que se están mostrando, de
+     * disco o de la red).
+     *
+     * @return La cantidad de fallos de la caché de memoria.
+     */
+    public static long getFallosCacheMemoria() {
+        return cacheMemoria != null ? cacheMemoria.fallos.get() : 0;
+    }
+
+    /**
+     * Obtiene lo que ocupan ahora los bitmaps del pool.
+     *
+     * @return El tamaño en bytes, o 0 si Glide no se ha inicializado.
+     */
+    public static long getTamanoPool() {
+        return poolBitmaps != null ? poolBitmaps.getCurrentSize() : 0;
+    }
+
+    /**
+     * Obtiene cuántas veces se ha reutilizado un bitmap del pool en lugar de reservar uno nuevo.
+     *
+     * @return La cantidad de aciertos del pool.
+     */
+    public static long getAciertosPool() {
+        return poolBitmaps != null ? poolBitmaps.hitCount() : 0;
+    }
+
+    /**
+     * Obtiene cuántas veces no había en el pool un bitmap reutilizable y se ha tenido que reservar uno nuevo.
+     *
+     * @return La cantidad de fallos del pool.
+     */
+    public static long getFallosPool() {
+        return poolBitmaps != null ? poolBitmaps.missCount() : 0;
+    }
+
+    /**
+     * Obtiene cuántos bitmaps se han sacado del pool por falta de espacio.
+     *
+     * @return La cantidad de expulsiones del pool.
+     */
+    public static long getExpulsionesPool() {
+        return poolBitmaps != null ? poolBitmaps.evictionCount() : 0;
+    }
+
+    /**
+     * Caché de memoria que cuenta sus aciertos y fallos. Glide saca de la caché la imagen que va a mostrar, así que
+     * cada llamada a remove es una búsqueda.
+     */
+    private static class CacheMemoriaContada extends LruResourceCache {
+        private final AtomicLong aciertos = new AtomicLong();
+        private final AtomicLong fallos = new AtomicLong();
+
+        CacheMemoriaContada(long tamano) {
+            super(tamano);
+        }
+
+        @Nullable
+        @Override
+        public synchronized Resource<?> remove(@NonNull Key key) {
+            Resource<?> recurso = super.remove(key);
+            if (recurso != null) {
+                aciertos.incrementAndGet();
+            } else {
+                fallos.incrementAndGet();
+            }
+            return recurso;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Prepara las imágenes antes de subirlas. Las fotos de la cámara suelen tener 12 MP y pesar varios MB, y cada fila
+ * de una lista acababa descargando el original para mostrarlo en unos pocos cientos de píxeles. Aquí la imagen se
+ * decodifica ya reducida (inSampleSize), se gira según su orientación EXIF y se guarda en WebP en varios tamaños
+ * ({@link Variante}), para que cada pantalla descargue el más pequeño que le sirva.
+ * Decodifica y comprime imágenes, así que se debe llamar fuera del hilo principal.
+ */
+public class ProcesadorImagenes {
+    public static final String TIPO_CONTENIDO = "image/webp";
+    public static final String EXTENSION = ".webp";
+    private static final int CALIDAD = 80;
+
+    /**
+     * Los tamaños que se generan, por el lado más largo de la imagen.
+     */
+    public enum Variante {
+        /**
+         * Para avatares en listas y como vista previa mientras carga la imagen grande.
+         */
+        MINIATURA(200),
+        /**
+         * Para las filas del muro y la cabecera del perfil.
+         */
+        FEED(1080),
+        /**
+         * Para ver la imagen a pantalla completa.
+         */
+        COMPLETA(2048);
+
+        public final int ladoMaximo;
+
+        Variante(int ladoMaximo) {
+            this.ladoMaximo = ladoMaximo;
+        }
+    }
+
+    private ProcesadorImagenes() {
+    }
+
+    /**
+     * Genera las variantes de una imagen en ficheros temporales de la caché.
+     *
+     * @param context    El contexto para abrir la URI.
+     * @param uri        La URI local de la imagen elegida por el usuario.
+     * @param variantes  Las variantes que se quieren generar.
+     * @return Los ficheros WebP de cada variante.
+     * @throws IOException Si la imagen no se puede leer o decodificar.
+     */
+    public static Map<Variante, File> preparar(Context context, Uri uri, Variante... variantes) throws IOException {
+        BitmapFactory.Options opciones = new BitmapFactory.Options();
+        opciones.inJustDecodeBounds = true;
+        try (InputStream entrada = abrir(context, uri)) {
+            BitmapFactory.decodeStream(entrada, null, opciones);
+        }
+        if (opciones.outWidth <= 0 || opciones.outHeight <= 0) {
+            throw new IOException("No es una imagen");
+        }
+
+        int ladoMaximo = 0;
+        for (Variante variante : variantes) {
+            ladoMaximo = Math.max(ladoMaximo, variante.ladoMaximo);
+        }
+        // Se decodifica a la potencia de dos más grande que no quede por debajo de la variante más grande
+        int ladoLargo = Math.max(opciones.outWidth, opciones.outHeight);
+        int submuestreo = 1;
+        while (ladoLargo / (submuestreo * 2) >= ladoMaximo) {
+            submuestreo *= 2;
+        }
+        opciones = new BitmapFactory.Options();
+        opciones.inSampleSize = submuestreo;
+        Bitmap imagen;
+        try (InputStream entrada = abrir(context, uri)) {
+            imagen = BitmapFactory.decodeStream(entrada, null, opciones);
+        }
+        if (imagen == null) {
+            throw new IOException("No se ha podido decodificar la imagen");
+        }
+        imagen = aplicarOrientacion(imagen, leerOrientacion(context, uri));
+
+        // De la variante más grande a la más pequeña, reduciendo cada una a partir de la anterior
+        Map<Variante, File> ficheros = new EnumMap<>(Variante.class);
+        Variante[] ordenadas = Variante.values();
+        try {
+            for (int i = ordenadas.length - 1; i >= 0; i--) {
+                Variante variante = ordenadas[i];
+                if (!contiene(variantes, variante)) {
+                    continue;
+                }
+                Bitmap reducida = reducir(imagen, variante.ladoMaximo);
+                if (reducida != imagen) {
+                    imagen.recycle();
+                    imagen = reducida;
+                }
+                File fichero = File.createTempFile("imagen", EXTENSION, context.getCacheDir());
+                ficheros.put(variante, fichero);
+                try (OutputStream salida = new FileOutputStream(fichero)) {
+                    if (!imagen.compress(formatoWebp(), CALIDAD, salida)) {
+                        throw new IOException("No se ha podido comprimir la imagen");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            for (File fichero : ficheros.values()) {
+                fichero.delete();
+            }
+            throw e;
+        } finally {
+            imagen.recycle();
+        }
+        return ficheros;
+    }
+
+    private static InputStream abrir(Context context, Uri uri) throws IOException {
+        InputStream entrada = context.getContentResolver().openInputStream(uri);
+        if (entrada == null) {
+            throw new IOException("No se puede abrir " + uri);
+        }
+        return entrada;
+    }
+
+    private static boolean contiene(Variante[] variantes, Variante buscada) {
+        for (Variante variante : variantes) {
+            if (variante == buscada) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Bitmap reducir(Bitmap imagen, int ladoMaximo) {
+        int ladoLargo = Math.max(imagen.getWidth(), imagen.getHeight());
+        if (ladoLargo <= ladoMaximo) {
+            return imagen;
+        }
+        float escala = (float) ladoMaximo / ladoLargo;
+        return Bitmap.createScaledBitmap(imagen, Math.max(1, Math.round(imagen.getWidth() * escala)),
+                Math.max(1, Math.round(imagen.getHeight() * escala)), true);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat formatoWebp() {
+        // Antes de Android 11 WEBP ya es con pérdida cuando la calidad es menor que 100
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static int leerOrientacion(Context context, Uri uri) {
+        try (InputStream entrada = abrir(context, uri)) {
+            return new ExifInterface(entrada).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            // Sin EXIF (por ejemplo un PNG): se deja como está
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Gira o voltea la imagen según su orientación EXIF, que se pierde al volver a comprimirla.
+     */
+    private static Bitmap aplicarOrientacion(Bitmap imagen, int orientacion) {
+        Matrix matriz = new Matrix();
+        switch (orientacion) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matriz.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matriz.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matriz.postRotate(270);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matriz.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matriz.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matriz.postRotate(90);
+                matriz.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matriz.postRotate(270);
+                matriz.postScale(-1, 1);
+                break;
+            default:
+                return imagen;
+        }
+        Bitmap girada = Bitmap.createBitmap(imagen, 0, 0, imagen.getWidth(), imagen.getHeight(), matriz, true);
+        if (girada != imagen) {
+            imagen.recycle();
+        }
+        return girada;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.tarea1firebase.gestor;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registro de los listeners de Realtime Database y Firestore de una pantalla, ligado a su ciclo de vida.
+ * Cada suscripción se identifica con una clave: si se pide otra vez la misma clave no se añade un segundo listener.
+ * Cuando el ciclo de vida llega a ON_DESTROY (onDestroy en una actividad, onDestroyView si se usa el ciclo de vida de
+ * la vista de un fragment) se quitan todos los listeners, para que no sigan descargando datos ni pintando en vistas muertas.
+ */
+public class RegistroSuscripciones implements LifecycleEventObserver {
+    /**
+     * Cantidad de listeners activos entre todos los registros, para diagnóstico.
+     */
+    private static final AtomicInteger suscripcionesActivas = new AtomicInteger();
+
+    private final Map<String, Runnable> suscripciones = new LinkedHashMap<>();
+
+    private RegistroSuscripciones() {
+    }
+
+    /**
+     * Crea un registro que quita todos sus listeners cuando se destruye el propietario del ciclo de vida.
+     *
+     * @param propietario La actividad, o el ciclo de vida de la vista del fragment (getViewLifecycleOwner()).
+     * @return El registro creado.
+     */
+    public static RegistroSuscripciones crear(LifecycleOwner propietario) {
+        RegistroSuscripciones registro = new RegistroSuscripciones();
+        propietario.getLifecycle().addObserver(registro);
+        return registro;
+    }
+
+    /**
+     * Obtiene la cantidad de listeners activos entre todos los registros de la aplicación.
+     *
+     * @return La cantidad de listeners activos.
+     */
+    public static int getSuscripcionesActivas() {
+        return suscripcionesActivas.get();
+    }
+
+    /**
+     * Añade un ValueEventListener de Realtime Database si no existe ya una suscripción con la misma clave.
+     *
+     * @param clave    Clave que identifica la suscripción.
+     * @param consulta Consulta o referencia a escuchar.
+     * @param listener El listener.
+     * @return true si se ha añadido, false si ya existía.
+     */
+    public boolean escuchar(String clave, Query consulta, ValueEventListener listener) {
+        if (suscripciones.containsKey(clave)) {
+            return false;
+        }
+        consulta.addValueEventListener(listener);
+        registrar(clave, () -> consulta.removeEventListener(listener));
+        return true;
+    }
+
+    /**
+     * Añade un ChildEventListener de Realtime Database si no existe ya una suscripción con la misma clave.
+     *
+     * @param clave    Clave que identifica la suscripción.
+     * @param consulta Consulta o referencia a escuchar.
+     * @param listener El listener.
+     * @return true si se ha añadido, false si ya existía.
+     */
+    public boolean escuchar(String clave, Query consulta, ChildEventListener listener) {
+        if (suscripciones.containsKey(clave)) {
+            return false;
+        }
+        consulta.addChildEventListener(listener);
+        registrar(clave, () -> consulta.removeEventListener(listener));
+        return true;
+    }
+
+    /**
+     * Añade un listener a un documento de Firestore si no existe ya una suscripción con la misma clave.
+     *
+     * @param clave     Clave que identifica la suscripción.
+     * @param documento Documento a escuchar.
+     * @param listener  El listener.
+     * @return true si se ha añadido, false si ya existía.
+     */
+    public boolean escuchar(String clave, DocumentReference documento, EventListener<DocumentSnapshot> listener) {
+        if (suscripciones.containsKey(clave)) {
+            return false;
+        }
+        ListenerRegistration registro = documento.addSnapshotListener(listener);
+        registrar(clave, registro::remove);
+        return true;
+    }
+
+    /**
+     * Añade un listener a una consulta de Firestore si no existe ya una suscripción con la misma clave.
+     *
+     * @param clave    Clave que identifica la suscripción.
+     * @param consulta Consulta a escuchar.
+     * @param listener El listener.
+     * @return true si se ha añadido, false si ya existía.
+     */
+    public boolean escuchar(String clave, com.google.firebase.firestore.Query consulta, EventListener<QuerySnapshot> listener) {
+        if (suscripciones.containsKey(clave)) {
+            return false;
+        }
+        ListenerRegistration registro = consulta.addSnapshotListener(listener);
+        registrar(clave, registro::remove);
+        return true;
+    }
+
+    /**
+     * Quita el listener de una suscripción, si existe.
+     *
+     * @param clave Clave que identifica la suscripción.
+     */
+    public void cancelar(String clave) {
+        Runnable cancelacion = suscripciones.remove(clave);
+        if (cancelacion != null) {
+            cancelacion.run();
+            suscripcionesActivas.decrementAndGet();
+        }
+    }
+
+    /**
+     * Quita todos los listeners del registro.
+     */
+    public void cancelarTodas() {
+        for (String clave : new ArrayList<>(suscripciones.keySet())) {
+            cancelar(clave);
+        }
+    }
+
+    /**
+     * Indica si existe una suscripción con la clave indicada.
+     *
+     * @param clave Clave que identifica la suscripción.
+     * @return true si existe.
+     */
+    public boolean contiene(String clave) {
+        return suscripciones.containsKey(clave);
+    }
+
+    /**
+     * Obtiene la cantidad de listeners activos en este registro.
+     *
+     * @return La cantidad de listeners activos.
+     */
+    public int getCantidad() {
+        return suscripciones.size();
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_DESTROY) {
+            cancelarTodas();
+            source.getLifecycle().removeObserver(this);
+        }
+    }
+
+    private void registrar(String clave, Runnable cancelacion) {
+        suscripciones.put(clave, cancelacion);
+        suscripcionesActivas.incrementAndGet();
+    }
+}
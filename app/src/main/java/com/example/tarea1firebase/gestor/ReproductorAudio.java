@@ -0,0 +1,329 @@
+package com.example.tarea1firebase.gestor;
+
+import android.media.AudioAttributes;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reproductor de audio único para toda la aplicación. En lugar de que cada fila de una lista de canciones tenga su
+ * propio MediaPlayer preparado, hay un solo MediaPlayer que se prepara de forma asíncrona (prepareAsync) cuando el
+ * usuario pulsa play, y que pasa de una canción a otra al pulsar play en otra fila. Las filas se registran como
+ * oyentes para pintar su estado y su progreso. La duración de las canciones que no se están reproduciendo se lee de
+ * los metadatos en un hilo aparte y se guarda en memoria. El audio se lee a través de la CacheAudio.
+ * Todos los métodos públicos se deben llamar desde el hilo principal.
+ */
+public class ReproductorAudio {
+    private static final long INTERVALO_PROGRESO_MS = 200;
+
+    private static ReproductorAudio instancia;
+
+    private MediaPlayer mediaPlayer;
+    private String urlActual;
+    private Estado estado = Estado.PARADO;
+    private final List<Oyente> oyentes = new ArrayList<>();
+    private final Map<String, Integer> duraciones = new HashMap<>();
+    private final ExecutorService executorMetadatos = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Avisa a los oyentes de la posición de la canción mientras se está reproduciendo.
+     */
+    private final Runnable avisoProgreso = new Runnable() {
+        @Override
+        public void run() {
+            if (estado == Estado.REPRODUCIENDO) {
+                avisarProgreso();
+                handler.postDelayed(this, INTERVALO_PROGRESO_MS);
+            }
+        }
+    };
+
+    /**
+     * Los estados en los que puede estar una canción para el reproductor.
+     */
+    public enum Estado {
+        PARADO, PREPARANDO, REPRODUCIENDO, PAUSADO
+    }
+
+    /**
+     * Interfaz para las vistas que muestran el estado de una canción.
+     */
+    public interface Oyente {
+        /**
+         * Se llama cuando cambia la canción actual o su estado.
+         *
+         * @param url    La URL de la canción cuyo estado ha cambiado.
+         * @param estado El nuevo estado de la canción.
+         */
+        void onCambioEstado(String url, Estado estado);
+
+        /**
+         * Se llama periódicamente mientras se reproduce una canción.
+         *
+         * @param url      La URL de la canción que se está reproduciendo.
+         * @param posicion La posición actual en milisegundos.
+         * @param duracion La duración de la canción en milisegundos.
+         */
+        void onProgreso(String url, int posicion, int duracion);
+    }
+
+    private ReproductorAudio() {
+    }
+
+    /**
+     * Devuelve la instancia única del reproductor.
+     *
+     * @return El reproductor de audio.
+     */
+    public static synchronized ReproductorAudio getInstance() {
+        if (instancia == null) {
+            instancia = new ReproductorAudio();
+        }
+        return instancia;
+    }
+
+    /**
+     * Alterna entre reproducir y pausar una canción. Si es otra canción distinta de la actual, la actual se para y se
+     * empieza a preparar la nueva.
+     *
+     * @param url La URL de la canción.
+     */
+    public void alternar(String url) {
+        if (!url.equals(urlActual) || estado == Estado.PARADO) {
+            reproducir(url);
+        } else if (estado == Estado.REPRODUCIENDO) {
+            pausar();
+        } else if (estado == Estado.PAUSADO) {
+            mediaPlayer.start();
+            cambiarEstado(Estado.REPRODUCIENDO);
+        } else {
+            // Se pulsa otra vez mientras se prepara: se cancela
+            detener();
+        }
+    }
+
+    /**
+     * Empieza a reproducir una canción desde el principio. La preparación es asíncrona y la canción empieza a sonar
+     * cuando está lista.
+     *
+     * @param url La URL de la canción.
+     */
+    public void reproducir(String url) {
+        detener();
+        if (mediaPlayer == null) {
+            mediaPlayer = new MediaPlayer();
+            mediaPlayer.setAudioAttributes(new AudioAttributes.Builder()
+                    .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                    .setUsage(AudioAttributes.USAGE_MEDIA)
+                    .build());
+        }
+        urlActual = url;
+        cambiarEstado(Estado.PREPARANDO);
+        try {
+            /*
+             * La canción se lee de la caché de audios: del fichero si ya está descargada, o del fichero parcial
+             * mientras se descarga. Sin MediaDataSource (Android 5) se reproduce desde la URL y se descarga aparte.
+             */
+            CacheAudio cacheAudio = CacheAudio.getInstance();
+            File fichero = cacheAudio.obtenerFichero(url);
+            if (fichero != null) {
+                mediaPlayer.setDataSource(fichero.getPath());
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mediaPlayer.setDataSource(cacheAudio.abrirEnStreaming(url));
+            } else {
+                cacheAudio.descargar(url);
+                mediaPlayer.setDataSource(url);
+            }
+        } catch (Exception e) {
+            detener();
+            return;
+        }
+        mediaPlayer.setOnPreparedListener(mp -> {
+            duraciones.put(url, mp.getDuration());
+            mp.start();
+            cambiarEstado(Estado.REPRODUCIENDO);
+        });
+        mediaPlayer.setOnCompletionListener(mp -> {
+            // Se deja preparada al principio para que al volver a pulsar play no haya que prepararla otra vez
+            mp.seekTo(0);
+            cambiarEstado(Estado.PAUSADO);
+            avisarProgreso();
+        });
+        mediaPlayer.setOnErrorListener((mp, what, extra) -> {
+            detener();
+            return true;
+        });
+        mediaPlayer.prepareAsync();
+    }
+
+    /**
+     * Pausa la canción actual si se está reproduciendo.
+     */
+    public void pausar() {
+        if (estado == Estado.REPRODUCIENDO) {
+            mediaPlayer.pause();
+            cambiarEstado(Estado.PAUSADO);
+        }
+    }
+
+    /**
+     * Para la canción actual (también si se está preparando) y deja el reproductor libre para otra canción.
+     */
+    public void detener() {
+        if (mediaPlayer != null) {
+            mediaPlayer.reset();
+        }
+        if (urlActual != null) {
+            String url = urlActual;
+            urlActual = null;
+            estado = Estado.PARADO;
+            handler.removeCallbacks(avisoProgreso);
+            for (Oyente oyente : new ArrayList<>(oyentes)) {
+                oyente.onCambioEstado(url, Estado.PARADO);
+            }
+        }
+    }
+
+    /**
+     * Para la canción actual y libera los recursos del decodificador. El reproductor se vuelve a crear al reproducir otra canción.
+     */
+    public void liberar() {
+        detener();
+        if (mediaPlayer != null) {
+            mediaPlayer.release();
+            mediaPlayer = null;
+        }
+    }
+
+    /**
+     * Mueve la canción actual a una posición. Si la URL no es la de la canción actual no hace nada.
+     *
+     * @param url      La URL de la canción.
+     * @param posicion La posición en milisegundos.
+     */
+    public void buscar(String url, int posicion) {
+        if (url.equals(urlActual) && (estado == Estado.REPRODUCIENDO || estado == Estado.PAUSADO)) {
+            mediaPlayer.seekTo(posicion);
+        }
+    }
+
+    /**
+     * Obtiene el estado de una canción.
+     *
+     * @param url La URL de la canción.
+     * @return El estado de la canción, o PARADO si no es la canción actual.
+     */
+    public Estado getEstado(String url) {
+        return url.equals(urlActual) ? estado : Estado.PARADO;
+    }
+
+    /**
+     * Obtiene la posición de una canción.
+     *
+     * @param url La URL de la canción.
+     * @return La posición en milisegundos, o 0 si no es la canción actual o todavía no está preparada.
+     */
+    public int getPosicion(String url) {
+        if (url.equals(urlActual) && (estado == Estado.REPRODUCIENDO || estado == Estado.PAUSADO)) {
+            return mediaPlayer.getCurrentPosition();
+        }
+        return 0;
+    }
+
+    /**
+     * Obtiene la duración de una canción sin prepararla en el reproductor: si no se conoce, se lee de los metadatos
+     * del fichero en un hilo aparte.
+     *
+     * @param url      La URL de la canción.
+     * @param callback Un objeto Callback que recibe la duración en milisegundos (en el hilo principal). No se llama si
+     *                 no se puede leer.
+     */
+    public void obtenerDuracion(String url, GestorFirestore.Callback<Integer> callback) {
+        Integer duracion = duraciones.get(url);
+        if (duracion != null) {
+            callback.onSuccess(duracion);
+            return;
+        }
+        executorMetadatos.execute(() -> {
+            Integer duracionLeida = leerDuracion(url);
+            if (duracionLeida != null) {
+                handler.post(() -> {
+                    duraciones.put(url, duracionLeida);
+                    callback.onSuccess(duracionLeida);
+                });
+            }
+        });
+    }
+
+    /**
+     * Registra un oyente de los cambios de estado y del progreso.
+     *
+     * @param oyente El oyente.
+     */
+    public void anadirOyente(Oyente oyente) {
+        if (!oyentes.contains(oyente)) {
+            oyentes.add(oyente);
+        }
+    }
+
+    /**
+     * Quita un oyente.
+     *
+     * @param oyente El oyente.
+     */
+    public void quitarOyente(Oyente oyente) {
+        oyentes.remove(oyente);
+    }
+
+    private void cambiarEstado(Estado nuevoEstado) {
+        estado = nuevoEstado;
+        for (Oyente oyente : new ArrayList<>(oyentes)) {
+            oyente.onCambioEstado(urlActual, nuevoEstado);
+        }
+        handler.removeCallbacks(avisoProgreso);
+        if (nuevoEstado == Estado.REPRODUCIENDO) {
+            handler.post(avisoProgreso);
+        }
+    }
+
+    private void avisarProgreso() {
+        int posicion = mediaPlayer.getCurrentPosition();
+        int duracion = mediaPlayer.getDuration();
+        for (Oyente oyente : new ArrayList<>(oyentes)) {
+            oyente.onProgreso(urlActual, posicion, duracion);
+        }
+    }
+
+    private static Integer leerDuracion(String url) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            File fichero = CacheAudio.getInstance().buscarFichero(url);
+            if (fichero != null) {
+                retriever.setDataSource(fichero.getPath());
+            } else {
+                retriever.setDataSource(url, new HashMap<>());
+            }
+            String duracion = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duracion != null ? Integer.valueOf(duracion) : null;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                // No se puede hacer nada más
+            }
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.example.tarea1firebase.gestor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.tarea1firebase.entidades.Mensaje;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Mantiene sincronizada la lista de mensajes de un chat por ventanas.
+ * Al iniciar se pinta la última página guardada en el almacén local y después se piden al servidor, por páginas, solo
+ * los mensajes posteriores a la última clave confirmada por el servidor. Las páginas anteriores (o posteriores, si se han descartado) se leen del
+ * almacén local o, si no están, se piden con cursores por clave a medida que el usuario hace scroll. La cantidad de
+ * mensajes en memoria está limitada, descartando las páginas del extremo opuesto al que se está cargando.
+ * Los mensajes nuevos llegan por eventos hijo (añadido, cambiado y eliminado), sin volver a descargar el chat entero.
+ * Los cambios se aplican sobre la misma lista que usa el adaptador y se le notifican únicamente las posiciones afectadas.
+ * Los mensajes enviados se guardan como pendientes hasta que el servidor los confirma, y se reintentan al reconectar
+ * los que el SDK ya no tiene en su cola (por ejemplo porque la aplicación se cerró antes de poder subirlos).
+ */
+public class SincronizadorMensajes {
+    /**
+     * Cantidad de mensajes que se piden en cada página.
+     */
+    public static final int TAMANO_PAGINA = 30;
+    /**
+     * Cantidad máxima de mensajes que se mantienen en memoria a la vez.
+     */
+    public static final int MAXIMO_MENSAJES_EN_MEMORIA = 150;
+    /**
+     * Claves de los mensajes subidos en este proceso que el servidor todavía no ha confirmado. Mientras el proceso
+     * sigue vivo el SDK los tiene en su cola y los sube él solo al reconectar; volver a subirlos sumaría otra vez el
+     * mensaje sin leer en la bandeja del receptor. Es compartido por todos los chats y pantallas.
+     */
+    private static final Set<String> SUBIDAS_EN_CURSO = Collections.synchronizedSet(new HashSet<>());
+
+    private final String idChat;
+    private final String receptorUid;
+    private final DatabaseReference mensajesRef;
+    private final AlmacenMensajesLocal almacen;
+    private final List<Mensaje> listaMensajes;
+    private final List<String> clavesMensajes;
+    private final RecyclerView.Adapter<?> adaptador;
+    private final GestorFirestore.Callback<Integer> callbackNuevosMensajes;
+    private final RegistroSuscripciones registro;
+    private boolean hayMensajesAnteriores, hayMensajesPosteriores, cargandoPagina, poniendoseAlDia, detenido;
+
+    /**
+     * Constructor de la clase SincronizadorMensajes.
+     *
+     * @param idChat                 Id del chat.
+     * @param receptorUid            Id del otro usuario del chat, que recibe los mensajes enviados.
+     * @param mensajesRef            Referencia al nodo "listaMensajes" del chat.
+     * @param almacen                Almacén local de mensajes.
+     * @param registro               Registro ligado al ciclo de vida de la pantalla, que quita los listeners al destruirla.
+     * @param listaMensajes          Lista de mensajes que comparte con el adaptador.
+     * @param adaptador              Adaptador al que se notifican los cambios.
+     * @param callbackNuevosMensajes Callback que recibe la cantidad de mensajes insertados al final, por ejemplo para hacer scroll.
+     */
+    public SincronizadorMensajes(String idChat, String receptorUid, DatabaseReference mensajesRef, AlmacenMensajesLocal almacen, RegistroSuscripciones registro, List<Mensaje> listaMensajes, RecyclerView.Adapter<?> adaptador, GestorFirestore.Callback<Integer> callbackNuevosMensajes) {
+        this.idChat = idChat;
+        this.receptorUid = receptorUid;
+        this.mensajesRef = mensajesRef;
+        this.almacen = almacen;
+        this.registro = registro;
+        this.listaMensajes = listaMensajes;
+        this.adaptador = adaptador;
+        this.callbackNuevosMensajes = callbackNuevosMensajes;
+        this.clavesMensajes = new ArrayList<>();
+    }
+
+    /**
+     * Pinta la última página guardada en local, o la pide al servidor si no hay ninguna, y después empieza a escuchar
+     * los mensajes nuevos. También reintenta los mensajes pendientes cada vez que se recupera la conexión.
+     * Si ya estaba iniciado no hace nada.
+     */
+    public void iniciar() {
+        if (registro.contiene(claveMensajes()) || cargandoPagina || poniendoseAlDia) {
+            return;
+        }
+        detenido = false;
+        cargandoPagina = true;
+        almacen.obtenerUltimaPagina(idChat, TAMANO_PAGINA, new GestorFirestore.Callback<AlmacenMensajesLocal.Pagina>() {
+            @Override
+            public void onSuccess(AlmacenMensajesLocal.Pagina pagina) {
+                if (pagina.claves.isEmpty()) {
+                    cargarUltimaPaginaRemota();
+                    return;
+                }
+                // Puede haber mensajes más antiguos en el servidor aunque no estén en local
+                hayMensajesAnteriores = true;
+                almacen.obtenerUltimaClaveConfirmada(idChat, new GestorFirestore.Callback<String>() {
+                    @Override
+                    public void onSuccess(String ultimaClaveConfirmada) {
+                        cargandoPagina = false;
+                        mostrarPaginaInicial(pagina, ultimaClaveConfirmada);
+                    }
+                });
+            }
+        });
+        escucharConexion();
+    }
+
+    /**
+     * Deja de escuchar los mensajes nuevos del chat y el estado de la conexión.
+     */
+    public void detener() {
+        detenido = true;
+        registro.cancelar(claveMensajes());
+        registro.cancelar(claveConexion());
+    }
+
+    /**
+     * Envía un mensaje. Solo se sube el mensaje nuevo bajo una clave generada con push, junto con la fecha del último
+     * mensaje, en una única actualización atómica. El mensaje se guarda como pendiente hasta que el servidor lo confirma
+     * y se pinta en ese momento, sin esperar a que vuelva por el listener de mensajes nuevos (que sin conexión, o mientras
+     * se pone al día, todavía no está escuchando). Cuando vuelva, su clave ya está en la ventana y no se repite.
+     *
+     * @param mensaje   El mensaje a enviar.
+     * @param datosChat Datos del chat que hay que escribir en la misma actualización (por ejemplo si el chat es nuevo), o null.
+     */
+    public void enviarMensaje(Mensaje mensaje, Map<String, Object> datosChat) {
+        String clave = mensajesRef.push().getKey();
+        almacen.guardarMensajePendiente(idChat, clave, mensaje);
+        if (insertarMensaje(clave, mensaje)) {
+            callbackNuevosMensajes.onSuccess(1);
+        }
+        subirMensaje(clave, mensaje, datosChat);
+    }
+
+    /**
+     * Carga la página de mensajes anterior al primer mensaje en memoria, si la hay. Se lee del almacén local si tiene
+     * una página completa, y si no se pide al servidor.
+     * Si se supera el máximo de mensajes en memoria se descartan los más recientes.
+     */
+    public void cargarMensajesAnteriores() {
+        if (cargandoPagina || !hayMensajesAnteriores || clavesMensajes.isEmpty()) {
+            return;
+        }
+        cargandoPagina = true;
+        String primeraClave = clavesMensajes.get(0);
+        almacen.obtenerPaginaAnterior(idChat, primeraClave, TAMANO_PAGINA, new GestorFirestore.Callback<AlmacenMensajesLocal.Pagina>() {
+            @Override
+            public void onSuccess(AlmacenMensajesLocal.Pagina pagina) {
+                if (pagina.claves.size() >= TAMANO_PAGINA) {
+                    cargandoPagina = false;
+                    anadirPaginaAlPrincipio(pagina, true);
+                    return;
+                }
+                mensajesRef.orderByKey().endBefore(primeraClave).limitToLast(TAMANO_PAGINA).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        cargandoPagina = false;
+                        AlmacenMensajesLocal.Pagina paginaRemota = leerPagina(snapshot);
+                        almacen.guardarMensajes(idChat, paginaRemota.claves, paginaRemota.mensajes);
+                        anadirPaginaAlPrincipio(paginaRemota, snapshot.getChildrenCount() >= TAMANO_PAGINA);
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        cargandoPagina = false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Carga la página de mensajes posterior al último mensaje en memoria, si se descartó al cargar mensajes anteriores.
+     * Se lee del almacén local si tiene una página completa. Si no, se pide al servidor, porque el almacén solo guarda
+     * los últimos mensajes de cada chat y las páginas antiguas que se han pedido al servidor pueden no llegar hasta
+     * los que tiene guardados; la página del servidor se mezcla con la local para no perder los mensajes pendientes.
+     * Si se supera el máximo de mensajes en memoria se descartan los más antiguos.
+     */
+    public void cargarMensajesPosteriores() {
+        if (cargandoPagina || !hayMensajesPosteriores || clavesMensajes.isEmpty()) {
+            return;
+        }
+        cargandoPagina = true;
+        String ultimaClave = clavesMensajes.get(clavesMensajes.size() - 1);
+        almacen.obtenerPaginaPosterior(idChat, ultimaClave, TAMANO_PAGINA, new GestorFirestore.Callback<AlmacenMensajesLocal.Pagina>() {
+            @Override
+            public void onSuccess(AlmacenMensajesLocal.Pagina pagina) {
+                if (pagina.claves.size() >= TAMANO_PAGINA) {
+                    cargandoPagina = false;
+                    anadirPaginaAlFinal(pagina, true);
+                    return;
+                }
+                mensajesRef.orderByKey().startAfter(ultimaClave).limitToFirst(TAMANO_PAGINA).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        cargandoPagina = false;
+                        AlmacenMensajesLocal.Pagina paginaRemota = leerPagina(snapshot);
+                        almacen.guardarMensajes(idChat, paginaRemota.claves, paginaRemota.mensajes);
+                        boolean hayMas = snapshot.getChildrenCount() >= TAMANO_PAGINA;
+                        anadirPaginaAlFinal(mezclarPaginas(paginaRemota, pagina, hayMas), hayMas);
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        // Se muestra lo que hay en local y se vuelve a pedir al seguir bajando
+                        cargandoPagina = false;
+                        anadirPaginaAlFinal(pagina, true);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Indica si la ventana llega hasta el último mensaje del chat.
+     *
+     * @return true si no hay mensajes posteriores descartados de memoria.
+     */
+    public boolean estaAlFinal() {
+        return !hayMensajesPosteriores;
+    }
+
+    /**
+     * Pide al servidor la última página del chat, cuando no hay nada guardado en local.
+     */
+    private void cargarUltimaPaginaRemota() {
+        mensajesRef.orderByKey().limitToLast(TAMANO_PAGINA).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                cargandoPagina = false;
+                AlmacenMensajesLocal.Pagina pagina = leerPagina(snapshot);
+                almacen.guardarMensajes(idChat, pagina.claves, pagina.mensajes);
+                hayMensajesAnteriores = snapshot.getChildrenCount() >= TAMANO_PAGINA;
+                mostrarPaginaInicial(pagina, pagina.claves.isEmpty() ? null : pagina.claves.get(pagina.claves.size() - 1));
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                cargandoPagina = false;
+            }
+        });
+    }
+
+    /**
+     * Pinta la primera página y pide los mensajes posteriores a la última clave confirmada por el servidor.
+     *
+     * @param pagina                La primera página.
+     * @param ultimaClaveConfirmada La clave del último mensaje que se sabe que está en el servidor, o null si no hay ninguno.
+     */
+    private void mostrarPaginaInicial(AlmacenMensajesLocal.Pagina pagina, String ultimaClaveConfirmada) {
+        if (detenido) {
+            return;
+        }
+        if (clavesMensajes.isEmpty()) {
+            clavesMensajes.addAll(pagina.claves);
+            listaMensajes.addAll(pagina.mensajes);
+            if (!pagina.mensajes.isEmpty()) {
+                adaptador.notifyItemRangeInserted(0, pagina.mensajes.size());
+                callbackNuevosMensajes.onSuccess(pagina.mensajes.size());
+            }
+        } else {
+            // Se ha enviado algún mensaje antes de que llegara la página: se mezclan por clave
+            int insertados = 0;
+            for (int i = 0; i < pagina.claves.size(); i++) {
+                if (insertarMensaje(pagina.claves.get(i), pagina.mensajes.get(i))) {
+                    insertados++;
+                }
+            }
+            if (insertados > 0) {
+                callbackNuevosMensajes.onSuccess(insertados);
+            }
+        }
+        poniendoseAlDia = true;
+        ponerseAlDia(ultimaClaveConfirmada);
+    }
+
+    /**
+     * Pide al servidor los mensajes posteriores a una clave en páginas de {@value #TAMANO_PAGINA}, igual que las páginas
+     * anteriores, y los guarda en el almacén local. Cuando llega una página incompleta ya no quedan mensajes atrasados
+     * y se empieza a escuchar los nuevos a partir del último recibido.
+     *
+     * @param ultimaClave La clave del último mensaje confirmado, o null si el chat está vacío.
+     */
+    private void ponerseAlDia(String ultimaClave) {
+        if (detenido) {
+            poniendoseAlDia = false;
+            return;
+        }
+        Query consulta = ultimaClave == null ? mensajesRef.orderByKey() : mensajesRef.orderByKey().startAfter(ultimaClave);
+        consulta.limitToFirst(TAMANO_PAGINA).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (detenido) {
+                    poniendoseAlDia = false;
+                    return;
+                }
+                AlmacenMensajesLocal.Pagina pagina = leerPagina(snapshot);
+                almacen.guardarMensajes(idChat, pagina.claves, pagina.mensajes);
+                int insertados = 0;
+                for (int i = 0; i < pagina.claves.size(); i++) {
+                    if (insertarMensaje(pagina.claves.get(i), pagina.mensajes.get(i))) {
+                        insertados++;
+                    }
+                }
+                if (insertados > 0) {
+                    callbackNuevosMensajes.onSuccess(insertados);
+                }
+                String claveFinal = pagina.claves.isEmpty() ? ultimaClave : pagina.claves.get(pagina.claves.size() - 1);
+                if (snapshot.getChildrenCount() >= TAMANO_PAGINA) {
+                    ponerseAlDia(claveFinal);
+                } else {
+                    poniendoseAlDia = false;
+                    escucharNuevosMensajes(claveFinal);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                // Se escuchan igualmente los mensajes nuevos, desde donde se ha llegado
+                poniendoseAlDia = false;
+                if (!detenido) {
+                    escucharNuevosMensajes(ultimaClave);
+                }
+            }
+        });
+    }
+
+    /**
+     * Añade una página de mensajes antes del primer mensaje en memoria y descarta los más recientes que se salen de la ventana.
+     */
+    private void anadirPaginaAlPrincipio(AlmacenMensajesLocal.Pagina pagina, boolean hayMas) {
+        hayMensajesAnteriores = hayMas;
+        clavesMensajes.addAll(0, pagina.claves);
+        listaMensajes.addAll(0, pagina.mensajes);
+        adaptador.notifyItemRangeInserted(0, pagina.mensajes.size());
+
+        int sobrantes = listaMensajes.size() - MAXIMO_MENSAJES_EN_MEMORIA;
+        if (sobrantes > 0) {
+            int inicio = listaMensajes.size() - sobrantes;
+            clavesMensajes.subList(inicio, clavesMensajes.size()).clear();
+            listaMensajes.subList(inicio, listaMensajes.size()).clear();
+            adaptador.notifyItemRangeRemoved(inicio, sobrantes);
+            hayMensajesPosteriores = true;
+        }
+    }
+
+    /**
+     * Añade una página de mensajes después del último mensaje en memoria y descarta los más antiguos que se salen de la ventana.
+     */
+    private void anadirPaginaAlFinal(AlmacenMensajesLocal.Pagina pagina, boolean hayMas) {
+        hayMensajesPosteriores = hayMas;
+        int inicio = listaMensajes.size();
+        clavesMensajes.addAll(pagina.claves);
+        listaMensajes.addAll(pagina.mensajes);
+        adaptador.notifyItemRangeInserted(inicio, pagina.mensajes.size());
+        descartarMensajesAntiguos();
+    }
+
+    /**
+     * Mezcla por clave una página del servidor con la página local del mismo tramo, que puede tener mensajes
+     * pendientes que el servidor todavía no tiene. Si coinciden, gana el mensaje del servidor. Si la página del servidor
+     * está completa, los mensajes locales posteriores a su último mensaje se dejan para la página siguiente.
+     *
+     * @param remota         La página del servidor.
+     * @param local          La página del almacén local.
+     * @param remotaCompleta Si la página del servidor está completa.
+     * @return La página mezclada, en orden.
+     */
+    private AlmacenMensajesLocal.Pagina mezclarPaginas(AlmacenMensajesLocal.Pagina remota, AlmacenMensajesLocal.Pagina local, boolean remotaCompleta) {
+        TreeMap<String, Integer> posicionesPorOrden = new TreeMap<>();
+        List<String> claves = new ArrayList<>(remota.claves);
+        List<Mensaje> mensajes = new ArrayList<>(remota.mensajes);
+        for (int i = 0; i < claves.size(); i++) {
+            posicionesPorOrden.put(AlmacenMensajesLocal.calcularOrden(claves.get(i)), i);
+        }
+        String limite = remotaCompleta && !claves.isEmpty() ? AlmacenMensajesLocal.calcularOrden(claves.get(claves.size() - 1)) : null;
+        for (int i = 0; i < local.claves.size(); i++) {
+            String orden = AlmacenMensajesLocal.calcularOrden(local.claves.get(i));
+            if (!posicionesPorOrden.containsKey(orden) && (limite == null || orden.compareTo(limite) < 0)) {
+                posicionesPorOrden.put(orden, claves.size());
+                claves.add(local.claves.get(i));
+                mensajes.add(local.mensajes.get(i));
+            }
+        }
+        AlmacenMensajesLocal.Pagina pagina = new AlmacenMensajesLocal.Pagina();
+        for (int posicion : posicionesPorOrden.values()) {
+            pagina.claves.add(claves.get(posicion));
+            pagina.mensajes.add(mensajes.get(posicion));
+        }
+        return pagina;
+    }
+
+    /**
+     * Escucha los eventos hijo de los mensajes posteriores a la última clave recibida del servidor y los guarda en el
+     * almacén local. Se llama cuando ya no quedan mensajes atrasados, así que la consulta solo trae los que lleguen
+     * a partir de ahora.
+     *
+     * @param ultimaClave La clave del último mensaje recibido del servidor, o null si el chat está vacío.
+     */
+    private void escucharNuevosMensajes(String ultimaClave) {
+        Query consultaNuevosMensajes = ultimaClave == null ? mensajesRef.orderByKey() : mensajesRef.orderByKey().startAfter(ultimaClave);
+        registro.escuchar(claveMensajes(), consultaNuevosMensajes, new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                Mensaje mensaje = snapshot.getValue(Mensaje.class);
+                if (mensaje == null) {
+                    return;
+                }
+                almacen.guardarMensaje(idChat, snapshot.getKey(), mensaje);
+                if (insertarMensaje(snapshot.getKey(), mensaje)) {
+                    callbackNuevosMensajes.onSuccess(1);
+                }
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                Mensaje mensaje = snapshot.getValue(Mensaje.class);
+                if (mensaje == null) {
+                    return;
+                }
+                almacen.guardarMensaje(idChat, snapshot.getKey(), mensaje);
+                int posicion = clavesMensajes.indexOf(snapshot.getKey());
+                if (posicion >= 0) {
+                    listaMensajes.set(posicion, mensaje);
+                    adaptador.notifyItemChanged(posicion);
+                }
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                almacen.borrarMensaje(idChat, snapshot.getKey());
+                int posicion = clavesMensajes.indexOf(snapshot.getKey());
+                if (posicion >= 0) {
+                    clavesMensajes.remove(posicion);
+                    listaMensajes.remove(posicion);
+                    adaptador.notifyItemRemoved(posicion);
+                }
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                // Los mensajes no se reordenan, no es necesario tratar este evento
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                // Maneja el error
+            }
+        });
+    }
+
+    /**
+     * Escucha el estado de la conexión con Realtime Database y reintenta los mensajes pendientes al conectarse.
+     */
+    private void escucharConexion() {
+        registro.escuchar(claveConexion(), mensajesRef.getRoot().child(".info/connected"), new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Boolean conectado = snapshot.getValue(Boolean.class);
+                if (conectado != null && conectado) {
+                    reenviarPendientes();
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                // Maneja el error
+            }
+        });
+    }
+
+    /**
+     * Vuelve a subir los mensajes pendientes que el SDK ya no tiene en su cola. Los que se subieron en este proceso se
+     * dejan al SDK. De los demás se comprueba antes si el servidor ya tiene el mensaje (la escritura llegó pero la
+     * confirmación no), y en ese caso solo se marca como enviado: subirlo otra vez no duplicaría el mensaje, porque
+     * usa la misma clave, pero sí sumaría otro mensaje sin leer al receptor.
+     */
+    private void reenviarPendientes() {
+        almacen.obtenerPendientes(idChat, new GestorFirestore.Callback<AlmacenMensajesLocal.Pagina>() {
+            @Override
+            public void onSuccess(AlmacenMensajesLocal.Pagina pagina) {
+                for (int i = 0; i < pagina.claves.size(); i++) {
+                    String clave = pagina.claves.get(i);
+                    Mensaje mensaje = pagina.mensajes.get(i);
+                    if (SUBIDAS_EN_CURSO.contains(clave)) {
+                        continue;
+                    }
+                    mensajesRef.child(clave).child("remitente").get().addOnSuccessListener(remitente -> {
+                        if (remitente.exists()) {
+                            almacen.marcarEnviado(idChat, clave);
+                        } else if (!SUBIDAS_EN_CURSO.contains(clave)) {
+                            subirMensaje(clave, mensaje, null);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Sube un mensaje con una actualización multi-ruta, que también actualiza la bandeja de entrada de los dos usuarios,
+     * y lo marca como enviado cuando el servidor la confirma.
+     */
+    private void subirMensaje(String clave, Mensaje mensaje, Map<String, Object> datosChat) {
+        String rutaChat = "chats/" + idChat + "/";
+        Map<String, Object> actualizaciones = new HashMap<>();
+        if (datosChat != null) {
+            for (Map.Entry<String, Object> dato : datosChat.entrySet()) {
+                actualizaciones.put(rutaChat + dato.getKey(), dato.getValue());
+            }
+        }
+        //Los campos del mensaje se escriben por separado para que la marca de tiempo la ponga el servidor
+        String rutaMensaje = rutaChat + mensajesRef.getKey() + "/" + clave + "/";
+        actualizaciones.put(rutaMensaje + "remitente", mensaje.getRemitente());
+        actualizaciones.put(rutaMensaje + "texto", mensaje.getTexto());
+        actualizaciones.put(rutaMensaje + "fechaYHora", mensaje.getFechaYHora());
+        actualizaciones.put(rutaMensaje + "marcaTiempo", ServerValue.TIMESTAMP);
+        //Seteamos la fecha del último mensaje enviado en el chat, con la fecha del mensaje enviado
+        actualizaciones.put(rutaChat + "fechaUltimoMsj", mensaje.getFechaYHora());
+        actualizaciones.put(rutaChat + "marcaTiempoUltimoMsj", ServerValue.TIMESTAMP);
+        GestorBandejaEntrada.anadirActualizacionesEnvio(actualizaciones, idChat, mensaje.getRemitente(), receptorUid, mensaje.getTexto());
+
+        SUBIDAS_EN_CURSO.add(clave);
+        mensajesRef.getRoot().updateChildren(actualizaciones).addOnCompleteListener(task -> {
+            SUBIDAS_EN_CURSO.remove(clave);
+            if (task.isSuccessful()) {
+                almacen.marcarEnviado(idChat, clave);
+            }
+        });
+    }
+
+    /**
+     * Añade a la ventana un mensaje recibido del servidor o recién enviado, en su posición según la clave: un mensaje
+     * del otro usuario puede llegar después de mensajes propios enviados sin conexión con claves posteriores.
+     * Si la ventana no llega al final, el mensaje se cargará del almacén al hacer scroll hacia abajo.
+     *
+     * @return true si el mensaje se ha añadido a la ventana.
+     */
+    private boolean insertarMensaje(String clave, Mensaje mensaje) {
+        if (hayMensajesPosteriores || clavesMensajes.contains(clave)) {
+            return false;
+        }
+        String orden = AlmacenMensajesLocal.calcularOrden(clave);
+        int posicion = clavesMensajes.size();
+        while (posicion > 0 && AlmacenMensajesLocal.calcularOrden(clavesMensajes.get(posicion - 1)).compareTo(orden) > 0) {
+            posicion--;
+        }
+        clavesMensajes.add(posicion, clave);
+        listaMensajes.add(posicion, mensaje);
+        adaptador.notifyItemInserted(posicion);
+        descartarMensajesAntiguos();
+        return true;
+    }
+
+    /**
+     * Descarta los mensajes más antiguos que se salen de la ventana de memoria.
+     */
+    private void descartarMensajesAntiguos() {
+        int sobrantes = listaMensajes.size() - MAXIMO_MENSAJES_EN_MEMORIA;
+        if (sobrantes > 0) {
+            clavesMensajes.subList(0, sobrantes).clear();
+            listaMensajes.subList(0, sobrantes).clear();
+            adaptador.notifyItemRangeRemoved(0, sobrantes);
+            hayMensajesAnteriores = true;
+        }
+    }
+
+    private String claveMensajes() {
+        return "mensajes/" + idChat;
+    }
+
+    private String claveConexion() {
+        return "conexion/" + idChat;
+    }
+
+    /**
+     * Lee las claves y los mensajes de una página del servidor en orden.
+     *
+     * @param snapshot Resultado de la consulta de la página.
+     * @return La página leída.
+     */
+    private AlmacenMensajesLocal.Pagina leerPagina(DataSnapshot snapshot) {
+        AlmacenMensajesLocal.Pagina pagina = new AlmacenMensajesLocal.Pagina();
+        for (DataSnapshot mensajeSnapshot : snapshot.getChildren()) {
+            Mensaje mensaje = mensajeSnapshot.getValue(Mensaje.class);
+            if (mensaje != null) {
+                pagina.claves.add(mensajeSnapshot.getKey());
+                pagina.mensajes.add(mensaje);
+            }
+        }
+        return pagina;
+    }
+}
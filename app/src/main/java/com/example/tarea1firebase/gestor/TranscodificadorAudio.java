@@ -0,0 +1,529 @@
+package com.example.tarea1firebase.gestor;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepara una canción antes de subirla: si el fichero no está ya comprimido con una tasa de bits razonable (por
+ * ejemplo un WAV o un MP3 de 320 kbps) o si ocupa más de {@value #TAMANO_MAXIMO_BYTES} bytes, se convierte a AAC de {@value #TASA_BITS_AAC} bits/s en un contenedor MP4
+ * (.m4a) con los codecs de la plataforma. La conversión va por trozos (extractor, decodificador, codificador y muxer)
+ * sin cargar el fichero en memoria. Se debe llamar fuera del hilo principal.
+ * Los codificadores AAC de los dispositivos solo admiten con seguridad hasta {@value #FRECUENCIA_MAXIMA} Hz y
+ * {@value #CANALES_MAXIMOS} canales, así que el audio con más canales se mezcla a estéreo y el de más frecuencia se
+ * reduce dividiéndola por un entero (96 kHz a 48 kHz, 88,2 kHz a 44,1 kHz...). Si aun así no se puede convertir,
+ * se sube el original.
+ */
+public class TranscodificadorAudio {
+    public static final int TASA_BITS_AAC = 128000;
+    /**
+     * Tamaño máximo de una canción ya preparada para subir. Se comprueba sobre el fichero convertido, o sobre el
+     * original si se sube tal cual.
+     */
+    public static final long TAMANO_MAXIMO_BYTES = 40L * 1024 * 1024;
+    /**
+     * Los ficheros comprimidos con una tasa de bits menor o igual se suben tal cual.
+     */
+    private static final int TASA_BITS_MAXIMA_SIN_CONVERTIR = 192000;
+    private static final List<String> FORMATOS_COMPRIMIDOS = Arrays.asList("audio/mp4a-latm", "audio/mpeg", "audio/opus", "audio/vorbis");
+    private static final long ESPERA_CODEC_US = 10000;
+    private static final int FRECUENCIA_MAXIMA = 48000;
+    private static final int CANALES_MAXIMOS = 2;
+    /**
+     * Frecuencias de muestreo que admite AAC-LC hasta {@value #FRECUENCIA_MAXIMA} Hz.
+     */
+    private static final List<Integer> FRECUENCIAS_AAC = Arrays.asList(8000, 11025, 12000, 16000, 22050, 24000, 32000, 44100, 48000);
+
+    private static final AtomicLong bytesOriginales = new AtomicLong();
+    private static final AtomicLong bytesSubidos = new AtomicLong();
+
+    /**
+     * Interfaz para recibir el progreso de la conversión.
+     */
+    public interface OyenteProgreso {
+        /**
+         * Se llama cada vez que avanza un uno por ciento la conversión (desde el hilo de la conversión).
+         *
+         * @param porcentaje El porcentaje convertido, de 0 a 100.
+         */
+        void onProgreso(int porcentaje);
+    }
+
+    /**
+     * El formato del audio no se puede pasar a uno que admita el codificador AAC; en ese caso se sube el original.
+     */
+    private static class FormatoNoSoportado extends IOException {
+        FormatoNoSoportado(String mensaje, Throwable causa) {
+            super(mensaje, causa);
+        }
+    }
+
+    /**
+     * El fichero que se va a subir y los tamaños antes y después de prepararlo.
+     */
+    public static class Resultado {
+        public final Uri uri;
+        public final long tamanoOriginal;
+        public final long tamanoFinal;
+        public final boolean convertido;
+
+        Resultado(Uri uri, long tamanoOriginal, long tamanoFinal, boolean convertido) {
+            this.uri = uri;
+            this.tamanoOriginal = tamanoOriginal;
+            this.tamanoFinal = tamanoFinal;
+            this.convertido = convertido;
+        }
+    }
+
+    private final MediaExtractor extractor = new MediaExtractor();
+    private final MediaCodec.BufferInfo infoDecodificador = new MediaCodec.BufferInfo();
+    private final MediaCodec.BufferInfo infoCodificador = new MediaCodec.BufferInfo();
+    private MediaCodec decodificador;
+    private MediaCodec codificador;
+    private MediaMuxer muxer;
+    private int pistaMuxer = -1;
+    private int frecuenciaMuestreo;
+    private int canales;
+    private int frecuenciaSalida;
+    private int canalesSalida;
+    private int factorDecimacion;
+    private float[][] pesosMezcla;
+    /**
+     * Suma de las tramas del grupo que se está reduciendo a una sola, por canal de salida. Un grupo puede quedar
+     * repartido entre dos buffers del decodificador.
+     */
+    private float[] acumulado;
+    private int tramasAcumuladas;
+    private ByteBuffer pcmAdaptado;
+    private long bytesPcm;
+    private boolean finEntrada;
+    private boolean finDecodificador;
+    private boolean finCodificador;
+    private boolean muxerParado;
+
+    private TranscodificadorAudio() {
+    }
+
+    /**
+     * Prepara una canción para subirla, convirtiéndola a AAC si hace falta.
+     *
+     * @param context El contexto para abrir la URI y la carpeta de caché.
+     * @param uri     La URI local de la canción elegida por el usuario.
+     * @param oyente  El oyente del progreso de la conversión, o null.
+     * @return El fichero a subir (el original o el convertido, en la carpeta de caché) y sus tamaños.
+     * @throws IOException Si el fichero no tiene audio, no se puede convertir o sigue siendo demasiado grande.
+     */
+    public static Resultado preparar(Context context, Uri uri, OyenteProgreso oyente) throws IOException {
+        long tamanoOriginal = leerTamano(context, uri);
+
+        MediaExtractor sondeo = new MediaExtractor();
+        MediaFormat formato;
+        try {
+            sondeo.setDataSource(context, uri, null);
+            formato = seleccionarPistaAudio(sondeo);
+        } finally {
+            sondeo.release();
+        }
+        if (formato == null) {
+            throw new IOException("El fichero no tiene audio");
+        }
+
+        long duracionUs = formato.containsKey(MediaFormat.KEY_DURATION) ? formato.getLong(MediaFormat.KEY_DURATION) : 0;
+        boolean comprimido = FORMATOS_COMPRIMIDOS.contains(formato.getString(MediaFormat.KEY_MIME));
+        boolean tasaRazonable = tamanoOriginal > 0 && duracionUs > 0 && tamanoOriginal * 8 * 1000000L / duracionUs <= TASA_BITS_MAXIMA_SIN_CONVERTIR;
+
+        Resultado resultado;
+        // El límite de tamaño se aplica a lo que se sube: un original que no cabe se convierte aunque ya esté
+        // comprimido, porque a TASA_BITS_AAC puede quedar por debajo del límite
+        if (comprimido && tasaRazonable && tamanoOriginal <= TAMANO_MAXIMO_BYTES) {
+            resultado = new Resultado(uri, tamanoOriginal, tamanoOriginal, false);
+        } else {
+            File destino = File.createTempFile("subida", ".m4a", context.getCacheDir());
+            try {
+                new TranscodificadorAudio().convertir(context, uri, destino, duracionUs, oyente);
+                resultado = new Resultado(Uri.fromFile(destino), tamanoOriginal, destino.length(), true);
+            } catch (FormatoNoSoportado e) {
+                destino.delete();
+                // Se sube tal cual; si es demasiado grande se rechaza igual que uno convertido
+                resultado = new Resultado(uri, tamanoOriginal, tamanoOriginal, false);
+            } catch (IOException | RuntimeException e) {
+                destino.delete();
+                throw new IOException("No se ha podido convertir el audio", e);
+            }
+        }
+
+        if (resultado.tamanoFinal > TAMANO_MAXIMO_BYTES) {
+            if (resultado.convertido) {
+                new File(resultado.uri.getPath()).delete();
+            }
+            throw new IOException("La canción ocupa demasiado");
+        }
+        if (resultado.tamanoOriginal > 0) {
+            bytesOriginales.addAndGet(resultado.tamanoOriginal);
+            bytesSubidos.addAndGet(resultado.tamanoFinal);
+        }
+        return resultado;
+    }
+
+    /**
+     * Obtiene la suma de los tamaños originales de las canciones preparadas.
+     *
+     * @return Los bytes originales.
+     */
+    public static long getBytesOriginales() {
+        return bytesOriginales.get();
+    }
+
+    /**
+     * Obtiene la suma de los tamaños de las canciones ya preparadas para subir (convertidas o no).
+     *
+     * @return Los bytes subidos.
+     */
+    public static long getBytesSubidos() {
+        return bytesSubidos.get();
+    }
+
+    private void convertir(Context context, Uri uri, File destino, long duracionUs, OyenteProgreso oyente) throws IOException {
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat formatoEntrada = seleccionarPistaAudio(extractor);
+            frecuenciaMuestreo = formatoEntrada.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            canales = formatoEntrada.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            decodificador = MediaCodec.createDecoderByType(formatoEntrada.getString(MediaFormat.KEY_MIME));
+            decodificador.configure(formatoEntrada, null, null, 0);
+            decodificador.start();
+            muxer = new MediaMuxer(destino.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            int ultimoPorcentaje = -1;
+            while (!finCodificador) {
+                alimentarDecodificador();
+                pasarPcmAlCodificador();
+                if (codificador != null) {
+                    vaciarCodificador();
+                }
+                if (oyente != null && duracionUs > 0 && extractor.getSampleTime() >= 0) {
+                    int porcentaje = (int) Math.min(100, extractor.getSampleTime() * 100 / duracionUs);
+                    if (porcentaje != ultimoPorcentaje) {
+                        ultimoPorcentaje = porcentaje;
+                        oyente.onProgreso(porcentaje);
+                    }
+                }
+            }
+            // Al parar el muxer se escribe el índice del MP4; si falla, el fichero no sirve
+            muxer.stop();
+            muxerParado = true;
+            if (oyente != null) {
+                oyente.onProgreso(100);
+            }
+        } finally {
+            liberar();
+        }
+    }
+
+    private void alimentarDecodificador() {
+        if (finEntrada) {
+            return;
+        }
+        int indice = decodificador.dequeueInputBuffer(ESPERA_CODEC_US);
+        if (indice < 0) {
+            return;
+        }
+        int tamano = extractor.readSampleData(decodificador.getInputBuffer(indice), 0);
+        if (tamano < 0) {
+            decodificador.queueInputBuffer(indice, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            finEntrada = true;
+        } else {
+            decodificador.queueInputBuffer(indice, 0, tamano, extractor.getSampleTime(), 0);
+            extractor.advance();
+        }
+    }
+
+    /**
+     * Pasa un bloque de PCM del decodificador al codificador, en tantos trozos como haga falta según el tamaño de los
+     * buffers de entrada del codificador. El codificador se crea con el formato real de la salida del decodificador.
+     */
+    private void pasarPcmAlCodificador() throws IOException {
+        if (finDecodificador) {
+            return;
+        }
+        int indice = decodificador.dequeueOutputBuffer(infoDecodificador, ESPERA_CODEC_US);
+        if (indice == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            MediaFormat formatoPcm = decodificador.getOutputFormat();
+            frecuenciaMuestreo = formatoPcm.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            canales = formatoPcm.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            return;
+        }
+        if (indice < 0) {
+            return;
+        }
+        if (codificador == null) {
+            crearCodificador();
+        }
+
+        ByteBuffer salidaDecodificador = decodificador.getOutputBuffer(indice);
+        salidaDecodificador.position(infoDecodificador.offset);
+        salidaDecodificador.limit(infoDecodificador.offset + infoDecodificador.size);
+        ByteBuffer pcm = adaptarPcm(salidaDecodificador);
+        while (pcm.hasRemaining()) {
+            int indiceCodificador = codificador.dequeueInputBuffer(ESPERA_CODEC_US);
+            if (indiceCodificador < 0) {
+                // El codificador está lleno: se vacía su salida y se vuelve a intentar
+                vaciarCodificador();
+                continue;
+            }
+            ByteBuffer entrada = codificador.getInputBuffer(indiceCodificador);
+            entrada.clear();
+            int cantidad = Math.min(pcm.remaining(), entrada.remaining());
+            ByteBuffer trozo = pcm.duplicate();
+            trozo.limit(pcm.position() + cantidad);
+            entrada.put(trozo);
+            pcm.position(pcm.position() + cantidad);
+            codificador.queueInputBuffer(indiceCodificador, 0, cantidad, tiempoPcmUs(), 0);
+            bytesPcm += cantidad;
+        }
+        decodificador.releaseOutputBuffer(indice, false);
+
+        if ((infoDecodificador.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            finDecodificador = true;
+            int indiceCodificador;
+            while ((indiceCodificador = codificador.dequeueInputBuffer(ESPERA_CODEC_US)) < 0) {
+                vaciarCodificador();
+            }
+            codificador.queueInputBuffer(indiceCodificador, 0, 0, tiempoPcmUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        }
+    }
+
+    private void vaciarCodificador() {
+        while (true) {
+            int indice = codificador.dequeueOutputBuffer(infoCodificador, finDecodificador ? ESPERA_CODEC_US : 0);
+            if (indice == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return;
+            }
+            if (indice == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                pistaMuxer = muxer.addTrack(codificador.getOutputFormat());
+                muxer.start();
+                continue;
+            }
+            if (indice < 0) {
+                continue;
+            }
+            ByteBuffer datos = codificador.getOutputBuffer(indice);
+            // La configuración del codec ya va en el formato de la pista
+            boolean configuracion = (infoCodificador.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (!configuracion && infoCodificador.size > 0 && pistaMuxer >= 0) {
+                datos.position(infoCodificador.offset);
+                datos.limit(infoCodificador.offset + infoCodificador.size);
+                muxer.writeSampleData(pistaMuxer, datos, infoCodificador);
+            }
+            codificador.releaseOutputBuffer(indice, false);
+            if ((infoCodificador.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                finCodificador = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Crea el codificador con como mucho {@value #CANALES_MAXIMOS} canales y {@value #FRECUENCIA_MAXIMA} Hz a partir del
+     * formato real de la salida del decodificador.
+     *
+     * @throws FormatoNoSoportado Si la frecuencia no se puede reducir a una de AAC o el codificador no admite el formato.
+     */
+    private void crearCodificador() throws IOException {
+        canalesSalida = Math.min(canales, CANALES_MAXIMOS);
+        factorDecimacion = calcularFactorDecimacion(frecuenciaMuestreo);
+        if (factorDecimacion < 0) {
+            throw new FormatoNoSoportado("Frecuencia de muestreo no soportada: " + frecuenciaMuestreo, null);
+        }
+        frecuenciaSalida = frecuenciaMuestreo / factorDecimacion;
+        pesosMezcla = calcularPesosMezcla(canales);
+        acumulado = new float[canalesSalida];
+
+        MediaFormat formatoSalida = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, frecuenciaSalida, canalesSalida);
+        formatoSalida.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        formatoSalida.setInteger(MediaFormat.KEY_BIT_RATE, TASA_BITS_AAC);
+        formatoSalida.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 64 * 1024);
+        codificador = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        try {
+            codificador.configure(formatoSalida, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            throw new FormatoNoSoportado("El codificador AAC no admite " + frecuenciaSalida + " Hz y " + canalesSalida + " canales", e);
+        }
+        codificador.start();
+    }
+
+    /**
+     * Pasa un bloque de PCM de 16 bits del decodificador al formato del codificador: mezcla los canales de más a
+     * estéreo y reduce la frecuencia sustituyendo cada grupo de factorDecimacion tramas por su media (que además
+     * filtra las frecuencias que ya no caben). Si el formato ya coincide devuelve el mismo bloque.
+     *
+     * @param pcm El bloque del decodificador, entre su posición y su límite.
+     * @return El bloque adaptado, entre su posición y su límite.
+     */
+    private ByteBuffer adaptarPcm(ByteBuffer pcm) {
+        if (canales == canalesSalida && factorDecimacion == 1) {
+            return pcm;
+        }
+        ShortBuffer muestras = pcm.order(ByteOrder.nativeOrder()).asShortBuffer();
+        int tramas = muestras.remaining() / canales;
+        int capacidad = (tramas / factorDecimacion + 1) * canalesSalida * 2;
+        if (pcmAdaptado == null || pcmAdaptado.capacity() < capacidad) {
+            pcmAdaptado = ByteBuffer.allocate(capacidad).order(ByteOrder.nativeOrder());
+        }
+        pcmAdaptado.clear();
+        for (int trama = 0; trama < tramas; trama++) {
+            for (int salida = 0; salida < canalesSalida; salida++) {
+                for (int entrada = 0; entrada < canales; entrada++) {
+                    acumulado[salida] += pesosMezcla[salida][entrada] * muestras.get(trama * canales + entrada);
+                }
+            }
+            if (++tramasAcumuladas == factorDecimacion) {
+                for (int salida = 0; salida < canalesSalida; salida++) {
+                    int valor = Math.round(acumulado[salida] / factorDecimacion);
+                    pcmAdaptado.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, valor)));
+                    acumulado[salida] = 0;
+                }
+                tramasAcumuladas = 0;
+            }
+        }
+        pcmAdaptado.flip();
+        return pcmAdaptado;
+    }
+
+    /**
+     * Calcula por qué entero hay que dividir una frecuencia de muestreo para que quede en una de las de AAC hasta
+     * {@value #FRECUENCIA_MAXIMA} Hz.
+     *
+     * @param frecuencia La frecuencia de muestreo del audio.
+     * @return El divisor (1 si no hace falta reducirla), o -1 si no hay ninguno exacto.
+     */
+    static int calcularFactorDecimacion(int frecuencia) {
+        if (frecuencia <= FRECUENCIA_MAXIMA) {
+            return 1;
+        }
+        for (int factor = 2; frecuencia / factor >= FRECUENCIAS_AAC.get(0); factor++) {
+            if (frecuencia % factor == 0 && FRECUENCIAS_AAC.contains(frecuencia / factor)) {
+                return factor;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Calcula el peso de cada canal de entrada en cada canal de salida para mezclar a estéreo, con el orden de canales
+     * de Android (izquierdo, derecho, central, graves, traseros y laterales). El central va a los dos lados, el de
+     * graves se descarta y el resto se reparte por parejas izquierda/derecha. Los pesos de cada salida suman 1 para que
+     * la mezcla no sature. Con uno o dos canales no se mezcla nada.
+     *
+     * @param canales Los canales de entrada.
+     * @return Los pesos, [canal de salida][canal de entrada].
+     */
+    static float[][] calcularPesosMezcla(int canales) {
+        if (canales <= CANALES_MAXIMOS) {
+            float[][] identidad = new float[canales][canales];
+            for (int canal = 0; canal < canales; canal++) {
+                identidad[canal][canal] = 1;
+            }
+            return identidad;
+        }
+        float[][] pesos = new float[CANALES_MAXIMOS][canales];
+        // La disposición de cuatro canales es cuadrafónica, sin central
+        boolean hayCentral = canales != 4;
+        boolean hayGraves = canales >= 6;
+        int lado = 0;
+        for (int canal = 0; canal < canales; canal++) {
+            if (canal < 2) {
+                pesos[canal][canal] = 1;
+            } else if (canal == 2 && hayCentral) {
+                pesos[0][canal] = 0.7071f;
+                pesos[1][canal] = 0.7071f;
+            } else if (canal == 3 && hayGraves) {
+                continue;
+            } else {
+                pesos[lado][canal] = 0.7071f;
+                lado = 1 - lado;
+            }
+        }
+        for (float[] salida : pesos) {
+            float suma = 0;
+            for (float peso : salida) {
+                suma += peso;
+            }
+            for (int canal = 0; canal < canales; canal++) {
+                salida[canal] /= suma;
+            }
+        }
+        return pesos;
+    }
+
+    /**
+     * El tiempo de presentación del siguiente trozo de PCM (16 bits por muestra), según lo que ya se ha pasado al codificador.
+     */
+    private long tiempoPcmUs() {
+        return bytesPcm / (2L * canalesSalida) * 1000000L / frecuenciaSalida;
+    }
+
+    private void liberar() {
+        if (decodificador != null) {
+            try {
+                decodificador.stop();
+            } catch (Exception e) {
+                // El codec no llegó a arrancar
+            }
+            decodificador.release();
+        }
+        if (codificador != null) {
+            try {
+                codificador.stop();
+            } catch (Exception e) {
+                // El codec no llegó a arrancar
+            }
+            codificador.release();
+        }
+        if (muxer != null) {
+            try {
+                if (pistaMuxer >= 0 && !muxerParado) {
+                    muxer.stop();
+                }
+            } catch (Exception e) {
+                // El fichero queda incompleto y se borra al fallar la conversión
+            }
+            muxer.release();
+        }
+        extractor.release();
+    }
+
+    private static MediaFormat seleccionarPistaAudio(MediaExtractor extractor) {
+        for (int pista = 0; pista < extractor.getTrackCount(); pista++) {
+            MediaFormat formato = extractor.getTrackFormat(pista);
+            String tipo = formato.getString(MediaFormat.KEY_MIME);
+            if (tipo != null && tipo.startsWith("audio/")) {
+                extractor.selectTrack(pista);
+                return formato;
+            }
+        }
+        return null;
+    }
+
+    private static long leerTamano(Context context, Uri uri) {
+        try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            return descriptor != null ? descriptor.getLength() : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
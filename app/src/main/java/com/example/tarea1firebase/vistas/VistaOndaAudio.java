@@ -0,0 +1,71 @@
+package com.example.tarea1firebase.vistas;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Vista que dibuja la forma de onda de una canción a partir de sus picos precalculados (MetadatosCancion), con una
+ * barra vertical por pico. La parte ya reproducida se pinta con otro color.
+ */
+public class VistaOndaAudio extends View {
+    private final Paint pinturaReproducida = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint pinturaPendiente = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private byte[] picos;
+    private float progreso;
+
+    public VistaOndaAudio(Context context) {
+        this(context, null);
+    }
+
+    public VistaOndaAudio(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        pinturaReproducida.setColor(Color.WHITE);
+        pinturaPendiente.setColor(Color.argb(90, 255, 255, 255));
+    }
+
+    /**
+     * Establece los picos de la forma de onda. Con null la vista no dibuja nada.
+     *
+     * @param picos Los picos, de 0 a 255 (bytes sin signo).
+     */
+    public void setPicos(byte[] picos) {
+        this.picos = picos;
+        invalidate();
+    }
+
+    /**
+     * Establece qué parte de la canción se ha reproducido.
+     *
+     * @param progreso La fracción reproducida, de 0 a 1.
+     */
+    public void setProgreso(float progreso) {
+        this.progreso = Math.max(0f, Math.min(1f, progreso));
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (picos == null || picos.length == 0) {
+            return;
+        }
+        float ancho = getWidth() - getPaddingLeft() - getPaddingRight();
+        float alto = getHeight() - getPaddingTop() - getPaddingBottom();
+        float centro = getPaddingTop() + alto / 2;
+        float anchoBarra = ancho / picos.length;
+        float separacion = anchoBarra * 0.3f;
+        float limiteReproducido = getPaddingLeft() + ancho * progreso;
+
+        for (int i = 0; i < picos.length; i++) {
+            float izquierda = getPaddingLeft() + i * anchoBarra;
+            // Altura mínima de un píxel para que los silencios se vean como una línea
+            float mitadAltura = Math.max(1f, (picos[i] & 0xff) / 255f * alto / 2);
+            Paint pintura = izquierda < limiteReproducido ? pinturaReproducida : pinturaPendiente;
+            canvas.drawRect(izquierda, centro - mitadAltura, izquierda + anchoBarra - separacion, centro + mitadAltura, pintura);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.tarea1firebase.entidades;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Comprueba la conversión de las fechas en texto a milisegundos, sobre todo el año que se deduce cuando el formato no
+ * lo incluye.
+ */
+public class ConversorFechasTest {
+    private static final TimeZone ZONA = ConversorFechas.ZONA_MENSAJES;
+
+    private static long milisegundos(int ano, int mes, int dia, int hora, int minuto) {
+        Calendar calendario = Calendar.getInstance(ZONA);
+        calendario.clear();
+        calendario.set(ano, mes - 1, dia, hora, minuto);
+        return calendario.getTimeInMillis();
+    }
+
+    @Test
+    public void fechaDelAnoActual_mantieneElAno() {
+        long ahora = milisegundos(2024, 6, 15, 12, 0);
+        assertEquals(milisegundos(2024, 3, 10, 9, 30),
+                ConversorFechas.aMilisegundos("03/10/09:30", ConversorFechas.FORMATO_PUBLICACION, ZONA, ahora));
+    }
+
+    @Test
+    public void diciembreLeidoEnEnero_esDelAnoAnterior() {
+        long ahora = milisegundos(2025, 1, 2, 10, 0);
+        assertEquals(milisegundos(2024, 12, 31, 23, 59),
+                ConversorFechas.aMilisegundos("12/31/23:59", ConversorFechas.FORMATO_PUBLICACION, ZONA, ahora));
+        assertEquals(milisegundos(2024, 12, 31, 23, 59),
+                ConversorFechas.aMilisegundos("31/12 23:59", ConversorFechas.FORMATO_MENSAJE, ZONA, ahora));
+    }
+
+    @Test
+    public void primerMinutoDelAno_esDelAnoActual() {
+        long ahora = milisegundos(2025, 1, 1, 0, 5);
+        assertEquals(milisegundos(2025, 1, 1, 0, 0),
+                ConversorFechas.aMilisegundos("01/01 00:00", ConversorFechas.FORMATO_MENSAJE, ZONA, ahora));
+    }
+
+    @Test
+    public void formatoConAno_noDeduceNada() {
+        long ahora = milisegundos(2025, 1, 2, 10, 0);
+        assertEquals(milisegundos(2030, 12, 31, 0, 0),
+                ConversorFechas.aMilisegundos("31/12/2030", ConversorFechas.FORMATO_RESENA, ZONA, ahora));
+    }
+
+    @Test
+    public void fechaVaciaOIlegible_esCero() {
+        assertEquals(0, ConversorFechas.aMilisegundos("", ConversorFechas.FORMATO_MENSAJE, ZONA));
+        assertEquals(0, ConversorFechas.aMilisegundos(null, ConversorFechas.FORMATO_MENSAJE, ZONA));
+        assertEquals(0, ConversorFechas.aMilisegundos("mañana", ConversorFechas.FORMATO_MENSAJE, ZONA));
+    }
+}
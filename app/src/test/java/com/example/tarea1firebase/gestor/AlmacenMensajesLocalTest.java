@@ -0,0 +1,44 @@
+package com.example.tarea1firebase.gestor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Comprueba que el orden de las claves en el almacén local coincide con el de Realtime Database.
+ */
+public class AlmacenMensajesLocalTest {
+    private static void assertAntes(String clave1, String clave2) {
+        String orden1 = AlmacenMensajesLocal.calcularOrden(clave1);
+        String orden2 = AlmacenMensajesLocal.calcularOrden(clave2);
+        assertTrue(clave1 + " debería ir antes que " + clave2, orden1.compareTo(orden2) < 0);
+    }
+
+    @Test
+    public void clavesNumericas_seOrdenanPorValor() {
+        assertAntes("2", "10");
+        assertAntes("9", "100");
+        assertAntes("-1", "0");
+        assertAntes("0", String.valueOf(Integer.MAX_VALUE));
+        assertAntes(String.valueOf(Integer.MIN_VALUE), "-1");
+    }
+
+    @Test
+    public void clavesNumericas_vanAntesQueLasDePush() {
+        assertAntes(String.valueOf(Integer.MAX_VALUE), "-NaBcDeFgHiJkLmNoP");
+        assertAntes("0", "a");
+    }
+
+    @Test
+    public void clavesDePush_seOrdenanAlfabeticamente() {
+        assertAntes("-NaBcDeFgHiJkLmNoP", "-NaBcDeFgHiJkLmNoQ");
+        assertAntes("-NaBcDeFgHiJkLmNoP", "-NaBcDeFgHiJkLmNop");
+    }
+
+    @Test
+    public void numerosFueraDeRango_seOrdenanComoTexto() {
+        // Realtime Database solo trata como números las claves que caben en un entero de 32 bits
+        assertAntes("10", "99999999999");
+        assertAntes("99999999999", "a");
+    }
+}
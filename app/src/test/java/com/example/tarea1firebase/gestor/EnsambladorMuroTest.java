@@ -0,0 +1,96 @@
+package com.example.tarea1firebase.gestor;
+
+import com.example.tarea1firebase.entidades.Publicacion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Comprueba la mezcla de las publicaciones de varios autores en el muro.
+ */
+public class EnsambladorMuroTest {
+    /**
+     * Crea las publicaciones de un autor en orden de publicación, como en su array.
+     */
+    private static List<Publicacion> autor(String uid, long... marcasTiempo) {
+        List<Publicacion> publicaciones = new ArrayList<>();
+        for (long marcaTiempo : marcasTiempo) {
+            Publicacion publicacion = new Publicacion();
+            publicacion.setId(uid + "_" + marcaTiempo);
+            publicacion.setAutorUid(uid);
+            publicacion.setMarcaTiempo(marcaTiempo);
+            publicaciones.add(publicacion);
+        }
+        return publicaciones;
+    }
+
+    private static List<Long> marcasTiempo(List<Publicacion> muro) {
+        List<Long> marcasTiempo = new ArrayList<>();
+        for (Publicacion publicacion : muro) {
+            marcasTiempo.add(publicacion.getMarcaTiempo());
+        }
+        return marcasTiempo;
+    }
+
+    @Test
+    public void sinAutores_muroVacio() {
+        EnsambladorMuro ensamblador = new EnsambladorMuro(10);
+        ensamblador.anadirAutor(Collections.emptyList());
+        ensamblador.anadirAutor(null);
+        assertTrue(ensamblador.obtenerMuro().isEmpty());
+    }
+
+    @Test
+    public void variosAutores_seMezclanDeMasRecienteAMasAntigua() {
+        EnsambladorMuro ensamblador = new EnsambladorMuro(10);
+        ensamblador.anadirAutor(autor("a", 1, 4, 7));
+        ensamblador.anadirAutor(autor("b", 2, 5));
+        ensamblador.anadirAutor(autor("c", 3, 6, 8, 9));
+        assertEquals(Arrays.asList(9L, 8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L), marcasTiempo(ensamblador.obtenerMuro()));
+    }
+
+    @Test
+    public void autoresAgotados_noCortanLaMezcla() {
+        // El autor "a" se queda sin publicaciones antes que los demás
+        EnsambladorMuro ensamblador = new EnsambladorMuro(10);
+        ensamblador.anadirAutor(autor("a", 10));
+        ensamblador.anadirAutor(autor("b", 1, 2, 3));
+        ensamblador.anadirAutor(autor("c", 4));
+        assertEquals(Arrays.asList(10L, 4L, 3L, 2L, 1L), marcasTiempo(ensamblador.obtenerMuro()));
+    }
+
+    @Test
+    public void masPublicacionesQueElMaximo_seQuedanLasMasRecientes() {
+        EnsambladorMuro ensamblador = new EnsambladorMuro(3);
+        ensamblador.anadirAutor(autor("a", 1, 2, 3, 4, 5));
+        ensamblador.anadirAutor(autor("b", 6, 7));
+        assertEquals(Arrays.asList(7L, 6L, 5L), marcasTiempo(ensamblador.obtenerMuro()));
+    }
+
+    @Test
+    public void autoresQueLleganDespues_seMezclanConElMuroAnterior() {
+        EnsambladorMuro ensamblador = new EnsambladorMuro(3);
+        ensamblador.anadirAutor(autor("a", 1, 5, 9));
+        assertEquals(Arrays.asList(9L, 5L, 1L), marcasTiempo(ensamblador.obtenerMuro()));
+
+        ensamblador.anadirAutor(autor("b", 2, 6));
+        assertEquals(Arrays.asList(9L, 6L, 5L), marcasTiempo(ensamblador.obtenerMuro()));
+
+        // Sin autores nuevos el muro no cambia
+        assertEquals(Arrays.asList(9L, 6L, 5L), marcasTiempo(ensamblador.obtenerMuro()));
+    }
+
+    @Test
+    public void autorDesordenado_seOrdena() {
+        EnsambladorMuro ensamblador = new EnsambladorMuro(10);
+        ensamblador.anadirAutor(autor("a", 5, 1, 9, 3));
+        assertEquals(Arrays.asList(9L, 5L, 3L, 1L), marcasTiempo(ensamblador.obtenerMuro()));
+    }
+}
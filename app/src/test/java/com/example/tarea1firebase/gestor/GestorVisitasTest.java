@@ -0,0 +1,73 @@
+package com.example.tarea1firebase.gestor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Comprueba la precisión del sketch de visitantes únicos y que pasar la lista antigua de visitas al sketch no cuenta
+ * dos veces a nadie.
+ */
+public class GestorVisitasTest {
+    private static final int NUMERO_REGISTROS = 1024;
+
+    private static byte[] sketchCon(int desde, int hasta) {
+        byte[] registros = new byte[NUMERO_REGISTROS];
+        for (int i = desde; i < hasta; i++) {
+            GestorVisitas.anadir(registros, "usuario" + i);
+        }
+        return registros;
+    }
+
+    @Test
+    public void sketchVacio_estimaCero() {
+        assertEquals(0, GestorVisitas.estimar(new byte[NUMERO_REGISTROS]));
+    }
+
+    @Test
+    public void visitanteRepetido_noCambiaElSketch() {
+        byte[] registros = new byte[NUMERO_REGISTROS];
+        assertTrue(GestorVisitas.anadir(registros, "usuario1"));
+        assertFalse(GestorVisitas.anadir(registros, "usuario1"));
+        assertEquals(1, GestorVisitas.estimar(registros));
+    }
+
+    @Test
+    public void pocosVisitantes_estimacionCasiExacta() {
+        long estimacion = GestorVisitas.estimar(sketchCon(0, 100));
+        assertEquals(100, estimacion, 3);
+    }
+
+    @Test
+    public void muchosVisitantes_estimacionDentroDelError() {
+        // El error típico es de un 3 %; un 10 % deja margen de sobra
+        for (int visitantes : new int[]{5000, 50000, 500000}) {
+            long estimacion = GestorVisitas.estimar(sketchCon(0, visitantes));
+            assertEquals(visitantes, estimacion, visitantes * 0.1);
+        }
+    }
+
+    @Test
+    public void anadirPorPartes_esIgualQueAnadirDeUnaVez() {
+        byte[] porPartes = sketchCon(0, 3000);
+        for (int i = 3000; i < 6000; i++) {
+            GestorVisitas.anadir(porPartes, "usuario" + i);
+        }
+        assertArrayEquals(sketchCon(0, 6000), porPartes);
+    }
+
+    @Test
+    public void listaAntiguaPasadaOtraVez_noCambiaLaEstimacion() {
+        byte[] registros = sketchCon(0, 2000);
+        long antes = GestorVisitas.estimar(registros);
+        boolean cambiado = false;
+        for (int i = 0; i < 2000; i++) {
+            cambiado |= GestorVisitas.anadir(registros, "usuario" + i);
+        }
+        assertFalse(cambiado);
+        assertEquals(antes, GestorVisitas.estimar(registros));
+    }
+}